@@ -0,0 +1,98 @@
+package it.flowing.complex.model;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// QueryData rappresentative per ogni tipo di ricerca, sui campi di kibana_sample_data_ecommerce
+public final class BenchmarkQueries {
+
+    private BenchmarkQueries() {
+    }
+
+    public static QueryData forSearchType(SearchType searchType) {
+        QueryData queryData = (new QueryData()).withSearchType(searchType);
+
+        switch (searchType) {
+            case MATCH_ALL_QUERY:
+                return queryData;
+            case TERM_QUERY:
+                return queryData.withTermName("customer_first_name.keyword").withTermValue("Eddie");
+            case TERMS_QUERY:
+                return queryData.withTermName("customer_first_name.keyword")
+                        .withTermValues(Arrays.asList("Eddie", "Mary", "Gwen", "Diane"));
+            case EXISTS_QUERY:
+                return queryData.withTermName("customer_first_name");
+            case FUZZ_QUERY:
+                return queryData.withTermName("customer_first_name").withTermValue("Edie");
+            case RANGE_QUERY:
+                Map<RangeOperator, Object> rangeValues = new HashMap<>();
+                rangeValues.put(RangeOperator.GTE, 50);
+                rangeValues.put(RangeOperator.LT, 100);
+                return queryData.withTermName("taxful_total_price").withRangeValues(rangeValues);
+            case BOOL_QUERY:
+                Map<String, Map<String, Object>> boolQueryRules = new HashMap<>();
+                boolQueryRules.put(BoolQueryRule.MUST.toString(), singletonRule("customer_gender", "MALE"));
+                boolQueryRules.put(BoolQueryRule.MUST_NOT.toString(), singletonRule("day_of_week_i", 3));
+                boolQueryRules.put(BoolQueryRule.FILTER.toString(), singletonRule("currency", "EUR"));
+                return queryData.withBoolQueryRules(boolQueryRules);
+            case NESTED_QUERY:
+                return queryData.withTermName("products")
+                        .withSubTermName("products.product_name")
+                        .withSubTermValue("shirt");
+            default:
+                throw new IllegalArgumentException(searchType.toString());
+        }
+    }
+
+    public static QueryData withAggregations(QueryData queryData) {
+        Map<String, Object> aggregation = new HashMap<>();
+        aggregation.put(AggregationInfoFieldName.TERM.toString(), "by_customer_gender");
+        aggregation.put(AggregationInfoFieldName.FIELD.toString(), "customer_gender");
+        aggregation.put(AggregationInfoFieldName.AGGREGATION_TYPE.toString(), AggregationType.AVG);
+        aggregation.put(AggregationInfoFieldName.SUB_NAME.toString(), "average_day_of_week_i");
+        aggregation.put(AggregationInfoFieldName.SUB_FIELD.toString(), "day_of_week_i");
+
+        List<Map<String, Object>> aggregationInfo = new ArrayList<>();
+        aggregationInfo.add(aggregation);
+        return queryData.withAggregationInfo(aggregationInfo);
+    }
+
+    public static QueryData withHighlightFields(QueryData queryData) {
+        Map<String, Object> highlightField = new HashMap<>();
+        highlightField.put(HighlightFieldType.NAME.toString(), "email");
+        highlightField.put(HighlightFieldType.TYPE.toString(), "unified");
+
+        List<Map<String, Object>> highlightFields = new ArrayList<>();
+        highlightFields.add(highlightField);
+        return queryData.withHighlightFields(highlightFields);
+    }
+
+    public static QueryData withSuggestions(QueryData queryData) {
+        List<Pair<String, String>> suggestions = new ArrayList<>();
+        suggestions.add(new ImmutablePair<>("currency", "EUR"));
+        suggestions.add(new ImmutablePair<>("customer_first_name", "Edie"));
+        return queryData.withSuggestions(suggestions);
+    }
+
+    public static QueryData withSortingCriteria(QueryData queryData) {
+        List<SortBuilder<?>> sortingCriteria = new ArrayList<>();
+        sortingCriteria.add(SortBuilders.fieldSort("order_date").order(SortOrder.DESC));
+        sortingCriteria.add(SortBuilders.fieldSort("taxful_total_price").order(SortOrder.ASC));
+        return queryData.withSortingCriteria(sortingCriteria);
+    }
+
+    private static Map<String, Object> singletonRule(String field, Object value) {
+        Map<String, Object> rule = new HashMap<>();
+        rule.put(field, value);
+        return rule;
+    }
+}
@@ -0,0 +1,168 @@
+package it.flowing.complex.model;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Mappatura della risposta di ricerca in SearchResult, su risposte preconfezionate di diverse dimensioni.
+// parseAndMap riproduce la mappatura completa, lazyMap quella pigra usata dalle search senza batching; i metodi
+// *ListingFields leggono tre campi per hit, come le pagine di elenco (da confrontare con -prof gc)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchResultBenchmark {
+
+    private static final String[] FIRST_NAMES = {"Eddie", "Mary", "Gwen", "Diane", "Oliver", "Abd"};
+    private static final String[] GENDERS = {"MALE", "FEMALE"};
+    private static final String[] LISTING_FIELDS = {"customer_first_name", "order_date", "taxful_total_price"};
+
+    @Param({"10", "500", "1000", "10000"})
+    public int numHits;
+
+    private byte[] responseBody;
+    private SearchResponse searchResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        responseBody = cannedSearchResponse(numHits);
+        searchResponse = parse(responseBody);
+    }
+
+    @Benchmark
+    public SearchResult fromSearchResponse() {
+        return SearchResult.fromSearchResponse(searchResponse);
+    }
+
+    @Benchmark
+    public SearchResult parseAndMap() throws IOException {
+        return SearchResult.fromSearchResponse(parse(responseBody));
+    }
+
+    @Benchmark
+    public long parseMapAndReadSources() throws IOException {
+        long fields = 0;
+        for (SearchHit hit : SearchResult.fromSearchResponse(parse(responseBody)).getHits()) {
+            fields += hit.getSourceAsMap().size();
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public long parseMapAndReadListingFields() throws IOException {
+        long fields = 0;
+        for (SearchHit hit : SearchResult.fromSearchResponse(parse(responseBody)).getHits()) {
+            Map<String, Object> source = hit.getSourceAsMap();
+            for (String field : LISTING_FIELDS) {
+                fields += null == source.get(field) ? 0 : 1;
+            }
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public SearchResult lazyMap() throws IOException {
+        return SearchResult.fromResponseBody(RestStatus.OK, responseBody, NamedXContentRegistry.EMPTY);
+    }
+
+    @Benchmark
+    public long lazyMapAndReadSources() throws IOException {
+        long fields = 0;
+        for (SearchHit hit : SearchResult.fromResponseBody(RestStatus.OK, responseBody, NamedXContentRegistry.EMPTY).getHits()) {
+            fields += hit.getSourceAsMap().size();
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public long lazyProjectListingFields() throws IOException {
+        long fields = 0;
+        SearchResult searchResult = SearchResult.fromResponseBody(RestStatus.OK, responseBody, NamedXContentRegistry.EMPTY);
+        for (Map<String, Object> source : searchResult.project(LISTING_FIELDS)) {
+            fields += source.size();
+        }
+        return fields;
+    }
+
+    private static SearchResponse parse(byte[] body) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, body)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    // Documenti con la forma di kibana_sample_data_ecommerce
+    static byte[] cannedSearchResponse(int numHits) throws IOException {
+        Random random = new Random(42);
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
+                .field("took", 3)
+                .field("timed_out", false)
+                .startObject("_shards")
+                    .field("total", 1).field("successful", 1).field("skipped", 0).field("failed", 0)
+                .endObject()
+                .startObject("hits")
+                    .startObject("total").field("value", numHits).field("relation", "eq").endObject()
+                    .field("max_score", 1.0)
+                    .startArray("hits");
+
+        for (int i = 0; i < numHits; i++) {
+            String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            builder.startObject()
+                    .field("_index", "kibana_sample_data_ecommerce")
+                    .field("_type", "_doc")
+                    .field("_id", "doc-" + i)
+                    .field("_score", 1.0)
+                    .startObject("_source")
+                        .field("customer_first_name", firstName)
+                        .field("customer_gender", GENDERS[random.nextInt(GENDERS.length)])
+                        .field("customer_id", random.nextInt(100))
+                        .field("email", firstName.toLowerCase() + "@example.com")
+                        .field("currency", "EUR")
+                        .field("day_of_week_i", random.nextInt(7))
+                        .field("order_id", 500000 + i)
+                        .field("order_date", "2020-04-0" + (1 + random.nextInt(9)) + "T10:15:00+00:00")
+                        .field("taxful_total_price", random.nextInt(20000) / 100.0)
+                        .field("total_quantity", 1 + random.nextInt(4))
+                        .startArray("products");
+            for (int product = 0; product < 2; product++) {
+                builder.startObject()
+                        .field("product_name", "Product " + random.nextInt(1000))
+                        .field("price", random.nextInt(10000) / 100.0)
+                        .endObject();
+            }
+            builder.endArray()
+                    .endObject()
+                    .endObject();
+        }
+
+        builder.endArray().endObject().endObject();
+        builder.close();
+        return BytesReference.toBytes(BytesReference.bytes(builder));
+    }
+}
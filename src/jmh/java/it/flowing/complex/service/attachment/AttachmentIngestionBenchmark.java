@@ -0,0 +1,103 @@
+package it.flowing.complex.service.attachment;
+
+import com.google.common.io.ByteStreams;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Memoria allocata per costruire il body di indicizzazione di un allegato: con -prof gc il valore
+// gc.alloc.rate.norm riporta i byte allocati per operazione. In streaming il valore non dipende dalla
+// dimensione del file, perché in memoria c'è un solo blocco codificato alla volta
+//   mvn -B -P benchmark verify -DskipTests -Djmh.args="AttachmentIngestion -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AttachmentIngestionBenchmark {
+
+    @Param({"1", "50", "200"})
+    public int sizeInMegabytes;
+
+    private Path content;
+    private ByteBuffer mappedContent;
+    private Map<String, Object> metadata;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+
+        content = Files.createTempFile("attachment", ".bin");
+        for (int i = 0; i < sizeInMegabytes; i++) {
+            Files.write(content, block, StandardOpenOption.APPEND);
+        }
+
+        try (FileChannel channel = FileChannel.open(content)) {
+            mappedContent = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        metadata = new HashMap<>();
+        metadata.put("nome", "Anna");
+        metadata.put("cognome", "Verdi");
+        metadata.put("indirizzo", "via venezia 123, Loreto(AN)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(content);
+    }
+
+    // Percorso precedente: file in byte[], stringa Base64, mappa e sorgente JSON serializzato
+    @Benchmark
+    public long inMemoryBody() throws IOException {
+        Map<String, Object> source = new HashMap<>(metadata);
+        source.put(AttachmentEntity.DATA_FIELD, Base64.getEncoder().encodeToString(Files.readAllBytes(content)));
+
+        IndexRequest indexRequest = new IndexRequest("attachment_demo").source(source);
+        return BytesReference.toBytes(indexRequest.source()).length;
+    }
+
+    @Benchmark
+    public long streamingBodyFromPath() throws IOException {
+        return drain(AttachmentEntity.of(metadata, content).getContent());
+    }
+
+    @Benchmark
+    public long streamingBodyFromMappedBuffer() throws IOException {
+        return drain(AttachmentEntity.of(metadata, mappedContent).getContent());
+    }
+
+    // Il client HTTP legge il contenuto dell'entity a blocchi, come qui
+    private static long drain(InputStream inputStream) throws IOException {
+        try (InputStream body = inputStream) {
+            return ByteStreams.exhaust(body);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.AutocompleteData;
+import it.flowing.complex.model.AutocompleteOption;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Una sessione di digitazione ("s", "sh", "sho", "shoe") verso un nodo simulato che risponde con tre opzioni:
+// con la cache solo il primo tasto arriva al nodo. SampleTime riporta i percentili per sessione
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutocompleteBenchmark {
+
+    private static final String INDEX_NAME = "products";
+    private static final String[] KEYSTROKES = {"s", "sh", "sho", "shoe"};
+
+    @Param({"true", "false"})
+    public boolean cacheEnabled;
+
+    private StubElasticServer stubElasticServer;
+    private ElasticService elasticService;
+    private AutocompleteData autocompleteData;
+
+    @Setup
+    public void setUp() throws IOException {
+        String searchResponse = StubElasticServer.searchResponse(0L);
+        String completionResponse = searchResponse.substring(0, searchResponse.length() - 1)
+                + ",\"suggest\":{\"completion#autocomplete\":[{\"text\":\"s\",\"offset\":0,\"length\":1,\"options\":["
+                + option("Shoes", 1) + "," + option("Shorts", 2) + "," + option("Socks", 3) + "]}]}}";
+        stubElasticServer = new StubElasticServer((method, uri, body) -> StubElasticServer.ok(completionResponse));
+
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        serverConfiguration.setAutocompleteCacheMaximumEntries(cacheEnabled ? 10000 : 0);
+        serverConfiguration.setAutocompletePrefixPruning(cacheEnabled);
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+
+        autocompleteData = (new AutocompleteData())
+                .withField("suggest")
+                .withSearchIndex(Optional.of(INDEX_NAME));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        elasticService.closeConnection();
+        stubElasticServer.close();
+    }
+
+    @Benchmark
+    public List<AutocompleteOption> typingSession() throws IOException {
+        // Ogni sessione parte da una cache vuota
+        elasticService.invalidateQueryCache(INDEX_NAME);
+
+        List<AutocompleteOption> options = null;
+        for (String prefix : KEYSTROKES) {
+            options = elasticService.autocomplete(autocompleteData.withPrefix(prefix));
+        }
+        return options;
+    }
+
+    private static String option(String text, int id) {
+        return "{\"text\":\"" + text + "\",\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_score\":1.0}";
+    }
+}
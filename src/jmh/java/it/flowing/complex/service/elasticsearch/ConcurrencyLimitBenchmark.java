@@ -0,0 +1,128 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.execution.OperationClass;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.rest.RestStatus;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// 32 chiamanti contro un nodo simulato con un thread pool di search da 4 thread e coda di 4: oltre, il nodo risponde
+// 429 come un pool saturo. I contatori riportano search riuscite e rifiutate (dal nodo o dal limitatore) al secondo
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(32)
+@Fork(1)
+public class ConcurrencyLimitBenchmark {
+
+    private static final int POOL_SIZE = 4;
+    private static final int QUEUE_SIZE = 4;
+    private static final long SERVICE_MILLIS = 2;
+
+    private static final String REJECTED_EXECUTION = "{\"error\":{\"root_cause\":[],\"type\":\"es_rejected_execution_exception\","
+            + "\"reason\":\"rejected execution\"},\"status\":429}";
+
+    @Param({"false", "true"})
+    public boolean concurrencyLimitEnabled;
+
+    private StubElasticServer stubElasticServer;
+    private ElasticService elasticService;
+    private QueryData queryData;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Outcomes {
+        public long succeeded;
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            succeeded = 0;
+            rejected = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        Semaphore admitted = new Semaphore(POOL_SIZE + QUEUE_SIZE);
+        Semaphore pool = new Semaphore(POOL_SIZE);
+        StubElasticServer.Response searchResponse = StubElasticServer.ok(StubElasticServer.searchResponse(10L));
+        StubElasticServer.Response rejectedResponse = new StubElasticServer.Response(429, REJECTED_EXECUTION);
+        stubElasticServer = new StubElasticServer((method, uri, body) -> {
+            if (!admitted.tryAcquire()) {
+                return rejectedResponse;
+            }
+            try {
+                pool.acquireUninterruptibly();
+                try {
+                    Thread.sleep(SERVICE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    pool.release();
+                }
+                return searchResponse;
+            } finally {
+                admitted.release();
+            }
+        });
+
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        // Come molte istanze dell'applicazione: il pool di connessioni non fa da limitatore
+        serverConfiguration.setMaxConnectionsPerRoute(64);
+        serverConfiguration.setMaxConnectionsTotal(64);
+        serverConfiguration.setConcurrencyLimitEnabled(concurrencyLimitEnabled);
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+
+        queryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of("products"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        elasticService.getConcurrencyLimit(OperationClass.SEARCH).ifPresent(limit ->
+                System.out.println("\nLimite finale: " + limit.getLimit()));
+        elasticService.closeConnection();
+        stubElasticServer.close();
+        System.out.println("\nRichieste al nodo: " + stubElasticServer.getRequestCount());
+    }
+
+    @Benchmark
+    public void search(Outcomes outcomes) throws IOException {
+        try {
+            elasticService.search(queryData);
+            outcomes.succeeded++;
+        } catch (RuntimeException e) {
+            if (RestStatus.TOO_MANY_REQUESTS != ExceptionsHelper.status(e)) {
+                throw e;
+            }
+            outcomes.rejected++;
+        }
+    }
+}
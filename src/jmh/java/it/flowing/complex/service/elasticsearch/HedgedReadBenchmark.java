@@ -0,0 +1,80 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.Document;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Get verso un nodo simulato in cui il 3% delle richieste finisce su una copia in pausa GC per 50 ms:
+// senza hedging il p99 è la pausa, con l'hedging la richiesta di riserva parte al p95 e risponde subito.
+// SampleTime riporta i percentili per get
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class HedgedReadBenchmark {
+
+    private static final String INDEX_NAME = "products";
+    private static final double SLOW_RATIO = 0.03;
+    private static final long PAUSE_MILLIS = 50;
+
+    @Param({"false", "true"})
+    public boolean hedgingEnabled;
+
+    private StubElasticServer stubElasticServer;
+    private ElasticService elasticService;
+
+    @Setup
+    public void setUp() throws IOException {
+        String getResponse = "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,"
+                + "\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":{\"nome\":\"Divano\",\"prezzo\":499.0}}";
+        stubElasticServer = new StubElasticServer((method, uri, body) -> {
+            if (ThreadLocalRandom.current().nextDouble() < SLOW_RATIO) {
+                try {
+                    Thread.sleep(PAUSE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return StubElasticServer.ok(getResponse);
+        });
+
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        serverConfiguration.setHedgingEnabled(hedgingEnabled);
+        serverConfiguration.setHedgingMinDelayMillis(1);
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        elasticService.closeConnection();
+        stubElasticServer.close();
+        System.out.println("\nRichieste al nodo: " + stubElasticServer.getRequestCount());
+    }
+
+    @Benchmark
+    public Document getDocument() throws IOException {
+        return elasticService.getDocument(INDEX_NAME, "1", Optional.empty());
+    }
+}
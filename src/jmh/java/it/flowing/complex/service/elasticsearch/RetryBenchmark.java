@@ -0,0 +1,98 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 8 chiamanti contro un nodo simulato che risponde 503 al 5% delle richieste, come uno shard primario in
+// rilocazione. I contatori riportano le search riuscite e quelle fallite che arrivano al chiamante, al secondo
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class RetryBenchmark {
+
+    private static final double FAILURE_RATE = 0.05;
+
+    private static final String UNAVAILABLE = "{\"error\":{\"root_cause\":[],\"type\":\"no_shard_available_action_exception\","
+            + "\"reason\":\"no shard available\"},\"status\":503}";
+
+    @Param({"false", "true"})
+    public boolean retryEnabled;
+
+    private StubElasticServer stubElasticServer;
+    private ElasticService elasticService;
+    private QueryData queryData;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Outcomes {
+        public long succeeded;
+        public long failed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            succeeded = 0;
+            failed = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        StubElasticServer.Response searchResponse = StubElasticServer.ok(StubElasticServer.searchResponse(10L));
+        StubElasticServer.Response unavailableResponse = new StubElasticServer.Response(503, UNAVAILABLE);
+        stubElasticServer = new StubElasticServer((method, uri, body) ->
+                ThreadLocalRandom.current().nextDouble() < FAILURE_RATE ? unavailableResponse : searchResponse);
+
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        serverConfiguration.setRetryEnabled(retryEnabled);
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+
+        queryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of("products"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        elasticService.closeConnection();
+        stubElasticServer.close();
+        System.out.println("\nRichieste al nodo: " + stubElasticServer.getRequestCount());
+    }
+
+    @Benchmark
+    public void search(Outcomes outcomes) throws IOException {
+        try {
+            elasticService.search(queryData);
+            outcomes.succeeded++;
+        } catch (ElasticsearchStatusException e) {
+            outcomes.failed++;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.BenchmarkQueries;
+import it.flowing.complex.model.BoolQueryRule;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.QueryPlan;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Assemblaggio della SearchRequest (ordinamenti, aggregazioni, highlight, suggerimenti) e ricerca completa
+// verso un nodo simulato in locale: nessun cluster necessario
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchRequestAssemblyBenchmark {
+
+    public enum RequestPart {
+        QUERY_ONLY,
+        SORTING,
+        AGGREGATIONS,
+        HIGHLIGHT,
+        SUGGESTIONS,
+        ALL
+    }
+
+    @Param({"QUERY_ONLY", "SORTING", "AGGREGATIONS", "HIGHLIGHT", "SUGGESTIONS", "ALL"})
+    public RequestPart requestPart;
+
+    private StubElasticServer stubElasticServer;
+    private ElasticService elasticService;
+    private QueryData queryData;
+    private QueryPlan queryPlan;
+    private Map<String, Object> queryPlanParameters;
+
+    @Setup
+    public void setUp() throws IOException {
+        stubElasticServer = new StubElasticServer((method, uri, body) ->
+                StubElasticServer.ok(StubElasticServer.searchResponse(0L)));
+
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+
+        queryData = withRequestPart(BenchmarkQueries.forSearchType(SearchType.BOOL_QUERY), requestPart);
+
+        // Stessa richiesta, con il valore della clausola must come parametro del piano
+        Map<String, Map<String, Object>> boolQueryRules = new HashMap<>(queryData.getBoolQueryRules());
+        boolQueryRules.put(BoolQueryRule.MUST.toString(), Collections.singletonMap("customer_gender", QueryPlan.parameter("gender")));
+        queryPlan = elasticService.compile(queryData.withBoolQueryRules(boolQueryRules));
+        queryPlanParameters = Collections.singletonMap("gender", "MALE");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        elasticService.closeConnection();
+        stubElasticServer.close();
+    }
+
+    @Benchmark
+    public SearchRequest buildSearchRequest() {
+        return elasticService.buildSearchRequest(queryData);
+    }
+
+    @Benchmark
+    public String buildSearchRequestAsJson() {
+        return elasticService.buildSearchRequest(queryData).source().toString();
+    }
+
+    // Il lavoro che il percorso attuale svolge per ogni richiesta prima dell'invio: builder e body JSON
+    @Benchmark
+    public BytesReference buildAndSerializeSearchRequest() throws IOException {
+        return XContentHelper.toXContent(elasticService.buildSearchRequest(queryData).source(), XContentType.JSON, false);
+    }
+
+    @Benchmark
+    public BytesReference renderQueryPlan() {
+        return queryPlan.render(queryPlanParameters);
+    }
+
+    @Benchmark
+    public SearchResult searchOverStubTransport() throws IOException {
+        return elasticService.search(queryData);
+    }
+
+    @Benchmark
+    public SearchResult searchWithQueryPlanOverStubTransport() throws IOException {
+        return elasticService.search(queryPlan, queryPlanParameters);
+    }
+
+    private static QueryData withRequestPart(QueryData queryData, RequestPart requestPart) {
+        switch (requestPart) {
+            case QUERY_ONLY:
+                return queryData;
+            case SORTING:
+                return BenchmarkQueries.withSortingCriteria(queryData);
+            case AGGREGATIONS:
+                return BenchmarkQueries.withAggregations(queryData);
+            case HIGHLIGHT:
+                return BenchmarkQueries.withHighlightFields(queryData);
+            case SUGGESTIONS:
+                return BenchmarkQueries.withSuggestions(queryData);
+            case ALL:
+                return BenchmarkQueries.withSortingCriteria(
+                        BenchmarkQueries.withAggregations(
+                                BenchmarkQueries.withHighlightFields(
+                                        BenchmarkQueries.withSuggestions(queryData))));
+            default:
+                throw new IllegalArgumentException(requestPart.toString());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.CreateDocumentResponse;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Costo per richiesta dei formati e della compressione sul trasporto, verso un nodo simulato in locale: search con
+// 50 hit e _source di circa 2 KB ciascuno, _bulk di 200 documenti. Il tempo medio, senza rete reale, è la CPU
+// spesa dal client (serializzazione, gzip, parsing) più la decompressione della richiesta da parte del nodo.
+// A fine prova viene stampata la media dei byte dei body trasmessi per richiesta
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportEncodingBenchmark {
+
+    private static final String INDEX_NAME = "products";
+    private static final int SEARCH_HITS = 50;
+    private static final int BULK_DOCUMENTS = 200;
+
+    public enum Encoding {
+        JSON(XContentType.JSON, false),
+        JSON_GZIP(XContentType.JSON, true),
+        SMILE(XContentType.SMILE, false),
+        SMILE_GZIP(XContentType.SMILE, true),
+        CBOR(XContentType.CBOR, false),
+        CBOR_GZIP(XContentType.CBOR, true);
+
+        private final XContentType xContentType;
+        private final boolean gzip;
+
+        Encoding(XContentType xContentType, boolean gzip) {
+            this.xContentType = xContentType;
+            this.gzip = gzip;
+        }
+    }
+
+    @Param({"JSON", "JSON_GZIP", "SMILE", "SMILE_GZIP", "CBOR", "CBOR_GZIP"})
+    public Encoding encoding;
+
+    private StubElasticServer stubElasticServer;
+    private ElasticService elasticService;
+    private QueryData queryData;
+    private List<Map<String, Object>> documents;
+
+    @Setup
+    public void setUp() throws IOException {
+        StubElasticServer.Response searchResponse = StubElasticServer.ok(searchResponse());
+        StubElasticServer.Response bulkResponse = StubElasticServer.ok(bulkResponse());
+        stubElasticServer = new StubElasticServer((method, uri, body) ->
+                uri.startsWith("/_bulk") ? bulkResponse : searchResponse);
+
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        serverConfiguration.setSearchContentType(encoding.xContentType);
+        // Il _bulk del client 7.6 non accetta CBOR: i documenti restano in JSON
+        serverConfiguration.setDocumentContentType(XContentType.CBOR == encoding.xContentType ? XContentType.JSON : encoding.xContentType);
+        serverConfiguration.setRequestCompressionEnabled(encoding.gzip);
+        serverConfiguration.setResponseCompressionEnabled(encoding.gzip);
+        serverConfiguration.setBulkActions(BULK_DOCUMENTS);
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+
+        queryData = (new QueryData())
+                .withSearchType(SearchType.TERMS_QUERY)
+                .withSearchIndex(Optional.of(INDEX_NAME))
+                .withTermName("sku")
+                .withTermValues(IntStream.range(0, 300).mapToObj(i -> "SKU-" + i).collect(Collectors.toList()));
+
+        documents = new ArrayList<>(BULK_DOCUMENTS);
+        for (int i = 0; i < BULK_DOCUMENTS; i++) {
+            documents.add(document(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        int requests = Math.max(1, stubElasticServer.getRequestCount());
+        System.out.printf("%n%s: %d byte di richiesta, %d byte di risposta per richiesta%n", encoding,
+                stubElasticServer.getRequestBytes() / requests, stubElasticServer.getResponseBytes() / requests);
+
+        elasticService.closeConnection();
+        stubElasticServer.close();
+    }
+
+    @Benchmark
+    public SearchResult searchAndReadHits() throws IOException {
+        SearchResult searchResult = elasticService.search(queryData);
+        searchResult.getHits();
+        return searchResult;
+    }
+
+    @Benchmark
+    public List<CreateDocumentResponse> bulkIndex() throws IOException {
+        return elasticService.createDocuments(INDEX_NAME, documents);
+    }
+
+    private static Map<String, Object> document(int i) {
+        Map<String, Object> document = new HashMap<>();
+        document.put("sku", "SKU-" + i);
+        document.put("nome", "Prodotto " + i);
+        document.put("prezzo", 10.5 * i);
+        document.put("descrizione", String.join(" ", Collections.nCopies(50, "divano in tessuto con chaise longue")));
+        return document;
+    }
+
+    private static String searchResponse() {
+        String searchResponse = StubElasticServer.searchResponse(SEARCH_HITS);
+        return searchResponse.substring(0, searchResponse.length() - "[]}}".length())
+                + IntStream.range(0, SEARCH_HITS)
+                        .mapToObj(i -> "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + i + "\",\"_score\":1.0,"
+                                + "\"_source\":{\"sku\":\"SKU-" + i + "\",\"nome\":\"Prodotto " + i + "\",\"prezzo\":" + (10.5 * i)
+                                + ",\"descrizione\":\"" + String.join(" ", Collections.nCopies(50, "divano in tessuto con chaise longue"))
+                                + "\"}}")
+                        .collect(Collectors.joining(",", "[", "]}}"));
+    }
+
+    private static String bulkResponse() {
+        return IntStream.range(0, BULK_DOCUMENTS)
+                .mapToObj(i -> "{\"index\":{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + i + "\",\"_version\":1,"
+                        + "\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":" + i + ","
+                        + "\"_primary_term\":1,\"status\":201}}")
+                .collect(Collectors.joining(",", "{\"took\":5,\"errors\":false,\"items\":[", "]}"));
+    }
+}
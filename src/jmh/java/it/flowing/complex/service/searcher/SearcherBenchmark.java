@@ -0,0 +1,77 @@
+package it.flowing.complex.service.searcher;
+
+import it.flowing.complex.model.BenchmarkQueries;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Costruzione della query di ogni Searcher, e della sua forma JSON che finisce nel body della richiesta
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearcherBenchmark {
+
+    @Param({"MATCH_ALL_QUERY", "TERM_QUERY", "TERMS_QUERY", "EXISTS_QUERY",
+            "FUZZ_QUERY", "RANGE_QUERY", "BOOL_QUERY", "NESTED_QUERY"})
+    public SearchType searchType;
+
+    private Searcher searcher;
+    private QueryData queryData;
+
+    @Setup
+    public void setUp() {
+        searcher = createSearcher(searchType);
+        queryData = BenchmarkQueries.forSearchType(searchType);
+        searcher.checkPreconditions(queryData);
+    }
+
+    @Benchmark
+    public QueryBuilder getQueryBuilder() {
+        return searcher.getQueryBuilder(queryData);
+    }
+
+    @Benchmark
+    public String getQueryBuilderAsJson() {
+        return Strings.toString(searcher.getQueryBuilder(queryData));
+    }
+
+    private static Searcher createSearcher(SearchType searchType) {
+        switch (searchType) {
+            case MATCH_ALL_QUERY:
+                return new MatchAllSearcher();
+            case TERM_QUERY:
+                return new TermSearcher();
+            case TERMS_QUERY:
+                return new TermsSearcher();
+            case EXISTS_QUERY:
+                return new ExistsSearcher();
+            case FUZZ_QUERY:
+                return new FuzzSearcher();
+            case RANGE_QUERY:
+                return new RangeSearcher();
+            case BOOL_QUERY:
+                return new BoolSearcher(SearcherBenchmark::createSearcher);
+            case NESTED_QUERY:
+                return new NestedSearcher();
+            default:
+                throw new IllegalArgumentException(searchType.toString());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package it.flowing.complex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.With;
+import org.apache.commons.lang3.tuple.Pair;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Aggregazione tipizzata: i campi valorizzati dipendono da aggregationType, le sotto-aggregazioni
+// sono ammesse solo per le aggregazioni a bucket e possono essere annidate a piacere
+@With
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class AggregationData {
+    private AggregationType aggregationType;
+    private String name;
+    private String field;
+
+    // TERMS e COMPOSITE
+    private Optional<Integer> size = Optional.empty();
+    private Optional<Long> minDocCount = Optional.empty();
+
+    // HISTOGRAM
+    private Optional<Double> interval = Optional.empty();
+
+    // DATE_HISTOGRAM: uno solo tra calendarInterval (1d, 1M, ...) e fixedInterval (90m, 7d, ...)
+    private Optional<DateHistogramInterval> calendarInterval = Optional.empty();
+    private Optional<DateHistogramInterval> fixedInterval = Optional.empty();
+
+    // RANGE: estremi [from, to), null per un intervallo aperto
+    private List<Pair<Double, Double>> ranges = new ArrayList<>();
+
+    // FILTERS: un bucket per chiave
+    private Map<String, QueryBuilder> filters = new LinkedHashMap<>();
+
+    // PERCENTILES: se vuota vengono usati i percentili di default
+    private List<Double> percents = new ArrayList<>();
+
+    // COMPOSITE: sorgenti TERMS, HISTOGRAM o DATE_HISTOGRAM e chiave da cui ripartire
+    private List<AggregationData> sources = new ArrayList<>();
+    private Optional<Map<String, Object>> after = Optional.empty();
+
+    private List<AggregationData> subAggregations = new ArrayList<>();
+
+    public static AggregationData of(AggregationType aggregationType, String name, String field) {
+        return new AggregationData()
+                .withAggregationType(aggregationType)
+                .withName(name)
+                .withField(field);
+    }
+}
@@ -1,5 +1,17 @@
 package it.flowing.complex.model;
 
 public enum AggregationType {
-    AVG
+    AVG,
+    MIN,
+    MAX,
+    SUM,
+    STATS,
+    CARDINALITY,
+    PERCENTILES,
+    TERMS,
+    HISTOGRAM,
+    DATE_HISTOGRAM,
+    RANGE,
+    FILTERS,
+    COMPOSITE
 }
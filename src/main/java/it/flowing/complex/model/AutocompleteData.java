@@ -0,0 +1,27 @@
+package it.flowing.complex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.With;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@With
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class AutocompleteData {
+    // Campo di tipo completion e testo digitato finora
+    private String field = "";
+    private String prefix = "";
+    private int size = 10;
+    // Contesti di tipo category: nome del contesto -> valori ammessi
+    private Map<String, List<String>> contexts = new HashMap<>();
+    private boolean skipDuplicates = false;
+    private boolean fetchSource = false;
+    private Optional<String> searchIndex = Optional.empty();
+}
@@ -0,0 +1,17 @@
+package it.flowing.complex.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Map;
+
+@Getter
+@Builder
+public class AutocompleteOption {
+    private String text;
+    private float score;
+    private String index;
+    private String id;
+    // null se AutocompleteData.fetchSource è false
+    private Map<String, Object> source;
+}
@@ -3,5 +3,6 @@ package it.flowing.complex.model;
 public enum BoolQueryRule {
     MUST,
     FILTER,
-    MUST_NOT
+    MUST_NOT,
+    SHOULD
 }
@@ -9,4 +9,9 @@ import org.elasticsearch.rest.RestStatus;
 public class CreateDocumentResponse {
     private RestStatus status;
     private String id;
+    private String failureMessage;
+
+    public boolean isFailed() {
+        return null != failureMessage;
+    }
 }
@@ -0,0 +1,6 @@
+package it.flowing.complex.model;
+
+public enum DeepPaginationType {
+    SEARCH_AFTER,
+    SCROLL
+}
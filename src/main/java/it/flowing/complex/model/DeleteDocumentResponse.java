@@ -9,4 +9,15 @@ import org.elasticsearch.rest.RestStatus;
 public class DeleteDocumentResponse {
     private RestStatus status;
     private String id;
+
+    private long version;
+    private long seqNo;
+    private long primaryTerm;
+
+    // Solo per le scritture in bulk
+    private String failureMessage;
+
+    public boolean isFailed() {
+        return null != failureMessage;
+    }
 }
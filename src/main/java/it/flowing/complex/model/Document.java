@@ -9,6 +9,12 @@ import java.util.Map;
 @Getter
 @Builder
 public class Document {
+    private String id;
     private Map<String, DocumentField> fields;
     private Map<String, Object> source;
+
+    // Da passare come if_seq_no / if_primary_term a update e delete
+    private long version;
+    private long seqNo;
+    private long primaryTerm;
 }
@@ -0,0 +1,23 @@
+package it.flowing.complex.model;
+
+public enum OperationType {
+    SEARCH,
+    MULTI_SEARCH,
+    SEARCH_TEMPLATE,
+    MULTI_SEARCH_TEMPLATE,
+    PUT_SEARCH_TEMPLATE,
+    GET_SEARCH_TEMPLATE,
+    AUTOCOMPLETE,
+    SEARCH_BATCH,
+    SCROLL,
+    CLEAR_SCROLL,
+    INDEX,
+    BULK,
+    GET,
+    MULTI_GET,
+    EXISTS,
+    UPDATE,
+    DELETE,
+    DELETE_INDEX,
+    GET_ALIASES
+}
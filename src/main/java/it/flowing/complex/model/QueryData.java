@@ -27,6 +27,7 @@ public class QueryData {
     private Optional<String[]> excludeFields = Optional.empty();
     private List<Map<String, Object>> highlightFields = new ArrayList<>();
     private List<Map<String, Object>> aggregationInfo = new ArrayList<>();
+    private List<AggregationData> aggregations = new ArrayList<>();
     private List<Pair<String, String>> suggestions = new ArrayList<>();
     private String termName = "";
     private Object termValue = null;
@@ -36,4 +37,6 @@ public class QueryData {
     private String subTermName = "";
     private Object subTermValue = null;
     private Map<String, Map<String, Object>> boolQueryRules = null;
+    private Map<BoolQueryRule, List<QueryData>> boolClauses = null;
+    private Optional<String> minimumShouldMatch = Optional.empty();
 }
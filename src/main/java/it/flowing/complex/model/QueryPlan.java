@@ -0,0 +1,152 @@
+package it.flowing.complex.model;
+
+import com.google.common.base.Preconditions;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Body di una _search serializzato una sola volta, con i valori segnaposto (QueryPlan.parameter) sostituiti
+// a ogni esecuzione: la QueryData non viene più convertita in builder né riserializzata. Immutabile e condivisibile
+public final class QueryPlan {
+
+    private static final String PARAMETER_PREFIX = "@@param:";
+    private static final String PARAMETER_SUFFIX = "@@";
+    private static final Pattern PARAMETER_NAME = Pattern.compile("[A-Za-z0-9_]+");
+
+    private static final byte[] SLOT_START = ("\"" + PARAMETER_PREFIX).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SLOT_END = (PARAMETER_SUFFIX + "\"").getBytes(StandardCharsets.UTF_8);
+
+    private final SearchType searchType;
+    private final String[] indices;
+
+    // segments.length == slots.length + 1: il body è segments[0] slots[0] segments[1] ... segments[n]
+    private final byte[][] segments;
+    private final String[] slots;
+    private final BytesReference source;
+    private final Set<String> parameterNames;
+
+    private QueryPlan(SearchType searchType, String[] indices, byte[][] segments, String[] slots, byte[] source) {
+        this.searchType = searchType;
+        this.indices = indices;
+        this.segments = segments;
+        this.slots = slots;
+        this.source = new BytesArray(source);
+        this.parameterNames = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(slots)));
+    }
+
+    // Segnaposto da usare come valore nella QueryData (termValue, termValues, rangeValues, regole bool, ...)
+    public static String parameter(String name) {
+        Preconditions.checkNotNull(name);
+        Preconditions.checkArgument(PARAMETER_NAME.matcher(name).matches());
+
+        return PARAMETER_PREFIX + name + PARAMETER_SUFFIX;
+    }
+
+    public static QueryPlan compile(SearchType searchType, String[] indices, ToXContent searchSource) {
+        Preconditions.checkNotNull(indices);
+        Preconditions.checkNotNull(searchSource);
+
+        byte[] source;
+        try {
+            source = BytesReference.toBytes(XContentHelper.toXContent(searchSource, XContentType.JSON, false));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<byte[]> segments = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int segmentStart = 0;
+        int slotStart;
+        while ((slotStart = indexOf(source, SLOT_START, segmentStart)) >= 0) {
+            int nameStart = slotStart + SLOT_START.length;
+            int slotEnd = indexOf(source, SLOT_END, nameStart);
+            Preconditions.checkState(slotEnd > nameStart);
+
+            segments.add(Arrays.copyOfRange(source, segmentStart, slotStart));
+            slots.add(new String(source, nameStart, slotEnd - nameStart, StandardCharsets.UTF_8));
+            segmentStart = slotEnd + SLOT_END.length;
+        }
+        segments.add(Arrays.copyOfRange(source, segmentStart, source.length));
+
+        return new QueryPlan(searchType, indices.clone(), segments.toArray(new byte[0][]), slots.toArray(new String[0]), source);
+    }
+
+    public SearchType getSearchType() {
+        return searchType;
+    }
+
+    public String[] getIndices() {
+        return indices.clone();
+    }
+
+    public Set<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    // Ogni parametro viene scritto come valore JSON: stringhe, numeri, booleani, liste e mappe
+    public BytesReference render(Map<String, ?> parameters) {
+        Preconditions.checkNotNull(parameters);
+
+        if (0 == slots.length) {
+            return source;
+        }
+
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(source.length() + 16 * slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                Preconditions.checkArgument(parameters.containsKey(slots[i]), "Parametro mancante: %s", slots[i]);
+
+                body.write(segments[i]);
+                try (XContentBuilder value = JsonXContent.contentBuilder()) {
+                    value.value(parameters.get(slots[i]));
+                    BytesReference.bytes(value).writeTo(body);
+                }
+            }
+            body.write(segments[slots.length]);
+            return new BytesArray(body.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Template mustache equivalente: ogni slot diventa {{#toJson}}nome{{/toJson}}, che scrive il parametro come
+    // valore JSON. Fuori dalle stringhe un body JSON non contiene mai "{{", quindi il resto resta letterale
+    public String toMustacheTemplate() {
+        StringBuilder template = new StringBuilder(source.length() + 32 * slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            template.append(new String(segments[i], StandardCharsets.UTF_8))
+                    .append("{{#toJson}}").append(slots[i]).append("{{/toJson}}");
+        }
+        return template.append(new String(segments[slots.length], StandardCharsets.UTF_8)).toString();
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,307 @@
+package it.flowing.complex.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.suggest.Suggest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Risposta _search mantenuta nei byte ricevuti: alla costruzione si leggono solo l'intestazione e le posizioni
+// di hit, aggregazioni e suggest, che vengono decodificati al primo accesso
+public final class SearchResponseBody {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final byte[] bytes;
+    private final NamedXContentRegistry registry;
+
+    // Coppie [inizio, fine) dell'array degli hit e di ogni hit all'interno di bytes
+    private final int hitsStart;
+    private final int hitsEnd;
+    private final int[] hitOffsets;
+    private final LazySearchHitList hits;
+
+    private final int aggregationsStart;
+    private final int aggregationsEnd;
+    private volatile Aggregations aggregations;
+
+    private final int suggestStart;
+    private final int suggestEnd;
+    private volatile Suggest suggest;
+
+    private SearchResponseBody(byte[] bytes, NamedXContentRegistry registry, int hitsStart, int hitsEnd, int[] hitOffsets,
+                               int aggregationsStart, int aggregationsEnd, int suggestStart, int suggestEnd) {
+        this.bytes = bytes;
+        this.registry = registry;
+        this.hitsStart = hitsStart;
+        this.hitsEnd = hitsEnd;
+        this.hitOffsets = hitOffsets;
+        this.hits = new LazySearchHitList();
+        this.aggregationsStart = aggregationsStart;
+        this.aggregationsEnd = aggregationsEnd;
+        this.suggestStart = suggestStart;
+        this.suggestEnd = suggestEnd;
+    }
+
+    // Nuova vista sugli stessi byte, senza hit, aggregazioni e suggest già decodificati
+    public SearchResponseBody copy() {
+        return new SearchResponseBody(bytes, registry, hitsStart, hitsEnd, hitOffsets,
+                aggregationsStart, aggregationsEnd, suggestStart, suggestEnd);
+    }
+
+    public int getSizeInBytes() {
+        return bytes.length;
+    }
+
+    public List<SearchHit> getHits() {
+        return hits;
+    }
+
+    public Aggregations getAggregations() {
+        if (aggregationsStart < 0) {
+            return null;
+        }
+        if (null == aggregations) {
+            aggregations = decode(aggregationsStart, aggregationsEnd, Aggregations::fromXContent);
+        }
+        return aggregations;
+    }
+
+    public Suggest getSuggest() {
+        if (suggestStart < 0) {
+            return null;
+        }
+        if (null == suggest) {
+            suggest = decode(suggestStart, suggestEnd, Suggest::fromXContent);
+        }
+        return suggest;
+    }
+
+    // Legge i soli campi richiesti dal _source di ogni hit, senza costruire né i SearchHit né le mappe complete.
+    // Un solo parser percorre l'intero array degli hit: crearne uno per hit costa più della proiezione stessa
+    public List<Map<String, Object>> project(String... fields) {
+        SourceProjection projection = SourceProjection.of(fields);
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return decode(hitsStart, hitsEnd, parser -> {
+            List<Map<String, Object>> projected = new ArrayList<>(hits.size());
+            while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+                Map<String, Object> source = Collections.emptyMap();
+                while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                    String fieldName = parser.currentName();
+                    if (parser.nextToken() == XContentParser.Token.START_OBJECT && "_source".equals(fieldName)) {
+                        source = projection.apply(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                projected.add(source);
+            }
+            return projected;
+        });
+    }
+
+    private <T> T decode(int start, int end, Decoder<T> decoder) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(registry,
+                LoggingDeprecationHandler.INSTANCE, bytes, start, end - start)) {
+            parser.nextToken();
+            return decoder.decode(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Decoder<T> {
+        T decode(XContentParser parser) throws IOException;
+    }
+
+    private class LazySearchHitList extends AbstractList<SearchHit> implements RandomAccess {
+
+        private final AtomicReferenceArray<SearchHit> decoded = new AtomicReferenceArray<>(hitOffsets.length / 2);
+
+        @Override
+        public SearchHit get(int index) {
+            Preconditions.checkElementIndex(index, size());
+
+            SearchHit hit = decoded.get(index);
+            if (null == hit) {
+                // Due thread possono decodificare lo stesso hit: vince il primo, gli altri usano la sua istanza
+                decoded.compareAndSet(index, null, decode(hitOffsets[2 * index], hitOffsets[2 * index + 1], SearchHit::fromXContent));
+                hit = decoded.get(index);
+            }
+            return hit;
+        }
+
+        @Override
+        public int size() {
+            return decoded.length();
+        }
+    }
+
+    static SearchResult scan(RestStatus status, byte[] bytes, NamedXContentRegistry registry) throws IOException {
+        SearchResult searchResult = (new SearchResult()).withStatus(status);
+        searchResult.setMaxScore(Float.NaN);
+
+        int[] hitOffsets = new int[2];
+        int aggregationsStart = -1;
+        int aggregationsEnd = -1;
+        int suggestStart = -1;
+        int suggestEnd = -1;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(bytes)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (fieldName) {
+                    case "took":
+                        searchResult.setTook(TimeValue.timeValueMillis(parser.getLongValue()));
+                        break;
+                    case "timed_out":
+                        searchResult.setTimedOut(parser.getBooleanValue());
+                        break;
+                    case "terminated_early":
+                        searchResult.setTerminatedEarly(parser.getBooleanValue());
+                        break;
+                    case "_shards":
+                        scanShards(parser, searchResult);
+                        break;
+                    case "hits":
+                        hitOffsets = scanHits(parser, searchResult);
+                        break;
+                    case "aggregations":
+                        expect(token, JsonToken.START_OBJECT);
+                        aggregationsStart = (int) parser.getTokenLocation().getByteOffset();
+                        parser.skipChildren();
+                        aggregationsEnd = (int) parser.getCurrentLocation().getByteOffset();
+                        break;
+                    case "suggest":
+                        expect(token, JsonToken.START_OBJECT);
+                        suggestStart = (int) parser.getTokenLocation().getByteOffset();
+                        parser.skipChildren();
+                        suggestEnd = (int) parser.getCurrentLocation().getByteOffset();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+
+        // I primi due offset delimitano l'array degli hit
+        return searchResult.withResponseBody(new SearchResponseBody(bytes, registry,
+                hitOffsets[0], hitOffsets[1], Arrays.copyOfRange(hitOffsets, 2, hitOffsets.length),
+                aggregationsStart, aggregationsEnd, suggestStart, suggestEnd));
+    }
+
+    private static void scanShards(JsonParser parser, SearchResult searchResult) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case "total":
+                    searchResult.setTotalShards(parser.getIntValue());
+                    break;
+                case "successful":
+                    searchResult.setSuccessfulShards(parser.getIntValue());
+                    break;
+                case "failed":
+                    searchResult.setFailedShards(parser.getIntValue());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    // Restituisce i limiti dell'array degli hit seguiti dalle coppie [inizio, fine) di ogni hit
+    private static int[] scanHits(JsonParser parser, SearchResult searchResult) throws IOException {
+        int[] hitOffsets = new int[2];
+
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (fieldName) {
+                case "total":
+                    scanTotalHits(parser, token, searchResult);
+                    break;
+                case "max_score":
+                    searchResult.setMaxScore(token == JsonToken.VALUE_NULL ? Float.NaN : parser.getFloatValue());
+                    break;
+                case "hits":
+                    expect(token, JsonToken.START_ARRAY);
+                    hitOffsets = new int[32];
+                    hitOffsets[0] = (int) parser.getTokenLocation().getByteOffset();
+                    int numOffsets = 2;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        if (numOffsets == hitOffsets.length) {
+                            hitOffsets = Arrays.copyOf(hitOffsets, 2 * hitOffsets.length);
+                        }
+                        hitOffsets[numOffsets++] = (int) parser.getTokenLocation().getByteOffset();
+                        parser.skipChildren();
+                        hitOffsets[numOffsets++] = (int) parser.getCurrentLocation().getByteOffset();
+                    }
+                    hitOffsets[1] = (int) parser.getCurrentLocation().getByteOffset();
+                    hitOffsets = Arrays.copyOf(hitOffsets, numOffsets);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return hitOffsets;
+    }
+
+    private static void scanTotalHits(JsonParser parser, JsonToken token, SearchResult searchResult) throws IOException {
+        // Con rest_total_hits_as_int il totale è un numero, altrimenti un oggetto {value, relation}
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            searchResult.setNumHits(parser.getLongValue());
+            searchResult.setHitsRelation(TotalHits.Relation.EQUAL_TO);
+            return;
+        }
+
+        expect(token, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if ("value".equals(fieldName)) {
+                searchResult.setNumHits(parser.getLongValue());
+            } else if ("relation".equals(fieldName)) {
+                searchResult.setHitsRelation("gte".equals(parser.getText())
+                        ? TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO
+                        : TotalHits.Relation.EQUAL_TO);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Risposta di ricerca non valida: atteso " + expected + " ma trovato " + actual);
+        }
+    }
+}
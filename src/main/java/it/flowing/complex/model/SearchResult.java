@@ -5,15 +5,21 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.With;
 import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.suggest.Suggest;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @With
 @NoArgsConstructor
@@ -46,6 +52,44 @@ public class SearchResult {
     // Suggestion
     private Suggest suggest;
 
+    // Failure (solo per le ricerche multiple)
+    private Exception failure;
+
+    // Byte della risposta da cui hits, aggregazioni e suggest vengono decodificati al primo accesso,
+    // se non sono stati impostati esplicitamente
+    private SearchResponseBody responseBody;
+
+    public boolean isFailed() {
+        return null != failure;
+    }
+
+    public List<SearchHit> getHits() {
+        return null != hits || null == responseBody ? hits : responseBody.getHits();
+    }
+
+    public Aggregations getAggregations() {
+        return null != aggregations || null == responseBody ? aggregations : responseBody.getAggregations();
+    }
+
+    public Suggest getSuggest() {
+        return null != suggest || null == responseBody ? suggest : responseBody.getSuggest();
+    }
+
+    // Un valore per campo richiesto, nello stesso ordine degli hit
+    public List<Map<String, Object>> project(String... fields) {
+        if (null == hits && null != responseBody) {
+            return responseBody.project(fields);
+        }
+        if (null == hits) {
+            return Collections.emptyList();
+        }
+
+        SourceProjection projection = SourceProjection.of(fields);
+        return hits.stream()
+                .map(projection::apply)
+                .collect(Collectors.toList());
+    }
+
     public static SearchResult fromSearchResponse(SearchResponse searchResponse) {
         return (new SearchResult())
                 .withStatus(searchResponse.status())
@@ -53,7 +97,7 @@ public class SearchResult {
                 .withTerminatedEarly(searchResponse.isTerminatedEarly())
                 .withTimedOut(searchResponse.isTimedOut())
                 .withTotalShards(searchResponse.getTotalShards())
-                .withSuccessfulShards(searchResponse.getTotalShards())
+                .withSuccessfulShards(searchResponse.getSuccessfulShards())
                 .withFailedShards(searchResponse.getFailedShards())
                 .withNumHits(searchResponse.getHits().getTotalHits().value)
                 .withMaxScore(searchResponse.getHits().getMaxScore())
@@ -63,4 +107,16 @@ public class SearchResult {
                 .withSuggest(searchResponse.getSuggest());
     }
 
+    // Mappatura pigra: vengono letti subito solo i dati di intestazione della risposta
+    public static SearchResult fromResponseBody(RestStatus status, byte[] responseBody, NamedXContentRegistry registry)
+            throws IOException {
+        return SearchResponseBody.scan(status, responseBody, registry);
+    }
+
+    public static SearchResult fromFailure(Exception failure) {
+        return (new SearchResult())
+                .withStatus(ExceptionsHelper.status(failure))
+                .withFailure(failure);
+    }
+
 }
@@ -0,0 +1,121 @@
+package it.flowing.complex.model;
+
+import com.google.common.base.Preconditions;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Estrazione di campi (anche annidati, in notazione puntata) da un _source in streaming: i rami che non portano
+// a un campo richiesto vengono saltati senza essere decodificati
+class SourceProjection {
+
+    private final Set<String> fields;
+    private final Set<String> prefixes;
+
+    private SourceProjection(Set<String> fields, Set<String> prefixes) {
+        this.fields = fields;
+        this.prefixes = prefixes;
+    }
+
+    static SourceProjection of(String... fields) {
+        Preconditions.checkNotNull(fields);
+        Preconditions.checkArgument(fields.length > 0);
+
+        Set<String> fieldSet = new HashSet<>();
+        Set<String> prefixes = new HashSet<>();
+        for (String field : fields) {
+            Preconditions.checkArgument(null != field && !field.isEmpty());
+            fieldSet.add(field);
+            for (int dot = field.indexOf('.'); dot > 0; dot = field.indexOf('.', dot + 1)) {
+                prefixes.add(field.substring(0, dot));
+            }
+        }
+        return new SourceProjection(fieldSet, prefixes);
+    }
+
+    Map<String, Object> apply(SearchHit hit) {
+        BytesReference source = hit.getSourceRef();
+        if (null == source) {
+            return Collections.emptyMap();
+        }
+
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                LoggingDeprecationHandler.INSTANCE, source, XContentType.JSON)) {
+            parser.nextToken();
+            return apply(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Il parser deve essere posizionato sull'apertura dell'oggetto _source
+    Map<String, Object> apply(XContentParser parser) throws IOException {
+        Map<String, Object> projected = new HashMap<>();
+        projectObject(parser, null, false, projected);
+        return projected;
+    }
+
+    private void projectObject(XContentParser parser, String path, boolean inArray, Map<String, Object> projected)
+            throws IOException {
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String fieldPath = null == path ? parser.currentName() : path + "." + parser.currentName();
+            XContentParser.Token token = parser.nextToken();
+
+            if (fields.contains(fieldPath)) {
+                put(projected, fieldPath, readValue(parser, token), inArray);
+            } else if (prefixes.contains(fieldPath) && token == XContentParser.Token.START_OBJECT) {
+                projectObject(parser, fieldPath, inArray, projected);
+            } else if (prefixes.contains(fieldPath) && token == XContentParser.Token.START_ARRAY) {
+                projectArray(parser, fieldPath, projected);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // I campi raggiunti attraverso un array di oggetti vengono raccolti in una lista, come in XContentMapValues
+    private void projectArray(XContentParser parser, String path, Map<String, Object> projected) throws IOException {
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token == XContentParser.Token.START_OBJECT) {
+                projectObject(parser, path, true, projected);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Object readValue(XContentParser parser, XContentParser.Token token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return parser.map();
+            case START_ARRAY:
+                return parser.list();
+            default:
+                return parser.objectText();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> projected, String fieldPath, Object value, boolean inArray) {
+        if (!inArray) {
+            projected.put(fieldPath, value);
+            return;
+        }
+        ((List<Object>) projected.computeIfAbsent(fieldPath, key -> new ArrayList<>())).add(value);
+    }
+}
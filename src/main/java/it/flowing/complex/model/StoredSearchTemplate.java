@@ -0,0 +1,108 @@
+package it.flowing.complex.model;
+
+import com.google.common.base.Preconditions;
+
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Quanto serve per eseguire un template memorizzato nel cluster: indici, tipo di ricerca e parametri obbligatori.
+// Indici e tipo di ricerca sono scritti in un commento mustache all'inizio del template, che il rendering elimina:
+// qualunque istanza, anche dopo un riavvio, ricostruisce il template leggendolo dal cluster
+public final class StoredSearchTemplate {
+
+    // Indici codificati come parametri di URL: i nomi con date math possono contenere "}}", che chiuderebbe il commento
+    private static final Pattern HEADER = Pattern.compile("^\\{\\{! flowing-complex indices=([^ ]*) searchType=([A-Z_]*) }}");
+    private static final Pattern PARAMETER = Pattern.compile("\\{\\{#toJson}}([A-Za-z0-9_]+)\\{\\{/toJson}}");
+
+    private final SearchType searchType;
+    private final String[] indices;
+    private final Set<String> parameterNames;
+
+    private StoredSearchTemplate(SearchType searchType, String[] indices, Set<String> parameterNames) {
+        this.searchType = searchType;
+        this.indices = indices;
+        this.parameterNames = Collections.unmodifiableSet(parameterNames);
+    }
+
+    public static StoredSearchTemplate of(QueryPlan queryPlan) {
+        Preconditions.checkNotNull(queryPlan);
+
+        return new StoredSearchTemplate(queryPlan.getSearchType(), queryPlan.getIndices(),
+                new LinkedHashSet<>(queryPlan.getParameterNames()));
+    }
+
+    // Template scritto da toMustacheTemplate. Senza il commento iniziale (template creato da altri) non si conoscono
+    // né gli indici né i parametri obbligatori: la ricerca va sugli indici di default del cluster, senza controlli
+    public static StoredSearchTemplate parse(String template) {
+        Preconditions.checkNotNull(template);
+
+        Matcher header = HEADER.matcher(template);
+        if (!header.find()) {
+            return new StoredSearchTemplate(null, new String[0], new LinkedHashSet<>());
+        }
+
+        String[] indices = header.group(1).isEmpty() ? new String[0] : Arrays.stream(header.group(1).split(","))
+                .map(StoredSearchTemplate::decode)
+                .toArray(String[]::new);
+        SearchType searchType = header.group(2).isEmpty() ? null : SearchType.valueOf(header.group(2));
+
+        Set<String> parameterNames = new LinkedHashSet<>();
+        Matcher parameter = PARAMETER.matcher(template);
+        while (parameter.find()) {
+            parameterNames.add(parameter.group(1));
+        }
+
+        return new StoredSearchTemplate(searchType, indices, parameterNames);
+    }
+
+    public static String toMustacheTemplate(QueryPlan queryPlan) {
+        Preconditions.checkNotNull(queryPlan);
+
+        String[] indices = queryPlan.getIndices();
+        StringBuilder template = new StringBuilder("{{! flowing-complex indices=");
+        for (int i = 0; i < indices.length; i++) {
+            template.append(i > 0 ? "," : "").append(encode(indices[i]));
+        }
+        return template.append(" searchType=").append(null == queryPlan.getSearchType() ? "" : queryPlan.getSearchType().name())
+                .append(" }}")
+                .append(queryPlan.toMustacheTemplate())
+                .toString();
+    }
+
+    public SearchType getSearchType() {
+        return searchType;
+    }
+
+    public String[] getIndices() {
+        return indices.clone();
+    }
+
+    public Set<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
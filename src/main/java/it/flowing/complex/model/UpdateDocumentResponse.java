@@ -9,4 +9,16 @@ import org.elasticsearch.rest.RestStatus;
 public class UpdateDocumentResponse {
     private RestStatus status;
     private String id;
+
+    // Versione raggiunta dal documento, per una successiva scrittura condizionata
+    private long version;
+    private long seqNo;
+    private long primaryTerm;
+
+    // Solo per le scritture in bulk
+    private String failureMessage;
+
+    public boolean isFailed() {
+        return null != failureMessage;
+    }
 }
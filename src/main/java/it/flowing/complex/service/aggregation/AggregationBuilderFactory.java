@@ -0,0 +1,188 @@
+package it.flowing.complex.service.aggregation;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.model.AggregationData;
+import it.flowing.complex.model.AggregationType;
+import org.apache.commons.lang3.tuple.Pair;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.DateHistogramValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.HistogramValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.FiltersAggregator;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.HistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.range.RangeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.PercentilesAggregationBuilder;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Converte un albero di AggregationData negli AggregationBuilder del client: tutte le aggregazioni
+// di una QueryData finiscono nella stessa _search
+public final class AggregationBuilderFactory {
+
+    private static final Set<AggregationType> BUCKET_TYPES = EnumSet.of(AggregationType.TERMS, AggregationType.HISTOGRAM,
+            AggregationType.DATE_HISTOGRAM, AggregationType.RANGE, AggregationType.FILTERS, AggregationType.COMPOSITE);
+
+    private static final Set<AggregationType> COMPOSITE_SOURCE_TYPES = EnumSet.of(AggregationType.TERMS,
+            AggregationType.HISTOGRAM, AggregationType.DATE_HISTOGRAM);
+
+    private AggregationBuilderFactory() {
+    }
+
+    public static AggregationBuilder create(AggregationData aggregationData) {
+        return create(aggregationData, true);
+    }
+
+    private static AggregationBuilder create(AggregationData aggregationData, boolean topLevel) {
+        checkPreconditions(aggregationData);
+        // Elasticsearch accetta la composite solo come aggregazione di primo livello
+        Preconditions.checkArgument(topLevel || AggregationType.COMPOSITE != aggregationData.getAggregationType());
+
+        AbstractAggregationBuilder<?> aggregationBuilder = createBuilder(aggregationData);
+        for (AggregationData subAggregation : aggregationData.getSubAggregations()) {
+            aggregationBuilder.subAggregation(create(subAggregation, false));
+        }
+        return aggregationBuilder;
+    }
+
+    private static void checkPreconditions(AggregationData aggregationData) {
+        Preconditions.checkNotNull(aggregationData);
+        Preconditions.checkNotNull(aggregationData.getAggregationType());
+        Preconditions.checkNotNull(aggregationData.getName());
+        Preconditions.checkArgument(!aggregationData.getName().isEmpty());
+        Preconditions.checkArgument(BUCKET_TYPES.contains(aggregationData.getAggregationType())
+                || aggregationData.getSubAggregations().isEmpty());
+
+        switch (aggregationData.getAggregationType()) {
+            case FILTERS:
+                Preconditions.checkArgument(!aggregationData.getFilters().isEmpty());
+                break;
+            case COMPOSITE:
+                Preconditions.checkArgument(!aggregationData.getSources().isEmpty());
+                break;
+            default:
+                Preconditions.checkNotNull(aggregationData.getField());
+                Preconditions.checkArgument(!aggregationData.getField().isEmpty());
+        }
+    }
+
+    private static AbstractAggregationBuilder<?> createBuilder(AggregationData aggregationData) {
+        String name = aggregationData.getName();
+        String field = aggregationData.getField();
+
+        switch (aggregationData.getAggregationType()) {
+            case AVG:
+                return AggregationBuilders.avg(name).field(field);
+            case MIN:
+                return AggregationBuilders.min(name).field(field);
+            case MAX:
+                return AggregationBuilders.max(name).field(field);
+            case SUM:
+                return AggregationBuilders.sum(name).field(field);
+            case STATS:
+                return AggregationBuilders.stats(name).field(field);
+            case CARDINALITY:
+                return AggregationBuilders.cardinality(name).field(field);
+            case PERCENTILES:
+                PercentilesAggregationBuilder percentilesBuilder = AggregationBuilders.percentiles(name).field(field);
+                if (!aggregationData.getPercents().isEmpty()) {
+                    percentilesBuilder.percentiles(aggregationData.getPercents().stream().mapToDouble(Double::doubleValue).toArray());
+                }
+                return percentilesBuilder;
+            case TERMS:
+                TermsAggregationBuilder termsBuilder = AggregationBuilders.terms(name).field(field);
+                aggregationData.getSize().ifPresent(termsBuilder::size);
+                aggregationData.getMinDocCount().ifPresent(termsBuilder::minDocCount);
+                return termsBuilder;
+            case HISTOGRAM:
+                Preconditions.checkArgument(aggregationData.getInterval().isPresent());
+                HistogramAggregationBuilder histogramBuilder = AggregationBuilders.histogram(name).field(field)
+                        .interval(aggregationData.getInterval().get());
+                aggregationData.getMinDocCount().ifPresent(histogramBuilder::minDocCount);
+                return histogramBuilder;
+            case DATE_HISTOGRAM:
+                checkDateInterval(aggregationData);
+                DateHistogramAggregationBuilder dateHistogramBuilder = AggregationBuilders.dateHistogram(name).field(field);
+                aggregationData.getCalendarInterval().ifPresent(dateHistogramBuilder::calendarInterval);
+                aggregationData.getFixedInterval().ifPresent(dateHistogramBuilder::fixedInterval);
+                aggregationData.getMinDocCount().ifPresent(dateHistogramBuilder::minDocCount);
+                return dateHistogramBuilder;
+            case RANGE:
+                return createRangeBuilder(aggregationData);
+            case FILTERS:
+                List<FiltersAggregator.KeyedFilter> keyedFilters = new ArrayList<>();
+                for (Map.Entry<String, QueryBuilder> filter : aggregationData.getFilters().entrySet()) {
+                    keyedFilters.add(new FiltersAggregator.KeyedFilter(filter.getKey(), filter.getValue()));
+                }
+                return AggregationBuilders.filters(name, keyedFilters.toArray(new FiltersAggregator.KeyedFilter[0]));
+            case COMPOSITE:
+                return createCompositeBuilder(aggregationData);
+            default:
+                throw new IllegalArgumentException("Aggregazione non supportata: " + aggregationData.getAggregationType());
+        }
+    }
+
+    private static void checkDateInterval(AggregationData aggregationData) {
+        Preconditions.checkArgument(aggregationData.getCalendarInterval().isPresent() != aggregationData.getFixedInterval().isPresent());
+    }
+
+    private static RangeAggregationBuilder createRangeBuilder(AggregationData aggregationData) {
+        Preconditions.checkArgument(!aggregationData.getRanges().isEmpty());
+
+        RangeAggregationBuilder rangeBuilder = AggregationBuilders.range(aggregationData.getName()).field(aggregationData.getField());
+        for (Pair<Double, Double> range : aggregationData.getRanges()) {
+            Preconditions.checkArgument(null != range.getLeft() || null != range.getRight());
+            if (null == range.getLeft()) {
+                rangeBuilder.addUnboundedTo(range.getRight());
+            } else if (null == range.getRight()) {
+                rangeBuilder.addUnboundedFrom(range.getLeft());
+            } else {
+                rangeBuilder.addRange(range.getLeft(), range.getRight());
+            }
+        }
+        return rangeBuilder;
+    }
+
+    private static CompositeAggregationBuilder createCompositeBuilder(AggregationData aggregationData) {
+        List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<>();
+        for (AggregationData source : aggregationData.getSources()) {
+            checkPreconditions(source);
+            Preconditions.checkArgument(COMPOSITE_SOURCE_TYPES.contains(source.getAggregationType()));
+            Preconditions.checkArgument(source.getSubAggregations().isEmpty());
+            sources.add(createCompositeSource(source));
+        }
+
+        CompositeAggregationBuilder compositeBuilder = AggregationBuilders.composite(aggregationData.getName(), sources);
+        aggregationData.getSize().ifPresent(compositeBuilder::size);
+        aggregationData.getAfter().ifPresent(compositeBuilder::aggregateAfter);
+        return compositeBuilder;
+    }
+
+    private static CompositeValuesSourceBuilder<?> createCompositeSource(AggregationData source) {
+        switch (source.getAggregationType()) {
+            case HISTOGRAM:
+                Preconditions.checkArgument(source.getInterval().isPresent());
+                return new HistogramValuesSourceBuilder(source.getName()).field(source.getField())
+                        .interval(source.getInterval().get());
+            case DATE_HISTOGRAM:
+                checkDateInterval(source);
+                DateHistogramValuesSourceBuilder dateHistogramSource = new DateHistogramValuesSourceBuilder(source.getName())
+                        .field(source.getField());
+                source.getCalendarInterval().ifPresent(dateHistogramSource::calendarInterval);
+                source.getFixedInterval().ifPresent(dateHistogramSource::fixedInterval);
+                return dateHistogramSource;
+            default:
+                return new TermsValuesSourceBuilder(source.getName()).field(source.getField());
+        }
+    }
+}
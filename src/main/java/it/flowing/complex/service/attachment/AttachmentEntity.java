@@ -0,0 +1,161 @@
+package it.flowing.complex.service.attachment;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Body della richiesta di indicizzazione per la pipeline attachment: { ...metadata, "data": "<base64>" }.
+// Il contenuto viene letto e codificato mentre il client HTTP scrive la richiesta, senza mai materializzarlo
+public class AttachmentEntity extends AbstractHttpEntity {
+
+    public static final String DATA_FIELD = "data";
+
+    private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.UTF_8);
+
+    private interface ContentSupplier {
+        InputStream open() throws IOException;
+    }
+
+    private final byte[] prefix;
+    private final ContentSupplier content;
+    private final long contentLength;
+    private final boolean repeatable;
+    private boolean consumed = false;
+
+    private AttachmentEntity(Map<String, Object> metadata, ContentSupplier content, long contentLength, boolean repeatable)
+            throws IOException {
+        this.prefix = buildPrefix(metadata);
+        this.content = content;
+        this.contentLength = contentLength < 0
+                ? -1
+                : prefix.length + Base64EncodingInputStream.encodedLength(contentLength) + SUFFIX.length;
+        this.repeatable = repeatable;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    public static AttachmentEntity of(Map<String, Object> metadata, InputStream content) throws IOException {
+        Preconditions.checkNotNull(content);
+        return new AttachmentEntity(metadata, () -> content, -1, false);
+    }
+
+    public static AttachmentEntity of(Map<String, Object> metadata, Path content) throws IOException {
+        Preconditions.checkNotNull(content);
+        return new AttachmentEntity(metadata, () -> Files.newInputStream(content), Files.size(content), true);
+    }
+
+    public static AttachmentEntity of(Map<String, Object> metadata, ByteBuffer content) throws IOException {
+        Preconditions.checkNotNull(content);
+        ByteBuffer readOnlyContent = content.asReadOnlyBuffer();
+        return new AttachmentEntity(metadata, () -> new ByteBufferInputStream(readOnlyContent.duplicate()),
+                readOnlyContent.remaining(), true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (!repeatable) {
+            Preconditions.checkState(!consumed, "Il contenuto dell'allegato è già stato consumato");
+            consumed = true;
+        }
+
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(prefix),
+                new Base64EncodingInputStream(content.open()),
+                new ByteArrayInputStream(SUFFIX))));
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Preconditions.checkNotNull(outputStream);
+
+        byte[] buffer = new byte[8192];
+        try (InputStream inputStream = getContent()) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return !repeatable && !consumed;
+    }
+
+    private static byte[] buildPrefix(Map<String, Object> metadata) throws IOException {
+        Map<String, Object> fields = new HashMap<>();
+        if (null != metadata) {
+            fields.putAll(metadata);
+            fields.remove(DATA_FIELD);
+        }
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            builder.field(field.getKey(), field.getValue());
+        }
+        builder.field(DATA_FIELD, "");
+        builder.endObject();
+        builder.close();
+
+        // Il documento termina con "data":""} : si tiene tutto fino alle virgolette di apertura del valore
+        byte[] document = BytesReference.toBytes(BytesReference.bytes(builder));
+        return Arrays.copyOf(document, document.length - SUFFIX.length);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package it.flowing.complex.service.attachment;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+// Codifica in Base64 il contenuto letto dalla sorgente a blocchi: in memoria c'è un solo blocco alla volta
+class Base64EncodingInputStream extends InputStream {
+
+    // Multiplo di 3: il padding può comparire solo nell'ultimo blocco
+    private static final int SOURCE_CHUNK_SIZE = 3 * 16 * 1024;
+
+    private final InputStream source;
+    private final Base64.Encoder encoder = Base64.getEncoder();
+    private final byte[] sourceBuffer = new byte[SOURCE_CHUNK_SIZE];
+    private byte[] encodedBuffer = new byte[SOURCE_CHUNK_SIZE / 3 * 4];
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfSource = false;
+
+    Base64EncodingInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    static long encodedLength(long sourceLength) {
+        return 4 * ((sourceLength + 2) / 3);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return encodedBuffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        int read = Math.min(length, limit - position);
+        System.arraycopy(encodedBuffer, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (endOfSource) {
+            return false;
+        }
+
+        int read = ByteStreams.read(source, sourceBuffer, 0, SOURCE_CHUNK_SIZE);
+        if (read < SOURCE_CHUNK_SIZE) {
+            endOfSource = true;
+        }
+        if (read <= 0) {
+            return false;
+        }
+
+        if (read == SOURCE_CHUNK_SIZE) {
+            limit = encoder.encode(sourceBuffer, encodedBuffer);
+        } else {
+            encodedBuffer = encoder.encode(Arrays.copyOf(sourceBuffer, read));
+            limit = encodedBuffer.length;
+        }
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package it.flowing.complex.service.batching;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.model.OperationType;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Raccoglie le search concorrenti arrivate entro una finestra temporale e le invia in un'unica _msearch
+public class SearchBatcher implements Closeable {
+
+    private final RestHighLevelClient client;
+    private final OperationExecutor operationExecutor;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    private List<PendingSearch> currentBatch = new ArrayList<>();
+    private boolean closed;
+
+    public SearchBatcher(RestHighLevelClient client, OperationExecutor operationExecutor, long windowMillis, int maxBatchSize) {
+        Preconditions.checkNotNull(client);
+        Preconditions.checkNotNull(operationExecutor);
+        Preconditions.checkArgument(windowMillis > 0);
+        Preconditions.checkArgument(maxBatchSize > 0);
+
+        this.client = client;
+        this.operationExecutor = operationExecutor;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elastic-search-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<SearchResponse> submit(SearchRequest searchRequest) {
+        Preconditions.checkNotNull(searchRequest);
+
+        PendingSearch pendingSearch = new PendingSearch(searchRequest);
+        List<PendingSearch> batchToExecute = null;
+
+        synchronized (this) {
+            // Dopo close() lo scheduler rifiuterebbe il flush e la search resterebbe in attesa per sempre
+            if (closed) {
+                pendingSearch.response.completeExceptionally(new IllegalStateException("SearchBatcher chiuso"));
+                return pendingSearch.response;
+            }
+
+            List<PendingSearch> batch = currentBatch;
+            batch.add(pendingSearch);
+            if (batch.size() >= maxBatchSize) {
+                batchToExecute = batch;
+                currentBatch = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                scheduler.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (null != batchToExecute) {
+            execute(batchToExecute);
+        }
+
+        return pendingSearch.response;
+    }
+
+    @Override
+    public void close() {
+        List<PendingSearch> batch;
+        synchronized (this) {
+            closed = true;
+            batch = currentBatch;
+            currentBatch = new ArrayList<>();
+        }
+        if (!batch.isEmpty()) {
+            execute(batch);
+        }
+        scheduler.shutdown();
+    }
+
+    private void flush(List<PendingSearch> batch) {
+        synchronized (this) {
+            // Il batch potrebbe essere già partito perché ha raggiunto maxBatchSize
+            if (batch != currentBatch) {
+                return;
+            }
+            currentBatch = new ArrayList<>();
+        }
+
+        execute(batch);
+    }
+
+    private void execute(List<PendingSearch> batch) {
+        OperationTags tags = OperationTags.of(OperationType.SEARCH_BATCH, null, batchIndices(batch));
+
+        if (batch.size() == 1) {
+            PendingSearch pendingSearch = batch.get(0);
+            CompletableFuture<SearchResponse> searchResponse = operationExecutor.execute(tags,
+                    (requestOptions, listener) -> client.searchAsync(pendingSearch.request, requestOptions, listener));
+            searchResponse.whenComplete((response, e) -> {
+                if (null != e) {
+                    pendingSearch.response.completeExceptionally(e);
+                } else {
+                    pendingSearch.response.complete(response);
+                }
+            });
+            return;
+        }
+
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        batch.forEach(pendingSearch -> multiSearchRequest.add(pendingSearch.request));
+
+        CompletableFuture<MultiSearchResponse> multiSearchResponse = operationExecutor.execute(tags,
+                (requestOptions, listener) -> client.msearchAsync(multiSearchRequest, requestOptions, listener));
+        multiSearchResponse.whenComplete((response, e) -> {
+            if (null != e) {
+                batch.forEach(pendingSearch -> pendingSearch.response.completeExceptionally(e));
+                return;
+            }
+
+            MultiSearchResponse.Item[] items = response.getResponses();
+            for (int i = 0; i < batch.size(); i++) {
+                if (items[i].isFailure()) {
+                    batch.get(i).response.completeExceptionally(items[i].getFailure());
+                } else {
+                    batch.get(i).response.complete(items[i].getResponse());
+                }
+            }
+        });
+    }
+
+    private static Set<String> batchIndices(List<PendingSearch> batch) {
+        Set<String> indices = new TreeSet<>();
+        batch.forEach(pendingSearch -> indices.addAll(Arrays.asList(pendingSearch.request.indices())));
+        return indices;
+    }
+
+    private static class PendingSearch {
+        private final SearchRequest request;
+        private final CompletableFuture<SearchResponse> response = new CompletableFuture<>();
+
+        private PendingSearch(SearchRequest request) {
+            this.request = request;
+        }
+    }
+}
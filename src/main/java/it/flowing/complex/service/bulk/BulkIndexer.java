@@ -0,0 +1,182 @@
+package it.flowing.complex.service.bulk;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.model.CreateDocumentResponse;
+import it.flowing.complex.model.OperationType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+public class BulkIndexer implements Closeable {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private final BulkProcessor bulkProcessor;
+    private final Consumer<String> indexWritten;
+
+    // Le richieste sono confrontate per identità: IndexRequest non ridefinisce equals/hashCode
+    private final Map<DocWriteRequest<?>, CompletableFuture<CreateDocumentResponse>> pendingResponses =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // indexWritten è chiamato una volta per indice a ogni _bulk completata, prima di completare i future dei documenti
+    public BulkIndexer(RestHighLevelClient client,
+                       OperationExecutor operationExecutor,
+                       ServerConfiguration serverConfiguration,
+                       Consumer<String> indexWritten) {
+        Preconditions.checkNotNull(client);
+        Preconditions.checkNotNull(operationExecutor);
+        Preconditions.checkNotNull(serverConfiguration);
+        Preconditions.checkNotNull(indexWritten);
+
+        this.indexWritten = indexWritten;
+
+        // Nessun retry del BulkProcessor: con il backoff riordina gli item della risposta e non sarebbe più possibile
+        // associarli alle richieste originali. Gli item rifiutati con 429 li ritenta executeBulk, mantenendo l'ordine
+        bulkProcessor = BulkProcessor.builder(
+                (request, bulkListener) -> executeBulk(client, operationExecutor, request, bulkListener),
+                new ResponseDispatcher())
+                .setBulkActions(serverConfiguration.getBulkActions())
+                .setBulkSize(new ByteSizeValue(serverConfiguration.getBulkSizeInBytes()))
+                .setFlushInterval(TimeValue.timeValueMillis(serverConfiguration.getBulkFlushIntervalMillis()))
+                .setConcurrentRequests(serverConfiguration.getBulkConcurrentRequests())
+                .setBackoffPolicy(BackoffPolicy.noBackoff())
+                .build();
+    }
+
+    public CompletableFuture<CreateDocumentResponse> add(IndexRequest indexRequest) {
+        Preconditions.checkNotNull(indexRequest);
+
+        CompletableFuture<CreateDocumentResponse> response = new CompletableFuture<>();
+        pendingResponses.put(indexRequest, response);
+        try {
+            bulkProcessor.add(indexRequest);
+        } catch (RuntimeException e) {
+            pendingResponses.remove(indexRequest);
+            throw e;
+        }
+
+        return response;
+    }
+
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            bulkProcessor.awaitClose(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void executeBulk(RestHighLevelClient client,
+                                    OperationExecutor operationExecutor,
+                                    BulkRequest request,
+                                    ActionListener<BulkResponse> bulkListener) {
+        CompletableFuture<BulkResponse> bulkResponse = operationExecutor.executeBulk(bulkTags(request),
+                request,
+                bulkRequest -> (requestOptions, listener) -> client.bulkAsync(bulkRequest, requestOptions, listener));
+        bulkResponse.whenComplete((response, e) -> {
+            if (null != e) {
+                bulkListener.onFailure(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+            } else {
+                bulkListener.onResponse(response);
+            }
+        });
+    }
+
+    static OperationTags bulkTags(BulkRequest request) {
+        return OperationTags.of(OperationType.BULK, null, bulkIndices(request));
+    }
+
+    private static Set<String> bulkIndices(BulkRequest request) {
+        return request.requests().stream()
+                .map(DocWriteRequest::index)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    private CompletableFuture<CreateDocumentResponse> takePendingResponse(DocWriteRequest<?> request) {
+        return pendingResponses.remove(request);
+    }
+
+    private class ResponseDispatcher implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            bulkIndices(request).forEach(indexWritten);
+
+            List<DocWriteRequest<?>> requests = request.requests();
+            BulkItemResponse[] items = response.getItems();
+
+            for (int i = 0; i < requests.size(); i++) {
+                CompletableFuture<CreateDocumentResponse> pendingResponse = takePendingResponse(requests.get(i));
+                if (null == pendingResponse) {
+                    continue;
+                }
+
+                BulkItemResponse item = items[i];
+                if (item.isFailed()) {
+                    pendingResponse.complete(CreateDocumentResponse.builder()
+                            .status(item.status())
+                            .id(item.getId())
+                            .failureMessage(item.getFailureMessage())
+                            .build());
+                } else {
+                    pendingResponse.complete(CreateDocumentResponse.builder()
+                            .status(item.status())
+                            .id(item.getId())
+                            .build());
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            // Anche una _bulk fallita può aver scritto parte dei documenti
+            bulkIndices(request).forEach(indexWritten);
+
+            for (DocWriteRequest<?> documentRequest : request.requests()) {
+                CompletableFuture<CreateDocumentResponse> pendingResponse = takePendingResponse(documentRequest);
+                if (null == pendingResponse) {
+                    continue;
+                }
+
+                pendingResponse.complete(CreateDocumentResponse.builder()
+                        .status(ExceptionsHelper.status(failure))
+                        .id(documentRequest.id())
+                        .failureMessage(failure.getMessage())
+                        .build());
+            }
+        }
+    }
+}
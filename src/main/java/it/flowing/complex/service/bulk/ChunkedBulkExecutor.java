@@ -0,0 +1,115 @@
+package it.flowing.complex.service.bulk;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.service.execution.BoundedDispatcher;
+import it.flowing.complex.service.execution.OperationExecutor;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+// Invia un insieme di scritture come più _bulk (al massimo maxActions azioni o maxSizeInBytes byte ciascuna),
+// con al più maxConcurrentChunks richieste in volo. Gli item della risposta restano nell'ordine delle richieste:
+// se fallisce un'intera _bulk, ogni sua scrittura riceve un item fallito con l'errore della richiesta
+public class ChunkedBulkExecutor {
+
+    private final RestHighLevelClient client;
+    private final OperationExecutor operationExecutor;
+    private final int maxActions;
+    private final long maxSizeInBytes;
+    private final int maxConcurrentChunks;
+
+    public ChunkedBulkExecutor(RestHighLevelClient client,
+                               OperationExecutor operationExecutor,
+                               int maxActions,
+                               long maxSizeInBytes,
+                               int maxConcurrentChunks) {
+        Preconditions.checkNotNull(client);
+        Preconditions.checkNotNull(operationExecutor);
+        Preconditions.checkArgument(maxActions > 0);
+        Preconditions.checkArgument(maxSizeInBytes > 0);
+        Preconditions.checkArgument(maxConcurrentChunks > 0);
+
+        this.client = client;
+        this.operationExecutor = operationExecutor;
+        this.maxActions = maxActions;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.maxConcurrentChunks = maxConcurrentChunks;
+    }
+
+    public CompletableFuture<List<BulkItemResponse>> execute(List<? extends DocWriteRequest<?>> requests) {
+        Preconditions.checkNotNull(requests);
+
+        if (requests.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        List<Chunk> chunks = split(requests);
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+
+        // Un chunk fallito non interrompe gli altri: i suoi item ricevono l'errore e il future del chunk completa
+        List<Supplier<CompletableFuture<Void>>> chunkRequests = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            chunkRequests.add(() -> send(chunk, items));
+        }
+
+        return BoundedDispatcher.dispatch(chunkRequests, maxConcurrentChunks).thenApply(ignored -> Arrays.asList(items));
+    }
+
+    private CompletableFuture<Void> send(Chunk chunk, BulkItemResponse[] items) {
+        CompletableFuture<BulkResponse> bulkResponse = operationExecutor.executeBulk(BulkIndexer.bulkTags(chunk.request),
+                chunk.request,
+                bulkRequest -> (requestOptions, listener) -> client.bulkAsync(bulkRequest, requestOptions, listener));
+
+        return bulkResponse.handle((chunkResponse, e) -> {
+            if (null != e) {
+                chunk.fail(items, e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+            } else {
+                System.arraycopy(chunkResponse.getItems(), 0, items, chunk.offset, chunk.request.numberOfActions());
+            }
+            return null;
+        });
+    }
+
+    private List<Chunk> split(List<? extends DocWriteRequest<?>> requests) {
+        List<Chunk> chunks = new ArrayList<>();
+        Chunk chunk = new Chunk(0);
+        for (int i = 0; i < requests.size(); i++) {
+            if (chunk.request.numberOfActions() >= maxActions || chunk.request.estimatedSizeInBytes() >= maxSizeInBytes) {
+                chunks.add(chunk);
+                chunk = new Chunk(i);
+            }
+            chunk.request.add(requests.get(i));
+        }
+        chunks.add(chunk);
+        return chunks;
+    }
+
+    private static class Chunk {
+        private final int offset;
+        private final BulkRequest request = new BulkRequest();
+
+        private Chunk(int offset) {
+            this.offset = offset;
+        }
+
+        private void fail(BulkItemResponse[] items, Throwable failure) {
+            Exception cause = failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+            List<DocWriteRequest<?>> requests = request.requests();
+            for (int i = 0; i < requests.size(); i++) {
+                DocWriteRequest<?> documentRequest = requests.get(i);
+                items[offset + i] = new BulkItemResponse(offset + i, documentRequest.opType(),
+                        new BulkItemResponse.Failure(documentRequest.index(), documentRequest.type(), documentRequest.id(), cause));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package it.flowing.complex.service.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.AutocompleteData;
+import it.flowing.complex.model.AutocompleteOption;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.regex.Regex;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Suggerimenti per prefisso. Un risultato con meno di size opzioni è completo: ogni documento che inizia con un
+// prefisso più lungo ("sh" -> "sho" -> "shoe") è già tra le sue opzioni, quindi basta filtrarle senza interrogare
+// il cluster. Il filtro confronta il testo in minuscolo, come l'analyzer simple predefinito del campo completion,
+// ed è esatto se ogni documento ha un solo input: con più input l'opzione restituita è quella con il peso
+// maggiore e un documento che corrisponde per un altro input andrebbe perso (prefixPruning a false)
+public class AutocompleteCache {
+
+    private final Cache<AutocompleteData, List<AutocompleteOption>> cache;
+    private final boolean prefixPruning;
+
+    public AutocompleteCache(long maximumEntries, long ttlMillis, boolean prefixPruning) {
+        Preconditions.checkArgument(maximumEntries > 0);
+        Preconditions.checkArgument(ttlMillis > 0);
+
+        this.prefixPruning = prefixPruning;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumEntries)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    // autocompleteData deve avere l'indice già risolto
+    public Optional<List<AutocompleteOption>> get(AutocompleteData autocompleteData) {
+        AutocompleteData key = keyOf(autocompleteData);
+        List<AutocompleteOption> options = cache.getIfPresent(key);
+        if (null != options) {
+            return Optional.of(options);
+        }
+
+        // I prefissi più corti si cercano sulla vista della mappa, senza contarli nelle statistiche
+        String prefix = key.getPrefix();
+        for (int length = prefix.length() - 1; length > 0; length--) {
+            List<AutocompleteOption> shorterPrefixOptions = cache.asMap().get(key.withPrefix(prefix.substring(0, length)));
+            if (null == shorterPrefixOptions) {
+                continue;
+            }
+            // I prefissi ancora più corti hanno almeno le stesse opzioni: se questo è troncato lo sono anche loro
+            if (shorterPrefixOptions.size() >= key.getSize()) {
+                return Optional.empty();
+            }
+            // Nessun documento per il prefisso più corto: nessuno nemmeno per questo, qualunque sia l'analyzer
+            if (!prefixPruning && !shorterPrefixOptions.isEmpty()) {
+                return Optional.empty();
+            }
+
+            List<AutocompleteOption> prunedOptions = shorterPrefixOptions.stream()
+                    .filter(option -> option.getText().toLowerCase(Locale.ROOT).startsWith(prefix))
+                    .collect(ImmutableList.toImmutableList());
+            cache.put(key, prunedOptions);
+            return Optional.of(prunedOptions);
+        }
+
+        return Optional.empty();
+    }
+
+    public void put(AutocompleteData autocompleteData, List<AutocompleteOption> options) {
+        cache.put(keyOf(autocompleteData), ImmutableList.copyOf(options));
+    }
+
+    public void invalidateIndex(String indexName) {
+        cache.asMap().keySet().removeIf(key -> targets(key, indexName));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static boolean targets(AutocompleteData key, String indexName) {
+        if (!key.getSearchIndex().isPresent()) {
+            return true;
+        }
+        for (String index : Strings.splitStringByCommaToArray(key.getSearchIndex().get())) {
+            if (Regex.simpleMatch(index, indexName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Copia immutabile: la chiave non deve cambiare se il chiamante modifica i contesti dopo la ricerca.
+    // Con prefixPruning si assume l'analyzer simple, per cui "Sho" e "sho" sono lo stesso prefisso
+    private AutocompleteData keyOf(AutocompleteData autocompleteData) {
+        Preconditions.checkNotNull(autocompleteData);
+
+        String prefix = prefixPruning ? autocompleteData.getPrefix().toLowerCase(Locale.ROOT) : autocompleteData.getPrefix();
+        return autocompleteData.withPrefix(prefix).withContexts(ImmutableMap.copyOf(autocompleteData.getContexts().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, context -> ImmutableList.copyOf(context.getValue())))));
+    }
+}
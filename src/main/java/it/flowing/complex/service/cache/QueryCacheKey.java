@@ -0,0 +1,66 @@
+package it.flowing.complex.service.cache;
+
+import lombok.Value;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// La chiave è indipendente dall'ordine con cui sono state valorizzate le mappe della QueryData:
+// gli indici sono ordinati e il body della richiesta è serializzato con le chiavi in ordine alfabetico
+@Value
+public class QueryCacheKey {
+    List<String> indices;
+    String source;
+
+    public static QueryCacheKey of(SearchRequest searchRequest) {
+        return of(Arrays.asList(searchRequest.indices()), searchRequest);
+    }
+
+    // concreteIndices sostituisce gli indici della richiesta, che possono essere alias
+    public static QueryCacheKey of(Collection<String> concreteIndices, SearchRequest searchRequest) {
+        List<String> indices = new ArrayList<>(concreteIndices);
+        indices.sort(null);
+
+        String source = "";
+        if (null != searchRequest.source()) {
+            Map<String, Object> sourceMap = XContentHelper.convertToMap(JsonXContent.jsonXContent,
+                    Strings.toString(searchRequest.source()), false);
+            source = normalize(sourceMap).toString();
+        }
+
+        return new QueryCacheKey(indices, source);
+    }
+
+    public boolean targets(String indexName) {
+        for (String index : indices) {
+            if (Regex.simpleMatch(index, indexName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object normalize(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            ((Map<String, Object>) value).forEach((key, entry) -> sorted.put(key, normalize(entry)));
+            return sorted;
+        }
+        if (value instanceof List) {
+            List<Object> normalized = new ArrayList<>();
+            ((List<Object>) value).forEach(entry -> normalized.add(normalize(entry)));
+            return normalized;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,199 @@
+package it.flowing.complex.service.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import it.flowing.complex.model.SearchResult;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueryResultCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 1024;
+
+    private final Cache<QueryCacheKey, SearchResult> cache;
+
+    // Indici (o alias) richiesti dalla ricerca -> indici concreti -> alias di ciascuno, al momento della risoluzione
+    private final Cache<String, Map<String, Set<String>>> resolutions;
+
+    // Incrementata a ogni invalidazione dell'indice concreto: un risultato calcolato prima non va messo in cache
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    public QueryResultCache(long maximumWeightBytes, long maximumEntries, long ttlMillis) {
+        Preconditions.checkArgument(maximumWeightBytes > 0);
+        Preconditions.checkArgument(maximumEntries > 0);
+        Preconditions.checkArgument(ttlMillis > 0);
+
+        // Guava non permette di combinare maximumSize e maximumWeight: il limite sul numero di
+        // elementi si ottiene imponendo a ogni elemento un peso minimo pari a maximumWeight / maximumEntries
+        int minimumWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maximumWeightBytes / maximumEntries));
+
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeightBytes)
+                .weigher((QueryCacheKey key, SearchResult searchResult) -> Math.max(minimumWeight, weigh(key, searchResult)))
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+
+        // Un alias spostato su un altro indice viene visto al più dopo ttlMillis, come i risultati
+        resolutions = CacheBuilder.newBuilder()
+                .maximumSize(maximumEntries)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    // Wildcard, _all, date math, esclusioni e indici remoti non si risolvono in un insieme stabile di indici
+    // concreti: le scritture su un indice creato dopo non invaliderebbero la ricerca
+    public static boolean isCacheable(String[] indices) {
+        if (null == indices || 0 == indices.length) {
+            return false;
+        }
+        for (String index : indices) {
+            if (index.isEmpty() || "_all".equals(index) || index.startsWith("<") || index.startsWith("-")
+                    || index.indexOf('*') >= 0 || index.indexOf('?') >= 0 || index.indexOf(':') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Optional<List<String>> getConcreteIndices(String[] indices) {
+        return Optional.ofNullable(resolutions.getIfPresent(resolutionKey(indices)))
+                .map(concreteIndices -> new ArrayList<>(concreteIndices.keySet()));
+    }
+
+    // concreteIndices: per ogni indice concreto, i suoi alias
+    public void putConcreteIndices(String[] indices, Map<String, Set<String>> concreteIndices) {
+        Preconditions.checkNotNull(concreteIndices);
+        Preconditions.checkArgument(!concreteIndices.isEmpty());
+
+        resolutions.put(resolutionKey(indices), Collections.unmodifiableMap(concreteIndices));
+    }
+
+    // Da leggere prima di eseguire la ricerca e da passare a put
+    public long generation(QueryCacheKey key) {
+        long generation = 0;
+        for (String index : key.getIndices()) {
+            AtomicLong indexGeneration = generations.get(index);
+            generation += null == indexGeneration ? 0 : indexGeneration.get();
+        }
+        return generation;
+    }
+
+    public Optional<SearchResult> get(QueryCacheKey key) {
+        return Optional.ofNullable(cache.getIfPresent(key)).map(QueryResultCache::copy);
+    }
+
+    // Il risultato non viene messo in cache se un indice della ricerca è stato invalidato dopo la lettura di
+    // generation: la ricerca può aver letto i dati precedenti alla scrittura
+    public void put(QueryCacheKey key, long generation, SearchResult searchResult) {
+        if (searchResult.isFailed() || Boolean.TRUE.equals(searchResult.getTimedOut()) || searchResult.getFailedShards() > 0) {
+            return;
+        }
+        if (generation != generation(key)) {
+            return;
+        }
+
+        SearchResult cachedSearchResult = copy(searchResult);
+        cache.put(key, cachedSearchResult);
+        // Un'invalidazione tra il controllo e la put potrebbe aver già rimosso le chiavi dell'indice
+        if (generation != generation(key)) {
+            cache.asMap().remove(key, cachedSearchResult);
+        }
+    }
+
+    // indexName può essere un alias: si invalidano gli indici concreti a cui puntava nelle risoluzioni note
+    public void invalidateIndex(String indexName) {
+        Set<String> indices = new HashSet<>();
+        indices.add(indexName);
+        resolutions.asMap().forEach((requestedIndices, concreteIndices) -> {
+            if (Arrays.asList(requestedIndices.split(",")).contains(indexName)) {
+                indices.addAll(concreteIndices.keySet());
+            }
+            concreteIndices.forEach((concreteIndex, aliases) -> {
+                if (aliases.contains(indexName)) {
+                    indices.add(concreteIndex);
+                }
+            });
+        });
+
+        // Prima la generazione, poi la rimozione: una put concorrente vede l'una o l'altra
+        indices.forEach(index -> generations.computeIfAbsent(index, key -> new AtomicLong()).incrementAndGet());
+        cache.asMap().keySet().removeIf(key -> indices.stream().anyMatch(key::targets));
+    }
+
+    public void invalidateAll() {
+        generations.values().forEach(AtomicLong::incrementAndGet);
+        resolutions.invalidateAll();
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static String resolutionKey(String[] indices) {
+        Preconditions.checkArgument(isCacheable(indices));
+
+        List<String> sortedIndices = new ArrayList<>(Arrays.asList(indices));
+        sortedIndices.sort(null);
+        return String.join(",", sortedIndices);
+    }
+
+    // SearchResult e SearchHit sono mutabili: la cache conserva una copia e ne restituisce una nuova a ogni chiamante.
+    // Dei risultati pigri si copia solo lo stato della decodifica, i byte della risposta non cambiano
+    private static SearchResult copy(SearchResult searchResult) {
+        if (null != searchResult.getResponseBody()) {
+            return searchResult.withResponseBody(searchResult.getResponseBody().copy());
+        }
+        List<SearchHit> hits = new ArrayList<>();
+        try (BytesStreamOutput output = new BytesStreamOutput()) {
+            for (SearchHit hit : Optional.ofNullable(searchResult.getHits()).orElse(Collections.emptyList())) {
+                output.reset();
+                hit.writeTo(output);
+                try (StreamInput input = output.bytes().streamInput()) {
+                    hits.add(new SearchHit(input));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return searchResult.withHits(Collections.unmodifiableList(hits));
+    }
+
+    private static int weigh(QueryCacheKey key, SearchResult searchResult) {
+        long weight = ENTRY_OVERHEAD_BYTES + key.getSource().length();
+        // Per i risultati pigri il peso è quello della risposta mantenuta, senza forzare la decodifica degli hit
+        if (null != searchResult.getResponseBody()) {
+            weight += searchResult.getResponseBody().getSizeInBytes();
+        } else if (null != searchResult.getHits()) {
+            for (SearchHit hit : searchResult.getHits()) {
+                BytesReference source = hit.getSourceRef();
+                weight += null == source ? ENTRY_OVERHEAD_BYTES : source.length();
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+}
@@ -1,8 +1,13 @@
 package it.flowing.complex.service.configuration;
 
 import lombok.Data;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.List;
 
 @ApplicationScoped
 @Data
@@ -11,10 +16,196 @@ public class ServerConfiguration {
     private int port;
     private String searchIndex;
 
+    // Cluster: se hosts è vuota si usa il solo nodo host:port
+    private List<String> hosts;
+    private int maxConnectionsPerRoute;
+    private int maxConnectionsTotal;
+    private boolean skipDedicatedMasters;
+    private boolean sniffingEnabled;
+    private int sniffIntervalMillis;
+    private int sniffAfterFailureDelayMillis;
+
+    // Trasporto: gzip dei body di richiesta tra requestCompressionMinBytes e requestCompressionMaxBytes e
+    // Accept-Encoding: gzip sulle risposte, decompresse fino a responseDecompressionMaxBytes.
+    // Formato dei body di search (JSON, SMILE o CBOR) e dei documenti inviati in index, update e bulk (JSON o SMILE)
+    private boolean requestCompressionEnabled;
+    private int requestCompressionMinBytes;
+    private long requestCompressionMaxBytes;
+    private boolean responseCompressionEnabled;
+    private long responseDecompressionMaxBytes;
+    private XContentType searchContentType;
+    private XContentType documentContentType;
+
+    // Latenza delle letture (search, get, exists): percentili per operazione e SearchType sugli ultimi due intervalli
+    // di latencyWindowMillis, usati da latencyMinSamples misure in su. La deadline lato client è il p99 per
+    // adaptiveTimeoutMultiplier, tra min e max; con l'hedging, se la risposta non arriva entro hedgingPercentile,
+    // parte una seconda richiesta con un'altra preference
+    private long latencyWindowMillis;
+    private int latencyMinSamples;
+    private boolean adaptiveTimeoutEnabled;
+    private double adaptiveTimeoutMultiplier;
+    private long adaptiveTimeoutMinMillis;
+    private long adaptiveTimeoutMaxMillis;
+    private boolean hedgingEnabled;
+    private double hedgingPercentile;
+    private long hedgingMinDelayMillis;
+
+    // Limite adattivo (AIMD) delle richieste in volo per classe di operazioni (search, get, write, gestione): cresce
+    // di 1 ogni limit risposte e scende di concurrencyLimitBackoffRatio a ogni 429 o deadline scaduta. Oltre il limite
+    // si attende in coda fino a concurrencyLimitMaxWaitMillis; con 0, o con la coda piena, il rifiuto è immediato
+    private boolean concurrencyLimitEnabled;
+    private int concurrencyLimitInitial;
+    private int concurrencyLimitMin;
+    private int concurrencyLimitMax;
+    private double concurrencyLimitBackoffRatio;
+    private long concurrencyLimitMaxWaitMillis;
+    private int concurrencyLimitMaxQueued;
+
+    // Retry delle chiamate fallite per errori transitori, fino a retryMaxAttempts tentativi in tutto: l'attesa prima
+    // del tentativo n è casuale tra 0 e retryInitialBackoffMillis * 2^(n-1), al massimo retryMaxBackoffMillis.
+    // Le scritture non idempotenti sono ritentate solo se il cluster non le ha eseguite (429, connessione rifiutata)
+    private boolean retryEnabled;
+    private int retryMaxAttempts;
+    private long retryInitialBackoffMillis;
+    private long retryMaxBackoffMillis;
+
+    // Dopo circuitBreakerFailureThreshold errori consecutivi (nodo irraggiungibile, 502, 503, 504, deadline scaduta)
+    // il circuito si apre per circuitBreakerOpenMillis: globale, le chiamate falliscono subito con 503; per nodo,
+    // le richieste vanno agli altri nodi
+    private boolean circuitBreakerEnabled;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenMillis;
+
+    // Micro-batching delle search in _msearch: disabilitato se la finestra è 0
+    private long searchBatchingWindowMillis;
+    private int searchBatchingMaxSize;
+
+    // Cache dei risultati delle search
+    private boolean queryCacheEnabled;
+    private long queryCacheMaximumWeightBytes;
+    private long queryCacheMaximumEntries;
+    private long queryCacheTtlMillis;
+
+    // Autocompletamento: cache dei suggerimenti per prefisso, disabilitata se il numero massimo è 0 (default).
+    // Le scritture fatte da altre istanze sono visibili solo alla scadenza del TTL.
+    // Con prefixPruning i prefissi più lunghi di un risultato completo sono filtrati in locale: corretto solo per
+    // documenti con un solo input nel campo completion e analyzer simple, quindi anch'esso disabilitato di default
+    private long autocompleteCacheMaximumEntries;
+    private long autocompleteCacheTtlMillis;
+    private boolean autocompletePrefixPruning;
+
+    // Template di ricerca memorizzati nel cluster: per quanto restano validi indici e parametri letti o registrati
+    private long searchTemplateCacheTtlMillis;
+
+    // Paginazione profonda. Il tiebreaker di search_after deve essere un campo keyword univoco con doc_values
+    // (ad esempio una copia di _id): ordinare su _id carica il suo fielddata nell'heap di ogni nodo dati.
+    // Se non è configurato, SEARCH_AFTER ricade sullo scroll
+    private int streamPageSize;
+    private String searchAfterTiebreakerField;
+    private long scrollKeepAliveMillis;
+
+    // Bulk
+    private int bulkActions;
+    private long bulkSizeInBytes;
+    private long bulkFlushIntervalMillis;
+    private int bulkConcurrentRequests;
+    // updateDocuments / deleteDocuments: _bulk in volo contemporaneamente per una stessa chiamata
+    private int bulkMaxConcurrentChunks;
+
+    // getDocuments: id per singola _mget e _mget in volo contemporaneamente per una stessa chiamata
+    private int multiGetChunkSize;
+    private int multiGetMaxConcurrentChunks;
+
+    // Metriche: istogrammi di latenza, errori e byte per operazione
+    private boolean metricsEnabled;
+
     public ServerConfiguration() {
         // TODO: Leggere da un file di configurazione
         host = "localhost";
         port = 9200;
         searchIndex = "kibana_sample_data_ecommerce";
+
+        hosts = new ArrayList<>();
+        maxConnectionsPerRoute = RestClientBuilder.DEFAULT_MAX_CONN_PER_ROUTE;
+        maxConnectionsTotal = RestClientBuilder.DEFAULT_MAX_CONN_TOTAL;
+        skipDedicatedMasters = false;
+        sniffingEnabled = false;
+        sniffIntervalMillis = 5 * 60 * 1000;
+        sniffAfterFailureDelayMillis = 60 * 1000;
+
+        requestCompressionEnabled = false;
+        requestCompressionMinBytes = 1024;
+        requestCompressionMaxBytes = 10 * 1024 * 1024;
+        responseCompressionEnabled = false;
+        // Come il buffer delle risposte del RestClient
+        responseDecompressionMaxBytes = 100 * 1024 * 1024;
+        searchContentType = XContentType.JSON;
+        documentContentType = XContentType.JSON;
+
+        latencyWindowMillis = 60 * 1000;
+        latencyMinSamples = 100;
+        adaptiveTimeoutEnabled = false;
+        adaptiveTimeoutMultiplier = 3;
+        adaptiveTimeoutMinMillis = 100;
+        adaptiveTimeoutMaxMillis = 30 * 1000;
+        hedgingEnabled = false;
+        hedgingPercentile = 95;
+        hedgingMinDelayMillis = 5;
+
+        concurrencyLimitEnabled = false;
+        concurrencyLimitInitial = 16;
+        concurrencyLimitMin = 1;
+        concurrencyLimitMax = 128;
+        concurrencyLimitBackoffRatio = 0.75;
+        concurrencyLimitMaxWaitMillis = 1000;
+        concurrencyLimitMaxQueued = 1000;
+
+        retryEnabled = false;
+        retryMaxAttempts = 3;
+        retryInitialBackoffMillis = 50;
+        retryMaxBackoffMillis = 2000;
+
+        circuitBreakerEnabled = false;
+        circuitBreakerFailureThreshold = 5;
+        circuitBreakerOpenMillis = 5000;
+
+        searchBatchingWindowMillis = 0;
+        searchBatchingMaxSize = 32;
+
+        queryCacheEnabled = false;
+        queryCacheMaximumWeightBytes = 64 * 1024 * 1024;
+        queryCacheMaximumEntries = 10000;
+        queryCacheTtlMillis = 60 * 1000;
+
+        autocompleteCacheMaximumEntries = 0;
+        autocompleteCacheTtlMillis = 60 * 1000;
+        autocompletePrefixPruning = false;
+
+        searchTemplateCacheTtlMillis = 60 * 1000;
+
+        streamPageSize = 1000;
+        searchAfterTiebreakerField = null;
+        scrollKeepAliveMillis = 60 * 1000;
+
+        bulkActions = 1000;
+        bulkSizeInBytes = 5 * 1024 * 1024;
+        bulkFlushIntervalMillis = 5000;
+        bulkConcurrentRequests = 1;
+        bulkMaxConcurrentChunks = 4;
+
+        multiGetChunkSize = 1000;
+        multiGetMaxConcurrentChunks = 4;
+
+        metricsEnabled = false;
+    }
+
+    public HttpHost[] getHttpHosts() {
+        if (null == hosts || hosts.isEmpty()) {
+            return new HttpHost[] { new HttpHost(host, port) };
+        }
+
+        return hosts.stream()
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
     }
 }
@@ -0,0 +1,258 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.model.SearchResult;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Locale;
+
+// Client di alto livello con la search a mappatura pigra: la risposta resta nei byte ricevuti e SearchResult
+// decodifica hit, aggregazioni e suggest solo quando vengono letti
+class ElasticRestClient extends RestHighLevelClient {
+
+    private final NamedXContentRegistry registry;
+    private final XContentType searchContentType;
+
+    // searchContentType: formato del body delle search, e quindi della risposta, che il nodo restituisce nello stesso formato
+    ElasticRestClient(RestClientBuilder restClientBuilder, XContentType searchContentType) {
+        super(restClientBuilder, Collections.emptyList());
+
+        this.searchContentType = Preconditions.checkNotNull(searchContentType);
+
+        // Il registry con i parser di aggregazioni e suggest non è esposto: lo si recupera da un parser del client
+        try {
+            registry = parseEntity(new NStringEntity("{}", ContentType.APPLICATION_JSON), XContentParser::getXContentRegistry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Cancellable searchLazyAsync(SearchRequest searchRequest, RequestOptions options, ActionListener<SearchResult> listener) {
+        return performLowLevelRequestAsync(build(() -> searchRequest(searchRequest, searchContentType)),
+                options,
+                this::toSearchResult,
+                listener);
+    }
+
+    // Body già serializzato (QueryPlan): le opzioni sono quelle di default di una SearchRequest, preference può essere null
+    public Cancellable searchLazyAsync(String[] indices, BytesReference source, String preference, RequestOptions options,
+                                       ActionListener<SearchResult> listener) {
+        Preconditions.checkNotNull(indices);
+        Preconditions.checkNotNull(source);
+
+        return performLowLevelRequestAsync(build(() -> renderedSearchRequest(indices, source, preference)),
+                options,
+                this::toSearchResult,
+                listener);
+    }
+
+    // Il convertitore di update del client 7.6 non invia if_seq_no e if_primary_term: senza, la scrittura
+    // condizionata diventerebbe incondizionata
+    public Cancellable conditionalUpdateAsync(UpdateRequest updateRequest, RequestOptions options, ActionListener<UpdateResponse> listener) {
+        Preconditions.checkArgument(updateRequest.ifSeqNo() != SequenceNumbers.UNASSIGNED_SEQ_NO);
+
+        return performLowLevelRequestAsync(build(() -> conditionalUpdateRequest(updateRequest)),
+                options,
+                response -> parseEntity(response.getEntity(), UpdateResponse::fromXContent),
+                listener);
+    }
+
+    // Come performRequestAsync del client di alto livello, deprecato in 7.6 per le sottoclassi: le risposte di errore
+    // diventano ElasticsearchStatusException con il body del nodo, la conversione fallita un'IOException
+    private <T> Cancellable performLowLevelRequestAsync(Request request,
+                                                       RequestOptions options,
+                                                       CheckedFunction<Response, T, IOException> responseConverter,
+                                                       ActionListener<T> listener) {
+        request.setOptions(options);
+        return getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                T result;
+                try {
+                    result = responseConverter.apply(response);
+                } catch (Exception e) {
+                    listener.onFailure(new IOException("Unable to parse response body for " + response.getStatusLine(), e));
+                    return;
+                }
+                listener.onResponse(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e instanceof ResponseException ? parseResponseException((ResponseException) e) : e);
+            }
+        });
+    }
+
+    // La serializzazione avviene in memoria: un errore qui è un errore di programmazione, non del cluster
+    private static Request build(CheckedSupplier<Request, IOException> requestBuilder) {
+        try {
+            return requestBuilder.get();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SearchResult toSearchResult(Response response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        RestStatus status = RestStatus.fromCode(response.getStatusLine().getStatusCode());
+
+        // La lettura pigra è limitata al JSON: per gli altri formati si ricade sulla mappatura completa
+        Header contentType = entity.getContentType();
+        if (null != contentType && XContentType.fromMediaTypeOrFormat(contentType.getValue()) != XContentType.JSON) {
+            return SearchResult.fromSearchResponse(parseEntity(entity, SearchResponse::fromXContent));
+        }
+
+        return SearchResult.fromResponseBody(status, EntityUtils.toByteArray(entity), registry);
+    }
+
+    // Equivalente della conversione del client di alto livello, che non è accessibile da fuori del suo package
+    private static Request searchRequest(SearchRequest searchRequest, XContentType xContentType) throws IOException {
+        Request request = new Request(HttpPost.METHOD_NAME, endpoint(String.join(",", searchRequest.indices()), "_search"));
+
+        request.addParameter("typed_keys", "true");
+        if (null != searchRequest.routing()) {
+            request.addParameter("routing", searchRequest.routing());
+        }
+        if (null != searchRequest.preference()) {
+            request.addParameter("preference", searchRequest.preference());
+        }
+        if (searchRequest.searchType() != SearchType.DEFAULT) {
+            request.addParameter("search_type", searchRequest.searchType().name().toLowerCase(Locale.ROOT));
+        }
+        request.addParameter("ccs_minimize_roundtrips", Boolean.toString(searchRequest.isCcsMinimizeRoundtrips()));
+        request.addParameter("pre_filter_shard_size", Integer.toString(searchRequest.getPreFilterShardSize()));
+        request.addParameter("max_concurrent_shard_requests", Integer.toString(searchRequest.getMaxConcurrentShardRequests()));
+        if (null != searchRequest.requestCache()) {
+            request.addParameter("request_cache", searchRequest.requestCache().toString());
+        }
+        if (null != searchRequest.allowPartialSearchResults()) {
+            request.addParameter("allow_partial_search_results", searchRequest.allowPartialSearchResults().toString());
+        }
+        request.addParameter("batched_reduce_size", Integer.toString(searchRequest.getBatchedReduceSize()));
+        if (null != searchRequest.scroll()) {
+            request.addParameter("scroll", searchRequest.scroll().keepAlive().getStringRep());
+        }
+
+        IndicesOptions indicesOptions = searchRequest.indicesOptions();
+        request.addParameter("ignore_unavailable", Boolean.toString(indicesOptions.ignoreUnavailable()));
+        request.addParameter("allow_no_indices", Boolean.toString(indicesOptions.allowNoIndices()));
+        request.addParameter("ignore_throttled", Boolean.toString(indicesOptions.ignoreThrottled()));
+        request.addParameter("expand_wildcards", expandWildcards(indicesOptions));
+
+        if (null != searchRequest.source()) {
+            request.setEntity(entity(searchRequest.source(), xContentType));
+        }
+
+        return request;
+    }
+
+    private static Request renderedSearchRequest(String[] indices, BytesReference renderedSource, String preference)
+            throws IOException {
+        Request request = searchRequest(new SearchRequest(indices).preference(preference), XContentType.JSON);
+
+        BytesRef source = renderedSource.toBytesRef();
+        request.setEntity(new NByteArrayEntity(source.bytes, source.offset, source.length, ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private static Request conditionalUpdateRequest(UpdateRequest updateRequest) throws IOException {
+        Request request = new Request(HttpPost.METHOD_NAME, endpoint(updateRequest.index(), "_update", updateRequest.id()));
+
+        if (null != updateRequest.routing()) {
+            request.addParameter("routing", updateRequest.routing());
+        }
+        request.addParameter("timeout", updateRequest.timeout().getStringRep());
+        if (updateRequest.getRefreshPolicy() != WriteRequest.RefreshPolicy.NONE) {
+            request.addParameter("refresh", updateRequest.getRefreshPolicy().getValue());
+        }
+        if (updateRequest.retryOnConflict() > 0) {
+            request.addParameter("retry_on_conflict", Integer.toString(updateRequest.retryOnConflict()));
+        }
+        request.addParameter("if_seq_no", Long.toString(updateRequest.ifSeqNo()));
+        request.addParameter("if_primary_term", Long.toString(updateRequest.ifPrimaryTerm()));
+
+        request.setEntity(entity(updateRequest, XContentType.JSON));
+        return request;
+    }
+
+    private static HttpEntity entity(ToXContent toXContent, XContentType xContentType) throws IOException {
+        BytesRef source = XContentHelper.toXContent(toXContent, xContentType, false).toBytesRef();
+        ContentType contentType = XContentType.JSON == xContentType
+                ? ContentType.APPLICATION_JSON
+                : ContentType.create(xContentType.mediaTypeWithoutParameters(), (Charset) null);
+        return new NByteArrayEntity(source.bytes, source.offset, source.length, contentType);
+    }
+
+    // Le parti vuote vengono saltate: /_search senza indici
+    // Codifica ogni parte come segmento di path, come l'EndpointBuilder del client di alto livello: gli indici con
+    // date math (<logs-{now/d}>) contengono anche '/', che non deve separare i segmenti
+    static String endpoint(String... parts) throws IOException {
+        StringBuilder path = new StringBuilder();
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            try {
+                path.append('/').append(new URI(null, null, null, -1, "/" + part, null, null).getRawPath()
+                        .substring(1)
+                        .replace("/", "%2F"));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        return path.toString();
+    }
+
+    private static String expandWildcards(IndicesOptions indicesOptions) {
+        if (indicesOptions.expandWildcardsOpen() && indicesOptions.expandWildcardsClosed()) {
+            return "all";
+        }
+        if (indicesOptions.expandWildcardsOpen()) {
+            return "open";
+        }
+        if (indicesOptions.expandWildcardsClosed()) {
+            return "closed";
+        }
+        return "none";
+    }
+}
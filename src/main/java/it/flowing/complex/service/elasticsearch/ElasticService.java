@@ -1,46 +1,149 @@
 package it.flowing.complex.service.elasticsearch;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Iterables;
 import it.flowing.complex.model.*;
+import it.flowing.complex.service.aggregation.AggregationBuilderFactory;
+import it.flowing.complex.service.attachment.AttachmentEntity;
+import it.flowing.complex.service.batching.SearchBatcher;
+import it.flowing.complex.service.bulk.BulkIndexer;
+import it.flowing.complex.service.bulk.ChunkedBulkExecutor;
+import it.flowing.complex.service.cache.AutocompleteCache;
+import it.flowing.complex.service.cache.QueryCacheKey;
+import it.flowing.complex.service.cache.QueryResultCache;
 import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.execution.AdmissionController;
+import it.flowing.complex.service.execution.BoundedDispatcher;
+import it.flowing.complex.service.execution.CircuitBreaker;
+import it.flowing.complex.service.execution.ConcurrencyLimitSnapshot;
+import it.flowing.complex.service.execution.Idempotency;
+import it.flowing.complex.service.execution.LatencyPolicy;
+import it.flowing.complex.service.execution.NodeCircuitBreakers;
+import it.flowing.complex.service.execution.OperationClass;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.execution.RetryPolicy;
+import it.flowing.complex.service.metrics.ElasticMetrics;
+import it.flowing.complex.service.metrics.HistogramElasticMetrics;
+import it.flowing.complex.service.metrics.MetricsInterceptor;
+import it.flowing.complex.service.metrics.MetricsSnapshot;
+import it.flowing.complex.service.metrics.OperationTags;
+import it.flowing.complex.service.pagination.CompositeAggregationPageSource;
+import it.flowing.complex.service.pagination.PrefetchingIterator;
+import it.flowing.complex.service.pagination.ScrollPageSource;
+import it.flowing.complex.service.pagination.SearchAfterPageSource;
 import it.flowing.complex.service.searcher.*;
+import it.flowing.complex.service.transport.CompressingHttpAsyncClient;
 import it.flowing.complex.model.CreateDocumentResponse;
 import lombok.NoArgsConstructor;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.cluster.storedscripts.GetStoredScriptRequest;
+import org.elasticsearch.action.admin.cluster.storedscripts.GetStoredScriptResponse;
+import org.elasticsearch.action.admin.cluster.storedscripts.PutStoredScriptRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
-import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.seqno.SequenceNumbers;
 import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.mustache.MultiSearchTemplateRequest;
+import org.elasticsearch.script.mustache.MultiSearchTemplateResponse;
+import org.elasticsearch.script.mustache.SearchTemplateRequest;
+import org.elasticsearch.script.mustache.SearchTemplateResponse;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
 import org.elasticsearch.search.suggest.SuggestionBuilder;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
+import org.elasticsearch.search.suggest.completion.context.CategoryQueryContext;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Base64;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @ApplicationScoped
 @NoArgsConstructor
@@ -48,49 +151,725 @@ public class ElasticService {
 
     public static final String SUGGEST_PREFIX = "suggest_";
 
+    private static final String AUTOCOMPLETE_SUGGESTION = "autocomplete";
+
     @Inject
     private ServerConfiguration serverConfiguration;
 
-    private RestHighLevelClient client;
+    private ElasticRestClient client;
+
+    private Sniffer sniffer;
+
+    private BulkIndexer bulkIndexer;
+
+    private ChunkedBulkExecutor chunkedBulkExecutor;
+
+    private SearchBatcher searchBatcher;
+
+    private QueryResultCache queryResultCache;
+
+    private AutocompleteCache autocompleteCache;
+
+    private ElasticMetrics metrics;
+
+    private OperationExecutor operationExecutor;
+
+    private LatencyPolicy latencyPolicy;
+
+    private AdmissionController admissionController;
 
-    private static Map<SearchType, Searcher> searcherMap = new HashMap<SearchType, Searcher>() {{
-        put(SearchType.MATCH_ALL_QUERY, new MatchAllSearcher());
-        put(SearchType.TERM_QUERY, new TermSearcher());
-        put(SearchType.TERMS_QUERY, new TermsSearcher());
-        put(SearchType.EXISTS_QUERY, new ExistsSearcher());
-        put(SearchType.FUZZ_QUERY, new FuzzSearcher());
-        put(SearchType.RANGE_QUERY, new RangeSearcher());
-        put(SearchType.NESTED_QUERY, new NestedSearcher());
-        put(SearchType.BOOL_QUERY, new BoolSearcher());
-    }};
+    private RetryPolicy retryPolicy;
 
-    private Searcher searcher;
+    private CircuitBreaker circuitBreaker;
+
+    // Template registrati o letti dal cluster: indici e parametri servono a eseguirli e a validarne i parametri.
+    // Scadono dopo searchTemplateCacheTtlMillis, così un template registrato di nuovo da un'altra istanza viene riletto
+    private Cache<String, StoredSearchTemplate> searchTemplates;
+
+    // I Searcher sono stateless: la mappa è immutabile e condivisa tra tutte le richieste concorrenti
+    private static final Map<SearchType, Searcher> searcherMap = createSearcherMap();
+
+    private static final String ATTACHMENT_PIPELINE = "attachment";
+
+    // Chiavi di configuration per la concorrenza ottimistica di update e delete
+    public static final String IF_SEQ_NO = "if_seq_no";
+    public static final String IF_PRIMARY_TERM = "if_primary_term";
+
+    // Chiavi di configuration delle letture
+    public static final String SOURCE_INCLUDES = "_source_includes";
+    public static final String SOURCE_EXCLUDES = "_source_excludes";
+    public static final String ROUTING = "routing";
+    public static final String STORED_FIELDS = "stored_fields";
+    public static final String PREFERENCE = "preference";
+    public static final String REALTIME = "realtime";
+    public static final String REFRESH = "refresh";
+
+    // Chiavi di configuration degli update: con SCRIPT i metadati diventano i parametri dello script
+    public static final String DOC_AS_UPSERT = "doc_as_upsert";
+    public static final String SCRIPT = "script";
+    public static final String SCRIPTED_UPSERT = "scripted_upsert";
 
     @Inject
     public ElasticService(ServerConfiguration serverConfiguration) {
         this.serverConfiguration = serverConfiguration;
     }
 
+    // Strumentazione personalizzata: senza, le metriche dipendono da ServerConfiguration.metricsEnabled
+    public ElasticService(ServerConfiguration serverConfiguration, ElasticMetrics metrics) {
+        Preconditions.checkNotNull(metrics);
+
+        this.serverConfiguration = serverConfiguration;
+        this.metrics = metrics;
+    }
+
     public void openConnection() {
         Preconditions.checkNotNull(serverConfiguration);
+        Preconditions.checkNotNull(serverConfiguration.getSearchContentType());
+        // Il _bulk del client 7.6 accetta documenti solo in JSON o SMILE
+        Preconditions.checkArgument(XContentType.JSON == serverConfiguration.getDocumentContentType()
+                || XContentType.SMILE == serverConfiguration.getDocumentContentType());
+
+        if (null == metrics) {
+            metrics = serverConfiguration.isMetricsEnabled() ? new HistogramElasticMetrics() : ElasticMetrics.NOOP;
+        }
+        MetricsInterceptor metricsInterceptor = metrics.isEnabled() ? new MetricsInterceptor() : null;
+
+        SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+        NodeCircuitBreakers nodeCircuitBreakers = serverConfiguration.isCircuitBreakerEnabled()
+                ? new NodeCircuitBreakers(serverConfiguration.getCircuitBreakerFailureThreshold(),
+                        serverConfiguration.getCircuitBreakerOpenMillis(),
+                        serverConfiguration.isSkipDedicatedMasters() ? NodeSelector.SKIP_DEDICATED_MASTERS : NodeSelector.ANY)
+                : null;
+        RestClientBuilder restClientBuilder = RestClient.builder(serverConfiguration.getHttpHosts())
+                .setHttpClientConfigCallback(httpClientBuilder -> {
+                    httpClientBuilder
+                            .setMaxConnPerRoute(serverConfiguration.getMaxConnectionsPerRoute())
+                            .setMaxConnTotal(serverConfiguration.getMaxConnectionsTotal());
+                    if (null != metricsInterceptor) {
+                        httpClientBuilder
+                                .addInterceptorLast((HttpRequestInterceptor) metricsInterceptor)
+                                .addInterceptorLast((HttpResponseInterceptor) metricsInterceptor);
+                    }
+                    if (null != nodeCircuitBreakers) {
+                        httpClientBuilder.addInterceptorLast(nodeCircuitBreakers);
+                    }
+                    if (serverConfiguration.isRequestCompressionEnabled() || serverConfiguration.isResponseCompressionEnabled()) {
+                        return CompressingHttpAsyncClient.wrap(httpClientBuilder,
+                                serverConfiguration.isRequestCompressionEnabled(),
+                                serverConfiguration.getRequestCompressionMinBytes(),
+                                serverConfiguration.getRequestCompressionMaxBytes(),
+                                serverConfiguration.isResponseCompressionEnabled(),
+                                serverConfiguration.getResponseDecompressionMaxBytes());
+                    }
+                    return httpClientBuilder;
+                });
+
+        if (null != nodeCircuitBreakers) {
+            // Il client accetta un solo FailureListener: quello dello sniffer riceve comunque i nodi falliti
+            restClientBuilder.setNodeSelector(nodeCircuitBreakers);
+            restClientBuilder.setFailureListener(nodeCircuitBreakers.failureListener(
+                    serverConfiguration.isSniffingEnabled() ? sniffOnFailureListener : null));
+        } else {
+            if (serverConfiguration.isSkipDedicatedMasters()) {
+                restClientBuilder.setNodeSelector(NodeSelector.SKIP_DEDICATED_MASTERS);
+            }
+
+            if (serverConfiguration.isSniffingEnabled()) {
+                restClientBuilder.setFailureListener(sniffOnFailureListener);
+            }
+        }
+
+        client = new ElasticRestClient(restClientBuilder, serverConfiguration.getSearchContentType());
+
+        if (serverConfiguration.isSniffingEnabled()) {
+            sniffer = Sniffer.builder(client.getLowLevelClient())
+                    .setSniffIntervalMillis(serverConfiguration.getSniffIntervalMillis())
+                    .setSniffAfterFailureDelayMillis(serverConfiguration.getSniffAfterFailureDelayMillis())
+                    .build();
+            sniffOnFailureListener.setSniffer(sniffer);
+        }
+
+        if (serverConfiguration.isAdaptiveTimeoutEnabled() || serverConfiguration.isHedgingEnabled()) {
+            latencyPolicy = new LatencyPolicy(serverConfiguration);
+        }
+        if (serverConfiguration.isConcurrencyLimitEnabled()) {
+            admissionController = new AdmissionController(serverConfiguration);
+        }
+        if (serverConfiguration.isRetryEnabled()) {
+            retryPolicy = new RetryPolicy(serverConfiguration);
+        }
+        if (serverConfiguration.isCircuitBreakerEnabled()) {
+            circuitBreaker = new CircuitBreaker(serverConfiguration.getCircuitBreakerFailureThreshold(),
+                    serverConfiguration.getCircuitBreakerOpenMillis());
+        }
+        operationExecutor = new OperationExecutor(metrics, metricsInterceptor, latencyPolicy, admissionController,
+                retryPolicy, circuitBreaker);
+
+        // Le cache vengono invalidate una volta per indice a ogni _bulk inviata, non per documento
+        bulkIndexer = new BulkIndexer(client, operationExecutor, serverConfiguration, this::invalidateQueryCache);
+        chunkedBulkExecutor = new ChunkedBulkExecutor(client,
+                operationExecutor,
+                serverConfiguration.getBulkActions(),
+                serverConfiguration.getBulkSizeInBytes(),
+                serverConfiguration.getBulkMaxConcurrentChunks());
+
+        searchTemplates = CacheBuilder.newBuilder()
+                .expireAfterWrite(serverConfiguration.getSearchTemplateCacheTtlMillis(), TimeUnit.MILLISECONDS)
+                .build();
 
-        client = new RestHighLevelClient(
-                RestClient.builder(
-                        new HttpHost(serverConfiguration.getHost(), serverConfiguration.getPort())
-                )
-        );
+        if (serverConfiguration.isQueryCacheEnabled()) {
+            queryResultCache = new QueryResultCache(serverConfiguration.getQueryCacheMaximumWeightBytes(),
+                    serverConfiguration.getQueryCacheMaximumEntries(),
+                    serverConfiguration.getQueryCacheTtlMillis());
+        }
+
+        if (serverConfiguration.getAutocompleteCacheMaximumEntries() > 0) {
+            autocompleteCache = new AutocompleteCache(serverConfiguration.getAutocompleteCacheMaximumEntries(),
+                    serverConfiguration.getAutocompleteCacheTtlMillis(),
+                    serverConfiguration.isAutocompletePrefixPruning());
+        }
+
+        if (serverConfiguration.getSearchBatchingWindowMillis() > 0) {
+            searchBatcher = new SearchBatcher(client,
+                    operationExecutor,
+                    serverConfiguration.getSearchBatchingWindowMillis(),
+                    serverConfiguration.getSearchBatchingMaxSize());
+        }
     }
 
     public void closeConnection() throws IOException {
+        if (null != bulkIndexer) {
+            bulkIndexer.close();
+        }
+        if (null != searchBatcher) {
+            searchBatcher.close();
+            searchBatcher = null;
+        }
+        if (null != sniffer) {
+            sniffer.close();
+            sniffer = null;
+        }
+        if (null != latencyPolicy) {
+            latencyPolicy.close();
+            latencyPolicy = null;
+        }
+        if (null != admissionController) {
+            admissionController.close();
+            admissionController = null;
+        }
+        if (null != retryPolicy) {
+            retryPolicy.close();
+            retryPolicy = null;
+        }
+        circuitBreaker = null;
         if (null != client) {
             client.close();
         }
     }
 
     public SearchResult search(QueryData queryData) throws IOException {
-        searcher = getSearcher(queryData);
+        return awaitResponse(searchAsync(queryData));
+    }
+
+    public CompletableFuture<SearchResult> searchAsync(QueryData queryData) {
+        SearchRequest searchRequest = buildSearchRequest(queryData);
+        if (null == queryResultCache || !QueryResultCache.isCacheable(searchRequest.indices())) {
+            return executeSearch(queryData.getSearchType(), searchRequest);
+        }
+
+        // La chiave contiene gli indici concreti: una scrittura su un indice dietro a un alias invalida la ricerca.
+        // Se la risoluzione fallisce la ricerca viene eseguita senza cache
+        return resolveConcreteIndices(searchRequest.indices())
+                .handle((concreteIndices, e) -> null == e && !concreteIndices.isEmpty()
+                        ? cachedSearch(queryData.getSearchType(), searchRequest, QueryCacheKey.of(concreteIndices, searchRequest))
+                        : executeSearch(queryData.getSearchType(), searchRequest))
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<SearchResult> cachedSearch(SearchType searchType, SearchRequest searchRequest,
+                                                         QueryCacheKey cacheKey) {
+        Optional<SearchResult> cachedSearchResult = queryResultCache.get(cacheKey);
+        if (cachedSearchResult.isPresent()) {
+            return CompletableFuture.completedFuture(cachedSearchResult.get());
+        }
+
+        // Letta prima dell'invio: una scrittura completata durante la ricerca impedisce la put del risultato
+        long generation = queryResultCache.generation(cacheKey);
+        return executeSearch(searchType, searchRequest).thenApply(searchResult -> {
+            queryResultCache.put(cacheKey, generation, searchResult);
+            return searchResult;
+        });
+    }
+
+    // Lista vuota se uno degli indici non esiste: la ricerca non va in cache
+    private CompletableFuture<List<String>> resolveConcreteIndices(String[] indices) {
+        Optional<List<String>> concreteIndices = queryResultCache.getConcreteIndices(indices);
+        if (concreteIndices.isPresent()) {
+            return CompletableFuture.completedFuture(concreteIndices.get());
+        }
+
+        GetAliasesRequest getAliasesRequest = new GetAliasesRequest().indices(indices);
+        CompletableFuture<GetAliasesResponse> getAliasesResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.GET_ALIASES, indices),
+                (requestOptions, listener) -> client.indices().getAliasAsync(getAliasesRequest, requestOptions, listener));
+
+        // Le chiavi della risposta sono gli indici concreti, ciascuno con i propri alias
+        return getAliasesResponse.thenApply(response -> {
+            if (RestStatus.OK != response.status() || response.getAliases().isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            Map<String, Set<String>> resolvedIndices = new HashMap<>();
+            response.getAliases().forEach((index, aliases) -> resolvedIndices.put(index,
+                    aliases.stream().map(AliasMetaData::alias).collect(Collectors.toSet())));
+            queryResultCache.putConcreteIndices(indices, resolvedIndices);
+            return new ArrayList<>(resolvedIndices.keySet());
+        });
+    }
+
+    private CompletableFuture<SearchResult> executeSearch(SearchType searchType, SearchRequest searchRequest) {
+        OperationTags tags = OperationTags.of(OperationType.SEARCH, searchType, searchRequest.indices());
+
+        // Con il micro-batching la richiesta HTTP è la _msearch del batch: qui si misura la latenza vista dal chiamante
+        if (null != searchBatcher) {
+            CompletableFuture<SearchResponse> searchResponse = operationExecutor.measure(tags, searchBatcher.submit(searchRequest));
+            return searchResponse.thenApply(SearchResult::fromSearchResponse);
+        }
+
+        // Senza batching la risposta viene mappata in modo pigro, direttamente dai byte ricevuti.
+        // La richiesta di riserva è una copia con un'altra preference, solo se il chiamante non ne ha fissata una
+        return operationExecutor.executeRead(tags,
+                (requestOptions, listener) -> client.searchLazyAsync(searchRequest, requestOptions, listener),
+                null != searchRequest.preference() ? null : (requestOptions, listener) -> client.searchLazyAsync(
+                        new SearchRequest(searchRequest).preference(hedgePreference()), requestOptions, listener));
+    }
+
+    // La QueryData viene validata e serializzata qui, una volta sola: il piano può essere riusato da più thread
+    public QueryPlan compile(QueryData queryData) {
+        SearchRequest searchRequest = buildSearchRequest(queryData);
+        return QueryPlan.compile(queryData.getSearchType(), searchRequest.indices(), searchRequest.source());
+    }
+
+    public SearchResult search(QueryPlan queryPlan, Map<String, ?> parameters) throws IOException {
+        return awaitResponse(searchAsync(queryPlan, parameters));
+    }
+
+    // Senza passare dalla SearchRequest, i piani non usano né la cache dei risultati né il micro-batching
+    public CompletableFuture<SearchResult> searchAsync(QueryPlan queryPlan, Map<String, ?> parameters) {
+        Preconditions.checkNotNull(queryPlan);
+
+        BytesReference source = queryPlan.render(parameters);
+        String[] indices = queryPlan.getIndices();
+        OperationTags tags = OperationTags.of(OperationType.SEARCH, queryPlan.getSearchType(), indices);
+
+        return operationExecutor.executeRead(tags,
+                (requestOptions, listener) -> client.searchLazyAsync(indices, source, null, requestOptions, listener),
+                (requestOptions, listener) -> client.searchLazyAsync(indices, source, hedgePreference(), requestOptions, listener));
+    }
+
+    public boolean registerSearchTemplate(String templateId, QueryData queryData) throws IOException {
+        return awaitResponse(registerSearchTemplateAsync(templateId, queryData));
+    }
+
+    // Il template è generato dai Searcher come per compile: i valori QueryPlan.parameter diventano variabili mustache
+    public CompletableFuture<Boolean> registerSearchTemplateAsync(String templateId, QueryData queryData) {
+        Preconditions.checkNotNull(templateId);
+        Preconditions.checkArgument(!templateId.isEmpty());
+
+        QueryPlan queryPlan = compile(queryData);
+        PutStoredScriptRequest putStoredScriptRequest = buildPutSearchTemplateRequest(templateId, queryPlan);
+
+        CompletableFuture<AcknowledgedResponse> putScriptResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.PUT_SEARCH_TEMPLATE, queryPlan.getSearchType(), queryPlan.getIndices()),
+                (requestOptions, listener) -> client.putScriptAsync(putStoredScriptRequest, requestOptions, listener));
+
+        return putScriptResponse.thenApply(response -> {
+            searchTemplates.put(templateId, StoredSearchTemplate.of(queryPlan));
+            return response.isAcknowledged();
+        });
+    }
+
+    private static PutStoredScriptRequest buildPutSearchTemplateRequest(String templateId, QueryPlan queryPlan) {
+        try (XContentBuilder content = XContentFactory.jsonBuilder()) {
+            content.startObject()
+                    .startObject("script")
+                    .field("lang", "mustache")
+                    .field("source", StoredSearchTemplate.toMustacheTemplate(queryPlan))
+                    .endObject()
+                    .endObject();
+            return new PutStoredScriptRequest()
+                    .id(templateId)
+                    .content(BytesReference.bytes(content), XContentType.JSON);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public SearchResult searchTemplate(String templateId, Map<String, ?> parameters) throws IOException {
+        return awaitResponse(searchTemplateAsync(templateId, parameters));
+    }
+
+    // Il body contiene solo id e parametri: il parsing della query avviene sul template memorizzato nel cluster
+    public CompletableFuture<SearchResult> searchTemplateAsync(String templateId, Map<String, ?> parameters) {
+        Preconditions.checkNotNull(parameters);
+
+        return getSearchTemplateAsync(templateId).thenCompose(storedTemplate -> {
+            SearchTemplateRequest searchTemplateRequest = buildSearchTemplateRequest(templateId, storedTemplate, parameters);
+
+            CompletableFuture<SearchTemplateResponse> searchTemplateResponse = operationExecutor.execute(
+                    OperationTags.of(OperationType.SEARCH_TEMPLATE, storedTemplate.getSearchType(), storedTemplate.getIndices()),
+                    (requestOptions, listener) -> client.searchTemplateAsync(searchTemplateRequest, requestOptions, listener));
+
+            return searchTemplateResponse.thenApply(response -> SearchResult.fromSearchResponse(response.getResponse()));
+        });
+    }
+
+    public List<SearchResult> searchTemplates(List<Pair<String, Map<String, ?>>> templates) throws IOException {
+        return awaitResponse(searchTemplatesAsync(templates));
+    }
+
+    // Come searchAll: un template sconosciuto o con parametri mancanti produce un errore solo per la sua posizione.
+    // I template non ancora letti dal cluster vengono letti prima della _msearch/template, in parallelo
+    public CompletableFuture<List<SearchResult>> searchTemplatesAsync(List<Pair<String, Map<String, ?>>> templates) {
+        Preconditions.checkNotNull(templates);
+
+        List<CompletableFuture<StoredSearchTemplate>> storedTemplates = new ArrayList<>(templates.size());
+        for (Pair<String, Map<String, ?>> template : templates) {
+            CompletableFuture<StoredSearchTemplate> storedTemplate;
+            try {
+                storedTemplate = getSearchTemplateAsync(template.getLeft());
+            } catch (RuntimeException e) {
+                storedTemplate = new CompletableFuture<>();
+                storedTemplate.completeExceptionally(e);
+            }
+            storedTemplates.add(storedTemplate);
+        }
+
+        return CompletableFuture.allOf(storedTemplates.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, e) -> multiSearchTemplates(templates, storedTemplates))
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<List<SearchResult>> multiSearchTemplates(List<Pair<String, Map<String, ?>>> templates,
+                                                                       List<CompletableFuture<StoredSearchTemplate>> storedTemplates) {
+        SearchResult[] searchResults = new SearchResult[templates.size()];
+        List<Integer> positions = new ArrayList<>(templates.size());
+        Set<String> indices = new TreeSet<>();
+        MultiSearchTemplateRequest multiSearchTemplateRequest = new MultiSearchTemplateRequest();
+        for (int i = 0; i < templates.size(); i++) {
+            try {
+                StoredSearchTemplate storedTemplate = storedTemplates.get(i).join();
+                multiSearchTemplateRequest.add(buildSearchTemplateRequest(templates.get(i).getLeft(), storedTemplate,
+                        templates.get(i).getRight()));
+                indices.addAll(Arrays.asList(storedTemplate.getIndices()));
+                positions.add(i);
+            } catch (CompletionException e) {
+                searchResults[i] = SearchResult.fromFailure(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (RuntimeException e) {
+                searchResults[i] = SearchResult.fromFailure(e);
+            }
+        }
+
+        if (positions.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(searchResults));
+        }
+
+        CompletableFuture<MultiSearchTemplateResponse> multiSearchTemplateResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.MULTI_SEARCH_TEMPLATE, null, indices),
+                (requestOptions, listener) -> client.msearchTemplateAsync(multiSearchTemplateRequest, requestOptions, listener));
+
+        return multiSearchTemplateResponse.thenApply(response -> {
+            MultiSearchTemplateResponse.Item[] items = response.getResponses();
+            for (int i = 0; i < items.length; i++) {
+                searchResults[positions.get(i)] = items[i].isFailure()
+                        ? SearchResult.fromFailure(items[i].getFailure())
+                        : SearchResult.fromSearchResponse(items[i].getResponse().getResponse());
+            }
+            return Arrays.asList(searchResults);
+        });
+    }
+
+    // I template registrati da altre istanze, o prima di un riavvio, vengono letti dal cluster alla prima esecuzione
+    private CompletableFuture<StoredSearchTemplate> getSearchTemplateAsync(String templateId) {
+        Preconditions.checkNotNull(templateId);
+        Preconditions.checkArgument(!templateId.isEmpty());
+
+        StoredSearchTemplate storedTemplate = searchTemplates.getIfPresent(templateId);
+        if (null != storedTemplate) {
+            return CompletableFuture.completedFuture(storedTemplate);
+        }
+
+        GetStoredScriptRequest getStoredScriptRequest = new GetStoredScriptRequest(templateId);
+        CompletableFuture<GetStoredScriptResponse> getScriptResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.GET_SEARCH_TEMPLATE),
+                (requestOptions, listener) -> client.getScriptAsync(getStoredScriptRequest, requestOptions, listener));
+
+        CompletableFuture<StoredSearchTemplate> response = new CompletableFuture<>();
+        getScriptResponse.whenComplete((getScript, e) -> {
+            if (null != e && ExceptionsHelper.status(e) != RestStatus.NOT_FOUND) {
+                response.completeExceptionally(e);
+            } else if (null == e && null != getScript.getSource() && "mustache".equals(getScript.getSource().getLang())) {
+                StoredSearchTemplate parsedTemplate = StoredSearchTemplate.parse(getScript.getSource().getSource());
+                StoredSearchTemplate previousTemplate = searchTemplates.asMap().putIfAbsent(templateId, parsedTemplate);
+                response.complete(null == previousTemplate ? parsedTemplate : previousTemplate);
+            } else {
+                response.completeExceptionally(new IllegalArgumentException("Template non registrato: " + templateId));
+            }
+        });
+        return response;
+    }
+
+    // Mustache renderebbe vuoto un parametro mancante: meglio fallire prima dell'invio
+    private static SearchTemplateRequest buildSearchTemplateRequest(String templateId,
+                                                                    StoredSearchTemplate storedTemplate,
+                                                                    Map<String, ?> parameters) {
+        Preconditions.checkNotNull(parameters);
+        for (String parameterName : storedTemplate.getParameterNames()) {
+            Preconditions.checkArgument(parameters.containsKey(parameterName), "Parametro mancante: %s", parameterName);
+        }
+
+        SearchTemplateRequest searchTemplateRequest = new SearchTemplateRequest(new SearchRequest(storedTemplate.getIndices()));
+        searchTemplateRequest.setScriptType(ScriptType.STORED);
+        searchTemplateRequest.setScript(templateId);
+        searchTemplateRequest.setScriptParams(new HashMap<>(parameters));
+        return searchTemplateRequest;
+    }
+
+    public List<AutocompleteOption> autocomplete(AutocompleteData autocompleteData) throws IOException {
+        return awaitResponse(autocompleteAsync(autocompleteData));
+    }
+
+    // Richiesta con la sola sezione suggest, senza hit né conteggi, che non passa dal micro-batching:
+    // a ogni tasto premuto si paga un solo giro sul cluster, o nessuno se la cache conosce già il prefisso
+    public CompletableFuture<List<AutocompleteOption>> autocompleteAsync(AutocompleteData autocompleteData) {
+        SearchRequest searchRequest = buildAutocompleteRequest(autocompleteData);
+
+        AutocompleteData cacheKey = autocompleteData.withSearchIndex(Optional.of(String.join(",", searchRequest.indices())));
+        if (null != autocompleteCache) {
+            Optional<List<AutocompleteOption>> cachedOptions = autocompleteCache.get(cacheKey);
+            if (cachedOptions.isPresent()) {
+                return CompletableFuture.completedFuture(cachedOptions.get());
+            }
+        }
+
+        CompletableFuture<SearchResult> searchResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.AUTOCOMPLETE, searchRequest.indices()),
+                (requestOptions, listener) -> client.searchLazyAsync(searchRequest, requestOptions, listener));
+
+        return searchResponse.thenApply(searchResult -> {
+            List<AutocompleteOption> options = toAutocompleteOptions(searchResult);
+            // Con shard falliti il risultato può non essere completo: non si usa per i prefissi successivi
+            if (null != autocompleteCache && 0 == searchResult.getFailedShards() && !Boolean.TRUE.equals(searchResult.getTimedOut())) {
+                autocompleteCache.put(cacheKey, options);
+            }
+            return options;
+        });
+    }
+
+    public Optional<CacheStats> getAutocompleteCacheStats() {
+        if (null == autocompleteCache) {
+            return Optional.empty();
+        }
+        return Optional.of(autocompleteCache.stats());
+    }
+
+    SearchRequest buildAutocompleteRequest(AutocompleteData autocompleteData) {
+        Preconditions.checkNotNull(autocompleteData);
+        Preconditions.checkNotNull(autocompleteData.getField());
+        Preconditions.checkArgument(!autocompleteData.getField().isEmpty());
+        Preconditions.checkNotNull(autocompleteData.getPrefix());
+        Preconditions.checkArgument(autocompleteData.getSize() > 0);
+        Preconditions.checkNotNull(autocompleteData.getContexts());
+
+        CompletionSuggestionBuilder completionSuggestionBuilder = SuggestBuilders
+                .completionSuggestion(autocompleteData.getField())
+                .prefix(autocompleteData.getPrefix())
+                .size(autocompleteData.getSize())
+                .skipDuplicates(autocompleteData.isSkipDuplicates());
+
+        if (!autocompleteData.getContexts().isEmpty()) {
+            Map<String, List<? extends ToXContent>> queryContexts = new HashMap<>();
+            autocompleteData.getContexts().forEach((name, values) -> queryContexts.put(name, values.stream()
+                    .map(value -> CategoryQueryContext.builder().setCategory(value).build())
+                    .collect(Collectors.toList())));
+            completionSuggestionBuilder.contexts(queryContexts);
+        }
+
+        // size 0: senza query la ricerca sarebbe una match_all con i primi 10 hit, inutili per i suggerimenti
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .size(0)
+                .trackTotalHits(false)
+                .fetchSource(autocompleteData.isFetchSource())
+                .suggest(new SuggestBuilder().addSuggestion(AUTOCOMPLETE_SUGGESTION, completionSuggestionBuilder));
+
+        return new SearchRequest(autocompleteData.getSearchIndex().orElse(serverConfiguration.getSearchIndex()))
+                .source(searchSourceBuilder);
+    }
+
+    private static List<AutocompleteOption> toAutocompleteOptions(SearchResult searchResult) {
+        Suggest suggest = searchResult.getSuggest();
+        if (null == suggest || null == suggest.getSuggestion(AUTOCOMPLETE_SUGGESTION)) {
+            return Collections.emptyList();
+        }
+
+        CompletionSuggestion completionSuggestion = suggest.getSuggestion(AUTOCOMPLETE_SUGGESTION);
+        List<AutocompleteOption> options = new ArrayList<>(completionSuggestion.getOptions().size());
+        for (CompletionSuggestion.Entry.Option option : completionSuggestion.getOptions()) {
+            SearchHit hit = option.getHit();
+            options.add(AutocompleteOption.builder()
+                    .text(option.getText().string())
+                    .score(option.getScore())
+                    .index(null == hit ? null : hit.getIndex())
+                    .id(null == hit ? null : hit.getId())
+                    .source(null == hit || !hit.hasSource() ? null : hit.getSourceAsMap())
+                    .build());
+        }
+        return Collections.unmodifiableList(options);
+    }
+
+    public MetricsSnapshot getMetricsSnapshot() {
+        return (null == metrics ? ElasticMetrics.NOOP : metrics).snapshot();
+    }
+
+    public Optional<ConcurrencyLimitSnapshot> getConcurrencyLimit(OperationClass operationClass) {
+        if (null == admissionController) {
+            return Optional.empty();
+        }
+        return Optional.of(admissionController.snapshot(operationClass));
+    }
+
+    // Stato del circuito globale: con OPEN le chiamate falliscono con SERVICE_UNAVAILABLE senza raggiungere il cluster
+    public Optional<CircuitBreaker.State> getCircuitBreakerState() {
+        if (null == circuitBreaker) {
+            return Optional.empty();
+        }
+        return Optional.of(circuitBreaker.getState());
+    }
+
+    public Optional<CacheStats> getQueryCacheStats() {
+        if (null == queryResultCache) {
+            return Optional.empty();
+        }
+        return Optional.of(queryResultCache.stats());
+    }
+
+    public void invalidateQueryCache(String indexName) {
+        if (null != queryResultCache) {
+            queryResultCache.invalidateIndex(indexName);
+        }
+        if (null != autocompleteCache) {
+            autocompleteCache.invalidateIndex(indexName);
+        }
+    }
+
+    public List<SearchResult> searchAll(List<QueryData> queries) throws IOException {
+        return awaitResponse(searchAllAsync(queries));
+    }
+
+    public CompletableFuture<List<SearchResult>> searchAllAsync(List<QueryData> queries) {
+        Preconditions.checkNotNull(queries);
+
+        // Una QueryData non valida produce un errore solo per la sua posizione e non viene inviata
+        SearchResult[] searchResults = new SearchResult[queries.size()];
+        List<Integer> positions = new ArrayList<>(queries.size());
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        for (int i = 0; i < queries.size(); i++) {
+            try {
+                multiSearchRequest.add(buildSearchRequest(queries.get(i)));
+                positions.add(i);
+            } catch (RuntimeException e) {
+                searchResults[i] = SearchResult.fromFailure(e);
+            }
+        }
+
+        if (positions.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(searchResults));
+        }
+
+        Set<String> indices = new TreeSet<>();
+        multiSearchRequest.requests().forEach(searchRequest -> indices.addAll(Arrays.asList(searchRequest.indices())));
+
+        CompletableFuture<MultiSearchResponse> multiSearchResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.MULTI_SEARCH, null, indices),
+                (requestOptions, listener) -> client.msearchAsync(multiSearchRequest, requestOptions, listener));
+
+        return multiSearchResponse.thenApply(response -> {
+            MultiSearchResponse.Item[] items = response.getResponses();
+            for (int i = 0; i < items.length; i++) {
+                searchResults[positions.get(i)] = items[i].isFailure()
+                        ? SearchResult.fromFailure(items[i].getFailure())
+                        : SearchResult.fromSearchResponse(items[i].getResponse());
+            }
+            return Arrays.asList(searchResults);
+        });
+    }
+
+    public PrefetchingIterator<SearchHit> searchIterator(QueryData queryData, DeepPaginationType deepPaginationType) {
+        Preconditions.checkNotNull(deepPaginationType);
+
+        SearchRequest searchRequest = buildSearchRequest(queryData);
+        int pageSize = queryData.getSize().orElse(serverConfiguration.getStreamPageSize());
+        OperationTags tags = OperationTags.of(OperationType.SEARCH, queryData.getSearchType(), searchRequest.indices());
+
+        // Senza un tiebreaker con doc_values search_after non ha un ordinamento totale economico
+        String tiebreakerField = serverConfiguration.getSearchAfterTiebreakerField();
+        DeepPaginationType paginationType = null == tiebreakerField || tiebreakerField.isEmpty()
+                ? DeepPaginationType.SCROLL
+                : deepPaginationType;
+
+        switch (paginationType) {
+            case SCROLL:
+                return new PrefetchingIterator<>(new ScrollPageSource(client,
+                        operationExecutor,
+                        tags,
+                        searchRequest,
+                        pageSize,
+                        TimeValue.timeValueMillis(serverConfiguration.getScrollKeepAliveMillis())));
+            case SEARCH_AFTER:
+            default:
+                return new PrefetchingIterator<>(new SearchAfterPageSource(client,
+                        operationExecutor,
+                        tags,
+                        searchRequest,
+                        pageSize,
+                        tiebreakerField));
+        }
+    }
+
+    public Stream<SearchHit> searchStream(QueryData queryData, DeepPaginationType deepPaginationType) {
+        return searchIterator(queryData, deepPaginationType).stream();
+    }
+
+    // Tutti i bucket di una composite, una pagina alla volta: le altre aggregazioni della QueryData vengono ignorate
+    public PrefetchingIterator<CompositeAggregation.Bucket> compositeAggregationIterator(QueryData queryData,
+                                                                                        AggregationData compositeAggregation) {
+        Preconditions.checkNotNull(queryData);
+        Preconditions.checkNotNull(compositeAggregation);
+        Preconditions.checkArgument(AggregationType.COMPOSITE == compositeAggregation.getAggregationType());
+
+        CompositeAggregationBuilder compositeAggregationBuilder = (CompositeAggregationBuilder) AggregationBuilderFactory.create(
+                compositeAggregation.withSize(Optional.of(compositeAggregation.getSize().orElse(serverConfiguration.getStreamPageSize()))));
+        SearchRequest searchRequest = buildSearchRequest(queryData
+                .withAggregationInfo(Collections.emptyList())
+                .withAggregations(Collections.emptyList()));
+        OperationTags tags = OperationTags.of(OperationType.SEARCH, queryData.getSearchType(), searchRequest.indices());
+
+        return new PrefetchingIterator<>(new CompositeAggregationPageSource(client,
+                operationExecutor,
+                tags,
+                searchRequest,
+                compositeAggregationBuilder));
+    }
+
+    public Stream<CompositeAggregation.Bucket> compositeAggregationStream(QueryData queryData, AggregationData compositeAggregation) {
+        return compositeAggregationIterator(queryData, compositeAggregation).stream();
+    }
 
-        checkSearchPreconditions(queryData);
+    // Visibilità di package per i benchmark di assemblaggio della richiesta
+    SearchRequest buildSearchRequest(QueryData queryData) {
+        Searcher searcher = getSearcher(queryData);
+
+        checkSearchPreconditions(queryData, searcher);
 
         SearchRequest searchRequest = new SearchRequest();
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
@@ -118,30 +897,89 @@ public class ElasticService {
 
         searchRequest.source(searchSourceBuilder);
 
-        SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
-
-        return SearchResult.fromSearchResponse(searchResponse);
+        return searchRequest;
     }
 
     public CreateDocumentResponse indexDocument(String indexName, byte[] content, Map<String, Object> metadata) throws IOException {
+        Preconditions.checkNotNull(content);
+        Preconditions.checkArgument(content.length > 0);
+
+        return indexDocument(indexName, ByteBuffer.wrap(content), metadata);
+    }
+
+    public CreateDocumentResponse indexDocument(String indexName, ByteBuffer content, Map<String, Object> metadata) throws IOException {
+        Preconditions.checkNotNull(content);
+        Preconditions.checkArgument(content.hasRemaining());
+
+        return indexAttachment(indexName, AttachmentEntity.of(metadata, content));
+    }
+
+    public CreateDocumentResponse indexDocument(String indexName, Path content, Map<String, Object> metadata) throws IOException {
+        Preconditions.checkNotNull(content);
+        Preconditions.checkArgument(Files.isRegularFile(content));
+
+        return indexAttachment(indexName, AttachmentEntity.of(metadata, content));
+    }
+
+    // Lo stream viene letto una sola volta, durante l'invio: non può essere ritentato su un altro nodo
+    public CreateDocumentResponse indexDocument(String indexName, InputStream content, Map<String, Object> metadata) throws IOException {
+        Preconditions.checkNotNull(content);
+
+        return indexAttachment(indexName, AttachmentEntity.of(metadata, content));
+    }
+
+    // Il client di alto livello serializza l'intero sorgente in memoria: il body viene quindi
+    // inviato con il client di basso livello, codificando il contenuto mentre viene scritto
+    private CreateDocumentResponse indexAttachment(String indexName, AttachmentEntity entity) throws IOException {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
-        Preconditions.checkArgument(content.length > 0);
 
-        if (null == metadata) {
-            metadata = new HashMap<>();
+        Request request = new Request("POST", ElasticRestClient.endpoint(indexName, "_doc"));
+        request.addParameter("pipeline", ATTACHMENT_PIPELINE);
+        request.setEntity(entity);
+
+        // Senza id ogni invio crea un documento: si ritenta solo se il cluster non ha ricevuto la richiesta
+        CompletableFuture<Response> attachmentResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.INDEX, indexName),
+                entity.isRepeatable() ? Idempotency.NOT_IDEMPOTENT : Idempotency.NOT_REPEATABLE,
+                (requestOptions, listener) -> {
+                    request.setOptions(requestOptions);
+                    return client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+                        @Override
+                        public void onSuccess(Response response) {
+                            listener.onResponse(response);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            if (e instanceof ResponseException) {
+                                listener.onFailure(new ElasticsearchStatusException(e.getMessage(),
+                                        RestStatus.fromCode(((ResponseException) e).getResponse().getStatusLine().getStatusCode()),
+                                        e));
+                            } else {
+                                listener.onFailure(e);
+                            }
+                        }
+                    });
+                });
+
+        Response response;
+        try {
+            response = awaitResponse(attachmentResponse);
+        } finally {
+            invalidateQueryCache(indexName);
+        }
+
+        IndexResponse indexResponse;
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, response.getEntity().getContent())) {
+            indexResponse = IndexResponse.fromXContent(parser);
         }
-        metadata.put("data", Base64.getEncoder().encodeToString(content));
 
-        IndexRequest indexRequest = new IndexRequest(indexName).source(metadata);
-        indexRequest.setPipeline("attachment");
-        IndexResponse indexResponse = client.index(indexRequest, RequestOptions.DEFAULT);
-        CreateDocumentResponse createDocumentResponse = CreateDocumentResponse.builder()
+        return CreateDocumentResponse.builder()
                 .status(indexResponse.status())
                 .id(indexResponse.getId())
                 .build();
-
-        return createDocumentResponse;
     }
 
     private void addSearchIndex(QueryData queryData, SearchRequest searchRequest) {
@@ -163,7 +1001,7 @@ public class ElasticService {
     }
 
     private void addAggregations(QueryData queryData, SearchSourceBuilder searchSourceBuilder) {
-        // TODO: Verificare la possibilità di effettuare aggregazioni multiple
+        // aggregationInfo: formato storico, un bucket terms con una eventuale media
         for(Map<String, Object> aggregation : queryData.getAggregationInfo()) {
             TermsAggregationBuilder termsAggregationBuilder = AggregationBuilders.terms(aggregation.get(AggregationInfoFieldName.TERM.toString()).toString())
                     .field(aggregation.get(AggregationInfoFieldName.FIELD.toString()).toString());
@@ -175,9 +1013,18 @@ public class ElasticService {
             }
             searchSourceBuilder.aggregation(termsAggregationBuilder);
         }
+
+        for (AggregationData aggregation : queryData.getAggregations()) {
+            searchSourceBuilder.aggregation(AggregationBuilderFactory.create(aggregation));
+        }
     }
 
+    // Senza suggerimenti la sezione suggest non viene inviata: un "suggest":{} vuoto allungherebbe solo il body
     private void addSuggestions(QueryData queryData, SearchSourceBuilder searchSourceBuilder) {
+        if (queryData.getSuggestions().isEmpty()) {
+            return;
+        }
+
         SuggestBuilder suggestBuilder = new SuggestBuilder();
 
         for(Pair<String, String> suggestion : queryData.getSuggestions()) {
@@ -203,20 +1050,38 @@ public class ElasticService {
         }
     }
 
-    private void checkSearchPreconditions(QueryData queryData) {
+    private void checkSearchPreconditions(QueryData queryData, Searcher searcher) {
         Preconditions.checkNotNull(queryData);
 
         searcher.checkPreconditions(queryData);
     }
 
     private Searcher getSearcher(QueryData queryData) {
-        Preconditions.checkArgument(searcherMap.containsKey(queryData.getSearchType()));
+        Searcher searcher = searcherMap.get(queryData.getSearchType());
+        Preconditions.checkArgument(null != searcher);
 
-        return searcherMap.get(queryData.getSearchType());
+        return searcher;
+    }
+
+    private static Map<SearchType, Searcher> createSearcherMap() {
+        Map<SearchType, Searcher> searchers = new EnumMap<>(SearchType.class);
+        searchers.put(SearchType.MATCH_ALL_QUERY, new MatchAllSearcher());
+        searchers.put(SearchType.TERM_QUERY, new TermSearcher());
+        searchers.put(SearchType.TERMS_QUERY, new TermsSearcher());
+        searchers.put(SearchType.EXISTS_QUERY, new ExistsSearcher());
+        searchers.put(SearchType.FUZZ_QUERY, new FuzzSearcher());
+        searchers.put(SearchType.RANGE_QUERY, new RangeSearcher());
+        searchers.put(SearchType.NESTED_QUERY, new NestedSearcher());
+        searchers.put(SearchType.BOOL_QUERY, new BoolSearcher(searchers::get));
+        return Collections.unmodifiableMap(searchers);
     }
 
     public boolean deleteIndex(String indexName, Optional<Map<String, Object>> configuration)
             throws IOException, ElasticsearchException {
+        return awaitResponse(deleteIndexAsync(indexName, configuration));
+    }
+
+    public CompletableFuture<Boolean> deleteIndexAsync(String indexName, Optional<Map<String, Object>> configuration) {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
 
@@ -224,52 +1089,246 @@ public class ElasticService {
 
         // TODO: gestire parametro configuration
 
-        try {
-            AcknowledgedResponse deleteIndexResponse = client.indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
-            return deleteIndexResponse.isAcknowledged();
-        } catch (ElasticsearchException e) {
-            if (e.status() == RestStatus.NOT_FOUND) {
-                return false;
+        CompletableFuture<AcknowledgedResponse> deleteIndexResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.DELETE_INDEX, indexName),
+                (requestOptions, listener) -> client.indices().deleteAsync(deleteIndexRequest, requestOptions, listener));
+
+        CompletableFuture<Boolean> acknowledged = new CompletableFuture<>();
+        deleteIndexResponse.whenComplete((response, e) -> {
+            if (null == e) {
+                acknowledged.complete(response.isAcknowledged());
+            } else if (e instanceof ElasticsearchException && ((ElasticsearchException) e).status() == RestStatus.NOT_FOUND) {
+                acknowledged.complete(false);
+            } else {
+                acknowledged.completeExceptionally(e);
             }
-            throw e;
-        }
+        });
+
+        return acknowledged.whenComplete((deleted, e) -> invalidateQueryCache(indexName));
     }
 
     public CreateDocumentResponse createDocument(String indexName, Map<String, Object> metadata, Optional<String> documentId)
             throws IllegalArgumentException, IOException {
+        return awaitResponse(createDocumentAsync(indexName, metadata, documentId));
+    }
+
+    public CompletableFuture<CreateDocumentResponse> createDocumentAsync(String indexName,
+                                                                         Map<String, Object> metadata,
+                                                                         Optional<String> documentId)
+            throws IllegalArgumentException {
+        Preconditions.checkNotNull(indexName);
+        Preconditions.checkArgument(!indexName.isEmpty());
+        Preconditions.checkNotNull(metadata);
+
+        IndexRequest indexRequest = buildIndexRequest(indexName, metadata, documentId);
+
+        // Con l'id esplicito un secondo invio sovrascrive lo stesso documento
+        CompletableFuture<IndexResponse> indexResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.INDEX, indexName),
+                documentId.isPresent() ? Idempotency.IDEMPOTENT : Idempotency.NOT_IDEMPOTENT,
+                (requestOptions, listener) -> client.indexAsync(indexRequest, requestOptions, listener));
+
+        return indexResponse
+                .whenComplete((response, e) -> invalidateQueryCache(indexName))
+                .thenApply(this::toCreateDocumentResponse);
+    }
+
+    public CompletableFuture<CreateDocumentResponse> bulkCreateDocument(String indexName,
+                                                                        Map<String, Object> metadata,
+                                                                        Optional<String> documentId)
+            throws IllegalArgumentException {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
         Preconditions.checkNotNull(metadata);
+        Preconditions.checkState(null != bulkIndexer);
+
+        return bulkIndexer.add(buildIndexRequest(indexName, metadata, documentId));
+    }
+
+    public List<CreateDocumentResponse> createDocuments(String indexName, List<Map<String, Object>> documents)
+            throws IllegalArgumentException, IOException {
+        Preconditions.checkNotNull(indexName);
+        Preconditions.checkArgument(!indexName.isEmpty());
+        Preconditions.checkNotNull(documents);
+
+        List<CompletableFuture<CreateDocumentResponse>> responses = new ArrayList<>(documents.size());
+        for (Map<String, Object> metadata : documents) {
+            responses.add(bulkCreateDocument(indexName, metadata, Optional.empty()));
+        }
+        flushBulk();
+
+        // Un'unica attesa per tutti i documenti: il primo errore di una _bulk arriva al chiamante come IOException
+        // o ElasticsearchException, come per le altre chiamate sincrone
+        CompletableFuture<List<CreateDocumentResponse>> allResponses = CompletableFuture
+                .allOf(responses.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> responses.stream()
+                        .map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+        return awaitResponse(allResponses);
+    }
+
+    public void flushBulk() {
+        if (null != bulkIndexer) {
+            bulkIndexer.flush();
+        }
+    }
 
-        IndexRequest indexRequest = new IndexRequest(indexName).source(metadata);
+    private IndexRequest buildIndexRequest(String indexName, Map<String, Object> metadata, Optional<String> documentId) {
+        IndexRequest indexRequest = new IndexRequest(indexName).source(metadata, serverConfiguration.getDocumentContentType());
         if (documentId.isPresent()) {
             indexRequest.id(documentId.get());
         }
+        return indexRequest;
+    }
 
-        IndexResponse indexResponse = client.index(indexRequest, RequestOptions.DEFAULT);
-        CreateDocumentResponse createDocumentResponse = CreateDocumentResponse.builder()
+    private CreateDocumentResponse toCreateDocumentResponse(IndexResponse indexResponse) {
+        return CreateDocumentResponse.builder()
                 .status(indexResponse.status())
                 .id(indexResponse.getId())
                 .build();
-
-        return createDocumentResponse;
     }
 
     public Document getDocument(String indexName, String documentId, Optional<Map<String, Object>> configuration) throws IOException {
+        return awaitResponse(getDocumentAsync(indexName, documentId, configuration));
+    }
+
+    public CompletableFuture<Document> getDocumentAsync(String indexName,
+                                                        String documentId,
+                                                        Optional<Map<String, Object>> configuration) {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
         Preconditions.checkNotNull(documentId);
         Preconditions.checkArgument(!documentId.isEmpty());
+        Preconditions.checkNotNull(configuration);
 
-        GetRequest getRequest = new GetRequest(indexName, documentId);
-        //TODO: Gestire parametro configuration
-        GetResponse getResponse = client.get(getRequest, RequestOptions.DEFAULT);
+        Map<String, Object> getConfiguration = configuration.orElse(Collections.emptyMap());
+        GetRequest getRequest = buildGetRequest(indexName, documentId, getConfiguration);
+
+        CompletableFuture<GetResponse> getResponse = operationExecutor.executeRead(
+                OperationTags.of(OperationType.GET, indexName),
+                (requestOptions, listener) -> client.getAsync(getRequest, requestOptions, listener),
+                getConfiguration.containsKey(PREFERENCE) ? null : (requestOptions, listener) -> client.getAsync(
+                        buildGetRequest(indexName, documentId, getConfiguration).preference(hedgePreference()),
+                        requestOptions,
+                        listener));
+
+        return getResponse.thenApply(this::toDocument);
+    }
+
+    // Senza configurazione la get restituisce l'intero _source, in realtime e senza refresh
+    private static GetRequest buildGetRequest(String indexName, String documentId, Map<String, Object> configuration) {
+        GetRequest getRequest = new GetRequest(indexName, documentId)
+                .fetchSourceContext(buildFetchSourceContext(configuration))
+                .routing(toStringOrNull(configuration.get(ROUTING)))
+                .preference(toStringOrNull(configuration.get(PREFERENCE)));
+
+        String[] storedFields = toStringArray(configuration.get(STORED_FIELDS));
+        if (storedFields.length > 0) {
+            getRequest.storedFields(storedFields);
+        }
+        if (configuration.containsKey(REALTIME)) {
+            getRequest.realtime(Boolean.parseBoolean(configuration.get(REALTIME).toString()));
+        }
+        if (configuration.containsKey(REFRESH)) {
+            getRequest.refresh(Boolean.parseBoolean(configuration.get(REFRESH).toString()));
+        }
+        return getRequest;
+    }
+
+    public Map<String, Document> getDocuments(String indexName,
+                                              Collection<String> documentIds,
+                                              Optional<Map<String, Object>> configuration) throws IOException {
+        return awaitResponse(getDocumentsAsync(indexName, documentIds, configuration));
+    }
+
+    // Un'unica _mget per chunk di multiGetChunkSize id, al più multiGetMaxConcurrentChunks in volo. I documenti
+    // mancanti non compaiono nella mappa; un item fallito (es. indice inesistente) fa fallire l'intera chiamata,
+    // come per getDocument, e i chunk non ancora inviati non partono
+    public CompletableFuture<Map<String, Document>> getDocumentsAsync(String indexName,
+                                                                      Collection<String> documentIds,
+                                                                      Optional<Map<String, Object>> configuration) {
+        Preconditions.checkNotNull(indexName);
+        Preconditions.checkArgument(!indexName.isEmpty());
+        Preconditions.checkNotNull(documentIds);
+        Preconditions.checkNotNull(configuration);
+        for (String documentId : documentIds) {
+            Preconditions.checkArgument(null != documentId && !documentId.isEmpty());
+        }
+
+        Map<String, Object> options = configuration.orElse(Collections.emptyMap());
+        FetchSourceContext fetchSourceContext = buildFetchSourceContext(options);
+        String routing = toStringOrNull(options.get(ROUTING));
+
+        List<Supplier<CompletableFuture<MultiGetResponse>>> chunkRequests = new ArrayList<>();
+        for (List<String> chunk : Iterables.partition(new LinkedHashSet<>(documentIds), serverConfiguration.getMultiGetChunkSize())) {
+            MultiGetRequest multiGetRequest = new MultiGetRequest();
+            for (String documentId : chunk) {
+                multiGetRequest.add(new MultiGetRequest.Item(indexName, documentId)
+                        .fetchSourceContext(fetchSourceContext)
+                        .routing(routing));
+            }
+
+            chunkRequests.add(() -> operationExecutor.execute(OperationTags.of(OperationType.MULTI_GET, indexName),
+                    (requestOptions, listener) -> client.mgetAsync(multiGetRequest, requestOptions, listener)));
+        }
 
+        CompletableFuture<List<MultiGetResponse>> chunkResponses = BoundedDispatcher.dispatch(chunkRequests,
+                serverConfiguration.getMultiGetMaxConcurrentChunks());
+        return chunkResponses.thenApply(responses -> {
+            Map<String, Document> documents = new LinkedHashMap<>(documentIds.size() * 2);
+            for (MultiGetResponse chunkResponse : responses) {
+                for (MultiGetItemResponse item : chunkResponse.getResponses()) {
+                    if (item.isFailed()) {
+                        throw new CompletionException(item.getFailure().getFailure());
+                    }
+                    Document document = toDocument(item.getResponse());
+                    if (null != document) {
+                        documents.put(item.getId(), document);
+                    }
+                }
+            }
+            return documents;
+        });
+    }
+
+    // null se non ci sono filtri: viene restituito l'intero _source
+    private static FetchSourceContext buildFetchSourceContext(Map<String, Object> configuration) {
+        String[] includes = toStringArray(configuration.get(SOURCE_INCLUDES));
+        String[] excludes = toStringArray(configuration.get(SOURCE_EXCLUDES));
+        if (0 == includes.length && 0 == excludes.length) {
+            return null;
+        }
+        return new FetchSourceContext(true, includes, excludes);
+    }
+
+    private static String toStringOrNull(Object value) {
+        return null == value ? null : value.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String[] toStringArray(Object value) {
+        if (null == value) {
+            return Strings.EMPTY_ARRAY;
+        }
+        if (value instanceof String[]) {
+            return (String[]) value;
+        }
+        if (value instanceof Collection) {
+            return ((Collection<Object>) value).stream().map(Object::toString).toArray(String[]::new);
+        }
+        return Strings.splitStringByCommaToArray(value.toString());
+    }
+
+    private Document toDocument(GetResponse getResponse) {
         if (getResponse.isExists()) {
             return Document
                     .builder()
+                    .id(getResponse.getId())
                     .fields(getResponse.getFields())
                     .source(getResponse.getSource())
+                    .version(getResponse.getVersion())
+                    .seqNo(getResponse.getSeqNo())
+                    .primaryTerm(getResponse.getPrimaryTerm())
                     .build();
         }
 
@@ -277,16 +1336,28 @@ public class ElasticService {
     }
 
     public boolean existsDocument(String indexName, String documentId) throws IOException {
+        return awaitResponse(existsDocumentAsync(indexName, documentId));
+    }
+
+    public CompletableFuture<Boolean> existsDocumentAsync(String indexName, String documentId) {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
         Preconditions.checkNotNull(documentId);
         Preconditions.checkArgument(!documentId.isEmpty());
 
+        GetRequest existsRequest = buildExistsRequest(indexName, documentId);
+
+        return operationExecutor.executeRead(OperationTags.of(OperationType.EXISTS, indexName),
+                (requestOptions, listener) -> client.existsAsync(existsRequest, requestOptions, listener),
+                (requestOptions, listener) -> client.existsAsync(
+                        buildExistsRequest(indexName, documentId).preference(hedgePreference()), requestOptions, listener));
+    }
+
+    private GetRequest buildExistsRequest(String indexName, String documentId) {
         GetRequest getRequest = new GetRequest(indexName, documentId);
         getRequest.fetchSourceContext(new FetchSourceContext(false));
         getRequest.storedFields("_none_");
-
-        return client.exists(getRequest, RequestOptions.DEFAULT);
+        return getRequest;
     }
 
     public UpdateDocumentResponse updateDocument(String indexName,
@@ -294,52 +1365,286 @@ public class ElasticService {
                                                  Map<String, Object> metadataToUpdate,
                                                  Optional<Map<String, Object>> configuration)
             throws IllegalArgumentException, IOException {
+        return awaitResponse(updateDocumentAsync(indexName, documentId, metadataToUpdate, configuration));
+    }
+
+    public CompletableFuture<UpdateDocumentResponse> updateDocumentAsync(String indexName,
+                                                                         String documentId,
+                                                                         Map<String, Object> metadataToUpdate,
+                                                                         Optional<Map<String, Object>> configuration)
+            throws IllegalArgumentException {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
         Preconditions.checkNotNull(documentId);
         Preconditions.checkArgument(!documentId.isEmpty());
         Preconditions.checkNotNull(metadataToUpdate);
 
-        if (!this.existsDocument(indexName, documentId)) {
-            return null;
+        Preconditions.checkNotNull(configuration);
+
+        // Una sola richiesta: il documento mancante viene segnalato dal server (document_missing_exception)
+        Map<String, Object> options = configuration.orElse(Collections.emptyMap());
+        UpdateRequest updateRequest = buildUpdateRequest(indexName, documentId, metadataToUpdate, options);
+        applyConcurrencyControl(options, updateRequest::setIfSeqNo, updateRequest::setIfPrimaryTerm);
+
+        // Solo il merge di un documento si può ripetere: uno script (ad esempio un contatore) eseguito due volte
+        // cambia il risultato, e se il primo tentativo è stato applicato il secondo con if_seq_no fallisce con 409
+        boolean conditional = updateRequest.ifSeqNo() != SequenceNumbers.UNASSIGNED_SEQ_NO;
+        CompletableFuture<UpdateResponse> updateResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.UPDATE, indexName),
+                conditional || null != updateRequest.script() ? Idempotency.NOT_IDEMPOTENT : Idempotency.IDEMPOTENT,
+                (requestOptions, listener) -> conditional
+                        ? client.conditionalUpdateAsync(updateRequest, requestOptions, listener)
+                        : client.updateAsync(updateRequest, requestOptions, listener));
+
+        return updateResponse
+                .whenComplete((response, e) -> invalidateQueryCache(indexName))
+                .handle((response, e) -> null == e ? toUpdateDocumentResponse(response) : nullIfNotFound(e));
+    }
+
+    private UpdateRequest buildUpdateRequest(String indexName,
+                                             String documentId,
+                                             Map<String, Object> metadata,
+                                             Map<String, Object> configuration) {
+        UpdateRequest updateRequest = new UpdateRequest(indexName, documentId);
+
+        Object script = configuration.get(SCRIPT);
+        if (null != script) {
+            updateRequest.script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, script.toString(), metadata));
+            // Lo script viene eseguito anche sui documenti mancanti, partendo da un documento vuoto
+            if (Boolean.TRUE.equals(configuration.get(SCRIPTED_UPSERT))) {
+                updateRequest.scriptedUpsert(true).upsert(Collections.emptyMap(), serverConfiguration.getDocumentContentType());
+            }
+        } else {
+            updateRequest.doc(metadata, serverConfiguration.getDocumentContentType()).docAsUpsert(Boolean.TRUE.equals(configuration.get(DOC_AS_UPSERT)));
         }
 
-        // TODO: testare funzionamento con le varie opzioni di configuration
-        UpdateRequest updateRequest = new UpdateRequest(indexName, documentId)
-                .doc(metadataToUpdate);
+        return updateRequest;
+    }
+
+    public Map<String, UpdateDocumentResponse> updateDocuments(String indexName,
+                                                               Map<String, Map<String, Object>> documents)
+            throws IllegalArgumentException, IOException {
+        return awaitResponse(updateDocumentsAsync(indexName, documents, Optional.empty()));
+    }
+
+    public Map<String, UpdateDocumentResponse> updateDocuments(String indexName,
+                                                               Map<String, Map<String, Object>> documents,
+                                                               Optional<Map<String, Object>> configuration)
+            throws IllegalArgumentException, IOException {
+        return awaitResponse(updateDocumentsAsync(indexName, documents, configuration));
+    }
+
+    // Una risposta per id, nell'ordine di documents: i documenti mancanti hanno status NOT_FOUND e failureMessage
+    public CompletableFuture<Map<String, UpdateDocumentResponse>> updateDocumentsAsync(String indexName,
+                                                                                       Map<String, Map<String, Object>> documents,
+                                                                                       Optional<Map<String, Object>> configuration)
+            throws IllegalArgumentException {
+        Preconditions.checkNotNull(indexName);
+        Preconditions.checkArgument(!indexName.isEmpty());
+        Preconditions.checkNotNull(documents);
+        Preconditions.checkNotNull(configuration);
+        Preconditions.checkState(null != chunkedBulkExecutor);
+
+        Map<String, Object> options = configuration.orElse(Collections.emptyMap());
+        // if_seq_no e if_primary_term sono propri di ogni documento: non hanno senso per l'intero batch
+        Preconditions.checkArgument(!options.containsKey(IF_SEQ_NO) && !options.containsKey(IF_PRIMARY_TERM));
+
+        List<UpdateRequest> updateRequests = new ArrayList<>(documents.size());
+        documents.forEach((documentId, metadata) -> {
+            Preconditions.checkArgument(null != documentId && !documentId.isEmpty());
+            Preconditions.checkNotNull(metadata);
+            updateRequests.add(buildUpdateRequest(indexName, documentId, metadata, options));
+        });
+
+        CompletableFuture<List<BulkItemResponse>> items = chunkedBulkExecutor.execute(updateRequests);
+
+        return items
+                .whenComplete((response, e) -> invalidateQueryCache(indexName))
+                .thenApply(response -> toResponsesById(response, this::toUpdateDocumentResponse));
+    }
 
-        UpdateResponse updateResponse = client.update(updateRequest, RequestOptions.DEFAULT);
-        UpdateDocumentResponse updateDocumentResponse = UpdateDocumentResponse.builder()
+    private UpdateDocumentResponse toUpdateDocumentResponse(BulkItemResponse item) {
+        if (item.isFailed()) {
+            return UpdateDocumentResponse.builder()
+                    .status(item.status())
+                    .id(item.getId())
+                    .failureMessage(item.getFailureMessage())
+                    .build();
+        }
+
+        DocWriteResponse response = item.getResponse();
+        return UpdateDocumentResponse.builder()
+                .status(response.status())
+                .id(response.getId())
+                .version(response.getVersion())
+                .seqNo(response.getSeqNo())
+                .primaryTerm(response.getPrimaryTerm())
+                .build();
+    }
+
+    private static <T> Map<String, T> toResponsesById(List<BulkItemResponse> items, Function<BulkItemResponse, T> mapper) {
+        Map<String, T> responses = new LinkedHashMap<>(items.size() * 2);
+        for (BulkItemResponse item : items) {
+            responses.put(item.getId(), mapper.apply(item));
+        }
+        return responses;
+    }
+
+    private UpdateDocumentResponse toUpdateDocumentResponse(UpdateResponse updateResponse) {
+        return UpdateDocumentResponse.builder()
                 .status(updateResponse.status())
                 .id(updateResponse.getId())
+                .version(updateResponse.getVersion())
+                .seqNo(updateResponse.getSeqNo())
+                .primaryTerm(updateResponse.getPrimaryTerm())
                 .build();
-
-        return updateDocumentResponse;
     }
 
     public DeleteDocumentResponse deleteDocument(String indexName,
                                                  String documentId,
                                                  Optional<Map<String, Object>> configuration)
             throws IllegalArgumentException, IOException {
+        return awaitResponse(deleteDocumentAsync(indexName, documentId, configuration));
+    }
+
+    public CompletableFuture<DeleteDocumentResponse> deleteDocumentAsync(String indexName,
+                                                                         String documentId,
+                                                                         Optional<Map<String, Object>> configuration)
+            throws IllegalArgumentException {
         Preconditions.checkNotNull(indexName);
         Preconditions.checkArgument(!indexName.isEmpty());
         Preconditions.checkNotNull(documentId);
         Preconditions.checkArgument(!documentId.isEmpty());
 
-        if (!this.existsDocument(indexName, documentId)) {
-            return null;
-        }
+        Preconditions.checkNotNull(configuration);
 
-        // TODO: testare funzionamento con le varie opzioni di configuration
+        // Una sola richiesta: il documento mancante viene segnalato dal server con result not_found
         DeleteRequest deleteRequest = new DeleteRequest(indexName, documentId);
+        configuration.ifPresent(options ->
+                applyConcurrencyControl(options, deleteRequest::setIfSeqNo, deleteRequest::setIfPrimaryTerm));
+
+        CompletableFuture<DeleteResponse> deleteResponse = operationExecutor.execute(
+                OperationTags.of(OperationType.DELETE, indexName),
+                (requestOptions, listener) -> client.deleteAsync(deleteRequest, requestOptions, listener));
+
+        return deleteResponse
+                .whenComplete((response, e) -> invalidateQueryCache(indexName))
+                .handle((response, e) -> null == e ? toDeleteDocumentResponse(response) : nullIfNotFound(e));
+    }
+
+    public Map<String, DeleteDocumentResponse> deleteDocuments(String indexName, Collection<String> documentIds)
+            throws IllegalArgumentException, IOException {
+        return awaitResponse(deleteDocumentsAsync(indexName, documentIds));
+    }
+
+    // Una risposta per id: i documenti mancanti hanno status NOT_FOUND, senza failureMessage come nella _bulk
+    public CompletableFuture<Map<String, DeleteDocumentResponse>> deleteDocumentsAsync(String indexName,
+                                                                                       Collection<String> documentIds)
+            throws IllegalArgumentException {
+        Preconditions.checkNotNull(indexName);
+        Preconditions.checkArgument(!indexName.isEmpty());
+        Preconditions.checkNotNull(documentIds);
+        Preconditions.checkState(null != chunkedBulkExecutor);
+
+        List<DeleteRequest> deleteRequests = new ArrayList<>(documentIds.size());
+        for (String documentId : new LinkedHashSet<>(documentIds)) {
+            Preconditions.checkArgument(null != documentId && !documentId.isEmpty());
+            deleteRequests.add(new DeleteRequest(indexName, documentId));
+        }
+
+        CompletableFuture<List<BulkItemResponse>> items = chunkedBulkExecutor.execute(deleteRequests);
+
+        return items
+                .whenComplete((response, e) -> invalidateQueryCache(indexName))
+                .thenApply(response -> toResponsesById(response, this::toDeleteDocumentResponse));
+    }
 
-        DeleteResponse deleteResponse = client.delete(deleteRequest, RequestOptions.DEFAULT);
-        DeleteDocumentResponse deleteDocumentResponse = DeleteDocumentResponse.builder()
+    private DeleteDocumentResponse toDeleteDocumentResponse(BulkItemResponse item) {
+        if (item.isFailed()) {
+            return DeleteDocumentResponse.builder()
+                    .status(item.status())
+                    .id(item.getId())
+                    .failureMessage(item.getFailureMessage())
+                    .build();
+        }
+
+        DocWriteResponse response = item.getResponse();
+        return DeleteDocumentResponse.builder()
+                .status(response.status())
+                .id(response.getId())
+                .version(response.getVersion())
+                .seqNo(response.getSeqNo())
+                .primaryTerm(response.getPrimaryTerm())
+                .build();
+    }
+
+    private DeleteDocumentResponse toDeleteDocumentResponse(DeleteResponse deleteResponse) {
+        if (deleteResponse.getResult() == DocWriteResponse.Result.NOT_FOUND) {
+            return null;
+        }
+
+        return DeleteDocumentResponse.builder()
                 .status(deleteResponse.status())
                 .id(deleteResponse.getId())
+                .version(deleteResponse.getVersion())
+                .seqNo(deleteResponse.getSeqNo())
+                .primaryTerm(deleteResponse.getPrimaryTerm())
                 .build();
+    }
 
-        return deleteDocumentResponse;
+    // if_seq_no e if_primary_term: la scrittura fallisce con CONFLICT se il documento è cambiato nel frattempo
+    private static void applyConcurrencyControl(Map<String, Object> configuration,
+                                                LongConsumer ifSeqNo,
+                                                LongConsumer ifPrimaryTerm) {
+        Object seqNo = configuration.get(IF_SEQ_NO);
+        Object primaryTerm = configuration.get(IF_PRIMARY_TERM);
+        Preconditions.checkArgument((null == seqNo) == (null == primaryTerm),
+                IF_SEQ_NO + " e " + IF_PRIMARY_TERM + " devono essere indicati insieme");
+
+        if (null != seqNo) {
+            ifSeqNo.accept(toLong(seqNo));
+            ifPrimaryTerm.accept(toLong(primaryTerm));
+        }
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    // Documento o indice mancante: come con il controllo di esistenza, il chiamante riceve null
+    private static <T> T nullIfNotFound(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && null != failure.getCause() ? failure.getCause() : failure;
+        if (cause instanceof Exception && ExceptionsHelper.status((Exception) cause) == RestStatus.NOT_FOUND) {
+            return null;
+        }
+        throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+    }
+
+    // Una preference personalizzata sceglie le copie degli shard in base al proprio hash: con un valore casuale la
+    // richiesta di riserva evita, di norma, la copia lenta su cui è finita la prima
+    private static String hedgePreference() {
+        return "hedge-" + ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+    }
+
+    private static <T> T awaitResponse(CompletableFuture<T> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
 }
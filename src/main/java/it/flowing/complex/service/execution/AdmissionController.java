@@ -0,0 +1,59 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.model.OperationType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+
+import java.io.Closeable;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Controllo di ammissione davanti al cluster: un ConcurrencyLimiter per classe di operazioni, con la stessa configurazione
+public class AdmissionController implements Closeable {
+
+    private final Map<OperationClass, ConcurrencyLimiter> limiters = new EnumMap<>(OperationClass.class);
+    private final ScheduledExecutorService scheduler;
+
+    public AdmissionController(ServerConfiguration serverConfiguration) {
+        Preconditions.checkNotNull(serverConfiguration);
+        Preconditions.checkArgument(serverConfiguration.getConcurrencyLimitMaxWaitMillis() >= 0);
+
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getConcurrencyLimitMaxWaitMillis());
+        scheduler = 0 == maxWaitNanos ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elastic-admission-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (OperationClass operationClass : OperationClass.values()) {
+            limiters.put(operationClass, new ConcurrencyLimiter(operationClass,
+                    serverConfiguration.getConcurrencyLimitInitial(),
+                    serverConfiguration.getConcurrencyLimitMin(),
+                    serverConfiguration.getConcurrencyLimitMax(),
+                    serverConfiguration.getConcurrencyLimitBackoffRatio(),
+                    maxWaitNanos,
+                    serverConfiguration.getConcurrencyLimitMaxQueued(),
+                    scheduler));
+        }
+    }
+
+    public ConcurrencyLimiter limiter(OperationType operation) {
+        return limiters.get(OperationClass.of(operation));
+    }
+
+    public ConcurrencyLimitSnapshot snapshot(OperationClass operationClass) {
+        Preconditions.checkNotNull(operationClass);
+
+        return limiters.get(operationClass).snapshot();
+    }
+
+    @Override
+    public void close() {
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+}
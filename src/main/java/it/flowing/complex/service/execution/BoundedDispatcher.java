@@ -0,0 +1,90 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+// Avvia le chiamate nell'ordine, con al più maxInFlight in volo; i risultati sono nello stesso ordine delle chiamate.
+// Le chiamate partono da un ciclo e non dal completamento della precedente: quelle che completano subito (rifiutate
+// dal limite di concorrenza o dal circuito) non annidano lo stack. Al primo errore il future fallisce con l'errore
+// della chiamata e quelle non ancora avviate non partono
+public class BoundedDispatcher<T> {
+
+    private final List<Supplier<CompletableFuture<T>>> calls;
+    private final int maxInFlight;
+    private final AtomicReferenceArray<T> results;
+    private final CompletableFuture<List<T>> response = new CompletableFuture<>();
+
+    private final AtomicInteger nextCall = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger completedCalls = new AtomicInteger();
+    // Richieste di avvio non ancora servite: solo il thread che la porta da 0 a 1 esegue il ciclo
+    private final AtomicInteger pendingDispatches = new AtomicInteger();
+
+    private BoundedDispatcher(List<Supplier<CompletableFuture<T>>> calls, int maxInFlight) {
+        this.calls = calls;
+        this.maxInFlight = maxInFlight;
+        this.results = new AtomicReferenceArray<>(calls.size());
+    }
+
+    public static <T> CompletableFuture<List<T>> dispatch(List<Supplier<CompletableFuture<T>>> calls, int maxInFlight) {
+        Preconditions.checkNotNull(calls);
+        Preconditions.checkArgument(maxInFlight > 0);
+
+        if (calls.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        BoundedDispatcher<T> dispatcher = new BoundedDispatcher<>(new ArrayList<>(calls), maxInFlight);
+        dispatcher.dispatch();
+        return dispatcher.response;
+    }
+
+    private void dispatch() {
+        if (pendingDispatches.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (!response.isDone() && inFlight.get() < maxInFlight && nextCall.get() < calls.size()) {
+                inFlight.incrementAndGet();
+                start(nextCall.getAndIncrement());
+            }
+        } while (pendingDispatches.decrementAndGet() != 0);
+    }
+
+    private void start(int index) {
+        CompletableFuture<T> call;
+        try {
+            call = calls.get(index).get();
+        } catch (RuntimeException e) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        }
+
+        call.whenComplete((result, e) -> {
+            inFlight.decrementAndGet();
+            if (null != e) {
+                response.completeExceptionally(e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+                return;
+            }
+
+            results.set(index, result);
+            if (completedCalls.incrementAndGet() == calls.size()) {
+                List<T> orderedResults = new ArrayList<>(calls.size());
+                for (int i = 0; i < calls.size(); i++) {
+                    orderedResults.add(results.get(i));
+                }
+                response.complete(orderedResults);
+            } else {
+                dispatch();
+            }
+        });
+    }
+}
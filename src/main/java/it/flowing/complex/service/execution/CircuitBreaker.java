@@ -0,0 +1,66 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+// Dopo failureThreshold errori consecutivi il circuito si apre e rifiuta le richieste per openMillis, poi ne lascia
+// passare una di prova: se riesce si richiude, se fallisce si riapre. Una prova senza esito (annullata, o non inviata
+// perché il client ha scelto un altro nodo) viene concessa di nuovo dopo altri openMillis
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    // Apertura del circuito o, in HALF_OPEN, ultima prova concessa
+    private long sinceNanos;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        Preconditions.checkArgument(failureThreshold > 0);
+        Preconditions.checkArgument(openMillis > 0);
+
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    public synchronized boolean allowRequest() {
+        if (State.CLOSED == state) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        if (now - sinceNanos < openNanos) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        sinceNanos = now;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        if (State.CLOSED == state && ++consecutiveFailures < failureThreshold) {
+            return;
+        }
+        // Gli errori delle richieste partite prima dell'apertura prolungano il circuito aperto
+        state = State.OPEN;
+        sinceNanos = System.nanoTime();
+        consecutiveFailures = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
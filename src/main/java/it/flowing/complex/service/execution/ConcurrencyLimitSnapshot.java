@@ -0,0 +1,15 @@
+package it.flowing.complex.service.execution;
+
+import lombok.Builder;
+import lombok.Getter;
+
+// rejectedCount è cumulativo dall'apertura della connessione
+@Getter
+@Builder
+public class ConcurrencyLimitSnapshot {
+    private OperationClass operationClass;
+    private int limit;
+    private int inFlight;
+    private int queued;
+    private long rejectedCount;
+}
@@ -0,0 +1,174 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Limite AIMD delle richieste in volo di una classe di operazioni: ogni limit risposte riuscite il limite cresce
+// di 1, a ogni segnale di congestione (429 o deadline scaduta) viene moltiplicato per backoffRatio. Il limite
+// cresce solo se è almeno a metà in uso, così un periodo di traffico basso non lo gonfia.
+// Oltre il limite le richieste attendono in una coda limitata, senza bloccare il chiamante
+public class ConcurrencyLimiter {
+
+    public enum Outcome {
+        SUCCESS,
+        CONGESTION,
+        // Esito che non dice nulla sul carico del cluster: richiesta annullata, documento mancante, nodo irraggiungibile
+        IGNORED
+    }
+
+    private final OperationClass operationClass;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long maxWaitNanos;
+    private final int maxQueued;
+    private final ScheduledExecutorService scheduler;
+
+    private double limit;
+    private int inFlight;
+    private long rejectedCount;
+    // Le richieste partite prima dell'ultima riduzione sono state ammesse con il limite precedente: i loro 429
+    // riducono il limite una sola volta, non una per richiesta
+    private long lastDecreaseNanos = System.nanoTime();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    // scheduler serve solo se maxWaitNanos è positivo: con 0 le richieste oltre il limite sono rifiutate subito
+    ConcurrencyLimiter(OperationClass operationClass,
+                       int initialLimit,
+                       int minLimit,
+                       int maxLimit,
+                       double backoffRatio,
+                       long maxWaitNanos,
+                       int maxQueued,
+                       ScheduledExecutorService scheduler) {
+        Preconditions.checkNotNull(operationClass);
+        Preconditions.checkArgument(minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit);
+        Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1);
+        Preconditions.checkArgument(maxWaitNanos >= 0);
+        Preconditions.checkArgument(maxQueued >= 0);
+        Preconditions.checkArgument(0 == maxWaitNanos || null != scheduler);
+
+        this.operationClass = operationClass;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.maxWaitNanos = maxWaitNanos;
+        this.maxQueued = maxQueued;
+        this.scheduler = scheduler;
+        this.limit = initialLimit;
+    }
+
+    public synchronized CompletableFuture<Permit> acquire() {
+        if (waiters.isEmpty() && inFlight < (int) limit) {
+            inFlight++;
+            return CompletableFuture.completedFuture(new Permit());
+        }
+        if (0 == maxWaitNanos || waiters.size() >= maxQueued) {
+            rejectedCount++;
+            return rejected();
+        }
+
+        Waiter waiter = new Waiter();
+        waiter.timeout = scheduler.schedule(() -> expire(waiter), maxWaitNanos, TimeUnit.NANOSECONDS);
+        waiters.addLast(waiter);
+        return waiter.permit;
+    }
+
+    // Senza attesa: null se il limite è raggiunto o ci sono già richieste in coda
+    public synchronized Permit tryAcquire() {
+        if (waiters.isEmpty() && inFlight < (int) limit) {
+            inFlight++;
+            return new Permit();
+        }
+        return null;
+    }
+
+    public synchronized ConcurrencyLimitSnapshot snapshot() {
+        return ConcurrencyLimitSnapshot.builder()
+                .operationClass(operationClass)
+                .limit((int) limit)
+                .inFlight(inFlight)
+                .queued(waiters.size())
+                .rejectedCount(rejectedCount)
+                .build();
+    }
+
+    private void release(Permit permit, Outcome outcome) {
+        List<Waiter> admitted = new ArrayList<>();
+        synchronized (this) {
+            if (Outcome.CONGESTION == outcome) {
+                if (permit.admittedNanos - lastDecreaseNanos >= 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = System.nanoTime();
+                }
+            } else if (Outcome.SUCCESS == outcome && 2 * inFlight >= limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            inFlight--;
+
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                admitted.add(waiters.pollFirst());
+            }
+        }
+
+        // Fuori dal lock: completare il permesso invia la richiesta in attesa
+        for (Waiter waiter : admitted) {
+            waiter.timeout.cancel(false);
+            waiter.permit.complete(new Permit());
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            rejectedCount++;
+        }
+        waiter.permit.completeExceptionally(rejection());
+    }
+
+    private CompletableFuture<Permit> rejected() {
+        CompletableFuture<Permit> permit = new CompletableFuture<>();
+        permit.completeExceptionally(rejection());
+        return permit;
+    }
+
+    // Come il rifiuto di un thread pool del nodo: ExceptionsHelper.status restituisce TOO_MANY_REQUESTS
+    private EsRejectedExecutionException rejection() {
+        return new EsRejectedExecutionException("Limite di concorrenza raggiunto per le operazioni " + operationClass, false);
+    }
+
+    // Un permesso va rilasciato una sola volta, con l'esito della richiesta: i rilasci successivi sono ignorati
+    public final class Permit {
+        private final long admittedNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void release(Outcome outcome) {
+            Preconditions.checkNotNull(outcome);
+
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(this, outcome);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final CompletableFuture<Permit> permit = new CompletableFuture<>();
+        private ScheduledFuture<?> timeout;
+    }
+}
@@ -0,0 +1,30 @@
+package it.flowing.complex.service.execution;
+
+import it.flowing.complex.model.OperationType;
+
+// Quali errori si possono ritentare senza cambiare l'effetto della chiamata
+public enum Idempotency {
+    // Letture, index con id esplicito, update senza script né if_seq_no: ripeterle non cambia il risultato
+    IDEMPOTENT,
+    // Solo gli errori che garantiscono che il cluster non ha eseguito la richiesta
+    NOT_IDEMPOTENT,
+    // Body non ripetibile (stream letto durante l'invio): nessun retry
+    NOT_REPEATABLE;
+
+    // Senza altre informazioni sulla richiesta: INDEX senza id e UPDATE con script non sono idempotenti,
+    // lo scroll avanza il cursore a ogni chiamata. Una cancellazione ripetuta dopo essere stata applicata
+    // risponde 404, e il chiamante vedrebbe mancante un documento (o un indice) appena cancellato
+    public static Idempotency of(OperationType operation) {
+        switch (operation) {
+            case SCROLL:
+            case INDEX:
+            case BULK:
+            case UPDATE:
+            case DELETE:
+            case DELETE_INDEX:
+                return NOT_IDEMPOTENT;
+            default:
+                return IDEMPOTENT;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.metrics.LatencySnapshot;
+import it.flowing.complex.service.metrics.OperationTags;
+import it.flowing.complex.service.metrics.RollingLatencyHistogram;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Politica di latenza lato client delle letture: per ogni operazione e SearchType tiene la distribuzione
+// delle latenze recenti e ne ricava la deadline della richiesta e il ritardo dopo cui parte la richiesta di riserva.
+// Finché una serie ha meno di minSamples misure non c'è hedging e la deadline è quella massima
+public class LatencyPolicy implements Closeable {
+
+    static final long NONE = -1;
+
+    private static final double TIMEOUT_PERCENTILE = 99;
+    // Le soglie sono ricalcolate al più una volta al secondo: il percentile richiede una copia dell'istogramma
+    private static final long THRESHOLDS_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long windowNanos;
+    private final int minSamples;
+    private final boolean adaptiveTimeoutEnabled;
+    private final double timeoutMultiplier;
+    private final long minTimeoutNanos;
+    private final long maxTimeoutNanos;
+    private final boolean hedgingEnabled;
+    private final double hedgingPercentile;
+    private final long hedgingMinDelayNanos;
+
+    private final ConcurrentMap<OperationTags, Series> series = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public LatencyPolicy(ServerConfiguration serverConfiguration) {
+        Preconditions.checkNotNull(serverConfiguration);
+        Preconditions.checkArgument(serverConfiguration.getLatencyWindowMillis() > 0);
+        Preconditions.checkArgument(serverConfiguration.getLatencyMinSamples() > 0);
+        Preconditions.checkArgument(serverConfiguration.getAdaptiveTimeoutMultiplier() >= 1);
+        Preconditions.checkArgument(serverConfiguration.getAdaptiveTimeoutMinMillis() > 0);
+        Preconditions.checkArgument(serverConfiguration.getAdaptiveTimeoutMaxMillis() >= serverConfiguration.getAdaptiveTimeoutMinMillis());
+        Preconditions.checkArgument(serverConfiguration.getHedgingPercentile() > 0 && serverConfiguration.getHedgingPercentile() < 100);
+        Preconditions.checkArgument(serverConfiguration.getHedgingMinDelayMillis() >= 0);
+
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getLatencyWindowMillis());
+        minSamples = serverConfiguration.getLatencyMinSamples();
+        adaptiveTimeoutEnabled = serverConfiguration.isAdaptiveTimeoutEnabled();
+        timeoutMultiplier = serverConfiguration.getAdaptiveTimeoutMultiplier();
+        minTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getAdaptiveTimeoutMinMillis());
+        maxTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getAdaptiveTimeoutMaxMillis());
+        hedgingEnabled = serverConfiguration.isHedgingEnabled();
+        hedgingPercentile = serverConfiguration.getHedgingPercentile();
+        hedgingMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getHedgingMinDelayMillis());
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elastic-latency-policy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Latenza della richiesta originale, anche quando è stata interrotta perché ha vinto la richiesta di riserva
+    // o perché è scaduta la deadline: in quel caso è un limite inferiore, ma tiene la coda nella distribuzione
+    public void record(OperationTags tags, long latencyNanos) {
+        series(tags).latency.recordNanos(latencyNanos);
+    }
+
+    public LatencySnapshot snapshot(OperationTags tags) {
+        return series(tags).latency.snapshot();
+    }
+
+    long getTimeoutNanos(OperationTags tags) {
+        return series(tags).thresholds().timeoutNanos;
+    }
+
+    long getHedgeDelayNanos(OperationTags tags) {
+        return series(tags).thresholds().hedgeDelayNanos;
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        return scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    // Le serie sono per operazione e SearchType: gli indici interrogati non cambiano la soglia
+    private Series series(OperationTags tags) {
+        OperationTags key = tags.withIndex(OperationTags.ALL_INDICES);
+        Series current = series.get(key);
+        if (null == current) {
+            current = series.computeIfAbsent(key, ignored -> new Series());
+        }
+        return current;
+    }
+
+    private Thresholds computeThresholds(LatencySnapshot snapshot) {
+        if (snapshot.getCount() < minSamples) {
+            return new Thresholds(false, adaptiveTimeoutEnabled ? maxTimeoutNanos : NONE, NONE);
+        }
+
+        long timeoutNanos = NONE;
+        if (adaptiveTimeoutEnabled) {
+            long timeout = (long) (TimeUnit.MICROSECONDS.toNanos(snapshot.getValueAtPercentile(TIMEOUT_PERCENTILE)) * timeoutMultiplier);
+            timeoutNanos = Math.min(maxTimeoutNanos, Math.max(minTimeoutNanos, timeout));
+        }
+
+        long hedgeDelayNanos = NONE;
+        if (hedgingEnabled) {
+            long hedgeDelay = TimeUnit.MICROSECONDS.toNanos(snapshot.getValueAtPercentile(hedgingPercentile));
+            hedgeDelayNanos = Math.max(hedgingMinDelayNanos, hedgeDelay);
+            // Una richiesta di riserva che partirebbe dopo la deadline sarebbe comunque annullata
+            if (NONE != timeoutNanos && hedgeDelayNanos >= timeoutNanos) {
+                hedgeDelayNanos = NONE;
+            }
+        }
+
+        return new Thresholds(true, timeoutNanos, hedgeDelayNanos);
+    }
+
+    private final class Series {
+        private final RollingLatencyHistogram latency = new RollingLatencyHistogram(windowNanos);
+        private volatile Thresholds thresholds;
+
+        // Finché la serie non ha abbastanza misure le soglie sono ricalcolate a ogni richiesta
+        private Thresholds thresholds() {
+            Thresholds current = thresholds;
+            long now = System.nanoTime();
+            if (null == current || !current.ready || now - current.computedAtNanos > THRESHOLDS_REFRESH_NANOS) {
+                current = computeThresholds(latency.snapshot());
+                thresholds = current;
+            }
+            return current;
+        }
+    }
+
+    private static final class Thresholds {
+        private final boolean ready;
+        private final long timeoutNanos;
+        private final long hedgeDelayNanos;
+        private final long computedAtNanos = System.nanoTime();
+
+        private Thresholds(boolean ready, long timeoutNanos, long hedgeDelayNanos) {
+            this.ready = ready;
+            this.timeoutNanos = timeoutNanos;
+            this.hedgeDelayNanos = hedgeDelayNanos;
+        }
+    }
+}
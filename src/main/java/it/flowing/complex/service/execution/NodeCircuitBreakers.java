@@ -0,0 +1,109 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Un CircuitBreaker per nodo, come NodeSelector: le richieste non vanno ai nodi con il circuito aperto, a meno che
+// non siano aperti tutti (in quel caso decide il circuito globale). Il RestClient sospende già per conto suo i nodi
+// irraggiungibili o che rispondono 502, 503 e 504, e li segnala al FailureListener; l'interceptor aggiunge i 429,
+// cioè i nodi raggiungibili ma saturi, e le risposte riuscite che richiudono il circuito
+public class NodeCircuitBreakers implements NodeSelector, HttpResponseInterceptor {
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final NodeSelector delegate;
+    private final ConcurrentMap<HttpHost, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    // delegate sceglie i nodi candidati, prima dei circuiti: NodeSelector.ANY o SKIP_DEDICATED_MASTERS
+    public NodeCircuitBreakers(int failureThreshold, long openMillis, NodeSelector delegate) {
+        Preconditions.checkArgument(failureThreshold > 0);
+        Preconditions.checkArgument(openMillis > 0);
+        Preconditions.checkNotNull(delegate);
+
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        delegate.select(nodes);
+
+        List<Node> rejected = new ArrayList<>();
+        int candidates = 0;
+        for (Node node : nodes) {
+            candidates++;
+            if (!breaker(node.getHost()).allowRequest()) {
+                rejected.add(node);
+            }
+        }
+        if (rejected.isEmpty() || rejected.size() == candidates) {
+            return;
+        }
+
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            if (rejected.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Object target = context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST);
+        if (!(target instanceof HttpHost)) {
+            return;
+        }
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (RestStatus.TOO_MANY_REQUESTS.getStatus() == statusCode) {
+            breaker((HttpHost) target).recordFailure();
+        } else if (statusCode < HttpStatus.SC_BAD_GATEWAY || statusCode > HttpStatus.SC_GATEWAY_TIMEOUT) {
+            breaker((HttpHost) target).recordSuccess();
+        }
+    }
+
+    // next è il listener già registrato sul RestClient (lo sniffer), o null: il client ne accetta uno solo
+    public RestClient.FailureListener failureListener(RestClient.FailureListener next) {
+        return new RestClient.FailureListener() {
+            @Override
+            public void onFailure(Node node) {
+                breaker(node.getHost()).recordFailure();
+                if (null != next) {
+                    next.onFailure(node);
+                }
+            }
+        };
+    }
+
+    public Optional<CircuitBreaker.State> getState(HttpHost host) {
+        Preconditions.checkNotNull(host);
+
+        return Optional.ofNullable(breakers.get(host)).map(CircuitBreaker::getState);
+    }
+
+    private CircuitBreaker breaker(HttpHost host) {
+        return breakers.computeIfAbsent(host, key -> new CircuitBreaker(failureThreshold, openMillis));
+    }
+
+    @Override
+    public String toString() {
+        return "CIRCUIT_BREAKERS(" + delegate + ")";
+    }
+}
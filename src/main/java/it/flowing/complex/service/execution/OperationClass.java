@@ -0,0 +1,33 @@
+package it.flowing.complex.service.execution;
+
+import it.flowing.complex.model.OperationType;
+
+// Classi di operazioni con un limite di concorrenza separato: corrispondono ai thread pool del nodo che le esegue,
+// quindi un 429 del pool di search non riduce le scritture
+public enum OperationClass {
+    SEARCH,
+    GET,
+    WRITE,
+    MANAGEMENT;
+
+    public static OperationClass of(OperationType operation) {
+        switch (operation) {
+            case GET:
+            case MULTI_GET:
+            case EXISTS:
+                return GET;
+            case INDEX:
+            case BULK:
+            case UPDATE:
+            case DELETE:
+                return WRITE;
+            case PUT_SEARCH_TEMPLATE:
+            case GET_SEARCH_TEMPLATE:
+            case DELETE_INDEX:
+            case GET_ALIASES:
+                return MANAGEMENT;
+            default:
+                return SEARCH;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.service.metrics.ElasticMetrics;
+import it.flowing.complex.service.metrics.MetricsInterceptor;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.rest.RestStatus;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Unico punto da cui passano tutte le chiamate verso il cluster
+public class OperationExecutor {
+
+    public interface AsyncCall<T> {
+        Cancellable execute(RequestOptions requestOptions, ActionListener<T> listener);
+    }
+
+    private final ElasticMetrics metrics;
+    private final MetricsInterceptor metricsInterceptor;
+    private final LatencyPolicy latencyPolicy;
+    private final AdmissionController admissionController;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+
+    // metricsInterceptor è null se le metriche sono disabilitate, latencyPolicy se non ci sono né deadline né hedging,
+    // admissionController se la concorrenza verso il cluster non è limitata, retryPolicy e circuitBreaker se le
+    // chiamate fallite non sono ritentate e non c'è un circuito globale
+    public OperationExecutor(ElasticMetrics metrics,
+                             MetricsInterceptor metricsInterceptor,
+                             LatencyPolicy latencyPolicy,
+                             AdmissionController admissionController,
+                             RetryPolicy retryPolicy,
+                             CircuitBreaker circuitBreaker) {
+        Preconditions.checkNotNull(metrics);
+        Preconditions.checkArgument(!metrics.isEnabled() || null != metricsInterceptor);
+
+        this.metrics = metrics;
+        this.metricsInterceptor = metricsInterceptor;
+        this.latencyPolicy = latencyPolicy;
+        this.admissionController = admissionController;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public <T> CompletableFuture<T> execute(OperationTags tags, AsyncCall<T> call) {
+        Preconditions.checkNotNull(tags);
+
+        return execute(tags, Idempotency.of(tags.getOperation()), call);
+    }
+
+    // Il future restituito fallisce con l'eccezione originale dell'ultimo tentativo.
+    // Oltre il limite di concorrenza il chiamante non resta bloccato: la richiesta in coda parte dal thread che
+    // rilascia il permesso, oppure il future fallisce con EsRejectedExecutionException
+    public <T> CompletableFuture<T> execute(OperationTags tags, Idempotency idempotency, AsyncCall<T> call) {
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(idempotency);
+        Preconditions.checkNotNull(call);
+
+        return withRetries(tags, idempotency, () -> admit(tags, call));
+    }
+
+    // Letture idempotenti: con la LatencyPolicy ogni tentativo ha una deadline adattiva e, se hedgeCall non è null,
+    // dopo il ritardo di hedging parte la richiesta di riserva. Vince la prima risposta, l'altra richiesta viene annullata
+    public <T> CompletableFuture<T> executeRead(OperationTags tags, AsyncCall<T> call, AsyncCall<T> hedgeCall) {
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(call);
+
+        return withRetries(tags, Idempotency.IDEMPOTENT,
+                () -> null == latencyPolicy ? admit(tags, call) : new HedgedRead<>(tags, call, hedgeCall).start());
+    }
+
+    // _bulk con retry dei soli item rifiutati dal thread pool di write: non sono stati eseguiti, quindi si ripetono
+    // anche le scritture senza id. La risposta ha un item per azione di request, nello stesso ordine
+    public CompletableFuture<BulkResponse> executeBulk(OperationTags tags,
+                                                       BulkRequest request,
+                                                       Function<BulkRequest, AsyncCall<BulkResponse>> call) {
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(request);
+        Preconditions.checkNotNull(call);
+
+        if (null == retryPolicy) {
+            return execute(tags, call.apply(request));
+        }
+
+        int[] positions = new int[request.numberOfActions()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        BulkRetry bulkRetry = new BulkRetry(tags, request, call);
+        bulkRetry.send(request, positions, 1);
+        return bulkRetry.response;
+    }
+
+    private <T> CompletableFuture<T> withRetries(OperationTags tags, Idempotency idempotency, Supplier<CompletableFuture<T>> attempt) {
+        if (null == retryPolicy && null == circuitBreaker) {
+            return attempt.get();
+        }
+
+        RetryingCall<T> retryingCall = new RetryingCall<>(tags, idempotency, attempt);
+        retryingCall.run(1);
+        return retryingCall.response;
+    }
+
+    private <T> CompletableFuture<T> admit(OperationTags tags, AsyncCall<T> call) {
+        CompletableFuture<T> response = new CompletableFuture<>();
+        if (null == admissionController) {
+            send(tags, call, completing(response));
+            return response;
+        }
+
+        CompletableFuture<ConcurrencyLimiter.Permit> permit = admissionController.limiter(tags.getOperation()).acquire();
+        permit.whenComplete((admitted, rejection) -> {
+            if (null != rejection) {
+                response.completeExceptionally(rejection);
+                return;
+            }
+            try {
+                send(tags, call, releasing(admitted, completing(response)));
+            } catch (RuntimeException e) {
+                admitted.release(ConcurrencyLimiter.Outcome.IGNORED);
+                response.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+    private <T> Cancellable send(OperationTags tags, AsyncCall<T> call, ActionListener<T> responseListener) {
+        if (!metrics.isEnabled()) {
+            return call.execute(RequestOptions.DEFAULT, responseListener);
+        }
+
+        MetricsInterceptor.Measurement measurement = metricsInterceptor.begin();
+        RequestOptions requestOptions = RequestOptions.DEFAULT.toBuilder()
+                .addHeader(MetricsInterceptor.OPERATION_HEADER, measurement.getId())
+                .build();
+        long startNanos = System.nanoTime();
+
+        // La misura è registrata prima di completare il future, così è visibile a chi attende la risposta.
+        // Una richiesta annullata da questo client (hedging o deadline) non è un errore del cluster
+        ActionListener<T> listener = ActionListener.wrap(
+                result -> {
+                    metricsInterceptor.end(measurement);
+                    record(tags, System.nanoTime() - startNanos, null, measurement.getRequestBytes(), measurement.getResponseBytes());
+                    responseListener.onResponse(result);
+                },
+                e -> {
+                    metricsInterceptor.end(measurement);
+                    if (!(e instanceof CancellationException)) {
+                        record(tags, System.nanoTime() - startNanos, e, measurement.getRequestBytes(), measurement.getResponseBytes());
+                    }
+                    responseListener.onFailure(e);
+                });
+
+        try {
+            return call.execute(requestOptions, listener);
+        } catch (RuntimeException e) {
+            metricsInterceptor.end(measurement);
+            throw e;
+        }
+    }
+
+    // Per le operazioni che non corrispondono a una singola richiesta HTTP (ricerche accorpate, documenti
+    // inviati in bulk): si misura la latenza vista dal chiamante, senza i byte
+    public <T> CompletableFuture<T> measure(OperationTags tags, CompletableFuture<T> response) {
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(response);
+
+        if (!metrics.isEnabled()) {
+            return response;
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> measuredResponse = new CompletableFuture<>();
+        response.whenComplete((result, e) -> {
+            record(tags, System.nanoTime() - startNanos, e, 0, 0);
+            if (null != e) {
+                measuredResponse.completeExceptionally(e);
+            } else {
+                measuredResponse.complete(result);
+            }
+        });
+        return measuredResponse;
+    }
+
+    private void record(OperationTags tags, long latencyNanos, Throwable failure, long requestBytes, long responseBytes) {
+        if (null == failure) {
+            metrics.recordSuccess(tags, latencyNanos, requestBytes, responseBytes);
+            return;
+        }
+
+        Throwable cause = failure instanceof CompletionException && null != failure.getCause()
+                ? failure.getCause()
+                : failure;
+        metrics.recordFailure(tags, latencyNanos, ExceptionsHelper.status(cause), requestBytes, responseBytes);
+    }
+
+    // Stato di una lettura con deadline e richiesta di riserva: tutte le transizioni passano dal completamento
+    // di response, quindi una risposta arrivata dopo la deadline o dopo la richiesta vincente viene ignorata
+    private final class HedgedRead<T> {
+        private final OperationTags tags;
+        private final AsyncCall<T> call;
+        private final AsyncCall<T> hedgeCall;
+        private final CompletableFuture<T> response = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+
+        // Richieste partite e non ancora fallite: l'errore arriva al chiamante solo quando falliscono tutte
+        private final AtomicInteger inFlight = new AtomicInteger(1);
+        private final AtomicBoolean latencyRecorded = new AtomicBoolean();
+        // La latenza della richiesta originale parte dall'invio, senza l'attesa in coda per il permesso
+        private volatile long primarySentNanos;
+        private volatile ConcurrencyLimiter.Permit primaryPermit;
+        private volatile Cancellable primary;
+        private volatile Cancellable hedge;
+        private volatile ScheduledFuture<?> hedgeTimer;
+        private volatile ScheduledFuture<?> deadlineTimer;
+
+        private HedgedRead(OperationTags tags, AsyncCall<T> call, AsyncCall<T> hedgeCall) {
+            this.tags = tags;
+            this.call = call;
+            this.hedgeCall = hedgeCall;
+        }
+
+        private CompletableFuture<T> start() {
+            long timeoutNanos = latencyPolicy.getTimeoutNanos(tags);
+            long hedgeDelayNanos = null == hedgeCall ? LatencyPolicy.NONE : latencyPolicy.getHedgeDelayNanos(tags);
+
+            response.whenComplete((result, e) -> finish());
+            if (LatencyPolicy.NONE != timeoutNanos) {
+                deadlineTimer = latencyPolicy.schedule(this::expire, timeoutNanos);
+            }
+            if (LatencyPolicy.NONE != hedgeDelayNanos) {
+                hedgeTimer = latencyPolicy.schedule(this::sendHedge, hedgeDelayNanos);
+            }
+
+            if (null == admissionController) {
+                sendPrimary(null);
+                return response;
+            }
+
+            CompletableFuture<ConcurrencyLimiter.Permit> permit = admissionController.limiter(tags.getOperation()).acquire();
+            permit.whenComplete((admitted, rejection) -> {
+                if (null != rejection) {
+                    latencyRecorded.set(true);
+                    response.completeExceptionally(rejection);
+                } else if (response.isDone()) {
+                    // Deadline scaduta mentre la richiesta era in coda
+                    admitted.release(ConcurrencyLimiter.Outcome.IGNORED);
+                } else {
+                    sendPrimary(admitted);
+                }
+            });
+            return response;
+        }
+
+        private void sendPrimary(ConcurrencyLimiter.Permit permit) {
+            // L'errore della richiesta originale non entra nella distribuzione: non è una misura della sua latenza
+            ActionListener<T> listener = ActionListener.wrap(
+                    result -> {
+                        recordPrimaryLatency();
+                        response.complete(result);
+                    },
+                    e -> {
+                        latencyRecorded.set(true);
+                        onFailure(e);
+                    });
+
+            primaryPermit = permit;
+            primarySentNanos = System.nanoTime();
+            try {
+                primary = send(tags, call, null == permit ? listener : releasing(permit, listener));
+            } catch (RuntimeException e) {
+                if (null != permit) {
+                    permit.release(ConcurrencyLimiter.Outcome.IGNORED);
+                }
+                latencyRecorded.set(true);
+                response.completeExceptionally(e);
+                throw e;
+            }
+            cancelIfDone(primary);
+        }
+
+        private void sendHedge() {
+            if (response.isDone()) {
+                return;
+            }
+            // La richiesta di riserva non attende un permesso: sotto carico l'hedging si sospende da solo
+            ConcurrencyLimiter.Permit permit = null;
+            if (null != admissionController) {
+                permit = admissionController.limiter(tags.getOperation()).tryAcquire();
+                if (null == permit) {
+                    return;
+                }
+            }
+
+            inFlight.incrementAndGet();
+            ActionListener<T> listener = ActionListener.wrap(response::complete, this::onFailure);
+            try {
+                hedge = send(tags, hedgeCall, null == permit ? listener : releasing(permit, listener));
+            } catch (RuntimeException e) {
+                if (null != permit) {
+                    permit.release(ConcurrencyLimiter.Outcome.IGNORED);
+                }
+                onFailure(e);
+                return;
+            }
+            cancelIfDone(hedge);
+        }
+
+        private void onFailure(Exception e) {
+            if (0 == inFlight.decrementAndGet()) {
+                response.completeExceptionally(e);
+            }
+        }
+
+        private void expire() {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            ElasticsearchTimeoutException timeout = new ElasticsearchTimeoutException("Nessuna risposta per {} entro {} ms",
+                    tags.getOperation(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            // La richiesta annullata arriverebbe al limitatore come CancellationException: la deadline scaduta
+            // è invece un segnale di congestione
+            ConcurrencyLimiter.Permit permit = primaryPermit;
+            if (null != permit) {
+                permit.release(ConcurrencyLimiter.Outcome.CONGESTION);
+            }
+            if (response.completeExceptionally(timeout)) {
+                metrics.recordFailure(tags, elapsedNanos, RestStatus.REQUEST_TIMEOUT, 0, 0);
+            }
+        }
+
+        private void finish() {
+            cancel(hedgeTimer);
+            cancel(deadlineTimer);
+            // La richiesta originale ancora in corso ha perso: la sua latenza è almeno quella trascorsa finora
+            recordPrimaryLatency();
+            cancelIfDone(primary);
+            cancelIfDone(hedge);
+        }
+
+        private void recordPrimaryLatency() {
+            long sentNanos = primarySentNanos;
+            if (0 != sentNanos && latencyRecorded.compareAndSet(false, true)) {
+                latencyPolicy.record(tags, System.nanoTime() - sentNanos);
+            }
+        }
+
+        // Annullare una richiesta già conclusa non ha effetto
+        private void cancelIfDone(Cancellable cancellable) {
+            if (null != cancellable && response.isDone()) {
+                cancellable.cancel();
+            }
+        }
+
+        private void cancel(ScheduledFuture<?> timer) {
+            if (null != timer) {
+                timer.cancel(false);
+            }
+        }
+    }
+
+    // Tentativi di una chiamata: ognuno passa dal circuito globale e dal limite di concorrenza, e l'attesa tra un
+    // tentativo e il successivo non occupa permessi
+    private final class RetryingCall<T> {
+        private final OperationTags tags;
+        private final Idempotency idempotency;
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final CompletableFuture<T> response = new CompletableFuture<>();
+
+        private RetryingCall(OperationTags tags, Idempotency idempotency, Supplier<CompletableFuture<T>> attempt) {
+            this.tags = tags;
+            this.idempotency = idempotency;
+            this.attempt = attempt;
+        }
+
+        private void run(int attemptNumber) {
+            if (null != circuitBreaker && !circuitBreaker.allowRequest()) {
+                response.completeExceptionally(new ElasticsearchStatusException("Circuito aperto: {} non inviata al cluster",
+                        RestStatus.SERVICE_UNAVAILABLE, tags.getOperation()));
+                return;
+            }
+
+            CompletableFuture<T> attemptResponse;
+            try {
+                attemptResponse = attempt.get();
+            } catch (RuntimeException e) {
+                // Al primo tentativo l'errore arriva al chiamante come senza retry
+                if (1 == attemptNumber) {
+                    throw e;
+                }
+                response.completeExceptionally(e);
+                return;
+            }
+
+            attemptResponse.whenComplete((result, e) -> {
+                if (null == e) {
+                    if (null != circuitBreaker) {
+                        circuitBreaker.recordSuccess();
+                    }
+                    response.complete(result);
+                    return;
+                }
+
+                Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+                RetryPolicy.Failure failure = RetryPolicy.classify(cause);
+                if (null != circuitBreaker) {
+                    record(circuitBreaker, failure);
+                }
+                if (null == retryPolicy || !retryPolicy.shouldRetry(attemptNumber, failure, idempotency)) {
+                    response.completeExceptionally(cause);
+                    return;
+                }
+                try {
+                    retryPolicy.schedule(() -> run(attemptNumber + 1), retryPolicy.backoffNanos(attemptNumber));
+                } catch (RejectedExecutionException closed) {
+                    response.completeExceptionally(cause);
+                }
+            });
+        }
+    }
+
+    // Stato di una _bulk con item rifiutati: ogni tentativo invia solo gli item ancora rifiutati, e positions indica
+    // la posizione nella richiesta originale di ciascuno. Se un tentativo fallisce per intero restano gli item con il 429
+    private final class BulkRetry {
+        private final OperationTags tags;
+        private final Function<BulkRequest, AsyncCall<BulkResponse>> call;
+        private final BulkRequest request;
+        private final BulkItemResponse[] items;
+        private final CompletableFuture<BulkResponse> response = new CompletableFuture<>();
+        private long tookMillis;
+
+        private BulkRetry(OperationTags tags, BulkRequest request, Function<BulkRequest, AsyncCall<BulkResponse>> call) {
+            this.tags = tags;
+            this.call = call;
+            this.request = request;
+            this.items = new BulkItemResponse[request.numberOfActions()];
+        }
+
+        private void send(BulkRequest bulkRequest, int[] positions, int attemptNumber) {
+            CompletableFuture<BulkResponse> bulkResponse;
+            try {
+                bulkResponse = execute(tags, call.apply(bulkRequest));
+            } catch (RuntimeException e) {
+                if (1 == attemptNumber) {
+                    throw e;
+                }
+                complete();
+                return;
+            }
+
+            bulkResponse.whenComplete((attemptResponse, e) -> {
+                if (null != e) {
+                    if (1 == attemptNumber) {
+                        response.completeExceptionally(e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+                    } else {
+                        complete();
+                    }
+                    return;
+                }
+
+                tookMillis += attemptResponse.getTook().millis();
+                BulkRequest retryRequest = retryRequest();
+                List<Integer> retryPositions = new ArrayList<>();
+                BulkItemResponse[] attemptItems = attemptResponse.getItems();
+                for (int i = 0; i < attemptItems.length; i++) {
+                    items[positions[i]] = renumber(attemptItems[i], positions[i]);
+                    if (attemptItems[i].isFailed() && RestStatus.TOO_MANY_REQUESTS == attemptItems[i].getFailure().getStatus()
+                            && retryPolicy.shouldRetry(attemptNumber, RetryPolicy.Failure.REJECTED, Idempotency.NOT_IDEMPOTENT)) {
+                        retryRequest.add(bulkRequest.requests().get(i));
+                        retryPositions.add(positions[i]);
+                    }
+                }
+
+                if (retryPositions.isEmpty()) {
+                    complete();
+                    return;
+                }
+                try {
+                    retryPolicy.schedule(
+                            () -> send(retryRequest, retryPositions.stream().mapToInt(Integer::intValue).toArray(), attemptNumber + 1),
+                            retryPolicy.backoffNanos(attemptNumber));
+                } catch (RejectedExecutionException closed) {
+                    complete();
+                }
+            });
+        }
+
+        private BulkRequest retryRequest() {
+            BulkRequest retryRequest = new BulkRequest();
+            retryRequest.timeout(request.timeout());
+            retryRequest.setRefreshPolicy(request.getRefreshPolicy());
+            retryRequest.waitForActiveShards(request.waitForActiveShards());
+            return retryRequest;
+        }
+
+        private void complete() {
+            response.complete(new BulkResponse(items, tookMillis));
+        }
+    }
+
+    // Gli errori che mostrano un cluster irraggiungibile o non disponibile aprono il circuito, qualsiasi risposta
+    // del cluster lo richiude. Un 429 dice che il cluster è saturo, non giù: lo gestisce il limite di concorrenza
+    private static void record(CircuitBreaker circuitBreaker, RetryPolicy.Failure failure) {
+        switch (failure) {
+            case UNREACHABLE:
+            case UNAVAILABLE:
+                circuitBreaker.recordFailure();
+                break;
+            case PERMANENT:
+                circuitBreaker.recordSuccess();
+                break;
+            default:
+                break;
+        }
+    }
+
+    // L'id dell'item è la sua posizione nella _bulk inviata, che per gli item ritentati non è quella originale
+    private static BulkItemResponse renumber(BulkItemResponse item, int position) {
+        if (position == item.getItemId()) {
+            return item;
+        }
+        return item.isFailed()
+                ? new BulkItemResponse(position, item.getOpType(), item.getFailure())
+                : new BulkItemResponse(position, item.getOpType(), item.getResponse());
+    }
+
+    private static <T> ActionListener<T> completing(CompletableFuture<T> future) {
+        return ActionListener.wrap(future::complete, future::completeExceptionally);
+    }
+
+    // Il permesso è rilasciato prima di passare la risposta, così una richiesta in coda può partire subito
+    private static <T> ActionListener<T> releasing(ConcurrencyLimiter.Permit permit, ActionListener<T> listener) {
+        return ActionListener.wrap(
+                result -> {
+                    permit.release(outcome(result));
+                    listener.onResponse(result);
+                },
+                e -> {
+                    permit.release(outcome(e));
+                    listener.onFailure(e);
+                });
+    }
+
+    // Un _bulk riuscito può contenere item rifiutati dal thread pool di write: sono lo stesso segnale di un 429
+    private static ConcurrencyLimiter.Outcome outcome(Object result) {
+        if (result instanceof BulkResponse && ((BulkResponse) result).hasFailures()) {
+            for (BulkItemResponse item : (BulkResponse) result) {
+                if (item.isFailed() && RestStatus.TOO_MANY_REQUESTS == item.getFailure().getStatus()) {
+                    return ConcurrencyLimiter.Outcome.CONGESTION;
+                }
+            }
+        }
+        return ConcurrencyLimiter.Outcome.SUCCESS;
+    }
+
+    private static ConcurrencyLimiter.Outcome outcome(Exception failure) {
+        if (failure instanceof CancellationException) {
+            return ConcurrencyLimiter.Outcome.IGNORED;
+        }
+        if (failure instanceof ElasticsearchTimeoutException || failure instanceof SocketTimeoutException
+                || RestStatus.TOO_MANY_REQUESTS == ExceptionsHelper.status(failure)) {
+            return ConcurrencyLimiter.Outcome.CONGESTION;
+        }
+        return ConcurrencyLimiter.Outcome.IGNORED;
+    }
+}
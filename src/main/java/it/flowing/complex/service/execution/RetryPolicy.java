@@ -0,0 +1,114 @@
+package it.flowing.complex.service.execution;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Backoff esponenziale con jitter pieno: i client che hanno visto lo stesso errore non ritentano tutti insieme
+public class RetryPolicy implements Closeable {
+
+    // Cosa dice un errore sullo stato del cluster e sull'esecuzione della richiesta
+    enum Failure {
+        // Connessione mai stabilita: la richiesta non è partita
+        UNREACHABLE,
+        // 429 del thread pool del nodo: rifiutata prima dell'esecuzione
+        REJECTED,
+        // Il cluster non risponde o non è disponibile, la richiesta può essere stata eseguita
+        UNAVAILABLE,
+        // Risposta del cluster (400, 404, 409, errore della query): ritentare darebbe lo stesso esito
+        PERMANENT,
+        // Errore di questo client: limite di concorrenza, richiesta annullata, circuito aperto
+        LOCAL
+    }
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final ScheduledExecutorService scheduler;
+
+    public RetryPolicy(ServerConfiguration serverConfiguration) {
+        Preconditions.checkNotNull(serverConfiguration);
+        Preconditions.checkArgument(serverConfiguration.getRetryMaxAttempts() > 0);
+        Preconditions.checkArgument(serverConfiguration.getRetryInitialBackoffMillis() > 0);
+        Preconditions.checkArgument(serverConfiguration.getRetryMaxBackoffMillis() >= serverConfiguration.getRetryInitialBackoffMillis());
+
+        this.maxAttempts = serverConfiguration.getRetryMaxAttempts();
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getRetryInitialBackoffMillis());
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(serverConfiguration.getRetryMaxBackoffMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elastic-retry-policy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // attempt è il numero del tentativo appena fallito, da 1
+    boolean shouldRetry(int attempt, Failure failure, Idempotency idempotency) {
+        if (attempt >= maxAttempts || Idempotency.NOT_REPEATABLE == idempotency) {
+            return false;
+        }
+        return Failure.UNREACHABLE == failure || Failure.REJECTED == failure
+                || (Failure.UNAVAILABLE == failure && Idempotency.IDEMPOTENT == idempotency);
+    }
+
+    long backoffNanos(int attempt) {
+        long ceilingNanos = initialBackoffNanos << Math.min(attempt - 1, 30);
+        if (ceilingNanos <= 0 || ceilingNanos > maxBackoffNanos) {
+            ceilingNanos = maxBackoffNanos;
+        }
+        return ThreadLocalRandom.current().nextLong(ceilingNanos + 1);
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        return scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Le risposte di errore arrivano come ElasticsearchStatusException, gli errori di rete come IOException:
+    // EsRejectedExecutionException non convertita è quindi il rifiuto del ConcurrencyLimiter, che non va ritentato
+    static Failure classify(Throwable failure) {
+        if (failure instanceof CancellationException || failure instanceof EsRejectedExecutionException) {
+            return Failure.LOCAL;
+        }
+        if (failure instanceof ConnectException || failure instanceof NoRouteToHostException) {
+            return Failure.UNREACHABLE;
+        }
+        if (failure instanceof IOException || failure instanceof ElasticsearchTimeoutException) {
+            return Failure.UNAVAILABLE;
+        }
+        if (!(failure instanceof ElasticsearchException)) {
+            return Failure.LOCAL;
+        }
+
+        RestStatus status = ExceptionsHelper.status(failure);
+        switch (status) {
+            case TOO_MANY_REQUESTS:
+                return Failure.REJECTED;
+            case BAD_GATEWAY:
+            case SERVICE_UNAVAILABLE:
+            case GATEWAY_TIMEOUT:
+                return Failure.UNAVAILABLE;
+            default:
+                return Failure.PERMANENT;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,19 @@
+package it.flowing.complex.service.metrics;
+
+import org.elasticsearch.rest.RestStatus;
+
+// Punto di estensione per la strumentazione di ElasticService: un'implementazione può inoltrare le misure
+// a un sistema di monitoraggio esterno. Se isEnabled() è false le operazioni non vengono misurate affatto
+public interface ElasticMetrics {
+
+    ElasticMetrics NOOP = new NoopElasticMetrics();
+
+    boolean isEnabled();
+
+    // I byte valgono 0 quando la dimensione non è nota (body in streaming o operazioni accorpate)
+    void recordSuccess(OperationTags tags, long latencyNanos, long requestBytes, long responseBytes);
+
+    void recordFailure(OperationTags tags, long latencyNanos, RestStatus status, long requestBytes, long responseBytes);
+
+    MetricsSnapshot snapshot();
+}
@@ -0,0 +1,89 @@
+package it.flowing.complex.service.metrics;
+
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+// Implementazione in memoria: una serie per ogni combinazione di operazione, SearchType e indice
+public class HistogramElasticMetrics implements ElasticMetrics {
+
+    private final ConcurrentMap<OperationTags, OperationRecorder> recorders = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordSuccess(OperationTags tags, long latencyNanos, long requestBytes, long responseBytes) {
+        recorder(tags).record(latencyNanos, requestBytes, responseBytes);
+    }
+
+    @Override
+    public void recordFailure(OperationTags tags, long latencyNanos, RestStatus status, long requestBytes, long responseBytes) {
+        OperationRecorder recorder = recorder(tags);
+        recorder.record(latencyNanos, requestBytes, responseBytes);
+        recorder.recordError(status);
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        List<OperationMetrics> operations = recorders.entrySet().stream()
+                .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                .collect(Collectors.toList());
+
+        return MetricsSnapshot.builder()
+                .timestampMillis(System.currentTimeMillis())
+                .operations(operations)
+                .build();
+    }
+
+    private OperationRecorder recorder(OperationTags tags) {
+        OperationRecorder recorder = recorders.get(tags);
+        if (null == recorder) {
+            recorder = recorders.computeIfAbsent(tags, key -> new OperationRecorder());
+        }
+        return recorder;
+    }
+
+    private static class OperationRecorder {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errorCount = new LongAdder();
+        private final ConcurrentMap<RestStatus, LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+
+        private void record(long latencyNanos, long requestBytes, long responseBytes) {
+            latency.recordNanos(latencyNanos);
+            this.requestBytes.add(requestBytes);
+            this.responseBytes.add(responseBytes);
+        }
+
+        private void recordError(RestStatus status) {
+            errorCount.increment();
+            errorsByStatus.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+
+        private OperationMetrics snapshot(OperationTags tags) {
+            Map<RestStatus, Long> errors = new EnumMap<>(RestStatus.class);
+            errorsByStatus.forEach((status, count) -> errors.put(status, count.sum()));
+
+            LatencySnapshot latencySnapshot = latency.snapshot();
+            return OperationMetrics.builder()
+                    .tags(tags)
+                    .count(latencySnapshot.getCount())
+                    .errorCount(errorCount.sum())
+                    .errorsByStatus(errors)
+                    .requestBytes(requestBytes.sum())
+                    .responseBytes(responseBytes.sum())
+                    .latency(latencySnapshot)
+                    .build();
+        }
+    }
+}
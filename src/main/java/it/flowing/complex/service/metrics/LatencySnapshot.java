@@ -0,0 +1,69 @@
+package it.flowing.complex.service.metrics;
+
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+
+// Copia immutabile di un LatencyHistogram: i valori sono in microsecondi
+public class LatencySnapshot {
+
+    private final long[] counts;
+    @Getter
+    private final long count;
+    private final long totalMicros;
+    @Getter
+    private final long maxMicros;
+
+    LatencySnapshot(long[] counts, long count, long totalMicros, long maxMicros) {
+        this.counts = counts;
+        this.count = count;
+        this.totalMicros = totalMicros;
+        this.maxMicros = maxMicros;
+    }
+
+    // Somma di due distribuzioni registrate in intervalli diversi
+    LatencySnapshot merge(LatencySnapshot other) {
+        long[] mergedCounts = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            mergedCounts[i] = counts[i] + other.counts[i];
+        }
+        return new LatencySnapshot(mergedCounts, count + other.count, totalMicros + other.totalMicros,
+                Math.max(maxMicros, other.maxMicros));
+    }
+
+    public double getMeanMicros() {
+        return count == 0 ? 0 : (double) totalMicros / count;
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100);
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= rank) {
+                return Math.min(LatencyHistogram.bucketHighestValue(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    public long getP50Micros() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP90Micros() {
+        return getValueAtPercentile(90);
+    }
+
+    public long getP99Micros() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999Micros() {
+        return getValueAtPercentile(99.9);
+    }
+}
@@ -0,0 +1,92 @@
+package it.flowing.complex.service.metrics;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Conta i byte dei body di richiesta e risposta. L'I/O del client avviene su thread propri, quindi la richiesta
+// viene associata alla sua misura tramite un header: resta sulla richiesta perché il client la riusa
+// quando ritenta l'invio su un altro nodo
+public class MetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    public static final String OPERATION_HEADER = "X-Client-Operation-Id";
+
+    private static final String MEASUREMENT_ATTRIBUTE = MetricsInterceptor.class.getName() + ".measurement";
+
+    private final ConcurrentMap<String, Measurement> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public Measurement begin() {
+        Measurement measurement = new Measurement(Long.toString(sequence.incrementAndGet()));
+        inFlight.put(measurement.id, measurement);
+        return measurement;
+    }
+
+    public void end(Measurement measurement) {
+        inFlight.remove(measurement.id);
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        Header header = request.getFirstHeader(OPERATION_HEADER);
+        if (null == header) {
+            return;
+        }
+
+        Measurement measurement = inFlight.get(header.getValue());
+        if (null == measurement) {
+            return;
+        }
+
+        context.setAttribute(MEASUREMENT_ATTRIBUTE, measurement);
+        if (request instanceof HttpEntityEnclosingRequest) {
+            measurement.requestBytes.addAndGet(contentLength(((HttpEntityEnclosingRequest) request).getEntity()));
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Object measurement = context.getAttribute(MEASUREMENT_ATTRIBUTE);
+        if (measurement instanceof Measurement) {
+            ((Measurement) measurement).responseBytes.addAndGet(contentLength(response.getEntity()));
+        }
+    }
+
+    private static long contentLength(HttpEntity entity) {
+        if (null == entity) {
+            return 0;
+        }
+        return Math.max(0, entity.getContentLength());
+    }
+
+    public static class Measurement {
+        private final String id;
+        private final AtomicLong requestBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+
+        private Measurement(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getRequestBytes() {
+            return requestBytes.get();
+        }
+
+        public long getResponseBytes() {
+            return responseBytes.get();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package it.flowing.complex.service.metrics;
+
+import it.flowing.complex.model.OperationType;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Getter
+@Builder
+public class MetricsSnapshot {
+    private long timestampMillis;
+    private List<OperationMetrics> operations;
+
+    public List<OperationMetrics> getOperations(OperationType operation) {
+        return operations.stream()
+                .filter(operationMetrics -> operationMetrics.getTags().getOperation() == operation)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,29 @@
+package it.flowing.complex.service.metrics;
+
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.Collections;
+
+class NoopElasticMetrics implements ElasticMetrics {
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void recordSuccess(OperationTags tags, long latencyNanos, long requestBytes, long responseBytes) {
+    }
+
+    @Override
+    public void recordFailure(OperationTags tags, long latencyNanos, RestStatus status, long requestBytes, long responseBytes) {
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        return MetricsSnapshot.builder()
+                .timestampMillis(System.currentTimeMillis())
+                .operations(Collections.emptyList())
+                .build();
+    }
+}
@@ -0,0 +1,20 @@
+package it.flowing.complex.service.metrics;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.Map;
+
+// Valori cumulativi dall'apertura della connessione
+@Getter
+@Builder
+public class OperationMetrics {
+    private OperationTags tags;
+    private long count;
+    private long errorCount;
+    private Map<RestStatus, Long> errorsByStatus;
+    private long requestBytes;
+    private long responseBytes;
+    private LatencySnapshot latency;
+}
@@ -0,0 +1,38 @@
+package it.flowing.complex.service.metrics;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.model.OperationType;
+import it.flowing.complex.model.SearchType;
+import lombok.Value;
+import lombok.With;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+// Identifica la serie di metriche di un'operazione: searchType è null per le operazioni che non sono ricerche
+@Value
+@With
+public class OperationTags {
+    public static final String ALL_INDICES = "_all";
+
+    OperationType operation;
+    SearchType searchType;
+    String index;
+
+    public static OperationTags of(OperationType operation, String... indices) {
+        return of(operation, null, indices);
+    }
+
+    public static OperationTags of(OperationType operation, SearchType searchType, String... indices) {
+        return of(operation, searchType, null == indices ? null : Arrays.asList(indices));
+    }
+
+    public static OperationTags of(OperationType operation, SearchType searchType, Collection<String> indices) {
+        Preconditions.checkNotNull(operation);
+
+        if (null == indices || indices.isEmpty()) {
+            return new OperationTags(operation, searchType, ALL_INDICES);
+        }
+        return new OperationTags(operation, searchType, String.join(",", indices));
+    }
+}
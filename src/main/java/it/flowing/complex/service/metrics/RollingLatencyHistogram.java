@@ -0,0 +1,48 @@
+package it.flowing.complex.service.metrics;
+
+import com.google.common.base.Preconditions;
+
+// Latenze degli ultimi due intervalli di windowNanos: a ogni rotazione l'intervallo più vecchio viene scartato,
+// quindi i percentili seguono un cambiamento del cluster entro due finestre. Una misura registrata durante la
+// rotazione può finire nell'intervallo appena chiuso, senza conseguenze sui percentili
+public class RollingLatencyHistogram {
+
+    private final long windowNanos;
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous = new LatencyHistogram();
+    private volatile long windowStartNanos = System.nanoTime();
+
+    public RollingLatencyHistogram(long windowNanos) {
+        Preconditions.checkArgument(windowNanos > 0);
+
+        this.windowNanos = windowNanos;
+    }
+
+    public void recordNanos(long latencyNanos) {
+        rotateIfNeeded();
+        current.recordNanos(latencyNanos);
+    }
+
+    public LatencySnapshot snapshot() {
+        rotateIfNeeded();
+        return previous.snapshot().merge(current.snapshot());
+    }
+
+    private void rotateIfNeeded() {
+        if (System.nanoTime() - windowStartNanos < windowNanos) {
+            return;
+        }
+
+        synchronized (this) {
+            long elapsedNanos = System.nanoTime() - windowStartNanos;
+            if (elapsedNanos < windowNanos) {
+                return;
+            }
+            // Dopo due finestre senza misure anche l'intervallo corrente è scaduto
+            previous = elapsedNanos < 2 * windowNanos ? current : new LatencyHistogram();
+            current = new LatencyHistogram();
+            windowStartNanos += elapsedNanos - elapsedNanos % windowNanos;
+        }
+    }
+}
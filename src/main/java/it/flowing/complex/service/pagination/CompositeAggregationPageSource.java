@@ -0,0 +1,91 @@
+package it.flowing.complex.service.pagination;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Ogni pagina è una _search senza hit con la sola aggregazione composite, ripartendo dall'after_key della
+// pagina precedente: il coordinatore non deve mai tenere in memoria tutti i bucket
+public class CompositeAggregationPageSource implements PageSource<CompositeAggregation.Bucket> {
+
+    private final RestHighLevelClient client;
+    private final OperationExecutor operationExecutor;
+    private final OperationTags tags;
+    private final SearchRequest searchRequest;
+    private final CompositeAggregationBuilder compositeAggregationBuilder;
+
+    private boolean morePages = true;
+
+    public CompositeAggregationPageSource(RestHighLevelClient client,
+                                          OperationExecutor operationExecutor,
+                                          OperationTags tags,
+                                          SearchRequest searchRequest,
+                                          CompositeAggregationBuilder compositeAggregationBuilder) {
+        Preconditions.checkNotNull(client);
+        Preconditions.checkNotNull(operationExecutor);
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(searchRequest);
+        Preconditions.checkNotNull(searchRequest.source());
+        Preconditions.checkNotNull(compositeAggregationBuilder);
+
+        this.client = client;
+        this.operationExecutor = operationExecutor;
+        this.tags = tags;
+        this.searchRequest = searchRequest;
+        this.compositeAggregationBuilder = compositeAggregationBuilder;
+
+        SearchSourceBuilder searchSourceBuilder = searchRequest.source()
+                .from(0)
+                .size(0)
+                .trackTotalHits(false);
+        searchSourceBuilder.aggregation(compositeAggregationBuilder);
+    }
+
+    @Override
+    public CompletableFuture<List<CompositeAggregation.Bucket>> nextPage() {
+        CompletableFuture<SearchResponse> searchResponse = operationExecutor.execute(tags,
+                (requestOptions, listener) -> client.searchAsync(searchRequest, requestOptions, listener));
+
+        return searchResponse.thenApply(this::onPage);
+    }
+
+    @Override
+    public boolean hasMorePages() {
+        return morePages;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private List<CompositeAggregation.Bucket> onPage(SearchResponse searchResponse) {
+        CompositeAggregation compositeAggregation = null == searchResponse.getAggregations() ? null
+                : searchResponse.getAggregations().get(compositeAggregationBuilder.getName());
+        if (null == compositeAggregation) {
+            morePages = false;
+            return Collections.emptyList();
+        }
+
+        List<? extends CompositeAggregation.Bucket> buckets = compositeAggregation.getBuckets();
+        Map<String, Object> afterKey = compositeAggregation.afterKey();
+        // Una pagina non piena è l'ultima: si evita la richiesta finale che restituirebbe zero bucket
+        morePages = null != afterKey && buckets.size() >= compositeAggregationBuilder.size();
+        if (null != afterKey) {
+            // La pagina successiva viene richiesta solo dopo questa, quindi la richiesta può essere riusata
+            compositeAggregationBuilder.aggregateAfter(afterKey);
+        }
+
+        return Collections.unmodifiableList(buckets);
+    }
+}
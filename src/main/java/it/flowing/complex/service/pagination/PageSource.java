@@ -0,0 +1,10 @@
+package it.flowing.complex.service.pagination;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface PageSource<T> extends Closeable {
+    CompletableFuture<List<T>> nextPage();
+    boolean hasMorePages();
+}
@@ -0,0 +1,98 @@
+package it.flowing.complex.service.pagination;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Mentre il chiamante consuma la pagina corrente, la successiva è già in caricamento:
+// in memoria ci sono al più due pagine, indipendentemente dalla dimensione del risultato
+public class PrefetchingIterator<T> implements Iterator<T>, Closeable {
+
+    private final PageSource<T> pageSource;
+
+    private Iterator<T> currentPage = Collections.emptyIterator();
+    private CompletableFuture<List<T>> nextPage;
+    private boolean closed = false;
+
+    public PrefetchingIterator(PageSource<T> pageSource) {
+        this.pageSource = Preconditions.checkNotNull(pageSource);
+        this.nextPage = pageSource.nextPage();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (closed || null == nextPage) {
+                return false;
+            }
+
+            List<T> page = awaitNextPage();
+            nextPage = (!page.isEmpty() && pageSource.hasMorePages()) ? pageSource.nextPage() : null;
+            currentPage = page.iterator();
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return currentPage.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        currentPage = Collections.emptyIterator();
+        if (null != nextPage) {
+            nextPage.cancel(false);
+            nextPage = null;
+        }
+        pageSource.close();
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private List<T> awaitNextPage() {
+        try {
+            return nextPage.join();
+        } catch (CompletionException e) {
+            nextPage = null;
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw e;
+        }
+    }
+}
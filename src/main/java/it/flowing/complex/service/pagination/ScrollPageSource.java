@@ -0,0 +1,138 @@
+package it.flowing.complex.service.pagination;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import it.flowing.complex.model.OperationType;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class ScrollPageSource implements PageSource<SearchHit> {
+
+    private final RestHighLevelClient client;
+    private final OperationExecutor operationExecutor;
+    private final OperationTags tags;
+    private final SearchRequest searchRequest;
+    private final TimeValue keepAlive;
+
+    private String scrollId = null;
+    private boolean morePages = true;
+    private boolean closed = false;
+
+    public ScrollPageSource(RestHighLevelClient client,
+                            OperationExecutor operationExecutor,
+                            OperationTags tags,
+                            SearchRequest searchRequest,
+                            int pageSize,
+                            TimeValue keepAlive) {
+        Preconditions.checkNotNull(client);
+        Preconditions.checkNotNull(operationExecutor);
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(searchRequest);
+        Preconditions.checkNotNull(searchRequest.source());
+        Preconditions.checkArgument(pageSize > 0);
+        Preconditions.checkNotNull(keepAlive);
+
+        this.client = client;
+        this.operationExecutor = operationExecutor;
+        this.tags = tags;
+        this.searchRequest = searchRequest;
+        this.keepAlive = keepAlive;
+
+        SearchSourceBuilder searchSourceBuilder = searchRequest.source()
+                .from(0)
+                .size(pageSize);
+        if (null == searchSourceBuilder.sorts() || searchSourceBuilder.sorts().isEmpty()) {
+            // Senza un ordinamento esplicito, _doc è l'ordine più economico per lo scroll
+            searchSourceBuilder.sort(SortBuilders.fieldSort("_doc"));
+        }
+        searchRequest.scroll(keepAlive);
+    }
+
+    @Override
+    public CompletableFuture<List<SearchHit>> nextPage() {
+        CompletableFuture<SearchResponse> searchResponse;
+        String scrollId = currentScrollId();
+        if (null == scrollId) {
+            searchResponse = operationExecutor.execute(tags,
+                    (requestOptions, listener) -> client.searchAsync(searchRequest, requestOptions, listener));
+        } else {
+            SearchScrollRequest searchScrollRequest = new SearchScrollRequest(scrollId).scroll(keepAlive);
+            searchResponse = operationExecutor.execute(tags.withOperation(OperationType.SCROLL),
+                    (requestOptions, listener) -> client.scrollAsync(searchScrollRequest, requestOptions, listener));
+        }
+
+        return searchResponse.thenApply(this::onPage);
+    }
+
+    @Override
+    public synchronized boolean hasMorePages() {
+        return morePages;
+    }
+
+    @Override
+    public void close() throws IOException {
+        String scrollId;
+        synchronized (this) {
+            closed = true;
+            scrollId = this.scrollId;
+            this.scrollId = null;
+        }
+
+        if (null != scrollId) {
+            try {
+                clearScroll(scrollId).join();
+            } catch (CompletionException e) {
+                Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private synchronized String currentScrollId() {
+        return scrollId;
+    }
+
+    private synchronized List<SearchHit> onPage(SearchResponse searchResponse) {
+        if (closed) {
+            // Pagina arrivata dopo la chiusura dell'iteratore: il contesto di scroll va comunque rilasciato
+            clearScroll(searchResponse.getScrollId());
+            return Collections.emptyList();
+        }
+
+        scrollId = searchResponse.getScrollId();
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        morePages = hits.length > 0;
+
+        return Arrays.asList(hits);
+    }
+
+    private CompletableFuture<ClearScrollResponse> clearScroll(String scrollId) {
+        ClearScrollRequest clearScrollRequest = buildClearScrollRequest(scrollId);
+        return operationExecutor.execute(tags.withOperation(OperationType.CLEAR_SCROLL),
+                (requestOptions, listener) -> client.clearScrollAsync(clearScrollRequest, requestOptions, listener));
+    }
+
+    private static ClearScrollRequest buildClearScrollRequest(String scrollId) {
+        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        return clearScrollRequest;
+    }
+}
@@ -0,0 +1,105 @@
+package it.flowing.complex.service.pagination;
+
+import com.google.common.base.Preconditions;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class SearchAfterPageSource implements PageSource<SearchHit> {
+
+    private final RestHighLevelClient client;
+    private final OperationExecutor operationExecutor;
+    private final OperationTags tags;
+    private final SearchRequest searchRequest;
+    private final int pageSize;
+
+    private Object[] searchAfter = null;
+    private boolean morePages = true;
+
+    public SearchAfterPageSource(RestHighLevelClient client,
+                                 OperationExecutor operationExecutor,
+                                 OperationTags tags,
+                                 SearchRequest searchRequest,
+                                 int pageSize,
+                                 String tiebreakerField) {
+        Preconditions.checkNotNull(client);
+        Preconditions.checkNotNull(operationExecutor);
+        Preconditions.checkNotNull(tags);
+        Preconditions.checkNotNull(searchRequest);
+        Preconditions.checkNotNull(searchRequest.source());
+        Preconditions.checkArgument(pageSize > 0);
+        Preconditions.checkNotNull(tiebreakerField);
+
+        this.client = client;
+        this.operationExecutor = operationExecutor;
+        this.tags = tags;
+        this.searchRequest = searchRequest;
+        this.pageSize = pageSize;
+
+        SearchSourceBuilder searchSourceBuilder = searchRequest.source()
+                .from(0)
+                .size(pageSize)
+                .trackTotalHits(false);
+        if (!isSortedBy(searchSourceBuilder, tiebreakerField)) {
+            // search_after richiede un ordinamento totale: il tiebreaker rende univoco l'ordine dei documenti
+            searchSourceBuilder.sort(SortBuilders.fieldSort(tiebreakerField).order(SortOrder.ASC));
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<SearchHit>> nextPage() {
+        if (null != searchAfter) {
+            searchRequest.source().searchAfter(searchAfter);
+        }
+
+        CompletableFuture<SearchResponse> searchResponse = operationExecutor.execute(tags,
+                (requestOptions, listener) -> client.searchAsync(searchRequest, requestOptions, listener));
+
+        return searchResponse.thenApply(this::onPage);
+    }
+
+    @Override
+    public boolean hasMorePages() {
+        return morePages;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private List<SearchHit> onPage(SearchResponse searchResponse) {
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        if (hits.length > 0) {
+            searchAfter = hits[hits.length - 1].getSortValues();
+        }
+        morePages = hits.length == pageSize;
+
+        return Arrays.asList(hits);
+    }
+
+    private static boolean isSortedBy(SearchSourceBuilder searchSourceBuilder, String field) {
+        if (null == searchSourceBuilder.sorts()) {
+            return false;
+        }
+
+        for (SortBuilder<?> sort : searchSourceBuilder.sorts()) {
+            if (sort instanceof FieldSortBuilder && ((FieldSortBuilder) sort).getFieldName().equals(field)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -3,46 +3,140 @@ package it.flowing.complex.service.searcher;
 import com.google.common.base.Preconditions;
 import it.flowing.complex.model.BoolQueryRule;
 import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
+// Le regole di boolQueryRules sono termQuery per campo; le clausole di boolClauses sono QueryData qualsiasi,
+// costruite dal Searcher del loro tipo (anche bool annidate)
 public class BoolSearcher implements Searcher {
 
+    private final Function<SearchType, Searcher> searchers;
+
+    public BoolSearcher(Function<SearchType, Searcher> searchers) {
+        this.searchers = Preconditions.checkNotNull(searchers);
+    }
+
     @Override
     public void checkPreconditions(QueryData queryData) {
-        Preconditions.checkNotNull(queryData.getBoolQueryRules());
+        if (null == queryData.getBoolClauses()) {
+            Preconditions.checkNotNull(queryData.getBoolQueryRules());
+        } else {
+            for (List<QueryData> clauses : queryData.getBoolClauses().values()) {
+                for (QueryData clause : clauses) {
+                    Preconditions.checkNotNull(clause);
+                    getSearcher(clause).checkPreconditions(clause);
+                }
+            }
+        }
+
+        if (queryData.getMinimumShouldMatch().isPresent()) {
+            Preconditions.checkArgument(!getRules(queryData, BoolQueryRule.SHOULD).isEmpty()
+                    || !getClauses(queryData, BoolQueryRule.SHOULD).isEmpty());
+        }
     }
 
     @Override
     public QueryBuilder getQueryBuilder(QueryData queryData) {
         BoolQueryBuilder boolQueryBuilder = new BoolQueryBuilder();
 
-        // TODO: Prevedere vari tipi di query (attualmente solo termQuery)
+        getRules(queryData, BoolQueryRule.MUST).forEach((field, value) -> boolQueryBuilder.must(termQuery(field, value)));
+        getRules(queryData, BoolQueryRule.MUST_NOT).forEach((field, value) -> boolQueryBuilder.mustNot(termQuery(field, value)));
+        getRules(queryData, BoolQueryRule.FILTER).forEach((field, value) -> boolQueryBuilder.filter(termQuery(field, value)));
+        getRules(queryData, BoolQueryRule.SHOULD).forEach((field, value) -> boolQueryBuilder.should(termQuery(field, value)));
 
-        if (queryData.getBoolQueryRules().containsKey(BoolQueryRule.MUST.toString())) {
-            Map<String, Object> mustValues = queryData.getBoolQueryRules().get(BoolQueryRule.MUST.toString());
-            for (Map.Entry<String, Object> mustValueEntry : mustValues.entrySet()) {
-                boolQueryBuilder.must(QueryBuilders.termQuery(mustValueEntry.getKey(), mustValueEntry.getValue().toString()));
+        for (QueryData clause : getClauses(queryData, BoolQueryRule.MUST)) {
+            Searcher searcher = getSearcher(clause);
+            // Una clausola a punteggio costante in must sommerebbe lo stesso valore a tutti i documenti:
+            // in filter l'ordinamento resta identico
+            if (searcher.isScoring(clause)) {
+                boolQueryBuilder.must(searcher.getQueryBuilder(clause));
+            } else {
+                boolQueryBuilder.filter(searcher.getQueryBuilder(clause));
             }
         }
+        for (QueryData clause : getClauses(queryData, BoolQueryRule.MUST_NOT)) {
+            boolQueryBuilder.mustNot(getSearcher(clause).getQueryBuilder(clause));
+        }
+        for (QueryData clause : getClauses(queryData, BoolQueryRule.FILTER)) {
+            boolQueryBuilder.filter(getSearcher(clause).getQueryBuilder(clause));
+        }
+        for (QueryData clause : getClauses(queryData, BoolQueryRule.SHOULD)) {
+            boolQueryBuilder.should(getSearcher(clause).getQueryBuilder(clause));
+        }
+
+        queryData.getMinimumShouldMatch().ifPresent(boolQueryBuilder::minimumShouldMatch);
+
+        return boolQueryBuilder;
+    }
 
-        if (queryData.getBoolQueryRules().containsKey(BoolQueryRule.MUST_NOT.toString())) {
-            Map<String, Object> mustValues = queryData.getBoolQueryRules().get(BoolQueryRule.MUST_NOT.toString());
-            for (Map.Entry<String, Object> mustValueEntry : mustValues.entrySet()) {
-                boolQueryBuilder.mustNot(QueryBuilders.termQuery(mustValueEntry.getKey(), mustValueEntry.getValue().toString()));
+    // Senza clausole di punteggio in must la bool è a punteggio costante solo se non ha should: anche con should
+    // tutte a punteggio costante il punteggio cresce con il numero di should soddisfatte. Fa eccezione il caso in cui
+    // minimumShouldMatch le richiede tutte, e ogni documento trovato ottiene la stessa somma
+    @Override
+    public boolean isScoring(QueryData queryData) {
+        if (!getRules(queryData, BoolQueryRule.MUST).isEmpty() || !getRules(queryData, BoolQueryRule.SHOULD).isEmpty()) {
+            return true;
+        }
+        List<QueryData> shouldClauses = getClauses(queryData, BoolQueryRule.SHOULD);
+        if (!shouldClauses.isEmpty() && !requiresAllShouldClauses(queryData, shouldClauses.size())) {
+            return true;
+        }
+        for (BoolQueryRule rule : new BoolQueryRule[]{BoolQueryRule.MUST, BoolQueryRule.SHOULD}) {
+            for (QueryData clause : getClauses(queryData, rule)) {
+                if (getSearcher(clause).isScoring(clause)) {
+                    return true;
+                }
             }
         }
+        return false;
+    }
 
-        if (queryData.getBoolQueryRules().containsKey(BoolQueryRule.FILTER.toString())) {
-            Map<String, Object> mustValues = queryData.getBoolQueryRules().get(BoolQueryRule.FILTER.toString());
-            for (Map.Entry<String, Object> mustValueEntry : mustValues.entrySet()) {
-                boolQueryBuilder.filter(QueryBuilders.termQuery(mustValueEntry.getKey(), mustValueEntry.getValue().toString()));
-            }
+    // Solo le forme che richiedono certamente tutte le should: un intero non inferiore al loro numero o "100%".
+    // Le combinazioni condizionali ("3<90%") e le percentuali minori sono trattate come non vincolanti
+    private static boolean requiresAllShouldClauses(QueryData queryData, int shouldCount) {
+        if (!queryData.getMinimumShouldMatch().isPresent()) {
+            return false;
+        }
+        String minimumShouldMatch = queryData.getMinimumShouldMatch().get().trim();
+        if ("100%".equals(minimumShouldMatch)) {
+            return true;
         }
+        try {
+            return Integer.parseInt(minimumShouldMatch) >= shouldCount;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 
-        return boolQueryBuilder;
+    private Searcher getSearcher(QueryData clause) {
+        Searcher searcher = searchers.apply(clause.getSearchType());
+        Preconditions.checkArgument(null != searcher);
+
+        return searcher;
+    }
+
+    private static QueryBuilder termQuery(String field, Object value) {
+        return QueryBuilders.termQuery(field, value.toString());
+    }
+
+    private static Map<String, Object> getRules(QueryData queryData, BoolQueryRule rule) {
+        if (null == queryData.getBoolQueryRules() || !queryData.getBoolQueryRules().containsKey(rule.toString())) {
+            return Collections.emptyMap();
+        }
+        return queryData.getBoolQueryRules().get(rule.toString());
+    }
+
+    private static List<QueryData> getClauses(QueryData queryData, BoolQueryRule rule) {
+        if (null == queryData.getBoolClauses() || !queryData.getBoolClauses().containsKey(rule)) {
+            return Collections.emptyList();
+        }
+        return queryData.getBoolClauses().get(rule);
     }
 }
@@ -16,4 +16,9 @@ public class ExistsSearcher implements Searcher {
     public QueryBuilder getQueryBuilder(QueryData queryData) {
         return QueryBuilders.existsQuery(queryData.getTermName());
     }
+
+    @Override
+    public boolean isScoring(QueryData queryData) {
+        return false;
+    }
 }
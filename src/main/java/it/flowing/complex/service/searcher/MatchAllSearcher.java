@@ -15,4 +15,8 @@ public class MatchAllSearcher implements Searcher {
         return QueryBuilders.matchAllQuery();
     }
 
+    @Override
+    public boolean isScoring(QueryData queryData) {
+        return false;
+    }
 }
@@ -22,4 +22,10 @@ public class NestedSearcher implements Searcher {
                     QueryBuilders.termQuery(queryData.getSubTermName(), queryData.getSubTermValue()),
                     ScoreMode.None);
     }
+
+    // ScoreMode.None: il punteggio dei documenti annidati non viene propagato al padre
+    @Override
+    public boolean isScoring(QueryData queryData) {
+        return false;
+    }
 }
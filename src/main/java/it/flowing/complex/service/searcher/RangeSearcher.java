@@ -37,4 +37,9 @@ public class RangeSearcher implements Searcher {
             }
         }
     }
+
+    @Override
+    public boolean isScoring(QueryData queryData) {
+        return false;
+    }
 }
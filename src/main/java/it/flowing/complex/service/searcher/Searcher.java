@@ -6,4 +6,10 @@ import org.elasticsearch.index.query.QueryBuilder;
 public interface Searcher {
     void checkPreconditions(QueryData queryData);
     QueryBuilder getQueryBuilder(QueryData queryData);
+
+    // false per le query a punteggio costante: come clausole di una bool vanno nel contesto filter,
+    // dove non vengono calcolati punteggi e il risultato è memorizzabile nella query cache del nodo
+    default boolean isScoring(QueryData queryData) {
+        return true;
+    }
 }
@@ -17,4 +17,9 @@ public class TermsSearcher implements Searcher {
     public QueryBuilder getQueryBuilder(QueryData queryData) {
         return QueryBuilders.termsQuery(queryData.getTermName(), queryData.getTermValues().toArray());
     }
+
+    @Override
+    public boolean isScoring(QueryData queryData) {
+        return false;
+    }
 }
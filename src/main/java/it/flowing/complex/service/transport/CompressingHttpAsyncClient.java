@@ -0,0 +1,259 @@
+package it.flowing.complex.service.transport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Compressione gzip sul trasporto, che il RestClient 7.6 non supporta. Il client crea il produttore del body
+// prima di passare dagli interceptor dell'HttpClient, quindi il body compresso va sostituito qui, all'ingresso
+// del client HTTP: vale così per ogni richiesta, del client di alto livello, del BulkProcessor o di basso livello.
+// Gli interceptor (metriche) vedono la richiesta compressa e contano i byte effettivamente trasmessi
+public class CompressingHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    private static final String GZIP = "gzip";
+
+    private final CloseableHttpAsyncClient client;
+    private final boolean requestCompression;
+    private final int requestCompressionMinBytes;
+    private final long requestCompressionMaxBytes;
+    private final boolean responseCompression;
+    private final long responseDecompressionMaxBytes;
+
+    private CompressingHttpAsyncClient(CloseableHttpAsyncClient client,
+                                       boolean requestCompression,
+                                       int requestCompressionMinBytes,
+                                       long requestCompressionMaxBytes,
+                                       boolean responseCompression,
+                                       long responseDecompressionMaxBytes) {
+        this.client = client;
+        this.requestCompression = requestCompression;
+        this.requestCompressionMinBytes = requestCompressionMinBytes;
+        this.requestCompressionMaxBytes = requestCompressionMaxBytes;
+        this.responseCompression = responseCompression;
+        this.responseDecompressionMaxBytes = responseDecompressionMaxBytes;
+    }
+
+    // Da restituire dalla HttpClientConfigCallback: il RestClientBuilder costruisce il client dal builder restituito.
+    // Si comprimono solo i body tra requestCompressionMinBytes e requestCompressionMaxBytes: il body compresso è
+    // tenuto in memoria, quindi gli stream e i body più grandi (ad esempio gli allegati) sono inviati non compressi.
+    // Una risposta che decompressa supera responseDecompressionMaxBytes fallisce con IOException
+    public static HttpAsyncClientBuilder wrap(HttpAsyncClientBuilder httpClientBuilder,
+                                              boolean requestCompression,
+                                              int requestCompressionMinBytes,
+                                              long requestCompressionMaxBytes,
+                                              boolean responseCompression,
+                                              long responseDecompressionMaxBytes) {
+        Preconditions.checkNotNull(httpClientBuilder);
+        Preconditions.checkArgument(requestCompressionMinBytes >= 0);
+        Preconditions.checkArgument(requestCompressionMaxBytes >= requestCompressionMinBytes);
+        Preconditions.checkArgument(responseDecompressionMaxBytes > 0 && responseDecompressionMaxBytes < Integer.MAX_VALUE);
+
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new CompressingHttpAsyncClient(httpClientBuilder.build(),
+                        requestCompression,
+                        requestCompressionMinBytes,
+                        requestCompressionMaxBytes,
+                        responseCompression,
+                        responseDecompressionMaxBytes);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRunning() {
+        return client.isRunning();
+    }
+
+    @Override
+    public void start() {
+        client.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+                                 HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context,
+                                 FutureCallback<T> callback) {
+        return client.execute(new CompressingRequestProducer(requestProducer),
+                responseConsumer,
+                context,
+                null == callback ? null : new DecompressingCallback<>(callback, responseDecompressionMaxBytes));
+    }
+
+    private static byte[] gzip(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.max(64, entity.getContentLength() / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            entity.writeTo(gzip);
+        }
+        return compressed.toByteArray();
+    }
+
+    // La risposta viene decompressa prima di arrivare al RestClient: il client di alto livello e la lettura pigra
+    // dei risultati ricevono il body come se non fosse stato compresso
+    private static void decompress(HttpResponse response, long maxBytes) throws IOException {
+        HttpEntity entity = response.getEntity();
+        Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        if (null == entity || null == contentEncoding || !GZIP.equalsIgnoreCase(contentEncoding.getValue())) {
+            return;
+        }
+
+        // Un body compresso molto ripetitivo può espandersi di ordini di grandezza: la lettura si ferma al limite
+        byte[] content;
+        try (InputStream compressed = new GZIPInputStream(entity.getContent())) {
+            content = ByteStreams.toByteArray(ByteStreams.limit(compressed, maxBytes + 1));
+        }
+        if (content.length > maxBytes) {
+            throw new IOException("Risposta decompressa oltre il limite di " + maxBytes + " byte");
+        }
+        NByteArrayEntity decompressed = new NByteArrayEntity(content);
+        decompressed.setContentType(entity.getContentType());
+        response.setEntity(decompressed);
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+    }
+
+    // La richiesta originale non viene modificata: il RestClient la riusa se ritenta su un altro nodo
+    private final class CompressingRequestProducer implements HttpAsyncRequestProducer {
+
+        private final HttpAsyncRequestProducer requestProducer;
+        private NByteArrayEntity compressedEntity;
+
+        private CompressingRequestProducer(HttpAsyncRequestProducer requestProducer) {
+            this.requestProducer = requestProducer;
+        }
+
+        @Override
+        public HttpHost getTarget() {
+            return requestProducer.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException {
+            HttpRequest request = requestProducer.generateRequest();
+            HttpRequestWrapper compressingRequest = HttpRequestWrapper.wrap(request);
+
+            if (responseCompression && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+                compressingRequest.setHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+            }
+
+            if (requestCompression && request instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                if (null != entity && null == entity.getContentEncoding() && !entity.isStreaming()
+                        && entity.getContentLength() >= requestCompressionMinBytes
+                        && entity.getContentLength() <= requestCompressionMaxBytes) {
+                    compressedEntity = new NByteArrayEntity(gzip(entity));
+                    compressedEntity.setContentType(entity.getContentType());
+                    compressedEntity.setContentEncoding(GZIP);
+                    ((HttpEntityEnclosingRequest) compressingRequest).setEntity(compressedEntity);
+                }
+            }
+
+            return compressingRequest;
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+            if (null != compressedEntity) {
+                compressedEntity.produceContent(encoder, ioControl);
+            } else {
+                requestProducer.produceContent(encoder, ioControl);
+            }
+        }
+
+        @Override
+        public void requestCompleted(HttpContext context) {
+            requestProducer.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(Exception e) {
+            requestProducer.failed(e);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return requestProducer.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException {
+            if (null != compressedEntity) {
+                compressedEntity.close();
+            }
+            requestProducer.resetRequest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null != compressedEntity) {
+                compressedEntity.close();
+            }
+            requestProducer.close();
+        }
+    }
+
+    private static final class DecompressingCallback<T> implements FutureCallback<T> {
+
+        private final FutureCallback<T> callback;
+        private final long maxBytes;
+
+        private DecompressingCallback(FutureCallback<T> callback, long maxBytes) {
+            this.callback = callback;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void completed(T result) {
+            if (result instanceof HttpResponse) {
+                try {
+                    decompress((HttpResponse) result, maxBytes);
+                } catch (IOException e) {
+                    callback.failed(e);
+                    return;
+                }
+            }
+            callback.completed(result);
+        }
+
+        @Override
+        public void failed(Exception e) {
+            callback.failed(e);
+        }
+
+        @Override
+        public void cancelled() {
+            callback.cancelled();
+        }
+    }
+}
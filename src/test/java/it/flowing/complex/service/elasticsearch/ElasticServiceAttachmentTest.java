@@ -0,0 +1,156 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.CreateDocumentResponse;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceAttachmentTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "attachment_demo";
+
+    // Più grande di un blocco di codifica e non multiplo di 3, per verificare anche il padding finale
+    private static final int CONTENT_LENGTH = 200 * 1024 + 1;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> requestUris = Collections.synchronizedList(new ArrayList<>());
+    private final List<byte[]> requestBodies = Collections.synchronizedList(new ArrayList<>());
+
+    private byte[] content;
+    private Map<String, Object> metadata;
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        requestUris.add(uri);
+        requestBodies.add(body);
+        if (uri.startsWith("/missing_pipeline")) {
+            return new StubElasticServer.Response(400, "{\"error\":{\"type\":\"illegal_argument_exception\","
+                    + "\"reason\":\"pipeline with id [attachment] does not exist\"},\"status\":400}");
+        }
+        return new StubElasticServer.Response(201, "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"abc\","
+                + "\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+                + "\"_seq_no\":0,\"_primary_term\":1}");
+    }
+
+    @Before
+    public void before() throws Exception {
+        content = new byte[CONTENT_LENGTH];
+        new Random(42).nextBytes(content);
+
+        metadata = new HashMap<>();
+        metadata.put("nome", "Anna");
+        metadata.put("cognome", "Verdi");
+    }
+
+    @Test
+    public void IndexDocumentFromByteArrayShouldSendBase64EncodedContent() throws Exception {
+        CreateDocumentResponse response = elasticService.indexDocument(INDEX_NAME, content, metadata);
+
+        assertCreated(response);
+        assertSentAttachment();
+    }
+
+    @Test
+    public void IndexDocumentFromByteBufferShouldSendBase64EncodedContent() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CONTENT_LENGTH);
+        buffer.put(content).flip();
+
+        CreateDocumentResponse response = elasticService.indexDocument(INDEX_NAME, buffer, metadata);
+
+        assertCreated(response);
+        assertSentAttachment();
+        assertEquals(CONTENT_LENGTH, buffer.remaining());
+    }
+
+    @Test
+    public void IndexDocumentFromPathShouldSendBase64EncodedContent() throws Exception {
+        Path path = temporaryFolder.newFile("test.bin").toPath();
+        Files.write(path, content);
+
+        CreateDocumentResponse response = elasticService.indexDocument(INDEX_NAME, path, metadata);
+
+        assertCreated(response);
+        assertSentAttachment();
+    }
+
+    @Test
+    public void IndexDocumentFromInputStreamShouldSendBase64EncodedContent() throws Exception {
+        CreateDocumentResponse response = elasticService.indexDocument(INDEX_NAME, new ByteArrayInputStream(content), null);
+
+        assertCreated(response);
+        Map<String, Object> source = sentSource();
+        assertEquals(Collections.singleton("data"), source.keySet());
+        assertEquals(Base64.getEncoder().encodeToString(content), source.get("data"));
+    }
+
+    @Test
+    public void DateMathIndexNameShouldBeEncodedInThePath() throws Exception {
+        CreateDocumentResponse response = elasticService.indexDocument("<attachment-{now/d}>", content, metadata);
+
+        assertEquals(RestStatus.CREATED, response.getStatus());
+        assertEquals("/%3Cattachment-%7Bnow%2Fd%7D%3E/_doc?pipeline=attachment", requestUris.get(0));
+    }
+
+    @Test
+    public void IndexDocumentShouldNotModifyMetadata() throws Exception {
+        elasticService.indexDocument(INDEX_NAME, content, metadata);
+
+        assertFalse(metadata.containsKey("data"));
+    }
+
+    @Test
+    public void IndexDocumentShouldMapErrorResponseToStatusException() throws Exception {
+        try {
+            elasticService.indexDocument("missing_pipeline", content, metadata);
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.BAD_REQUEST, e.status());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void IndexDocumentShouldThrowErrorIfEmptyContentProvided() throws Exception {
+        elasticService.indexDocument(INDEX_NAME, ByteBuffer.allocate(0), metadata);
+    }
+
+    private void assertCreated(CreateDocumentResponse response) {
+        assertEquals(RestStatus.CREATED, response.getStatus());
+        assertEquals("abc", response.getId());
+        assertEquals(1, requestUris.size());
+        assertEquals("/" + INDEX_NAME + "/_doc?pipeline=attachment", requestUris.get(0));
+    }
+
+    private void assertSentAttachment() {
+        Map<String, Object> source = sentSource();
+        assertEquals("Anna", source.get("nome"));
+        assertEquals("Verdi", source.get("cognome"));
+        assertEquals(Base64.getEncoder().encodeToString(content), source.get("data"));
+    }
+
+    private Map<String, Object> sentSource() {
+        return XContentHelper.convertToMap(new BytesArray(requestBodies.get(0)), false, XContentType.JSON).v2();
+    }
+}
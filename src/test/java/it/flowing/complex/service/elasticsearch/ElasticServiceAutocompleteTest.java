@@ -0,0 +1,154 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.AutocompleteData;
+import it.flowing.complex.model.AutocompleteOption;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.common.Strings;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceAutocompleteTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "products";
+
+    // Input del campo completion, in ordine di peso decrescente
+    private static final List<String> SUGGESTIONS = Arrays.asList("Shoes", "Shorts", "Shirt", "Socks", "Sandals");
+
+    private static final Pattern COMPLETION_SIZE = Pattern.compile("\"completion\":\\{\"field\":\"suggest\",\"size\":(\\d+)");
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected void configure(ServerConfiguration serverConfiguration) {
+        serverConfiguration.setAutocompleteCacheMaximumEntries(10000);
+        serverConfiguration.setAutocompletePrefixPruning(true);
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        String request = new String(body, StandardCharsets.UTF_8);
+        requests.add(method + " " + uri + " " + request);
+        return StubElasticServer.ok(completionResponse(request));
+    }
+
+    @Test
+    public void AutocompleteShouldSendOnlyTheCompletionSuggester() throws Exception {
+        List<AutocompleteOption> options = elasticService.autocomplete(autocomplete("sh")
+                .withSkipDuplicates(true)
+                .withContexts(ImmutableMap.of("category", Arrays.asList("men", "sport"))));
+
+        String request = requests.get(0);
+        assertTrue(request.startsWith("POST /" + INDEX_NAME + "/_search?"));
+        assertTrue(request.contains("\"size\":0"));
+        assertTrue(request.contains("\"_source\":false"));
+        assertTrue(request.contains("\"completion\":{\"field\":\"suggest\",\"size\":10,\"skip_duplicates\":true"));
+        assertTrue(request.contains("\"contexts\":{\"category\":[{\"context\":\"men\""));
+        assertFalse(request.contains("\"query\""));
+
+        assertEquals(Arrays.asList("Shoes", "Shorts", "Shirt"), texts(options));
+        assertEquals("1", options.get(0).getId());
+        assertEquals(INDEX_NAME, options.get(0).getIndex());
+    }
+
+    @Test
+    public void NarrowingPrefixesShouldBeAnsweredFromACompleteResult() throws Exception {
+        elasticService.autocomplete(autocomplete("sh"));
+
+        assertEquals(Arrays.asList("Shoes", "Shorts"), texts(elasticService.autocomplete(autocomplete("sho"))));
+        assertEquals(Collections.singletonList("Shoes"), texts(elasticService.autocomplete(autocomplete("Shoe"))));
+        assertTrue(elasticService.autocomplete(autocomplete("shx")).isEmpty());
+        assertTrue(elasticService.autocomplete(autocomplete("shxy")).isEmpty());
+        assertEquals(Arrays.asList("Shoes", "Shorts"), texts(elasticService.autocomplete(autocomplete("sho"))));
+
+        assertEquals(1, requests.size());
+        assertEquals(1, elasticService.getAutocompleteCacheStats().get().hitCount());
+    }
+
+    @Test
+    public void TruncatedResultsShouldNotBeUsedForLongerPrefixes() throws Exception {
+        elasticService.autocomplete(autocomplete("s").withSize(3));
+        elasticService.autocomplete(autocomplete("so").withSize(3));
+        elasticService.autocomplete(autocomplete("s").withSize(3));
+
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1).contains("\"prefix\":\"so\""));
+    }
+
+    @Test
+    public void WritesShouldInvalidateTheIndexSuggestions() throws Exception {
+        elasticService.autocomplete(autocomplete("sh"));
+        elasticService.invalidateQueryCache(INDEX_NAME);
+        elasticService.autocomplete(autocomplete("sho"));
+
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void AutocompleteCacheShouldBeDisabledByDefault() throws Exception {
+        ElasticService defaultElasticService = openAnotherConnection();
+        defaultElasticService.autocomplete(autocomplete("sh"));
+        defaultElasticService.autocomplete(autocomplete("sho"));
+
+        assertEquals(2, requests.size());
+        assertFalse(defaultElasticService.getAutocompleteCacheStats().isPresent());
+    }
+
+    @Test
+    public void SearchWithoutSuggestionsShouldNotSendTheSuggestSection() throws Exception {
+        String source = Strings.toString(elasticService.buildSearchRequest(new QueryData()).source());
+
+        assertFalse(source.contains("suggest"));
+    }
+
+    private static AutocompleteData autocomplete(String prefix) {
+        return (new AutocompleteData())
+                .withField("suggest")
+                .withPrefix(prefix)
+                .withSearchIndex(Optional.of(INDEX_NAME));
+    }
+
+    private static List<String> texts(List<AutocompleteOption> options) {
+        return options.stream().map(AutocompleteOption::getText).collect(Collectors.toList());
+    }
+
+    // Risponde come il completion suggester con l'analyzer simple: prefisso in minuscolo, al massimo size opzioni
+    private static String completionResponse(String request) {
+        String prefix = between(request, "\"prefix\":\"", "\"");
+        Matcher sizeMatcher = COMPLETION_SIZE.matcher(request);
+        Preconditions.checkState(sizeMatcher.find());
+        int size = Integer.parseInt(sizeMatcher.group(1));
+
+        List<String> options = new ArrayList<>();
+        for (int i = 0; i < SUGGESTIONS.size() && options.size() < size; i++) {
+            if (SUGGESTIONS.get(i).toLowerCase().startsWith(prefix.toLowerCase())) {
+                options.add("{\"text\":\"" + SUGGESTIONS.get(i) + "\",\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\","
+                        + "\"_id\":\"" + (i + 1) + "\",\"_score\":" + (SUGGESTIONS.size() - i) + ".0}");
+            }
+        }
+
+        String searchResponse = StubElasticServer.searchResponse(0L);
+        return searchResponse.substring(0, searchResponse.length() - 1)
+                + ",\"suggest\":{\"completion#autocomplete\":[{\"text\":\"" + prefix + "\",\"offset\":0,\"length\":"
+                + prefix.length() + ",\"options\":[" + String.join(",", options) + "]}]}}";
+    }
+
+    private static String between(String text, String start, String end) {
+        int from = text.indexOf(start) + start.length();
+        return text.substring(from, text.indexOf(end, from));
+    }
+}
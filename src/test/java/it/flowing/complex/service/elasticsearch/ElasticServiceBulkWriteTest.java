@@ -0,0 +1,168 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.DeleteDocumentResponse;
+import it.flowing.complex.model.UpdateDocumentResponse;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceBulkWriteTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+    private static final String MISSING_ID = "missing";
+    private static final String BROKEN_ID = "broken";
+
+    private static final Pattern ACTION = Pattern.compile("^\\{\"(update|delete)\":\\{.*\"_id\":\"([^\"]+)\"");
+
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Override
+    protected void configure(ServerConfiguration serverConfiguration) {
+        serverConfiguration.setBulkActions(2);
+        serverConfiguration.setBulkMaxConcurrentChunks(2);
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        String bulkBody = new String(body, StandardCharsets.UTF_8);
+        bodies.add(bulkBody);
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(50);
+            if (bulkBody.contains("\"" + BROKEN_ID + "\"")) {
+                return new StubElasticServer.Response(503, "{\"error\":{\"root_cause\":[],\"type\":\"unavailable_shards_exception\","
+                        + "\"reason\":\"primary shard is not active\"},\"status\":503}");
+            }
+            return StubElasticServer.ok(bulkResponse(bulkBody));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void UpdateDocumentsShouldBeSentInBoundedParallelChunks() throws Exception {
+        Map<String, Map<String, Object>> documents = new LinkedHashMap<>();
+        for (String id : Arrays.asList("1", "2", MISSING_ID, "4", "5", "6", "7")) {
+            documents.put(id, Collections.singletonMap("stock", 10));
+        }
+
+        Map<String, UpdateDocumentResponse> responses = elasticService.updateDocuments(INDEX_NAME, documents);
+
+        assertEquals(4, bodies.size());
+        assertTrue(maxInFlight.get() <= 2);
+        assertEquals(new ArrayList<>(documents.keySet()), new ArrayList<>(responses.keySet()));
+        assertEquals(RestStatus.OK, responses.get("1").getStatus());
+        assertEquals(3, responses.get("7").getSeqNo());
+        assertFalse(responses.get("7").isFailed());
+        assertEquals(RestStatus.NOT_FOUND, responses.get(MISSING_ID).getStatus());
+        assertTrue(responses.get(MISSING_ID).isFailed());
+    }
+
+    @Test
+    public void UpsertAndScriptOptionsShouldBeSentForEveryDocument() throws Exception {
+        Map<String, Map<String, Object>> documents = ImmutableMap.of("1", ImmutableMap.of("stock", 10));
+
+        elasticService.updateDocuments(INDEX_NAME, documents, Optional.of(ImmutableMap.of(ElasticService.DOC_AS_UPSERT, true)));
+        elasticService.updateDocuments(INDEX_NAME, documents, Optional.of(ImmutableMap.of(
+                ElasticService.SCRIPT, "ctx._source.stock += params.stock",
+                ElasticService.SCRIPTED_UPSERT, true)));
+
+        assertTrue(bodies.get(0).contains("\"doc\":{\"stock\":10}"));
+        assertTrue(bodies.get(0).contains("\"doc_as_upsert\":true"));
+        assertTrue(bodies.get(1).contains("\"source\":\"ctx._source.stock += params.stock\""));
+        assertTrue(bodies.get(1).contains("\"params\":{\"stock\":10}"));
+        assertTrue(bodies.get(1).contains("\"scripted_upsert\":true"));
+        assertTrue(bodies.get(1).contains("\"upsert\":{}"));
+    }
+
+    @Test
+    public void FailedChunksShouldOnlyFailTheirOwnDocuments() throws Exception {
+        Map<String, DeleteDocumentResponse> responses = elasticService.deleteDocuments(INDEX_NAME,
+                Arrays.asList("1", "2", BROKEN_ID, "4", MISSING_ID, "1"));
+
+        assertEquals(Arrays.asList("1", "2", BROKEN_ID, "4", MISSING_ID), new ArrayList<>(responses.keySet()));
+        assertFalse(responses.get("1").isFailed());
+        assertEquals(RestStatus.SERVICE_UNAVAILABLE, responses.get(BROKEN_ID).getStatus());
+        assertTrue(responses.get(BROKEN_ID).isFailed());
+        assertTrue(responses.get("4").isFailed());
+        assertEquals(RestStatus.NOT_FOUND, responses.get(MISSING_ID).getStatus());
+        assertFalse(responses.get(MISSING_ID).isFailed());
+    }
+
+    @Test
+    public void ChunksRejectedWithoutBeingSentShouldNotNestTheStack() throws Exception {
+        ElasticService breakingElasticService = openAnotherConnection(serverConfiguration -> {
+            serverConfiguration.setBulkActions(1);
+            serverConfiguration.setCircuitBreakerEnabled(true);
+            serverConfiguration.setCircuitBreakerFailureThreshold(1);
+            serverConfiguration.setCircuitBreakerOpenMillis(60000);
+        });
+
+        // Il 503 apre il circuito: i chunk successivi falliscono senza essere inviati
+        breakingElasticService.deleteDocuments(INDEX_NAME, Collections.singletonList(BROKEN_ID));
+        List<String> documentIds = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            documentIds.add(String.valueOf(i));
+        }
+
+        Map<String, DeleteDocumentResponse> responses = breakingElasticService.deleteDocumentsAsync(INDEX_NAME, documentIds)
+                .get(30, TimeUnit.SECONDS);
+
+        assertEquals(1, bodies.size());
+        assertEquals(documentIds.size(), responses.size());
+        assertTrue(responses.values().stream().allMatch(DeleteDocumentResponse::isFailed));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void SeqNoShouldBeRejectedForBatches() throws Exception {
+        elasticService.updateDocuments(INDEX_NAME, ImmutableMap.of("1", ImmutableMap.of("stock", 10)),
+                Optional.of(ImmutableMap.of(ElasticService.IF_SEQ_NO, 1, ElasticService.IF_PRIMARY_TERM, 1)));
+    }
+
+    private static String bulkResponse(String bulkBody) {
+        StringBuilder items = new StringBuilder();
+        for (String line : bulkBody.split("\n")) {
+            Matcher matcher = ACTION.matcher(line);
+            if (!matcher.find()) {
+                continue;
+            }
+
+            String operation = matcher.group(1);
+            String id = matcher.group(2);
+            items.append(items.length() == 0 ? "" : ",").append("{\"").append(operation).append("\":{\"_index\":\"")
+                    .append(INDEX_NAME).append("\",\"_type\":\"_doc\",\"_id\":\"").append(id).append("\",");
+            if (MISSING_ID.equals(id) && "update".equals(operation)) {
+                items.append("\"status\":404,\"error\":{\"type\":\"document_missing_exception\",\"reason\":\"[_doc][")
+                        .append(id).append("]: document missing\"}}}");
+            } else {
+                boolean found = !MISSING_ID.equals(id);
+                String result = "update".equals(operation) ? "updated" : (found ? "deleted" : "not_found");
+                items.append("\"_version\":2,\"result\":\"").append(result).append("\",")
+                        .append("\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":3,\"_primary_term\":1,")
+                        .append("\"status\":").append(found ? 200 : 404).append("}}");
+            }
+        }
+        return "{\"took\":3,\"errors\":true,\"items\":[" + items + "]}";
+    }
+}
@@ -0,0 +1,222 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.Document;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.execution.ConcurrencyLimitSnapshot;
+import it.flowing.complex.service.execution.OperationClass;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceConcurrencyLimitTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+
+    private static final String REJECTED_EXECUTION = "{\"error\":{\"root_cause\":[{\"type\":\"es_rejected_execution_exception\","
+            + "\"reason\":\"rejected execution\"}],\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"},"
+            + "\"status\":429}";
+
+    // Con il cancello chiuso il nodo trattiene le richieste, come un thread pool saturo
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private volatile boolean rejecting;
+
+    @Override
+    protected boolean openConnectionBeforeEachTest() {
+        return false;
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) {
+        try {
+            gate.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (uri.startsWith("/_bulk")) {
+            return StubElasticServer.ok("{\"took\":1,\"errors\":true,\"items\":[{\"delete\":{\"_index\":\"" + INDEX_NAME
+                    + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\","
+                    + "\"reason\":\"rejected execution\"}}}]}");
+        }
+        if (rejecting) {
+            return new StubElasticServer.Response(429, REJECTED_EXECUTION);
+        }
+        if (uri.contains("/_search")) {
+            return StubElasticServer.ok(StubElasticServer.searchResponse(1L));
+        }
+        return StubElasticServer.ok("{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,"
+                + "\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":{\"nome\":\"Divano\"}}");
+    }
+
+    // Libera le richieste trattenute prima che la base chiuda ElasticService e lo stub
+    @After
+    public void openGate() {
+        gate.countDown();
+    }
+
+    @Test
+    public void TooManyRequestsShouldShrinkOnlyTheLimitOfTheirOperationClass() throws Exception {
+        openConnection(configuration(16, 1, 128, 1000));
+        rejecting = true;
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                elasticService.search(matchAll());
+                fail();
+            } catch (ElasticsearchStatusException e) {
+                assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+            }
+        }
+
+        assertEquals(6, limit(OperationClass.SEARCH).getLimit());
+        assertEquals(16, limit(OperationClass.GET).getLimit());
+    }
+
+    @Test
+    public void BulkItemsRejectedWithTooManyRequestsShouldShrinkTheWriteLimit() throws Exception {
+        openConnection(configuration(16, 1, 128, 1000));
+
+        elasticService.deleteDocuments(INDEX_NAME, Arrays.asList("1"));
+
+        assertEquals(12, limit(OperationClass.WRITE).getLimit());
+    }
+
+    @Test
+    public void SuccessfulResponsesShouldRaiseTheLimitUnderLoad() throws Exception {
+        openConnection(configuration(2, 1, 128, 1000));
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        elasticService.getDocument(INDEX_NAME, "1", Optional.empty());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertTrue(limit(OperationClass.GET).getLimit() > 2);
+        assertEquals(0, limit(OperationClass.GET).getRejectedCount());
+    }
+
+    @Test
+    public void RequestsBeyondTheLimitShouldFailFastWithoutAQueue() throws Exception {
+        openConnection(configuration(2, 2, 2, 0));
+        gate = new CountDownLatch(1);
+
+        CompletableFuture<Document> first = elasticService.getDocumentAsync(INDEX_NAME, "1", Optional.empty());
+        CompletableFuture<Document> second = elasticService.getDocumentAsync(INDEX_NAME, "1", Optional.empty());
+        CompletableFuture<Document> rejected = elasticService.getDocumentAsync(INDEX_NAME, "1", Optional.empty());
+
+        assertTrue(rejected.isCompletedExceptionally());
+        Throwable rejection = failureOf(rejected);
+        assertTrue(rejection instanceof EsRejectedExecutionException);
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, ExceptionsHelper.status((Exception) rejection));
+
+        gate.countDown();
+        assertEquals("Divano", first.get(5, TimeUnit.SECONDS).getSource().get("nome"));
+        assertEquals("Divano", second.get(5, TimeUnit.SECONDS).getSource().get("nome"));
+        assertEquals(2, stubElasticServer.getRequestCount());
+        assertEquals(1, limit(OperationClass.GET).getRejectedCount());
+    }
+
+    @Test
+    public void QueuedRequestsShouldStartWhenAPermitIsReleased() throws Exception {
+        openConnection(configuration(1, 1, 1, 5000));
+        gate = new CountDownLatch(1);
+
+        CompletableFuture<Document> first = elasticService.getDocumentAsync(INDEX_NAME, "1", Optional.empty());
+        CompletableFuture<Boolean> queued = elasticService.existsDocumentAsync(INDEX_NAME, "1");
+
+        awaitRequests(1);
+        assertEquals(1, limit(OperationClass.GET).getInFlight());
+        assertEquals(1, limit(OperationClass.GET).getQueued());
+        assertFalse(queued.isDone());
+
+        gate.countDown();
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(2, stubElasticServer.getRequestCount());
+        assertEquals(0, limit(OperationClass.GET).getInFlight());
+    }
+
+    @Test
+    public void QueuedRequestsShouldBeRejectedAfterTheMaximumWait() throws Exception {
+        openConnection(configuration(1, 1, 1, 100));
+        gate = new CountDownLatch(1);
+
+        CompletableFuture<Document> first = elasticService.getDocumentAsync(INDEX_NAME, "1", Optional.empty());
+        CompletableFuture<Document> queued = elasticService.getDocumentAsync(INDEX_NAME, "1", Optional.empty());
+
+        assertTrue(failureOf(queued) instanceof EsRejectedExecutionException);
+        assertFalse(first.isDone());
+        assertEquals(0, limit(OperationClass.GET).getQueued());
+
+        gate.countDown();
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, stubElasticServer.getRequestCount());
+    }
+
+    private ServerConfiguration configuration(int initialLimit, int minLimit, int maxLimit, long maxWaitMillis) {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setConcurrencyLimitEnabled(true);
+        serverConfiguration.setConcurrencyLimitInitial(initialLimit);
+        serverConfiguration.setConcurrencyLimitMin(minLimit);
+        serverConfiguration.setConcurrencyLimitMax(maxLimit);
+        serverConfiguration.setConcurrencyLimitMaxWaitMillis(maxWaitMillis);
+        return serverConfiguration;
+    }
+
+    private ConcurrencyLimitSnapshot limit(OperationClass operationClass) {
+        return elasticService.getConcurrencyLimit(operationClass).get();
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && stubElasticServer.getRequestCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, stubElasticServer.getRequestCount());
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> response) throws Exception {
+        try {
+            response.get(5, TimeUnit.SECONDS);
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private static QueryData matchAll() {
+        return (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of(INDEX_NAME));
+    }
+}
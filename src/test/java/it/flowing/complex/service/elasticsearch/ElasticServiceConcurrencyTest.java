@@ -0,0 +1,198 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.batching.SearchBatcher;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.execution.OperationExecutor;
+import it.flowing.complex.service.metrics.ElasticMetrics;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceConcurrencyTest extends StubElasticServiceTestBase {
+
+    private static final int CONCURRENT_CALLERS = 64;
+    private static final int SEARCHES_PER_CALLER = 50;
+
+    private static final long MATCH_ALL_HITS = 4675L;
+    private static final long TERM_HITS = 111L;
+    private static final long TERMS_HITS = 233L;
+
+    private final AtomicInteger multiSearchCount = new AtomicInteger();
+
+    // Il numero di hit restituito dipende dal tipo di query ricevuta: ogni chiamante può verificare
+    // che la richiesta inviata sia stata costruita con il proprio Searcher
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) {
+        String request = new String(body, StandardCharsets.UTF_8);
+        if (!uri.contains("_msearch")) {
+            return StubElasticServer.ok(searchResponseFor(request));
+        }
+
+        multiSearchCount.incrementAndGet();
+        String[] lines = request.split("\n");
+        List<String> responses = new ArrayList<>();
+        for (int i = 1; i < lines.length; i += 2) {
+            String searchResponse = searchResponseFor(lines[i]);
+            responses.add(searchResponse.substring(0, searchResponse.length() - 1) + ",\"status\":200}");
+        }
+        return StubElasticServer.ok("{\"took\":1,\"responses\":[" + String.join(",", responses) + "]}");
+    }
+
+    private static String searchResponseFor(String query) {
+        if (query.contains("\"terms\"")) {
+            return StubElasticServer.searchResponse(TERMS_HITS);
+        }
+        if (query.contains("\"term\"")) {
+            return StubElasticServer.searchResponse(TERM_HITS);
+        }
+        return StubElasticServer.searchResponse(MATCH_ALL_HITS);
+    }
+
+    @Test
+    public void ConcurrentSearchesShouldEachUseTheirOwnSearcher() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_CALLERS);
+        CyclicBarrier startBarrier = new CyclicBarrier(CONCURRENT_CALLERS);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> callers = new ArrayList<>();
+
+        for (int caller = 0; caller < CONCURRENT_CALLERS; caller++) {
+            final int callerId = caller;
+            callers.add(executor.submit(() -> {
+                try {
+                    startBarrier.await();
+                    for (int i = 0; i < SEARCHES_PER_CALLER; i++) {
+                        SearchType searchType = SearchType.values()[(callerId + i) % 3];
+                        SearchResult searchResult = elasticService.search(queryDataFor(searchType));
+                        assertEquals(expectedHitsFor(searchType), searchResult.getNumHits());
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+
+        for (Future<?> caller : callers) {
+            caller.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertTrue(errors.isEmpty() ? "" : errors.get(0).toString(), errors.isEmpty());
+        assertEquals(CONCURRENT_CALLERS * SEARCHES_PER_CALLER, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void ConcurrentAsyncSearchesShouldReturnTheRightResults() throws Exception {
+        List<CompletableFuture<SearchResult>> searchResults = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_CALLERS * 4; i++) {
+            searchResults.add(elasticService.searchAsync(queryDataFor(SearchType.values()[i % 3])));
+        }
+
+        for (int i = 0; i < searchResults.size(); i++) {
+            SearchType searchType = SearchType.values()[i % 3];
+            assertEquals(expectedHitsFor(searchType), searchResults.get(i).get(1, TimeUnit.MINUTES).getNumHits());
+        }
+    }
+
+    @Test
+    public void ConcurrentSearchesWithBatchingShouldBeCoalescedIntoMultiSearchRequests() throws Exception {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setSearchBatchingWindowMillis(200);
+        serverConfiguration.setSearchBatchingMaxSize(CONCURRENT_CALLERS);
+        openConnection(serverConfiguration);
+
+        List<CompletableFuture<SearchResult>> searchResults = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+            searchResults.add(elasticService.searchAsync(queryDataFor(SearchType.values()[i % 3])));
+        }
+
+        for (int i = 0; i < searchResults.size(); i++) {
+            SearchType searchType = SearchType.values()[i % 3];
+            assertEquals(expectedHitsFor(searchType), searchResults.get(i).get(1, TimeUnit.MINUTES).getNumHits());
+        }
+        assertEquals(1, multiSearchCount.get());
+        assertEquals(1, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void SearchWithBatchingShouldWaitAtMostTheBatchingWindow() throws Exception {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setSearchBatchingWindowMillis(20);
+        openConnection(serverConfiguration);
+
+        SearchResult searchResult = elasticService.search(queryDataFor(SearchType.TERM_QUERY));
+
+        assertEquals(TERM_HITS, searchResult.getNumHits());
+        assertEquals(0, multiSearchCount.get());
+    }
+
+    @Test
+    public void SearchSubmittedAfterCloseShouldFailImmediately() throws Exception {
+        RestHighLevelClient client = new RestHighLevelClient(
+                RestClient.builder(new HttpHost("localhost", stubElasticServer.getPort())));
+        OperationExecutor operationExecutor = new OperationExecutor(ElasticMetrics.NOOP, null, null, null, null, null);
+        SearchBatcher searchBatcher = new SearchBatcher(client, operationExecutor, 20, CONCURRENT_CALLERS);
+        try {
+            searchBatcher.close();
+
+            CompletableFuture<SearchResponse> searchResponse = searchBatcher.submit(new SearchRequest("javatest"));
+
+            assertTrue(searchResponse.isCompletedExceptionally());
+            try {
+                searchResponse.get(1, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(0, stubElasticServer.getRequestCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    private static QueryData queryDataFor(SearchType searchType) {
+        switch (searchType) {
+            case TERM_QUERY:
+                return (new QueryData())
+                        .withSearchType(SearchType.TERM_QUERY)
+                        .withTermName("customer_first_name.keyword")
+                        .withTermValue("Diane");
+            case TERMS_QUERY:
+                List<Object> termValues = new ArrayList<>();
+                termValues.add("Diane");
+                termValues.add("Gwen");
+                return (new QueryData())
+                        .withSearchType(SearchType.TERMS_QUERY)
+                        .withTermName("customer_first_name.keyword")
+                        .withTermValues(termValues);
+            default:
+                return (new QueryData())
+                        .withSearchType(SearchType.MATCH_ALL_QUERY);
+        }
+    }
+
+    private static long expectedHitsFor(SearchType searchType) {
+        switch (searchType) {
+            case TERM_QUERY:
+                return TERM_HITS;
+            case TERMS_QUERY:
+                return TERMS_HITS;
+            default:
+                return MATCH_ALL_HITS;
+        }
+    }
+}
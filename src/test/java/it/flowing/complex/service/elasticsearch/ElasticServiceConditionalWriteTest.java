@@ -0,0 +1,108 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.DeleteDocumentResponse;
+import it.flowing.complex.model.UpdateDocumentResponse;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceConditionalWriteTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+    private static final String MISSING_ID = "missing";
+    private static final String STALE_ID = "stale";
+
+    private static final Map<String, Object> METADATA = Collections.singletonMap("nome", "Giulio");
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        requests.add(method + " " + uri);
+        String id = uri.split("[/?]")[3];
+        if (uri.contains("/_update/" + MISSING_ID)) {
+            return new StubElasticServer.Response(404, error("document_missing_exception", "[_doc][missing]: document missing", 404));
+        }
+        if (id.equals(STALE_ID)) {
+            return new StubElasticServer.Response(409, error("version_conflict_engine_exception",
+                    "[stale]: version conflict, required seqNo [5], primary term [1]. current document has seqNo [6] and primary term [1]", 409));
+        }
+        if ("DELETE".equals(method)) {
+            boolean found = !id.equals(MISSING_ID);
+            return new StubElasticServer.Response(found ? 200 : 404, writeResponse(id, found ? "deleted" : "not_found"));
+        }
+        return StubElasticServer.ok(writeResponse(id, "updated"));
+    }
+
+    @Test
+    public void UpdateShouldUseASingleRequest() throws Exception {
+        UpdateDocumentResponse updateDocumentResponse = elasticService.updateDocument(INDEX_NAME, "1", METADATA, Optional.empty());
+
+        assertEquals(RestStatus.OK, updateDocumentResponse.getStatus());
+        assertEquals(7, updateDocumentResponse.getSeqNo());
+        assertEquals(1, updateDocumentResponse.getPrimaryTerm());
+        assertEquals(Collections.singletonList("POST /" + INDEX_NAME + "/_update/1?timeout=1m"), requests);
+    }
+
+    @Test
+    public void UpdateAndDeleteOfMissingDocumentsShouldReturnNullWithoutExistsCheck() throws Exception {
+        assertNull(elasticService.updateDocument(INDEX_NAME, MISSING_ID, METADATA, Optional.empty()));
+        assertNull(elasticService.updateDocumentAsync(INDEX_NAME, MISSING_ID, METADATA, Optional.empty()).get());
+        assertNull(elasticService.deleteDocument(INDEX_NAME, MISSING_ID, Optional.empty()));
+
+        assertEquals(3, requests.size());
+        assertTrue(requests.stream().noneMatch(request -> request.startsWith("HEAD")));
+    }
+
+    @Test
+    public void ConditionalWritesShouldSendSeqNoAndPrimaryTerm() throws Exception {
+        Map<String, Object> configuration = ImmutableMap.of(ElasticService.IF_SEQ_NO, 6L, ElasticService.IF_PRIMARY_TERM, "1");
+
+        elasticService.updateDocument(INDEX_NAME, "1", METADATA, Optional.of(configuration));
+        DeleteDocumentResponse deleteDocumentResponse = elasticService.deleteDocument(INDEX_NAME, "1", Optional.of(configuration));
+
+        assertEquals(RestStatus.OK, deleteDocumentResponse.getStatus());
+        assertTrue(requests.get(0).contains("if_seq_no=6"));
+        assertTrue(requests.get(0).contains("if_primary_term=1"));
+        assertTrue(requests.get(1).startsWith("DELETE /" + INDEX_NAME + "/_doc/1?"));
+        assertTrue(requests.get(1).contains("if_seq_no=6"));
+    }
+
+    @Test
+    public void StaleConditionalUpdateShouldFailWithConflict() throws Exception {
+        Map<String, Object> configuration = ImmutableMap.of(ElasticService.IF_SEQ_NO, 5, ElasticService.IF_PRIMARY_TERM, 1);
+
+        try {
+            elasticService.updateDocument(INDEX_NAME, STALE_ID, METADATA, Optional.of(configuration));
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.CONFLICT, e.status());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void SeqNoWithoutPrimaryTermShouldBeRejected() throws Exception {
+        elasticService.deleteDocument(INDEX_NAME, "1", Optional.of(Collections.singletonMap(ElasticService.IF_SEQ_NO, 5)));
+    }
+
+    private static String writeResponse(String id, String result) {
+        return "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_version\":3,"
+                + "\"result\":\"" + result + "\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+                + "\"_seq_no\":7,\"_primary_term\":1}";
+    }
+
+    private static String error(String type, String reason, int status) {
+        return "{\"error\":{\"root_cause\":[{\"type\":\"" + type + "\",\"reason\":\"" + reason + "\"}],"
+                + "\"type\":\"" + type + "\",\"reason\":\"" + reason + "\"},\"status\":" + status + "}";
+    }
+}
@@ -0,0 +1,113 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceFailoverTest {
+
+    private static final int SEARCHES = 20;
+
+    private final List<StubElasticServer> stubElasticServers = new ArrayList<>();
+    private ElasticService elasticService;
+
+    @After
+    public void terminate() throws Exception {
+        if (null != elasticService) {
+            elasticService.closeConnection();
+        }
+        stubElasticServers.forEach(StubElasticServer::close);
+    }
+
+    @Test
+    public void SearchShouldBeBalancedAcrossAllTheConfiguredNodes() throws Exception {
+        StubElasticServer firstNode = startNode(200);
+        StubElasticServer secondNode = startNode(200);
+        StubElasticServer thirdNode = startNode(200);
+        openConnection(hostOf(firstNode), hostOf(secondNode), hostOf(thirdNode));
+
+        for (int i = 0; i < SEARCHES * 3; i++) {
+            assertEquals(1L, search().getNumHits());
+        }
+
+        assertEquals(SEARCHES, firstNode.getRequestCount());
+        assertEquals(SEARCHES, secondNode.getRequestCount());
+        assertEquals(SEARCHES, thirdNode.getRequestCount());
+    }
+
+    @Test
+    public void SearchShouldSkipUnreachableNodes() throws Exception {
+        StubElasticServer liveNode = startNode(200);
+        openConnection("localhost:" + unusedPort(), hostOf(liveNode));
+
+        for (int i = 0; i < SEARCHES; i++) {
+            assertEquals(1L, search().getNumHits());
+        }
+
+        assertEquals(SEARCHES, liveNode.getRequestCount());
+    }
+
+    @Test
+    public void SearchShouldRetryOnAnotherNodeWhenANodeIsUnavailable() throws Exception {
+        StubElasticServer unavailableNode = startNode(503);
+        StubElasticServer liveNode = startNode(200);
+        openConnection(hostOf(unavailableNode), hostOf(liveNode));
+
+        for (int i = 0; i < SEARCHES; i++) {
+            assertEquals(1L, search().getNumHits());
+        }
+
+        // Il nodo che risponde 503 viene marcato come dead e non riceve più richieste fino allo scadere del backoff
+        assertEquals(1, unavailableNode.getRequestCount());
+        assertEquals(SEARCHES, liveNode.getRequestCount());
+    }
+
+    @Test
+    public void ServerConfigurationWithoutHostsShouldUseHostAndPort() {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+
+        assertEquals(1, serverConfiguration.getHttpHosts().length);
+        assertEquals("http://localhost:9200", serverConfiguration.getHttpHosts()[0].toURI());
+    }
+
+    private StubElasticServer startNode(int status) throws IOException {
+        StubElasticServer stubElasticServer = new StubElasticServer((method, uri, body) ->
+                new StubElasticServer.Response(status, StubElasticServer.searchResponse(1L)));
+        stubElasticServers.add(stubElasticServer);
+        return stubElasticServer;
+    }
+
+    private void openConnection(String... hosts) {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setHosts(Arrays.asList(hosts));
+
+        elasticService = new ElasticService(serverConfiguration);
+        elasticService.openConnection();
+    }
+
+    private SearchResult search() throws IOException {
+        return elasticService.search((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY));
+    }
+
+    private static String hostOf(StubElasticServer stubElasticServer) {
+        return "localhost:" + stubElasticServer.getPort();
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+}
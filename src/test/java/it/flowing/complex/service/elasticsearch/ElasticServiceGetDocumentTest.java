@@ -0,0 +1,109 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.Document;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceGetDocumentTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+
+    // Documento "prodotto" con tre campi utili e una descrizione lunga
+    private static final List<String> FIELDS = Arrays.asList("nome", "prezzo", "sku");
+    private static final String DESCRIPTION = IntStream.range(0, 2000).mapToObj(i -> "lorem ipsum")
+            .collect(Collectors.joining(" "));
+
+    private final AtomicReference<String> lastUri = new AtomicReference<>();
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        lastUri.set(URLDecoder.decode(uri, StandardCharsets.UTF_8.name()));
+        return StubElasticServer.ok(getResponse(queryParameters(lastUri.get()).get("_source_includes")));
+    }
+
+    @Test
+    public void SourceIncludesShouldBeSentAndFilterTheSource() throws Exception {
+        Document fullDocument = elasticService.getDocument(INDEX_NAME, "1", Optional.empty());
+        assertFalse(lastUri.get().contains("_source"));
+
+        Document document = elasticService.getDocument(INDEX_NAME, "1",
+                Optional.of(ImmutableMap.of(ElasticService.SOURCE_INCLUDES, FIELDS)));
+        Map<String, String> parameters = queryParameters(lastUri.get());
+
+        assertEquals(String.join(",", FIELDS), parameters.get("_source_includes"));
+        assertFalse(parameters.containsKey("_source_excludes"));
+        assertFalse(parameters.containsKey("_source"));
+        assertEquals(4, fullDocument.getSource().size());
+        assertEquals(DESCRIPTION, fullDocument.getSource().get("descrizione"));
+        assertEquals(new HashSet<>(FIELDS), document.getSource().keySet());
+        assertEquals("Divano", document.getSource().get("nome"));
+        assertEquals(499.0, document.getSource().get("prezzo"));
+        assertEquals("DV-01", document.getSource().get("sku"));
+    }
+
+    @Test
+    public void ConfigurationShouldBeSentAsGetParameters() throws Exception {
+        elasticService.getDocument(INDEX_NAME, "1", Optional.of(ImmutableMap.<String, Object>builder()
+                .put(ElasticService.SOURCE_EXCLUDES, "descrizione")
+                .put(ElasticService.STORED_FIELDS, "sku")
+                .put(ElasticService.ROUTING, "cliente-1")
+                .put(ElasticService.PREFERENCE, "_local")
+                .put(ElasticService.REALTIME, false)
+                .put(ElasticService.REFRESH, "true")
+                .build()));
+
+        String uri = lastUri.get();
+        assertTrue(uri.startsWith("/" + INDEX_NAME + "/_doc/1?"));
+        assertTrue(uri.contains("_source_excludes=descrizione"));
+        assertTrue(uri.contains("stored_fields=sku"));
+        assertTrue(uri.contains("routing=cliente-1"));
+        assertTrue(uri.contains("preference=_local"));
+        assertTrue(uri.contains("realtime=false"));
+        assertTrue(uri.contains("refresh=true"));
+    }
+
+    private static Map<String, String> queryParameters(String uri) {
+        Map<String, String> parameters = new HashMap<>();
+        if (uri.contains("?")) {
+            for (String parameter : uri.substring(uri.indexOf('?') + 1).split("&")) {
+                String[] nameAndValue = parameter.split("=", 2);
+                parameters.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "");
+            }
+        }
+        return parameters;
+    }
+
+    // Come il nodo: con _source_includes il _source contiene solo i campi richiesti
+    private static String getResponse(String sourceIncludes) {
+        Map<String, String> source = new LinkedHashMap<>();
+        source.put("nome", "\"Divano\"");
+        source.put("prezzo", "499.0");
+        source.put("sku", "\"DV-01\"");
+        source.put("descrizione", "\"" + DESCRIPTION + "\"");
+        if (null != sourceIncludes) {
+            source.keySet().retainAll(Arrays.asList(sourceIncludes.split(",")));
+        }
+
+        return "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"_seq_no\":0,"
+                + "\"_primary_term\":1,\"found\":true,\"_source\":{"
+                + source.entrySet().stream().map(field -> "\"" + field.getKey() + "\":" + field.getValue())
+                        .collect(Collectors.joining(","))
+                + "}}";
+    }
+}
@@ -0,0 +1,147 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.Document;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceLatencyPolicyTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+    private static final int MIN_SAMPLES = 20;
+    private static final long SLOW_MILLIS = 2000;
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    // Con slow attivo le richieste senza la preference dell'hedging finiscono su una copia lenta
+    private volatile boolean slow;
+
+    @Override
+    protected boolean openConnectionBeforeEachTest() {
+        return false;
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        String request = method + " " + URLDecoder.decode(uri, StandardCharsets.UTF_8.name()) + " "
+                + new String(body, StandardCharsets.UTF_8);
+        requests.add(request);
+        if (slow && !request.contains("preference=hedge-")) {
+            try {
+                Thread.sleep(SLOW_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (uri.contains("/_search")) {
+            return StubElasticServer.ok(StubElasticServer.searchResponse(7L));
+        }
+        return StubElasticServer.ok("{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,"
+                + "\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":{\"nome\":\"Divano\"}}");
+    }
+
+    @Test
+    public void HedgedGetShouldAnswerBeforeTheSlowCopy() throws Exception {
+        openConnection(hedgingConfiguration());
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            elasticService.getDocument(INDEX_NAME, "1", Optional.empty());
+        }
+        requests.clear();
+        slow = true;
+
+        long startMillis = System.currentTimeMillis();
+        Document document = elasticService.getDocument(INDEX_NAME, "1", Optional.empty());
+
+        assertEquals("Divano", document.getSource().get("nome"));
+        assertTrue(System.currentTimeMillis() - startMillis < SLOW_MILLIS / 2);
+        assertEquals(2, requests.size());
+        assertFalse(requests.get(0).contains("preference="));
+        assertTrue(requests.get(1).startsWith("GET /" + INDEX_NAME + "/_doc/1?preference=hedge-"));
+    }
+
+    @Test
+    public void HedgedSearchShouldSendTheSameBodyWithAnotherPreference() throws Exception {
+        openConnection(hedgingConfiguration());
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.TERM_QUERY)
+                .withSearchIndex(Optional.of(INDEX_NAME))
+                .withTermName("customer_gender")
+                .withTermValue("MALE");
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            elasticService.search(queryData);
+        }
+        requests.clear();
+        slow = true;
+
+        SearchResult searchResult = elasticService.search(queryData);
+
+        assertEquals(7, searchResult.getNumHits());
+        assertEquals(2, requests.size());
+        String primaryBody = requests.get(0).substring(requests.get(0).indexOf('{'));
+        String hedgeBody = requests.get(1).substring(requests.get(1).indexOf('{'));
+        assertEquals(primaryBody, hedgeBody);
+        assertTrue(requests.get(1).contains("preference=hedge-"));
+    }
+
+    @Test
+    public void PreferenceChosenByTheCallerShouldDisableHedging() throws Exception {
+        openConnection(hedgingConfiguration());
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            elasticService.getDocument(INDEX_NAME, "1", Optional.empty());
+        }
+        requests.clear();
+        slow = true;
+
+        long startMillis = System.currentTimeMillis();
+        elasticService.getDocument(INDEX_NAME, "1", Optional.of(ImmutableMap.of(ElasticService.PREFERENCE, "_local")));
+
+        assertTrue(System.currentTimeMillis() - startMillis >= SLOW_MILLIS);
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void AdaptiveTimeoutShouldFailRequestsFarBeyondTheObservedLatency() throws Exception {
+        ServerConfiguration serverConfiguration = configuration();
+        serverConfiguration.setAdaptiveTimeoutEnabled(true);
+        serverConfiguration.setAdaptiveTimeoutMinMillis(100);
+        openConnection(serverConfiguration);
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            assertTrue(elasticService.existsDocument(INDEX_NAME, "1"));
+        }
+        slow = true;
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            elasticService.existsDocument(INDEX_NAME, "1");
+            fail();
+        } catch (ElasticsearchTimeoutException e) {
+            assertTrue(System.currentTimeMillis() - startMillis < SLOW_MILLIS / 2);
+        }
+    }
+
+    private ServerConfiguration hedgingConfiguration() {
+        ServerConfiguration serverConfiguration = configuration();
+        serverConfiguration.setHedgingEnabled(true);
+        return serverConfiguration;
+    }
+
+    private ServerConfiguration configuration() {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setLatencyMinSamples(MIN_SAMPLES);
+        return serverConfiguration;
+    }
+}
@@ -0,0 +1,165 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import org.apache.http.HttpHost;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchResponseSections;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.suggest.term.TermSuggestion;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceLazySearchResultTest extends StubElasticServiceTestBase {
+
+    private static final String SEARCH_RESPONSE = "{\"took\":7,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":2,\"successful\":2,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1200,\"relation\":\"gte\"},\"max_score\":2.5,\"hits\":["
+            + hit("1", 2.5, "Zoë", "FEMALE", "Città di Castello", 12.5, 30.0)
+            + "," + hit("2", 1.5, "Eddie", "MALE", "Milano", 7.99, 1.0)
+            + "," + hit("3", 1.0, "Mary", "FEMALE", "Roma", 45.0, 5.5)
+            + "]},"
+            + "\"aggregations\":{\"sterms#by_gender\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,"
+            + "\"buckets\":[{\"key\":\"FEMALE\",\"doc_count\":2},{\"key\":\"MALE\",\"doc_count\":1}]}},"
+            + "\"suggest\":{\"term#suggest_name\":[{\"text\":\"edie\",\"offset\":0,\"length\":4,"
+            + "\"options\":[{\"text\":\"eddie\",\"score\":0.75,\"freq\":10}]}]}}";
+
+    private final AtomicReference<String> lastUri = new AtomicReference<>();
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        lastUri.set(uri);
+        if (uri.startsWith("/missing/")) {
+            return new StubElasticServer.Response(404, "{\"error\":{\"root_cause\":[],\"type\":\"index_not_found_exception\","
+                    + "\"reason\":\"no such index [missing]\"},\"status\":404}");
+        }
+        return StubElasticServer.ok(SEARCH_RESPONSE);
+    }
+
+    @Test
+    public void SearchShouldMapTheHeaderAndDecodeHitsOnAccess() throws Exception {
+        SearchResult searchResult = elasticService.search((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY));
+
+        assertTrue(lastUri.get().startsWith("/kibana_sample_data_ecommerce/_search?"));
+        assertTrue(lastUri.get().contains("typed_keys=true"));
+
+        assertEquals(RestStatus.OK, searchResult.getStatus());
+        assertEquals(7, searchResult.getTook().millis());
+        assertFalse(searchResult.getTimedOut());
+        assertEquals(2, searchResult.getTotalShards());
+        assertEquals(2, searchResult.getSuccessfulShards());
+        assertEquals(0, searchResult.getFailedShards());
+        assertEquals(1200, searchResult.getNumHits());
+        assertEquals(TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO, searchResult.getHitsRelation());
+        assertEquals(2.5f, searchResult.getMaxScore(), 0.0f);
+        assertNotNull(searchResult.getResponseBody());
+
+        List<SearchHit> hits = searchResult.getHits();
+        assertEquals(3, hits.size());
+        assertSame(hits.get(1), searchResult.getHits().get(1));
+        assertEquals("2", hits.get(1).getId());
+        assertEquals(1.5f, hits.get(1).getScore(), 0.0f);
+        assertEquals("Zoë", hits.get(0).getSourceAsMap().get("customer_first_name"));
+        assertEquals("3", hits.get(2).getId());
+
+        Terms byGender = searchResult.getAggregations().get("by_gender");
+        assertEquals(2, byGender.getBucketByKey("FEMALE").getDocCount());
+        assertSame(searchResult.getAggregations(), searchResult.getAggregations());
+
+        TermSuggestion suggestion = searchResult.getSuggest().getSuggestion("suggest_name");
+        assertEquals("eddie", suggestion.getEntries().get(0).getOptions().get(0).getText().string());
+    }
+
+    @Test
+    public void ProjectionShouldReadOnlyTheRequestedSourceFields() throws Exception {
+        SearchResult searchResult = elasticService.search((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY));
+
+        List<Map<String, Object>> projected = searchResult.project("customer_first_name", "geoip.city_name", "products.price");
+
+        assertEquals(3, projected.size());
+        assertEquals(3, projected.get(0).size());
+        assertEquals("Zoë", projected.get(0).get("customer_first_name"));
+        assertEquals("Città di Castello", projected.get(0).get("geoip.city_name"));
+        assertEquals(Arrays.asList(12.5, 30.0), projected.get(0).get("products.price"));
+        assertEquals("Eddie", projected.get(1).get("customer_first_name"));
+        assertFalse(projected.get(1).containsKey("customer_gender"));
+
+        // Lo stesso risultato si ottiene dagli hit già decodificati
+        SearchResult decoded = (new SearchResult()).withHits(searchResult.getHits());
+        assertEquals(projected, decoded.project("customer_first_name", "geoip.city_name", "products.price"));
+    }
+
+    @Test
+    public void SearchRequestParametersShouldBeSentLikeTheHighLevelClient() throws Exception {
+        SearchRequest searchRequest = new SearchRequest("kibana_sample_data_ecommerce");
+        searchRequest.setBatchedReduceSize(64);
+        searchRequest.setMaxConcurrentShardRequests(3);
+        searchRequest.setPreFilterShardSize(16);
+        searchRequest.setCcsMinimizeRoundtrips(false);
+
+        try (ElasticRestClient client = new ElasticRestClient(
+                RestClient.builder(new HttpHost("localhost", stubElasticServer.getPort())), XContentType.JSON)) {
+            PlainActionFuture<SearchResult> searchResult = new PlainActionFuture<>();
+            client.searchLazyAsync(searchRequest, RequestOptions.DEFAULT, searchResult);
+            assertEquals(1200, searchResult.get().getNumHits());
+        }
+
+        String uri = lastUri.get();
+        assertTrue(uri.contains("batched_reduce_size=64"));
+        assertTrue(uri.contains("max_concurrent_shard_requests=3"));
+        assertTrue(uri.contains("pre_filter_shard_size=16"));
+        assertTrue(uri.contains("ccs_minimize_roundtrips=false"));
+    }
+
+    @Test
+    public void BothMappingsShouldReportTheSuccessfulShards() throws Exception {
+        SearchResponse searchResponse = new SearchResponse(
+                new SearchResponseSections(SearchHits.empty(), null, null, false, null, null, 1),
+                null, 2, 1, 0, 7, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+        SearchResult lazySearchResult = SearchResult.fromResponseBody(RestStatus.OK, Strings.toString(searchResponse)
+                .getBytes(StandardCharsets.UTF_8), NamedXContentRegistry.EMPTY);
+        SearchResult searchResult = SearchResult.fromSearchResponse(searchResponse);
+
+        assertEquals(2, searchResult.getTotalShards());
+        assertEquals(1, searchResult.getSuccessfulShards());
+        assertEquals(lazySearchResult.getSuccessfulShards(), searchResult.getSuccessfulShards());
+    }
+
+    @Test(expected = ElasticsearchStatusException.class)
+    public void ErrorResponsesShouldBeMappedLikeTheHighLevelClient() throws Exception {
+        elasticService.search((new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of("missing")));
+    }
+
+    private static String hit(String id, double score, String firstName, String gender, String city,
+                              double firstPrice, double secondPrice) {
+        return "{\"_index\":\"kibana_sample_data_ecommerce\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_score\":" + score + ","
+                + "\"_source\":{\"customer_first_name\":\"" + firstName + "\",\"customer_gender\":\"" + gender + "\","
+                + "\"geoip\":{\"city_name\":\"" + city + "\",\"country_iso_code\":\"IT\"},"
+                + "\"products\":[{\"product_name\":\"A\",\"price\":" + firstPrice + "},{\"product_name\":\"B\",\"price\":" + secondPrice + "}]}}";
+    }
+}
@@ -0,0 +1,175 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.OperationType;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.metrics.ElasticMetrics;
+import it.flowing.complex.service.metrics.LatencyHistogram;
+import it.flowing.complex.service.metrics.LatencySnapshot;
+import it.flowing.complex.service.metrics.MetricsSnapshot;
+import it.flowing.complex.service.metrics.OperationMetrics;
+import it.flowing.complex.service.metrics.OperationTags;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceMetricsTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "kibana_sample_data_ecommerce";
+    private static final String THROTTLED_INDEX_NAME = "throttled";
+
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    @Override
+    protected boolean openConnectionBeforeEachTest() {
+        return false;
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) {
+        receivedBytes.addAndGet(body.length);
+        if (uri.startsWith("/" + THROTTLED_INDEX_NAME)) {
+            return new StubElasticServer.Response(429, "{\"error\":{\"type\":\"es_rejected_execution_exception\","
+                    + "\"reason\":\"rejected execution\"},\"status\":429}");
+        }
+        if (uri.startsWith("/missing")) {
+            return new StubElasticServer.Response(404, "{\"error\":{\"type\":\"index_not_found_exception\","
+                    + "\"reason\":\"no such index [missing]\"},\"status\":404}");
+        }
+        if ("HEAD".equals(method)) {
+            return StubElasticServer.ok("");
+        }
+        return StubElasticServer.ok(StubElasticServer.searchResponse(42L));
+    }
+
+    @Test
+    public void SearchShouldRecordLatencyAndBytesTaggedBySearchTypeAndIndex() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setMetricsEnabled(true));
+        QueryData termQuery = (new QueryData())
+                .withSearchType(SearchType.TERM_QUERY)
+                .withTermName("customer_gender")
+                .withTermValue("MALE");
+
+        for (int i = 0; i < 5; i++) {
+            elasticService.search(termQuery);
+        }
+        for (int i = 0; i < 3; i++) {
+            elasticService.searchAsync((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY)).get();
+        }
+
+        OperationMetrics termMetrics = find(elasticService.getMetricsSnapshot(),
+                OperationTags.of(OperationType.SEARCH, SearchType.TERM_QUERY, INDEX_NAME));
+        OperationMetrics matchAllMetrics = find(elasticService.getMetricsSnapshot(),
+                OperationTags.of(OperationType.SEARCH, SearchType.MATCH_ALL_QUERY, INDEX_NAME));
+
+        assertEquals(5, termMetrics.getCount());
+        assertEquals(3, matchAllMetrics.getCount());
+        assertEquals(0, termMetrics.getErrorCount());
+        assertEquals(receivedBytes.get(), termMetrics.getRequestBytes() + matchAllMetrics.getRequestBytes());
+        assertEquals(5L * searchResponseLength(), termMetrics.getResponseBytes());
+        assertTrue(termMetrics.getLatency().getP99Micros() > 0);
+        assertTrue(termMetrics.getLatency().getMaxMicros() >= termMetrics.getLatency().getP50Micros());
+    }
+
+    @Test
+    public void FailuresShouldBeCountedByRestStatus() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setMetricsEnabled(true));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                elasticService.getDocument(THROTTLED_INDEX_NAME, "1", Optional.empty());
+                fail();
+            } catch (ElasticsearchStatusException e) {
+                assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+            }
+        }
+        assertFalse(elasticService.deleteIndex("missing", Optional.empty()));
+
+        MetricsSnapshot snapshot = elasticService.getMetricsSnapshot();
+        OperationMetrics getMetrics = find(snapshot, OperationTags.of(OperationType.GET, THROTTLED_INDEX_NAME));
+        OperationMetrics deleteIndexMetrics = find(snapshot, OperationTags.of(OperationType.DELETE_INDEX, "missing"));
+
+        assertEquals(2, getMetrics.getErrorCount());
+        assertEquals(Long.valueOf(2), getMetrics.getErrorsByStatus().get(RestStatus.TOO_MANY_REQUESTS));
+        assertEquals(Long.valueOf(1), deleteIndexMetrics.getErrorsByStatus().get(RestStatus.NOT_FOUND));
+    }
+
+    @Test
+    public void DisabledMetricsShouldProduceAnEmptySnapshot() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setMetricsEnabled(false));
+
+        elasticService.search((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY));
+
+        assertTrue(elasticService.getMetricsSnapshot().getOperations().isEmpty());
+    }
+
+    @Test
+    public void CustomMetricsShouldReceiveEveryOperation() throws Exception {
+        List<OperationTags> recorded = Collections.synchronizedList(new ArrayList<>());
+        ElasticMetrics customMetrics = new ElasticMetrics() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public void recordSuccess(OperationTags tags, long latencyNanos, long requestBytes, long responseBytes) {
+                recorded.add(tags);
+            }
+
+            @Override
+            public void recordFailure(OperationTags tags, long latencyNanos, RestStatus status, long requestBytes, long responseBytes) {
+                recorded.add(tags);
+            }
+
+            @Override
+            public MetricsSnapshot snapshot() {
+                return ElasticMetrics.NOOP.snapshot();
+            }
+        };
+        openConnection(new ElasticService(stubConfiguration(), customMetrics));
+
+        elasticService.search((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY));
+        elasticService.existsDocument(INDEX_NAME, "1");
+
+        assertEquals(OperationTags.of(OperationType.SEARCH, SearchType.MATCH_ALL_QUERY, INDEX_NAME), recorded.get(0));
+        assertEquals(OperationTags.of(OperationType.EXISTS, INDEX_NAME), recorded.get(1));
+    }
+
+    @Test
+    public void LatencyHistogramPercentilesShouldBeWithinThePrecisionOfTheBuckets() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100000; micros++) {
+            latencyHistogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        LatencySnapshot snapshot = latencyHistogram.snapshot();
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(100000, snapshot.getMaxMicros());
+        assertEquals(50000.5, snapshot.getMeanMicros(), 0.001);
+        assertEquals(50000, snapshot.getP50Micros(), 50000 / 32.0);
+        assertEquals(99000, snapshot.getP99Micros(), 99000 / 32.0);
+        assertEquals(99900, snapshot.getP999Micros(), 99900 / 32.0);
+    }
+
+    private static long searchResponseLength() {
+        return StubElasticServer.searchResponse(42L).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static OperationMetrics find(MetricsSnapshot snapshot, OperationTags tags) {
+        return snapshot.getOperations().stream()
+                .filter(operationMetrics -> operationMetrics.getTags().equals(tags))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Nessuna metrica per " + tags));
+    }
+}
@@ -0,0 +1,138 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.Document;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.ElasticsearchException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceMultiGetTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+    private static final String MISSING_INDEX_NAME = "missing";
+    private static final String MISSING_ID = "missing";
+
+    private static final Pattern DOCUMENT_ID = Pattern.compile("\"_id\":\"([^\"]+)\"");
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Override
+    protected void configure(ServerConfiguration serverConfiguration) {
+        serverConfiguration.setMultiGetChunkSize(3);
+        serverConfiguration.setMultiGetMaxConcurrentChunks(2);
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        String mgetBody = new String(body, StandardCharsets.UTF_8);
+        requests.add(method + " " + uri + " " + mgetBody);
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        inFlight.decrementAndGet();
+        return StubElasticServer.ok(multiGetResponse(mgetBody));
+    }
+
+    @Test
+    public void GetDocumentsShouldUseOneMultiGetPerChunk() throws Exception {
+        Map<String, Document> documents = elasticService.getDocuments(INDEX_NAME,
+                Arrays.asList("1", "2", MISSING_ID, "4", "5", "6", "7", "2"),
+                Optional.empty());
+
+        assertEquals(3, requests.size());
+        assertTrue(requests.stream().allMatch(request -> request.startsWith("POST /_mget")));
+        assertEquals(Arrays.asList("1", "2", "4", "5", "6", "7"), new ArrayList<>(documents.keySet()));
+        assertEquals("7", documents.get("7").getId());
+        assertEquals("Anna-7", documents.get("7").getSource().get("nome"));
+        assertEquals(4, documents.get("7").getSeqNo());
+    }
+
+    @Test
+    public void GetDocumentsShouldSendSourceFilteringAndRouting() throws Exception {
+        elasticService.getDocuments(INDEX_NAME, Arrays.asList("1", "2"), Optional.of(ImmutableMap.of(
+                ElasticService.SOURCE_INCLUDES, Arrays.asList("nome", "cognome"),
+                ElasticService.SOURCE_EXCLUDES, "privato",
+                ElasticService.ROUTING, "cliente-1")));
+
+        String request = requests.get(0);
+        assertTrue(request.contains("\"routing\":\"cliente-1\""));
+        assertTrue(request.contains("\"includes\":[\"nome\",\"cognome\"]"));
+        assertTrue(request.contains("\"excludes\":[\"privato\"]"));
+    }
+
+    @Test
+    public void ChunksInFlightShouldBeLimited() throws Exception {
+        List<String> documentIds = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            documentIds.add(String.valueOf(i));
+        }
+
+        Map<String, Document> documents = elasticService.getDocuments(INDEX_NAME, documentIds, Optional.empty());
+
+        assertEquals(7, requests.size());
+        assertEquals(2, maxInFlight.get());
+        assertEquals(documentIds, new ArrayList<>(documents.keySet()));
+    }
+
+    @Test
+    public void InvalidIdShouldFailBeforeSendingAnyChunk() throws Exception {
+        try {
+            elasticService.getDocumentsAsync(INDEX_NAME, Arrays.asList("1", "2", "3", "4", ""), Optional.empty());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, requests.size());
+        }
+    }
+
+    @Test
+    public void EmptyIdSetShouldNotSendRequests() throws Exception {
+        assertTrue(elasticService.getDocuments(INDEX_NAME, Collections.emptyList(), Optional.empty()).isEmpty());
+        assertEquals(0, requests.size());
+    }
+
+    @Test(expected = ElasticsearchException.class)
+    public void FailedItemsShouldFailTheWholeCall() throws Exception {
+        elasticService.getDocuments(MISSING_INDEX_NAME, Arrays.asList("1", "2"), Optional.empty());
+    }
+
+    private static String multiGetResponse(String mgetBody) {
+        StringBuilder docs = new StringBuilder();
+        Matcher matcher = DOCUMENT_ID.matcher(mgetBody);
+        while (matcher.find()) {
+            String id = matcher.group(1);
+            docs.append(docs.length() == 0 ? "" : ",");
+            if (mgetBody.contains("\"_index\":\"" + MISSING_INDEX_NAME + "\"")) {
+                docs.append("{\"_index\":\"").append(MISSING_INDEX_NAME).append("\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                        .append("\",\"error\":{\"root_cause\":[],\"type\":\"index_not_found_exception\",")
+                        .append("\"reason\":\"no such index [missing]\"}}");
+            } else if (MISSING_ID.equals(id)) {
+                docs.append("{\"_index\":\"").append(INDEX_NAME).append("\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                        .append("\",\"found\":false}");
+            } else {
+                docs.append("{\"_index\":\"").append(INDEX_NAME).append("\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                        .append("\",\"_version\":1,\"_seq_no\":4,\"_primary_term\":1,\"found\":true,")
+                        .append("\"_source\":{\"nome\":\"Anna-").append(id).append("\"}}");
+            }
+        }
+        return "{\"docs\":[" + docs + "]}";
+    }
+}
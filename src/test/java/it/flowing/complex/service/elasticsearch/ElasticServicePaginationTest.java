@@ -0,0 +1,59 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.DeepPaginationType;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ElasticServicePaginationTest extends StubElasticServiceTestBase {
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) {
+        requests.add(method + " " + uri + " " + new String(body, StandardCharsets.UTF_8));
+        if (uri.startsWith("/_search/scroll")) {
+            return StubElasticServer.ok("{\"succeeded\":true,\"num_freed\":1}");
+        }
+        String searchResponse = StubElasticServer.searchResponse(0L);
+        return StubElasticServer.ok("{\"_scroll_id\":\"scroll-1\"," + searchResponse.substring(1));
+    }
+
+    @Test
+    public void SearchAfterWithoutTiebreakerShouldFallBackToScroll() throws Exception {
+        consume(DeepPaginationType.SEARCH_AFTER);
+
+        assertTrue(requests.get(0).contains("scroll=60000ms"));
+        assertFalse(requests.get(0).contains("\"_id\""));
+    }
+
+    @Test
+    public void SearchAfterShouldSortOnTheConfiguredTiebreaker() throws Exception {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setSearchAfterTiebreakerField("order_id");
+        openConnection(serverConfiguration);
+
+        consume(DeepPaginationType.SEARCH_AFTER);
+
+        assertEquals(1, requests.size());
+        assertFalse(requests.get(0).contains("scroll="));
+        assertTrue(requests.get(0).contains("\"sort\":[{\"order_id\":{\"order\":\"asc\"}}]"));
+    }
+
+    private void consume(DeepPaginationType deepPaginationType) {
+        try (Stream<SearchHit> hits = elasticService.searchStream((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY),
+                deepPaginationType)) {
+            assertEquals(0, hits.count());
+        }
+    }
+}
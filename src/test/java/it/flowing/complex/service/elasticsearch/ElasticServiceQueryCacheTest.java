@@ -0,0 +1,219 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.cache.CacheStats;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.cache.QueryCacheKey;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceQueryCacheTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "kibana_sample_data_ecommerce";
+    private static final String OTHER_INDEX_NAME = "javatest";
+
+    private static final String ALIAS_NAME = "ecommerce";
+    private static final String SEARCH_RESPONSE = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":42,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":["
+            + "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":1.0,"
+            + "\"_source\":{\"nome\":\"Anna\"}}]}}";
+
+    private final AtomicInteger searchCount = new AtomicInteger();
+    private volatile CountDownLatch searchStarted = new CountDownLatch(0);
+    private volatile CountDownLatch searchReleased = new CountDownLatch(0);
+
+    @Override
+    protected void configure(ServerConfiguration serverConfiguration) {
+        serverConfiguration.setQueryCacheEnabled(true);
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        if (uri.contains("_search")) {
+            searchCount.incrementAndGet();
+            searchStarted.countDown();
+            try {
+                searchReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return StubElasticServer.ok(SEARCH_RESPONSE);
+        }
+        if (uri.contains("_alias")) {
+            // L'alias punta a INDEX_NAME; ogni altro indice è concreto e senza alias
+            String index = uri.substring(1, uri.indexOf('/', 1));
+            return StubElasticServer.ok(ALIAS_NAME.equals(index) || INDEX_NAME.equals(index)
+                    ? "{\"" + INDEX_NAME + "\":{\"aliases\":{\"" + ALIAS_NAME + "\":{}}}}"
+                    : "{\"" + index + "\":{\"aliases\":{}}}");
+        }
+        if (uri.contains("_bulk")) {
+            int documents = new String(body, StandardCharsets.UTF_8).split("\n").length / 2;
+            String[] items = new String[documents];
+            Arrays.fill(items, "{\"index\":{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\","
+                    + "\"_version\":1,\"result\":\"created\",\"status\":201}}");
+            return StubElasticServer.ok("{\"took\":1,\"errors\":false,\"items\":[" + String.join(",", items) + "]}");
+        }
+        return new StubElasticServer.Response(201, "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\","
+                + "\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+                + "\"_seq_no\":0,\"_primary_term\":1}");
+    }
+
+    @Test
+    public void RepeatedSearchShouldBeServedFromTheCache() throws Exception {
+        QueryData queryData = (new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY);
+
+        assertEquals(42L, elasticService.search(queryData).getNumHits());
+        assertEquals(42L, elasticService.search(queryData).getNumHits());
+        assertEquals(42L, elasticService.searchAsync(queryData).get().getNumHits());
+
+        CacheStats cacheStats = elasticService.getQueryCacheStats().get();
+        assertEquals(1, searchCount.get());
+        assertEquals(1, cacheStats.missCount());
+        assertEquals(2, cacheStats.hitCount());
+    }
+
+    @Test
+    public void WriteOnTheSearchedIndexShouldInvalidateTheCache() throws Exception {
+        QueryData queryData = (new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("nome", "Anna");
+
+        elasticService.search(queryData);
+        elasticService.createDocument(OTHER_INDEX_NAME, metadata, Optional.of("1"));
+        elasticService.search(queryData);
+        elasticService.createDocument(INDEX_NAME, metadata, Optional.of("1"));
+        elasticService.search(queryData);
+
+        assertEquals(2, searchCount.get());
+        assertEquals(2, elasticService.getQueryCacheStats().get().missCount());
+    }
+
+    @Test
+    public void BulkWriteShouldInvalidateTheCacheBeforeCompletingTheDocuments() throws Exception {
+        QueryData queryData = (new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("nome", "Anna");
+
+        elasticService.search(queryData);
+        elasticService.createDocuments(INDEX_NAME, Collections.nCopies(100, metadata));
+        elasticService.search(queryData);
+
+        assertEquals(2, searchCount.get());
+        assertEquals(2, elasticService.getQueryCacheStats().get().missCount());
+    }
+
+    @Test
+    public void WriteOnTheConcreteIndexShouldInvalidateSearchesThroughTheAlias() throws Exception {
+        QueryData aliasQueryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of(ALIAS_NAME));
+        QueryData indexQueryData = (new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("nome", "Anna");
+
+        elasticService.search(aliasQueryData);
+        elasticService.search(indexQueryData);
+        assertEquals(1, searchCount.get());
+
+        elasticService.createDocument(INDEX_NAME, metadata, Optional.of("1"));
+        elasticService.search(aliasQueryData);
+        assertEquals(2, searchCount.get());
+
+        elasticService.createDocument(ALIAS_NAME, metadata, Optional.of("1"));
+        elasticService.search(indexQueryData);
+        assertEquals(3, searchCount.get());
+    }
+
+    @Test
+    public void WildcardSearchShouldNotBeCached() throws Exception {
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of("kibana_*"));
+
+        elasticService.search(queryData);
+        elasticService.search(queryData);
+
+        assertEquals(2, searchCount.get());
+        assertEquals(2, stubElasticServer.getRequestCount());
+        assertEquals(0, elasticService.getQueryCacheStats().get().requestCount());
+    }
+
+    @Test
+    public void SearchCompletedAfterAWriteShouldNotBeCached() throws Exception {
+        QueryData queryData = (new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("nome", "Anna");
+
+        searchStarted = new CountDownLatch(1);
+        searchReleased = new CountDownLatch(1);
+        CompletableFuture<SearchResult> staleSearchResult = elasticService.searchAsync(queryData);
+        assertTrue(searchStarted.await(10, TimeUnit.SECONDS));
+        elasticService.createDocument(INDEX_NAME, metadata, Optional.of("1"));
+        searchReleased.countDown();
+        staleSearchResult.get();
+
+        elasticService.search(queryData);
+
+        assertEquals(2, searchCount.get());
+        assertEquals(0, elasticService.getQueryCacheStats().get().hitCount());
+    }
+
+    @Test
+    public void CachedResultShouldNotBeSharedBetweenCallers() throws Exception {
+        QueryData queryData = (new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY);
+
+        SearchResult first = elasticService.search(queryData);
+        first.setNumHits(0L);
+        first.getHits().get(0).getSourceAsMap().put("nome", "Marco");
+        SearchResult second = elasticService.search(queryData);
+        second.setNumHits(1L);
+        second.getHits().get(0).getSourceAsMap().put("nome", "Luca");
+        SearchResult third = elasticService.search(queryData);
+
+        assertEquals(42L, third.getNumHits());
+        assertEquals("Anna", third.getHits().get(0).getSourceAsMap().get("nome"));
+        assertEquals(2, elasticService.getQueryCacheStats().get().hitCount());
+    }
+
+    @Test
+    public void CacheKeyShouldNotDependOnIndicesAndFieldsOrder() {
+        SearchRequest first = new SearchRequest(INDEX_NAME, OTHER_INDEX_NAME).source(new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("customer_gender", "MALE"))
+                .size(10)
+                .from(5));
+        SearchRequest second = new SearchRequest(OTHER_INDEX_NAME, INDEX_NAME).source(new SearchSourceBuilder()
+                .from(5)
+                .size(10)
+                .query(QueryBuilders.termQuery("customer_gender", "MALE")));
+        SearchRequest different = new SearchRequest(OTHER_INDEX_NAME, INDEX_NAME).source(new SearchSourceBuilder()
+                .from(5)
+                .size(10)
+                .query(QueryBuilders.termQuery("customer_gender", "FEMALE")));
+
+        assertEquals(QueryCacheKey.of(first), QueryCacheKey.of(second));
+        assertEquals(QueryCacheKey.of(first).hashCode(), QueryCacheKey.of(second).hashCode());
+        assertNotEquals(QueryCacheKey.of(first), QueryCacheKey.of(different));
+        assertTrue(QueryCacheKey.of(first).targets(INDEX_NAME));
+        assertFalse(QueryCacheKey.of(new SearchRequest("kibana_*")).targets(OTHER_INDEX_NAME));
+        assertTrue(QueryCacheKey.of(new SearchRequest("kibana_*")).targets(INDEX_NAME));
+    }
+}
@@ -0,0 +1,90 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.BoolQueryRule;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.QueryPlan;
+import it.flowing.complex.model.RangeOperator;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceQueryPlanTest extends StubElasticServiceTestBase {
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        requests.add(method + " " + uri + " " + new String(body, StandardCharsets.UTF_8));
+        return StubElasticServer.ok(StubElasticServer.searchResponse(3L));
+    }
+
+    @Test
+    public void PlanShouldSendTheSameRequestAsTheQueryData() throws Exception {
+        QueryPlan queryPlan = elasticService.compile(rangeQuery(QueryPlan.parameter("min"), QueryPlan.parameter("max"))
+                .withSearchIndex(Optional.of("javatest")));
+
+        SearchResult searchResult = elasticService.search(queryPlan, ImmutableMap.of("min", 50, "max", 100.5));
+        elasticService.search(rangeQuery(50, 100.5).withSearchIndex(Optional.of("javatest")));
+
+        assertEquals(3, searchResult.getNumHits());
+        assertEquals(Arrays.asList("min", "max"), new ArrayList<>(queryPlan.getParameterNames()));
+        assertTrue(requests.get(0).startsWith("POST /javatest/_search?"));
+        assertTrue(requests.get(0).contains("\"from\":50,\"to\":100.5"));
+        assertEquals(requests.get(1), requests.get(0));
+    }
+
+    @Test
+    public void PlanShouldBeReusableWithDifferentParameters() throws Exception {
+        Map<String, Map<String, Object>> boolQueryRules = new HashMap<>();
+        boolQueryRules.put(BoolQueryRule.MUST.toString(), Collections.singletonMap("customer_gender", QueryPlan.parameter("gender")));
+        boolQueryRules.put(BoolQueryRule.FILTER.toString(), Collections.singletonMap("currency", "EUR"));
+        QueryPlan queryPlan = elasticService.compile((new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolQueryRules(boolQueryRules));
+
+        elasticService.searchAsync(queryPlan, ImmutableMap.of("gender", "MALE")).get();
+        elasticService.searchAsync(queryPlan, ImmutableMap.of("gender", "FEMALE \"quoted\"")).get();
+
+        assertTrue(requests.get(0).contains("\"value\":\"MALE\""));
+        assertTrue(requests.get(1).contains("\"value\":\"FEMALE \\\"quoted\\\"\""));
+        assertTrue(requests.get(1).contains("\"value\":\"EUR\""));
+    }
+
+    @Test
+    public void PlanWithoutParametersShouldReuseTheSerializedBody() throws Exception {
+        QueryPlan queryPlan = elasticService.compile((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY));
+
+        assertTrue(queryPlan.getParameterNames().isEmpty());
+        assertSame(queryPlan.render(Collections.emptyMap()), queryPlan.render(Collections.emptyMap()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void MissingParametersShouldBeRejected() throws Exception {
+        QueryPlan queryPlan = elasticService.compile(rangeQuery(QueryPlan.parameter("min"), QueryPlan.parameter("max")));
+
+        elasticService.search(queryPlan, ImmutableMap.of("min", 50));
+    }
+
+    private static QueryData rangeQuery(Object min, Object max) {
+        Map<RangeOperator, Object> rangeValues = new HashMap<>();
+        rangeValues.put(RangeOperator.GTE, min);
+        rangeValues.put(RangeOperator.LT, max);
+        return (new QueryData())
+                .withSearchType(SearchType.RANGE_QUERY)
+                .withTermName("taxful_total_price")
+                .withRangeValues(rangeValues);
+    }
+}
@@ -0,0 +1,334 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.DeleteDocumentResponse;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import it.flowing.complex.service.execution.CircuitBreaker;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceRetryTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+
+    private static final Pattern DOCUMENT_ID = Pattern.compile("\"_id\":\"([^\"]+)\"");
+    private static final Pattern IF_SEQ_NO = Pattern.compile("if_seq_no=(\\d+)");
+
+    // Status di errore delle prossime richieste, una per voce: a coda vuota il nodo risponde normalmente
+    private final Queue<Integer> failures = new ConcurrentLinkedQueue<>();
+    // Come failures, ma la richiesta viene prima applicata: la risposta si perde dopo la scrittura
+    private final Queue<Integer> failuresAfterApplying = new ConcurrentLinkedQueue<>();
+    // Id da rifiutare con 429 nella prossima _bulk
+    private final Queue<String> rejectedItems = new ConcurrentLinkedQueue<>();
+    private final List<String> bulkBodies = Collections.synchronizedList(new ArrayList<>());
+
+    // Stato del documento "1" per update condizionali e delete
+    private volatile long seqNo = 0;
+    private volatile boolean deleted;
+
+    @Override
+    protected boolean openConnectionBeforeEachTest() {
+        return false;
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) {
+        Integer failure = failures.poll();
+        if (null != failure) {
+            return error(failure);
+        }
+        StubElasticServer.Response response = respond(method, uri, body);
+        Integer failureAfterApplying = failuresAfterApplying.poll();
+        return null == failureAfterApplying ? response : error(failureAfterApplying);
+    }
+
+    @Test
+    public void SearchShouldBeRetriedAfterAnUnavailableNode() throws Exception {
+        openConnection(retryConfiguration());
+        failures.add(503);
+        failures.add(504);
+
+        assertEquals(1L, elasticService.search(matchAll()).getNumHits());
+        assertEquals(3, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void RetriesShouldStopAfterTheMaximumAttempts() throws Exception {
+        openConnection(retryConfiguration());
+        failures.addAll(Arrays.asList(503, 503, 503, 503));
+
+        try {
+            elasticService.search(matchAll());
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+        }
+        assertEquals(3, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void IndexWithoutIdShouldBeRetriedOnlyIfNotExecuted() throws Exception {
+        openConnection(retryConfiguration());
+
+        failures.add(429);
+        assertEquals(RestStatus.CREATED, elasticService.createDocument(INDEX_NAME, document(), Optional.empty()).getStatus());
+        assertEquals(2, stubElasticServer.getRequestCount());
+
+        failures.add(503);
+        try {
+            elasticService.createDocument(INDEX_NAME, document(), Optional.empty());
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+        }
+        assertEquals(3, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void IndexWithExplicitIdShouldBeRetried() throws Exception {
+        openConnection(retryConfiguration());
+        failures.add(503);
+
+        assertEquals(RestStatus.CREATED, elasticService.createDocument(INDEX_NAME, document(), Optional.of("1")).getStatus());
+        assertEquals(2, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void DocumentMergeUpdateShouldBeRetried() throws Exception {
+        openConnection(retryConfiguration());
+        failuresAfterApplying.add(503);
+
+        assertEquals(RestStatus.OK, elasticService.updateDocument(INDEX_NAME, "1", document(), Optional.empty()).getStatus());
+        assertEquals(2, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void ScriptedUpdateShouldNotBeRetriedAfterAnUnavailableNode() throws Exception {
+        openConnection(retryConfiguration());
+        failuresAfterApplying.add(503);
+
+        try {
+            elasticService.updateDocument(INDEX_NAME, "1", document(),
+                    Optional.of(Collections.singletonMap(ElasticService.SCRIPT, "ctx._source.nome = params.nome")));
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+        }
+        assertEquals(1, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void AppliedConditionalUpdateShouldNotBeRetriedIntoAConflict() throws Exception {
+        openConnection(retryConfiguration());
+        failuresAfterApplying.add(503);
+
+        try {
+            elasticService.updateDocument(INDEX_NAME, "1", document(), Optional.of(conditionalOn(0L)));
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+        }
+        assertEquals(1, stubElasticServer.getRequestCount());
+        assertEquals(1L, seqNo);
+
+        // Rifiutato con 429 non è stato applicato: il secondo tentativo trova ancora lo stesso seq_no
+        failures.add(429);
+        assertEquals(RestStatus.OK, elasticService.updateDocument(INDEX_NAME, "1", document(), Optional.of(conditionalOn(1L))).getStatus());
+        assertEquals(3, stubElasticServer.getRequestCount());
+    }
+
+    @Test
+    public void AppliedDeleteShouldNotBeReportedAsMissing() throws Exception {
+        openConnection(retryConfiguration());
+        failuresAfterApplying.add(503);
+
+        try {
+            elasticService.deleteDocument(INDEX_NAME, "1", Optional.empty());
+            fail();
+        } catch (ElasticsearchStatusException e) {
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+        }
+        assertEquals(1, stubElasticServer.getRequestCount());
+        assertTrue(deleted);
+    }
+
+    @Test
+    public void BulkItemsRejectedWithTooManyRequestsShouldBeResentAlone() throws Exception {
+        openConnection(retryConfiguration());
+        rejectedItems.add("2");
+
+        Map<String, DeleteDocumentResponse> responses = elasticService.deleteDocuments(INDEX_NAME, Arrays.asList("1", "2", "3"));
+
+        assertEquals(Arrays.asList("1", "2", "3"), new ArrayList<>(responses.keySet()));
+        for (DeleteDocumentResponse response : responses.values()) {
+            assertFalse(response.isFailed());
+            assertEquals(RestStatus.OK, response.getStatus());
+        }
+        assertEquals(2, bulkBodies.size());
+        assertEquals(Collections.singletonList("2"), documentIds(bulkBodies.get(1)));
+    }
+
+    @Test
+    public void BulkItemsShouldKeepTheRejectionAfterTheMaximumAttempts() throws Exception {
+        openConnection(retryConfiguration());
+        rejectedItems.addAll(Arrays.asList("2", "2", "2"));
+
+        Map<String, DeleteDocumentResponse> responses = elasticService.deleteDocuments(INDEX_NAME, Arrays.asList("1", "2"));
+
+        assertFalse(responses.get("1").isFailed());
+        assertTrue(responses.get("2").isFailed());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, responses.get("2").getStatus());
+        assertEquals(3, bulkBodies.size());
+    }
+
+    @Test
+    public void OpenCircuitShouldFailFastWithoutReachingTheCluster() throws Exception {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setCircuitBreakerEnabled(true);
+        serverConfiguration.setCircuitBreakerFailureThreshold(2);
+        serverConfiguration.setCircuitBreakerOpenMillis(200);
+        openConnection(serverConfiguration);
+        failures.addAll(Arrays.asList(503, 503));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                elasticService.search(matchAll());
+                fail();
+            } catch (ElasticsearchStatusException e) {
+                assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+            }
+        }
+        assertEquals(2, stubElasticServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, elasticService.getCircuitBreakerState().get());
+
+        // Trascorso openMillis passa una richiesta di prova, che richiude il circuito
+        Thread.sleep(300);
+        assertEquals(1L, elasticService.search(matchAll()).getNumHits());
+        assertEquals(CircuitBreaker.State.CLOSED, elasticService.getCircuitBreakerState().get());
+    }
+
+    @Test
+    public void SaturatedNodeShouldBeSkippedWhileItsCircuitIsOpen() throws Exception {
+        try (StubElasticServer saturatedServer = new StubElasticServer((method, uri, body) -> error(429))) {
+            ServerConfiguration serverConfiguration = retryConfiguration();
+            serverConfiguration.setHosts(Arrays.asList("http://localhost:" + saturatedServer.getPort(),
+                    "http://localhost:" + stubElasticServer.getPort()));
+            serverConfiguration.setCircuitBreakerEnabled(true);
+            serverConfiguration.setCircuitBreakerFailureThreshold(2);
+            openConnection(serverConfiguration);
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals(1L, elasticService.search(matchAll()).getNumHits());
+            }
+            assertEquals(2, saturatedServer.getRequestCount());
+            assertEquals(10, stubElasticServer.getRequestCount());
+        }
+    }
+
+    private ServerConfiguration retryConfiguration() {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setRetryEnabled(true);
+        serverConfiguration.setRetryMaxAttempts(3);
+        serverConfiguration.setRetryInitialBackoffMillis(1);
+        serverConfiguration.setRetryMaxBackoffMillis(10);
+        return serverConfiguration;
+    }
+
+    private StubElasticServer.Response respond(String method, String uri, byte[] body) {
+        if (uri.startsWith("/_bulk")) {
+            String bulkBody = new String(body, StandardCharsets.UTF_8);
+            bulkBodies.add(bulkBody);
+            return StubElasticServer.ok(bulkResponse(bulkBody));
+        }
+        if (uri.contains("/_search")) {
+            return StubElasticServer.ok(StubElasticServer.searchResponse(1L));
+        }
+        if (uri.contains("/_update/")) {
+            Matcher ifSeqNo = IF_SEQ_NO.matcher(uri);
+            if (ifSeqNo.find() && Long.parseLong(ifSeqNo.group(1)) != seqNo) {
+                return error(409);
+            }
+            seqNo++;
+            return StubElasticServer.ok(writeResponse("updated"));
+        }
+        if ("DELETE".equals(method)) {
+            if (deleted) {
+                return new StubElasticServer.Response(404, writeResponse("not_found"));
+            }
+            deleted = true;
+            return StubElasticServer.ok(writeResponse("deleted"));
+        }
+        return new StubElasticServer.Response(201, writeResponse("created"));
+    }
+
+    private String writeResponse(String result) {
+        return "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":" + (seqNo + 1) + ","
+                + "\"result\":\"" + result + "\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":" + seqNo + ","
+                + "\"_primary_term\":1}";
+    }
+
+    private static Map<String, Object> conditionalOn(long seqNo) {
+        Map<String, Object> configuration = new HashMap<>();
+        configuration.put(ElasticService.IF_SEQ_NO, seqNo);
+        configuration.put(ElasticService.IF_PRIMARY_TERM, 1L);
+        return configuration;
+    }
+
+    private String bulkResponse(String bulkBody) {
+        List<String> items = new ArrayList<>();
+        boolean errors = false;
+        for (String documentId : documentIds(bulkBody)) {
+            if (rejectedItems.remove(documentId)) {
+                errors = true;
+                items.add("{\"delete\":{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + documentId + "\",\"status\":429,"
+                        + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"}}}");
+            } else {
+                items.add("{\"delete\":{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + documentId + "\",\"_version\":2,"
+                        + "\"result\":\"deleted\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":1,"
+                        + "\"_primary_term\":1,\"status\":200}}");
+            }
+        }
+        return "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + String.join(",", items) + "]}";
+    }
+
+    private static List<String> documentIds(String bulkBody) {
+        List<String> documentIds = new ArrayList<>();
+        Matcher matcher = DOCUMENT_ID.matcher(bulkBody);
+        while (matcher.find()) {
+            documentIds.add(matcher.group(1));
+        }
+        return documentIds;
+    }
+
+    private static StubElasticServer.Response error(int status) {
+        return new StubElasticServer.Response(status, "{\"error\":{\"root_cause\":[],\"type\":\"stub_exception\","
+                + "\"reason\":\"risposta " + status + "\"},\"status\":" + status + "}");
+    }
+
+    private static Map<String, Object> document() {
+        return Collections.singletonMap("nome", "Divano");
+    }
+
+    private static QueryData matchAll() {
+        return (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of(INDEX_NAME));
+    }
+}
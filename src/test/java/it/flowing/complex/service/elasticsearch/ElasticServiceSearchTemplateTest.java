@@ -0,0 +1,178 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import it.flowing.complex.model.BoolQueryRule;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.QueryPlan;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import org.apache.commons.lang3.tuple.Pair;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceSearchTemplateTest extends StubElasticServiceTestBase {
+
+    private static final String TEMPLATE_ID = "customers_by_gender";
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    // Script memorizzati nel cluster simulato, condivisi da tutte le istanze di ElasticService
+    private final Map<String, String> storedScripts = new ConcurrentHashMap<>();
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException {
+        requests.add(method + " " + uri + " " + new String(body, StandardCharsets.UTF_8));
+        if (uri.startsWith("/_scripts/")) {
+            String id = uri.substring("/_scripts/".length()).split("\\?")[0];
+            if (!"GET".equals(method)) {
+                storedScripts.put(id, new String(body, StandardCharsets.UTF_8));
+                return StubElasticServer.ok("{\"acknowledged\":true}");
+            }
+            if (!storedScripts.containsKey(id)) {
+                return new StubElasticServer.Response(404, "{\"_id\":\"" + id + "\",\"found\":false}");
+            }
+            return StubElasticServer.ok("{\"_id\":\"" + id + "\",\"found\":true,"
+                    + storedScripts.get(id).substring(1));
+        }
+        if (uri.startsWith("/_msearch/template")) {
+            String searchResponse = StubElasticServer.searchResponse(2L);
+            return StubElasticServer.ok("{\"took\":1,\"responses\":[" + searchResponse.substring(0, searchResponse.length() - 1)
+                    + ",\"status\":200}]}");
+        }
+        return StubElasticServer.ok(StubElasticServer.searchResponse(5L));
+    }
+
+    @Test
+    public void TemplateShouldBeGeneratedFromTheSearcher() throws Exception {
+        QueryData queryData = byGender(QueryPlan.parameter("gender"));
+
+        assertTrue(elasticService.registerSearchTemplate(TEMPLATE_ID, queryData));
+
+        String request = requests.get(0);
+        assertTrue(request.startsWith("POST /_scripts/" + TEMPLATE_ID + "?"));
+        Map<String, Object> script = storedScript(request);
+        assertEquals("mustache", script.get("lang"));
+
+        // Il commento iniziale descrive indici e tipo di ricerca; sostituendo le variabili mustache nel resto
+        // del template si ottiene il body della ricerca diretta
+        String template = (String) script.get("source");
+        assertTrue(template.startsWith("{{! flowing-complex indices=javatest searchType=BOOL_QUERY }}"));
+        template = template.substring(template.indexOf("}}") + 2);
+        assertTrue(template.contains("\"value\":{{#toJson}}gender{{/toJson}}"));
+        QueryPlan queryPlan = elasticService.compile(byGender("MALE"));
+        assertEquals(queryPlan.render(Collections.emptyMap()).utf8ToString(),
+                template.replace("{{#toJson}}gender{{/toJson}}", "\"MALE\""));
+    }
+
+    @Test
+    public void SearchTemplateShouldSendOnlyTheParameters() throws Exception {
+        elasticService.registerSearchTemplate(TEMPLATE_ID, byGender(QueryPlan.parameter("gender")));
+
+        SearchResult searchResult = elasticService.searchTemplate(TEMPLATE_ID, ImmutableMap.of("gender", "FEMALE"));
+
+        String request = requests.get(1);
+        assertEquals(5, searchResult.getNumHits());
+        assertTrue(request.contains(" /javatest/_search/template?"));
+        assertTrue(request.contains("{\"id\":\"" + TEMPLATE_ID + "\",\"params\":{\"gender\":\"FEMALE\"}"));
+        assertFalse(request.contains("\"query\""));
+    }
+
+    @Test
+    public void MultiSearchTemplateShouldReportFailuresByPosition() throws Exception {
+        elasticService.registerSearchTemplate(TEMPLATE_ID, byGender(QueryPlan.parameter("gender")));
+
+        List<SearchResult> searchResults = elasticService.searchTemplates(Arrays.asList(
+                Pair.of("unknown", Collections.emptyMap()),
+                Pair.of(TEMPLATE_ID, ImmutableMap.of("gender", "MALE")),
+                Pair.of(TEMPLATE_ID, Collections.emptyMap())));
+
+        // Il template sconosciuto viene cercato nel cluster prima della _msearch/template
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(1).startsWith("GET /_scripts/unknown"));
+        assertTrue(requests.get(2).startsWith("POST /_msearch/template?"));
+        assertTrue(requests.get(2).contains("\"params\":{\"gender\":\"MALE\"}"));
+        assertNotNull(searchResults.get(0).getFailure());
+        assertEquals(2, searchResults.get(1).getNumHits());
+        assertTrue(searchResults.get(2).getFailure() instanceof IllegalArgumentException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void UnregisteredTemplatesShouldBeRejected() throws Exception {
+        elasticService.searchTemplate("unknown", Collections.emptyMap());
+    }
+
+    @Test
+    public void TemplatesRegisteredByAnotherInstanceShouldBeExecuted() throws Exception {
+        elasticService.registerSearchTemplate(TEMPLATE_ID, byGender(QueryPlan.parameter("gender")));
+
+        // Come un'altra replica, o la stessa dopo un riavvio: il template è solo nel cluster
+        ElasticService otherElasticService = openAnotherConnection();
+        try {
+            otherElasticService.searchTemplate(TEMPLATE_ID, Collections.emptyMap());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("gender"));
+        }
+        SearchResult searchResult = otherElasticService.searchTemplate(TEMPLATE_ID, ImmutableMap.of("gender", "FEMALE"));
+
+        // Il template viene letto una sola volta
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(1).startsWith("GET /_scripts/" + TEMPLATE_ID));
+        assertTrue(requests.get(2).contains(" /javatest/_search/template?"));
+        assertTrue(requests.get(2).contains("{\"id\":\"" + TEMPLATE_ID + "\",\"params\":{\"gender\":\"FEMALE\"}"));
+        assertEquals(5, searchResult.getNumHits());
+    }
+
+    @Test
+    public void TemplatesRegisteredAgainByAnotherInstanceShouldBeReadAfterTheTtl() throws Exception {
+        elasticService.registerSearchTemplate(TEMPLATE_ID, byGender(QueryPlan.parameter("gender")));
+
+        ElasticService otherElasticService = openAnotherConnection(
+                serverConfiguration -> serverConfiguration.setSearchTemplateCacheTtlMillis(100));
+        otherElasticService.searchTemplate(TEMPLATE_ID, ImmutableMap.of("gender", "FEMALE"));
+
+        // Stesso id, parametro diverso
+        Map<String, Map<String, Object>> boolQueryRules = new HashMap<>();
+        boolQueryRules.put(BoolQueryRule.MUST.toString(), Collections.singletonMap("currency", QueryPlan.parameter("currency")));
+        elasticService.registerSearchTemplate(TEMPLATE_ID, (new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withSearchIndex(Optional.of("javatest"))
+                .withBoolQueryRules(boolQueryRules));
+        Thread.sleep(200);
+
+        otherElasticService.searchTemplate(TEMPLATE_ID, ImmutableMap.of("currency", "EUR"));
+
+        String request = requests.get(requests.size() - 1);
+        assertTrue(requests.get(requests.size() - 2).startsWith("GET /_scripts/" + TEMPLATE_ID));
+        assertTrue(request.contains("\"params\":{\"currency\":\"EUR\"}"));
+    }
+
+    private static QueryData byGender(Object gender) {
+        Map<String, Map<String, Object>> boolQueryRules = new HashMap<>();
+        boolQueryRules.put(BoolQueryRule.MUST.toString(), Collections.singletonMap("customer_gender", gender));
+        boolQueryRules.put(BoolQueryRule.FILTER.toString(), Collections.singletonMap("currency", "EUR"));
+        return (new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withSearchIndex(Optional.of("javatest"))
+                .withBoolQueryRules(boolQueryRules);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> storedScript(String request) {
+        String body = request.substring(request.indexOf('{'));
+        return (Map<String, Object>) XContentHelper.convertToMap(JsonXContent.jsonXContent, body, false).get("script");
+    }
+}
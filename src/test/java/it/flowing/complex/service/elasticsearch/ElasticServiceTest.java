@@ -6,10 +6,27 @@ import it.flowing.complex.model.*;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.filter.Filters;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.range.Range;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.metrics.Avg;
+import org.elasticsearch.search.aggregations.metrics.Cardinality;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.aggregations.metrics.Min;
+import org.elasticsearch.search.aggregations.metrics.Percentiles;
+import org.elasticsearch.search.aggregations.metrics.Stats;
+import org.elasticsearch.search.aggregations.metrics.Sum;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
@@ -28,7 +45,10 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -50,8 +70,16 @@ public class ElasticServiceTest {
     public static WebArchive createDeployment() {
         return ShrinkWrap.create(WebArchive.class)
                 .addPackages(false,
+                        "it.flowing.complex.service.aggregation",
+                        "it.flowing.complex.service.attachment",
+                        "it.flowing.complex.service.batching",
+                        "it.flowing.complex.service.bulk",
+                        "it.flowing.complex.service.cache",
                         "it.flowing.complex.service.configuration",
                         "it.flowing.complex.service.elasticsearch",
+                        "it.flowing.complex.service.execution",
+                        "it.flowing.complex.service.metrics",
+                        "it.flowing.complex.service.pagination",
                         "it.flowing.complex.service.searcher",
                         "it.flowing.complex.model")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
@@ -135,6 +163,48 @@ public class ElasticServiceTest {
         assertEquals(TotalHits.Relation.EQUAL_TO, searchResult.getHitsRelation());
     }
 
+    @Test
+    public void SearchAsyncShouldReturnTheSameResultOfSearch() throws Exception {
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.TERM_QUERY)
+                .withTermName("customer_first_name.keyword")
+                .withTermValue("Diane");
+
+        SearchResult searchResult = elasticService.searchAsync(queryData).get(30, TimeUnit.SECONDS);
+
+        assertEquals(RestStatus.OK, searchResult.getStatus());
+        assertEquals(elasticService.search(queryData).getNumHits(), searchResult.getNumHits());
+    }
+
+    @Test
+    public void SearchAllShouldReturnAResultOrAFailureForEachQuery() throws Exception {
+        List<QueryData> queries = new ArrayList<>();
+        queries.add((new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY));
+        queries.add((new QueryData())
+                .withSearchType(SearchType.TERM_QUERY)
+                .withTermName("customer_first_name.keyword")
+                .withTermValue("Diane"));
+        queries.add((new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSearchIndex(Optional.of(WRONG_VALUE)));
+        queries.add((new QueryData())
+                .withSearchType(SearchType.TERMS_QUERY)
+                .withTermName("customer_first_name.keyword"));
+
+        List<SearchResult> searchResults = elasticService.searchAll(queries);
+
+        assertEquals(4, searchResults.size());
+        assertFalse(searchResults.get(0).isFailed());
+        assertEquals(elasticService.search(queries.get(0)).getNumHits(), searchResults.get(0).getNumHits());
+        assertFalse(searchResults.get(1).isFailed());
+        assertEquals(elasticService.search(queries.get(1)).getNumHits(), searchResults.get(1).getNumHits());
+        assertTrue(searchResults.get(2).isFailed());
+        assertTrue(searchResults.get(2).getFailure().getMessage().contains("index_not_found_exception"));
+        assertTrue(searchResults.get(3).isFailed());
+        assertTrue(searchResults.get(3).getFailure() instanceof IllegalArgumentException);
+    }
+
     @Test
     public void SearchWithFromShouldReturnTheRightSubsetOfResult() throws Exception {
         QueryData queryData = (new QueryData())
@@ -169,6 +239,66 @@ public class ElasticServiceTest {
         assertEquals(2L, searchResult.getHits().size());
     }
 
+    @Test
+    public void SearchStreamWithSearchAfterShouldReturnAllTheHitsOnce() throws Exception {
+        assertSearchStreamReturnsAllTheHitsOnce(DeepPaginationType.SEARCH_AFTER);
+    }
+
+    @Test
+    public void SearchStreamWithScrollShouldReturnAllTheHitsOnce() throws Exception {
+        assertSearchStreamReturnsAllTheHitsOnce(DeepPaginationType.SCROLL);
+    }
+
+    private void assertSearchStreamReturnsAllTheHitsOnce(DeepPaginationType deepPaginationType) throws Exception {
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSize(Optional.of(100));
+
+        long numHits = elasticService.search(queryData.withSize(Optional.of(0))).getNumHits();
+
+        Set<String> ids;
+        try (Stream<SearchHit> hits = elasticService.searchStream(queryData, deepPaginationType)) {
+            ids = hits.map(SearchHit::getId).collect(Collectors.toSet());
+        }
+
+        assertEquals(numHits, ids.size());
+    }
+
+    @Test
+    public void CompositeAggregationStreamShouldReturnEveryBucketOnce() throws Exception {
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withSize(Optional.of(0))
+                .withAggregations(Collections.singletonList(
+                        AggregationData.of(AggregationType.CARDINALITY, "customers", "customer_id")));
+
+        SearchResult searchResult = elasticService.search(queryData);
+        Cardinality customers = searchResult.getAggregations().get("customers");
+
+        AggregationData byCustomer = new AggregationData()
+                .withAggregationType(AggregationType.COMPOSITE)
+                .withName("by_customer")
+                .withSize(Optional.of(10))
+                .withSources(Collections.singletonList(AggregationData.of(AggregationType.TERMS, "customer", "customer_id")))
+                .withSubAggregations(Collections.singletonList(
+                        AggregationData.of(AggregationType.SUM, "total_quantity", "total_quantity")));
+
+        Set<Object> customerIds = new HashSet<>();
+        long docCount = 0;
+        try (Stream<CompositeAggregation.Bucket> buckets = elasticService.compositeAggregationStream(queryData, byCustomer)) {
+            for (CompositeAggregation.Bucket bucket : (Iterable<CompositeAggregation.Bucket>) buckets::iterator) {
+                Sum totalQuantity = bucket.getAggregations().get("total_quantity");
+                assertTrue(customerIds.add(bucket.getKey().get("customer")));
+                assertTrue(totalQuantity.getValue() >= bucket.getDocCount());
+                docCount += bucket.getDocCount();
+            }
+        }
+
+        assertTrue(customers.getValue() > 10);
+        assertEquals(customers.getValue(), customerIds.size());
+        assertEquals(searchResult.getNumHits(), docCount);
+    }
+
     @Test
     public void SearchWithTimeoutShouldReturnTimedOutStatus() throws Exception {
         QueryData queryData = (new QueryData())
@@ -265,6 +395,103 @@ public class ElasticServiceTest {
         assertEquals(3.07, averageDayOfWeekFemale.getValue(), 0.01);
     }
 
+    @Test
+    public void SearchWithNestedAggregationsShouldComputeAllFacetsInOneRequest() throws Exception {
+        Map<String, QueryBuilder> genderFilters = new LinkedHashMap<>();
+        genderFilters.put("MALE", QueryBuilders.termQuery("customer_gender", "MALE"));
+        genderFilters.put("FEMALE", QueryBuilders.termQuery("customer_gender", "FEMALE"));
+
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withAggregations(Arrays.asList(
+                        AggregationData.of(AggregationType.TERMS, "by_customer_gender", "customer_gender")
+                                .withSubAggregations(Arrays.asList(
+                                        AggregationData.of(AggregationType.STATS, "price_stats", "taxful_total_price"),
+                                        AggregationData.of(AggregationType.HISTOGRAM, "by_day_of_week", "day_of_week_i")
+                                                .withInterval(Optional.of(1.0))
+                                                .withSubAggregations(Collections.singletonList(
+                                                        AggregationData.of(AggregationType.SUM, "quantity", "total_quantity"))))),
+                        AggregationData.of(AggregationType.RANGE, "by_price", "taxful_total_price")
+                                .withRanges(Arrays.asList(Pair.of(null, 50.0), Pair.of(50.0, 100.0), Pair.of(100.0, null))),
+                        new AggregationData()
+                                .withAggregationType(AggregationType.FILTERS)
+                                .withName("by_gender_filter")
+                                .withFilters(genderFilters),
+                        AggregationData.of(AggregationType.DATE_HISTOGRAM, "by_week", "order_date")
+                                .withCalendarInterval(Optional.of(DateHistogramInterval.WEEK)),
+                        AggregationData.of(AggregationType.CARDINALITY, "genders", "customer_gender"),
+                        AggregationData.of(AggregationType.PERCENTILES, "price_percentiles", "taxful_total_price")
+                                .withPercents(Arrays.asList(50.0, 95.0)),
+                        AggregationData.of(AggregationType.MIN, "min_price", "taxful_total_price"),
+                        AggregationData.of(AggregationType.MAX, "max_price", "taxful_total_price"),
+                        new AggregationData()
+                                .withAggregationType(AggregationType.COMPOSITE)
+                                .withName("by_gender_and_day")
+                                .withSize(Optional.of(100))
+                                .withSources(Arrays.asList(
+                                        AggregationData.of(AggregationType.TERMS, "gender", "customer_gender"),
+                                        AggregationData.of(AggregationType.HISTOGRAM, "day", "day_of_week_i")
+                                                .withInterval(Optional.of(1.0))))));
+
+        SearchResult searchResult = elasticService.search(queryData);
+        long numHits = searchResult.getNumHits();
+
+        Terms byGender = searchResult.getAggregations().get("by_customer_gender");
+        Filters byGenderFilter = searchResult.getAggregations().get("by_gender_filter");
+        Cardinality genders = searchResult.getAggregations().get("genders");
+        assertEquals(genders.getValue(), byGender.getBuckets().size());
+        assertEquals(numHits, byGender.getBuckets().stream().mapToLong(Terms.Bucket::getDocCount).sum());
+        for (Terms.Bucket bucket : byGender.getBuckets()) {
+            Stats priceStats = bucket.getAggregations().get("price_stats");
+            Histogram byDayOfWeek = bucket.getAggregations().get("by_day_of_week");
+            Sum quantity = byDayOfWeek.getBuckets().get(0).getAggregations().get("quantity");
+
+            assertEquals(bucket.getDocCount(), priceStats.getCount());
+            assertEquals(bucket.getDocCount(), byGenderFilter.getBucketByKey(bucket.getKeyAsString()).getDocCount());
+            assertEquals(bucket.getDocCount(), byDayOfWeek.getBuckets().stream().mapToLong(Histogram.Bucket::getDocCount).sum());
+            assertTrue(quantity.getValue() >= byDayOfWeek.getBuckets().get(0).getDocCount());
+        }
+
+        Range byPrice = searchResult.getAggregations().get("by_price");
+        Histogram byWeek = searchResult.getAggregations().get("by_week");
+        assertEquals(3, byPrice.getBuckets().size());
+        assertEquals(numHits, byPrice.getBuckets().stream().mapToLong(Range.Bucket::getDocCount).sum());
+        assertEquals(numHits, byWeek.getBuckets().stream().mapToLong(Histogram.Bucket::getDocCount).sum());
+
+        Percentiles pricePercentiles = searchResult.getAggregations().get("price_percentiles");
+        Min minPrice = searchResult.getAggregations().get("min_price");
+        Max maxPrice = searchResult.getAggregations().get("max_price");
+        assertTrue(pricePercentiles.percentile(50.0) >= minPrice.getValue());
+        assertTrue(pricePercentiles.percentile(95.0) <= maxPrice.getValue());
+
+        CompositeAggregation byGenderAndDay = searchResult.getAggregations().get("by_gender_and_day");
+        assertEquals(numHits, byGenderAndDay.getBuckets().stream().mapToLong(CompositeAggregation.Bucket::getDocCount).sum());
+        assertTrue(byGenderAndDay.getBuckets().get(0).getKey().containsKey("gender"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void MetricAggregationsShouldNotAcceptSubAggregations() throws Exception {
+        elasticService.search((new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withAggregations(Collections.singletonList(
+                        AggregationData.of(AggregationType.AVG, "average_day_of_week_i", "day_of_week_i")
+                                .withSubAggregations(Collections.singletonList(
+                                        AggregationData.of(AggregationType.TERMS, "by_customer_gender", "customer_gender"))))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void CompositeAggregationShouldOnlyBeTopLevel() throws Exception {
+        elasticService.search((new QueryData())
+                .withSearchType(SearchType.MATCH_ALL_QUERY)
+                .withAggregations(Collections.singletonList(
+                        AggregationData.of(AggregationType.TERMS, "by_customer_gender", "customer_gender")
+                                .withSubAggregations(Collections.singletonList(new AggregationData()
+                                        .withAggregationType(AggregationType.COMPOSITE)
+                                        .withName("by_day")
+                                        .withSources(Collections.singletonList(
+                                                AggregationData.of(AggregationType.TERMS, "day", "day_of_week_i"))))))));
+    }
+
     @Test
     public void SearchWithSuggestionShouldReturnSuggestedResult() throws Exception {
         List<Pair<String, String>> suggestions = new ArrayList<>();
@@ -362,6 +589,113 @@ public class ElasticServiceTest {
         assertEquals(244L, searchResult.getNumHits());
     }
 
+    @Test
+    public void BoolQueryShouldMoveNonScoringClausesToFilterContext() throws Exception {
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(Collections.singletonMap(BoolQueryRule.MUST, Arrays.asList(
+                        quantityBetween(3, 5),
+                        (new QueryData()).withSearchType(SearchType.EXISTS_QUERY).withTermName("email"),
+                        (new QueryData()).withSearchType(SearchType.TERM_QUERY).withTermName("customer_gender").withTermValue("MALE"))));
+
+        Map<String, Object> bool = boolQuery(queryData);
+        List<?> must = (List<?>) bool.get("must");
+        List<?> filter = (List<?>) bool.get("filter");
+
+        assertEquals(1, must.size());
+        assertTrue(((Map<?, ?>) must.get(0)).containsKey("term"));
+        assertEquals(2, filter.size());
+        assertTrue(((Map<?, ?>) filter.get(0)).containsKey("range"));
+        assertTrue(((Map<?, ?>) filter.get(1)).containsKey("exists"));
+    }
+
+    @Test
+    public void NestedShouldOnlyBoolQueryShouldStayInScoringContext() throws Exception {
+        QueryData exists = (new QueryData()).withSearchType(SearchType.EXISTS_QUERY).withTermName("email");
+        QueryData shouldOnly = (new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(Collections.singletonMap(BoolQueryRule.SHOULD, Arrays.asList(quantityBetween(3, 5), exists)));
+
+        // Il punteggio dipende dal numero di should soddisfatte: la bool annidata resta in must
+        Map<String, Object> bool = boolQuery((new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(Collections.singletonMap(BoolQueryRule.MUST, Collections.singletonList(shouldOnly))));
+        assertEquals(1, ((List<?>) bool.get("must")).size());
+        assertTrue(((Map<?, ?>) ((List<?>) bool.get("must")).get(0)).containsKey("bool"));
+        assertNull(bool.get("filter"));
+
+        // Con minimumShouldMatch pari al numero di should tutti i documenti trovati hanno lo stesso punteggio
+        bool = boolQuery((new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(Collections.singletonMap(BoolQueryRule.MUST, Collections.singletonList(
+                        shouldOnly.withMinimumShouldMatch(Optional.of("2"))))));
+        assertNull(bool.get("must"));
+        assertEquals(1, ((List<?>) bool.get("filter")).size());
+    }
+
+    @Test
+    public void BoolQueryWithChildQueriesShouldMatchTheSameDocumentsAsItsParts() throws Exception {
+        QueryData male = (new QueryData()).withSearchType(SearchType.TERM_QUERY).withTermName("customer_gender").withTermValue("MALE");
+
+        Map<BoolQueryRule, List<QueryData>> maleClauses = new EnumMap<>(BoolQueryRule.class);
+        maleClauses.put(BoolQueryRule.MUST, Arrays.asList(quantityBetween(3, 5), male));
+        Map<BoolQueryRule, List<QueryData>> notMaleClauses = new EnumMap<>(BoolQueryRule.class);
+        notMaleClauses.put(BoolQueryRule.MUST, Collections.singletonList(quantityBetween(3, 5)));
+        notMaleClauses.put(BoolQueryRule.MUST_NOT, Collections.singletonList(male));
+
+        long inRange = elasticService.search(quantityBetween(3, 5)).getNumHits();
+        long maleInRange = elasticService.search((new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(maleClauses)).getNumHits();
+        long notMaleInRange = elasticService.search((new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(notMaleClauses)).getNumHits();
+
+        assertTrue(maleInRange > 0);
+        assertEquals(inRange, maleInRange + notMaleInRange);
+    }
+
+    @Test
+    public void BoolQueryShouldHonorMinimumShouldMatch() throws Exception {
+        Map<String, Map<String, Object>> rules = new HashMap<>();
+        rules.put(BoolQueryRule.SHOULD.toString(), Collections.singletonMap("customer_gender", "MALE"));
+        QueryData queryData = (new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolQueryRules(rules)
+                .withBoolClauses(Collections.singletonMap(BoolQueryRule.SHOULD, Collections.singletonList(
+                        (new QueryData()).withSearchType(SearchType.TERM_QUERY).withTermName("customer_gender").withTermValue("FEMALE"))));
+
+        long all = elasticService.search((new QueryData()).withSearchType(SearchType.MATCH_ALL_QUERY)).getNumHits();
+
+        assertEquals(all, elasticService.search(queryData.withMinimumShouldMatch(Optional.of("1"))).getNumHits());
+        assertEquals(0, elasticService.search(queryData.withMinimumShouldMatch(Optional.of("2"))).getNumHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void MinimumShouldMatchWithoutShouldClausesShouldBeRejected() throws Exception {
+        elasticService.search((new QueryData())
+                .withSearchType(SearchType.BOOL_QUERY)
+                .withBoolClauses(Collections.singletonMap(BoolQueryRule.MUST, Collections.singletonList(quantityBetween(3, 5))))
+                .withMinimumShouldMatch(Optional.of("1")));
+    }
+
+    private static QueryData quantityBetween(int gt, int lt) {
+        Map<RangeOperator, Object> rangeValues = new HashMap<>();
+        rangeValues.put(RangeOperator.GT, gt);
+        rangeValues.put(RangeOperator.LT, lt);
+        return (new QueryData())
+                .withSearchType(SearchType.RANGE_QUERY)
+                .withTermName("total_quantity")
+                .withRangeValues(rangeValues);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> boolQuery(QueryData queryData) {
+        Map<String, Object> source = XContentHelper.convertToMap(JsonXContent.jsonXContent,
+                Strings.toString(elasticService.buildSearchRequest(queryData).source()), false);
+        return (Map<String, Object>) ((Map<String, Object>) source.get("query")).get("bool");
+    }
+
     @Test
     public void RangeQueryShouldReturnTheRightResult() throws Exception {
         Map<RangeOperator, Object> rangeValues = new HashMap<RangeOperator, Object>() {{
@@ -430,6 +764,11 @@ public class ElasticServiceTest {
         assertFalse(elasticService.deleteIndex(WRONG_VALUE, Optional.empty()));
     }
 
+    @Test
+    public void DeleteIndexAsyncShouldReturnFalseIfIndexNotExists() throws Exception {
+        assertFalse(elasticService.deleteIndexAsync(WRONG_VALUE, Optional.empty()).get(30, TimeUnit.SECONDS));
+    }
+
     @Test(expected = NullPointerException.class)
     public void CreateDocumentShouldThrowErrorIfNullIndexProvided() throws Exception {
         elasticService.createDocument(null, null, Optional.empty());
@@ -467,6 +806,55 @@ public class ElasticServiceTest {
         assertEquals(uuid, response.getId());
     }
 
+    @Test
+    public void CreateDocumentAsyncShouldCreateADocumentReadableWithGetDocumentAsync() throws Exception {
+        Map<String, Object> metadata = getDummyDataForCreateDocument();
+        String uuid = UUID.randomUUID().toString();
+
+        Document document = elasticService.createDocumentAsync(INDEX_NAME_TEST, metadata, Optional.of(uuid))
+                .thenCompose(response -> elasticService.getDocumentAsync(INDEX_NAME_TEST, response.getId(), Optional.empty()))
+                .get(30, TimeUnit.SECONDS);
+
+        assertNotNull(document);
+        assertEquals(metadata.get("nome"), document.getSource().get("nome"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void CreateDocumentsShouldThrowErrorIfNullDocumentsProvided() throws Exception {
+        elasticService.createDocuments(INDEX_NAME_TEST, null);
+    }
+
+    @Test
+    public void CreateDocumentsShouldIndexAllDocumentsWithBulkRequests() throws Exception {
+        List<Map<String, Object>> documents = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            documents.add(getDummyDataForCreateDocument());
+        }
+
+        List<CreateDocumentResponse> responses = elasticService.createDocuments(INDEX_NAME_TEST, documents);
+
+        assertEquals(2500, responses.size());
+        for (CreateDocumentResponse response : responses) {
+            assertFalse(response.isFailed());
+            assertEquals(RestStatus.CREATED, response.getStatus());
+            assertNotNull(response.getId());
+        }
+    }
+
+    @Test
+    public void BulkCreateDocumentWithInvalidIndexShouldReturnAFailedResponse() throws Exception {
+        CompletableFuture<CreateDocumentResponse> pendingResponse = elasticService.bulkCreateDocument("INVALID_INDEX",
+                getDummyDataForCreateDocument(),
+                Optional.empty());
+        elasticService.flushBulk();
+
+        CreateDocumentResponse response = pendingResponse.get(30, TimeUnit.SECONDS);
+
+        assertTrue(response.isFailed());
+        assertEquals(RestStatus.BAD_REQUEST, response.getStatus());
+        assertNotNull(response.getFailureMessage());
+    }
+
     @Test(expected = NullPointerException.class)
     public void GetDocumentShouldThrowErrorIfNullIndexProvided() throws Exception {
         Document document = elasticService.getDocument(null, UUID_GET_DOCUMENT_TEST, Optional.empty());
@@ -610,6 +998,18 @@ public class ElasticServiceTest {
         assertNull(updateDocumentResponse);
     }
 
+    @Test
+    public void UpdateDocumentAsyncWithIdNotFoundShouldReturnNull() throws Exception {
+        Map<String, Object> metadataToUpdate = new HashMap<>();
+        metadataToUpdate.put("nome", "Giulio");
+        UpdateDocumentResponse updateDocumentResponse = elasticService.updateDocumentAsync(INDEX_NAME_TEST,
+                WRONG_VALUE,
+                metadataToUpdate,
+                Optional.empty()).get(30, TimeUnit.SECONDS);
+
+        assertNull(updateDocumentResponse);
+    }
+
     @Test(expected = NullPointerException.class)
     public void DeleteDocumentShouldThrowErrorIfNullIndexProvided() throws Exception {
         DeleteDocumentResponse deleteDocumentResponse = elasticService.deleteDocument(null,
@@ -652,6 +1052,15 @@ public class ElasticServiceTest {
         assertNull(document);
     }
 
+    @Test
+    public void DeleteDocumentAsyncWithNonExistingIdShouldReturnNull() throws Exception {
+        DeleteDocumentResponse deleteDocumentResponse = elasticService.deleteDocumentAsync(INDEX_NAME_TEST,
+                WRONG_VALUE,
+                Optional.empty()).get(30, TimeUnit.SECONDS);
+
+        assertNull(deleteDocumentResponse);
+    }
+
     @Test
     public void DeleteDocumentWithNonExistingIdShouldReturnNull() throws Exception {
         DeleteDocumentResponse deleteDocumentResponse = elasticService.deleteDocument(INDEX_NAME_TEST,
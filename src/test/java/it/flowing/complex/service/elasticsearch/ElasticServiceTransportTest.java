@@ -0,0 +1,170 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.model.CreateDocumentResponse;
+import it.flowing.complex.model.QueryData;
+import it.flowing.complex.model.SearchResult;
+import it.flowing.complex.model.SearchType;
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ElasticServiceTransportTest extends StubElasticServiceTestBase {
+
+    private static final String INDEX_NAME = "javatest";
+
+    // Risposta con 50 hit e _source ripetitivo, come una pagina di risultati con descrizioni
+    private static final String SEARCH_RESPONSE = searchResponse(50);
+
+    private final List<byte[]> bodies = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected boolean openConnectionBeforeEachTest() {
+        return false;
+    }
+
+    @Override
+    protected StubElasticServer.Response handle(String method, String uri, byte[] body) {
+        bodies.add(body);
+        if (uri.startsWith("/" + INDEX_NAME + "/_doc")) {
+            return new StubElasticServer.Response(201, "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"1\","
+                    + "\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},"
+                    + "\"_seq_no\":0,\"_primary_term\":1}");
+        }
+        return StubElasticServer.ok(SEARCH_RESPONSE);
+    }
+
+    @Test
+    public void CompressionShouldReduceTheBytesOnTheWire() throws Exception {
+        openConnection(new ServerConfiguration());
+        SearchResult plainResult = elasticService.search(termsQuery(200));
+        long plainRequestBytes = stubElasticServer.getRequestBytes();
+        long plainResponseBytes = stubElasticServer.getResponseBytes();
+        assertNull(stubElasticServer.getLastRequestContentEncoding());
+
+        openConnection(serverConfiguration -> {
+            serverConfiguration.setRequestCompressionEnabled(true);
+            serverConfiguration.setResponseCompressionEnabled(true);
+        });
+        SearchResult compressedResult = elasticService.search(termsQuery(200));
+
+        assertEquals("gzip", stubElasticServer.getLastRequestContentEncoding());
+        assertArrayEquals(bodies.get(0), bodies.get(1));
+        assertTrue((stubElasticServer.getRequestBytes() - plainRequestBytes) * 3 < plainRequestBytes);
+        assertTrue((stubElasticServer.getResponseBytes() - plainResponseBytes) * 5 < plainResponseBytes);
+        assertEquals(plainResult.getNumHits(), compressedResult.getNumHits());
+        assertEquals(plainResult.getHits().get(49).getSourceAsMap(), compressedResult.getHits().get(49).getSourceAsMap());
+    }
+
+    @Test
+    public void SmallRequestBodiesShouldNotBeCompressed() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setRequestCompressionEnabled(true));
+
+        elasticService.search(termsQuery(1));
+
+        assertNull(stubElasticServer.getLastRequestContentEncoding());
+    }
+
+    @Test
+    public void BodiesAboveTheMaximumShouldNotBeCompressed() throws Exception {
+        openConnection(serverConfiguration -> {
+            serverConfiguration.setRequestCompressionEnabled(true);
+            serverConfiguration.setRequestCompressionMaxBytes(4096);
+        });
+        byte[] content = new byte[16 * 1024];
+
+        CreateDocumentResponse response = elasticService.indexDocument(INDEX_NAME, content, Collections.singletonMap("nome", "Manuale"));
+
+        assertEquals(RestStatus.CREATED, response.getStatus());
+        assertNull(stubElasticServer.getLastRequestContentEncoding());
+        assertTrue(bodies.get(0).length > content.length);
+    }
+
+    @Test
+    public void ResponsesAboveTheDecompressionLimitShouldFail() throws Exception {
+        openConnection(serverConfiguration -> {
+            serverConfiguration.setResponseCompressionEnabled(true);
+            serverConfiguration.setResponseDecompressionMaxBytes(4096);
+        });
+
+        try {
+            elasticService.search(termsQuery(1));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("4096"));
+        }
+    }
+
+    @Test
+    public void SearchShouldBeSentAndParsedInSmile() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setSearchContentType(XContentType.SMILE));
+
+        SearchResult searchResult = elasticService.search(termsQuery(10));
+
+        assertEquals("application/smile", stubElasticServer.getLastRequestContentType());
+        String body = XContentHelper.convertToJson(new BytesArray(bodies.get(0)), false, XContentType.SMILE);
+        assertTrue(body.contains("\"terms\":{\"sku\":["));
+        assertEquals(50, searchResult.getHits().size());
+        assertEquals("SKU-49", searchResult.getHits().get(49).getSourceAsMap().get("sku"));
+    }
+
+    @Test
+    public void SearchShouldBeSentAndParsedInCbor() throws Exception {
+        openConnection(serverConfiguration -> {
+            serverConfiguration.setSearchContentType(XContentType.CBOR);
+            serverConfiguration.setResponseCompressionEnabled(true);
+        });
+
+        SearchResult searchResult = elasticService.search(termsQuery(10));
+
+        assertEquals("application/cbor", stubElasticServer.getLastRequestContentType());
+        assertEquals(50, searchResult.getNumHits());
+    }
+
+    @Test
+    public void DocumentsShouldBeIndexedInSmile() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setDocumentContentType(XContentType.SMILE));
+
+        CreateDocumentResponse response = elasticService.createDocument(INDEX_NAME,
+                Collections.singletonMap("nome", "Divano"), Optional.of("1"));
+
+        assertEquals("application/smile", stubElasticServer.getLastRequestContentType());
+        assertEquals("{\"nome\":\"Divano\"}", XContentHelper.convertToJson(new BytesArray(bodies.get(0)), false, XContentType.SMILE));
+        assertEquals(RestStatus.CREATED, response.getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void CborDocumentsShouldBeRejected() throws Exception {
+        openConnection(serverConfiguration -> serverConfiguration.setDocumentContentType(XContentType.CBOR));
+    }
+
+    private static QueryData termsQuery(int values) {
+        return (new QueryData())
+                .withSearchType(SearchType.TERMS_QUERY)
+                .withSearchIndex(Optional.of(INDEX_NAME))
+                .withTermName("sku")
+                .withTermValues(IntStream.range(0, values).mapToObj(i -> "SKU-" + i).collect(Collectors.toList()));
+    }
+
+    private static String searchResponse(int hits) {
+        String searchResponse = StubElasticServer.searchResponse(hits);
+        return searchResponse.substring(0, searchResponse.length() - "[]}}".length())
+                + IntStream.range(0, hits)
+                        .mapToObj(i -> "{\"_index\":\"" + INDEX_NAME + "\",\"_type\":\"_doc\",\"_id\":\"" + i + "\",\"_score\":1.0,"
+                                + "\"_source\":{\"sku\":\"SKU-" + i + "\",\"nome\":\"Prodotto " + i + "\",\"descrizione\":\""
+                                + String.join(" ", Collections.nCopies(40, "divano in tessuto con chaise longue")) + "\"}}")
+                        .collect(Collectors.joining(",", "[", "]}}"));
+    }
+}
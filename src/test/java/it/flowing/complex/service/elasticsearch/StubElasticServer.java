@@ -0,0 +1,191 @@
+package it.flowing.complex.service.elasticsearch;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Server HTTP locale che risponde come un nodo Elasticsearch, per i test che non richiedono un cluster reale
+class StubElasticServer implements Closeable {
+
+    interface Handler {
+        Response handle(String method, String uri, byte[] body) throws IOException;
+    }
+
+    static class Response {
+        final int status;
+        final byte[] body;
+
+        // Body convertito nel formato e nella compressione richiesti, calcolato una volta per istanza
+        private final Map<String, byte[]> encodedBodies = new ConcurrentHashMap<>();
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private byte[] encode(XContentType xContentType, boolean gzip) {
+            return encodedBodies.computeIfAbsent(xContentType + ":" + gzip, key -> {
+                try {
+                    byte[] encoded = body;
+                    if (XContentType.JSON != xContentType) {
+                        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, body);
+                             XContentBuilder builder = XContentFactory.contentBuilder(xContentType)) {
+                            parser.nextToken();
+                            builder.copyCurrentStructure(parser);
+                            encoded = BytesReference.toBytes(BytesReference.bytes(builder));
+                        }
+                    }
+                    if (gzip) {
+                        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+                            gzipStream.write(encoded);
+                        }
+                        encoded = compressed.toByteArray();
+                    }
+                    return encoded;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    static {
+        // Senza TCP_NODELAY ogni risposta subisce il ritardo del delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private volatile String lastRequestContentType;
+    private volatile String lastRequestContentEncoding;
+
+    StubElasticServer(Handler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> handle(handler, exchange));
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    // Byte dei body così come sono passati sulla connessione, eventualmente compressi
+    long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    String getLastRequestContentType() {
+        return lastRequestContentType;
+    }
+
+    String getLastRequestContentEncoding() {
+        return lastRequestContentEncoding;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static Response ok(String body) {
+        return new Response(200, body);
+    }
+
+    static String searchResponse(long totalHits) {
+        return "{\"took\":1,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":" + totalHits + ",\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[]}}";
+    }
+
+    // Come un nodo reale: body di richiesta gzip decompressi prima dell'handler, risposta nel formato del body
+    // della richiesta (JSON, SMILE o CBOR) e compressa se il client accetta gzip
+    private void handle(Handler handler, HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            lastRequestContentType = contentType;
+            lastRequestContentEncoding = contentEncoding;
+
+            byte[] body = ByteStreams.toByteArray(requestBody);
+            requestBytes.addAndGet(body.length);
+            if ("gzip".equalsIgnoreCase(contentEncoding)) {
+                try (InputStream decompressed = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                    body = ByteStreams.toByteArray(decompressed);
+                }
+            }
+
+            Response response = handler.handle(exchange.getRequestMethod(),
+                    exchange.getRequestURI().toString(),
+                    body);
+
+            XContentType xContentType = null == contentType ? null : XContentType.fromMediaTypeOrFormat(contentType);
+            if (XContentType.SMILE != xContentType && XContentType.CBOR != xContentType) {
+                xContentType = XContentType.JSON;
+            }
+            boolean gzip = null != acceptEncoding && acceptEncoding.contains("gzip");
+
+            exchange.getResponseHeaders().add("Content-Type", XContentType.JSON == xContentType
+                    ? "application/json; charset=UTF-8"
+                    : xContentType.mediaType());
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            byte[] responseBody = response.encode(xContentType, gzip);
+            if (gzip) {
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            responseBytes.addAndGet(responseBody.length);
+            exchange.sendResponseHeaders(response.status, responseBody.length);
+            try (OutputStream responseStream = exchange.getResponseBody()) {
+                responseStream.write(responseBody);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
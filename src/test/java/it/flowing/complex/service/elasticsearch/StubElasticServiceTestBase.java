@@ -0,0 +1,100 @@
+package it.flowing.complex.service.elasticsearch;
+
+import it.flowing.complex.service.configuration.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Base dei test su StubElasticServer: apre lo stub e un ElasticService collegato prima di ogni test e li chiude dopo.
+// Le sottoclassi definiscono le risposte del nodo e, se serve, le modifiche alla configurazione di default
+abstract class StubElasticServiceTestBase {
+
+    protected StubElasticServer stubElasticServer;
+    protected ElasticService elasticService;
+
+    // Istanze aperte da openAnotherConnection, chiuse dopo il test
+    private final List<ElasticService> otherElasticServices = new ArrayList<>();
+
+    protected abstract StubElasticServer.Response handle(String method, String uri, byte[] body) throws IOException;
+
+    protected void configure(ServerConfiguration serverConfiguration) {
+    }
+
+    // false se ogni test apre il proprio ElasticService con openConnection
+    protected boolean openConnectionBeforeEachTest() {
+        return true;
+    }
+
+    @Before
+    public void openStub() throws Exception {
+        stubElasticServer = new StubElasticServer(this::handle);
+        if (openConnectionBeforeEachTest()) {
+            openConnection(this::configure);
+        }
+    }
+
+    @After
+    public void closeStub() throws Exception {
+        try {
+            for (ElasticService otherElasticService : otherElasticServices) {
+                otherElasticService.closeConnection();
+            }
+            if (null != elasticService) {
+                elasticService.closeConnection();
+            }
+        } finally {
+            otherElasticServices.clear();
+            elasticService = null;
+            stubElasticServer.close();
+        }
+    }
+
+    // Configurazione di default collegata allo stub
+    protected ServerConfiguration stubConfiguration() {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        return serverConfiguration;
+    }
+
+    // Sostituisce elasticService, chiudendo il precedente. La porta della configurazione diventa quella dello stub
+    protected void openConnection(ServerConfiguration serverConfiguration) throws IOException {
+        serverConfiguration.setPort(stubElasticServer.getPort());
+        openConnection(new ElasticService(serverConfiguration));
+    }
+
+    protected void openConnection(Consumer<ServerConfiguration> configuration) throws IOException {
+        ServerConfiguration serverConfiguration = new ServerConfiguration();
+        configuration.accept(serverConfiguration);
+        openConnection(serverConfiguration);
+    }
+
+    protected void openConnection(ElasticService elasticService) throws IOException {
+        if (null != this.elasticService) {
+            this.elasticService.closeConnection();
+            this.elasticService = null;
+        }
+
+        elasticService.openConnection();
+        this.elasticService = elasticService;
+    }
+
+    // Un'altra istanza verso lo stesso nodo, come una seconda replica dell'applicazione
+    protected ElasticService openAnotherConnection() {
+        return openAnotherConnection(serverConfiguration -> {
+        });
+    }
+
+    protected ElasticService openAnotherConnection(Consumer<ServerConfiguration> configuration) {
+        ServerConfiguration serverConfiguration = stubConfiguration();
+        configuration.accept(serverConfiguration);
+
+        ElasticService otherElasticService = new ElasticService(serverConfiguration);
+        otherElasticService.openConnection();
+        otherElasticServices.add(otherElasticService);
+        return otherElasticService;
+    }
+}